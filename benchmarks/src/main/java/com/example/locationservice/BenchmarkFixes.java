@@ -0,0 +1,91 @@
+package com.example.locationservice;
+
+import java.util.Random;
+
+/**
+ * Synthetic track used by the benchmarks: a random walk around Montreal at
+ * walking/driving speed, mostly GPS with a network fix from time to time,
+ * like what the tracker receive on a phone. Fixes are kept in primitive
+ * arrays and replayed in loop so feeding them does not allocate.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+final class BenchmarkFixes {
+
+	// Power of two so the replay index is a mask
+	static final int SIZE = 1 << 14;
+	static final int MASK = SIZE - 1;
+
+	// Same as the LocationService defaults
+	static final double SPATIAL_CELL_DEG = 0.002;
+
+	final byte[] providers = new byte[SIZE];
+	final double[] latitudes = new double[SIZE];
+	final double[] longitudes = new double[SIZE];
+	final float[] accuracies = new float[SIZE];
+	final float[] speeds = new float[SIZE];
+
+	// Time of the next fix, fixes are one second apart
+	private long time = 1367107200000L;
+	private int next = 0;
+
+	BenchmarkFixes(long seed) {
+
+		Random r = new Random(seed);
+		double lat = 45.5017;
+		double lon = -73.5673;
+		double heading = 0;
+
+		for (int i = 0; i < SIZE; i++) {
+			float speed = 1 + r.nextFloat() * 20;
+			heading += r.nextGaussian() * 0.3;
+			// About 1e-5 degree per meter
+			lat += Math.cos(heading) * speed * 1e-5;
+			lon += Math.sin(heading) * speed * 1.4e-5;
+
+			boolean gps = r.nextInt(10) != 0;
+			providers[i] = gps ? LocationHistory.PROVIDER_GPS
+					: LocationHistory.PROVIDER_NETWORK;
+			latitudes[i] = lat;
+			longitudes[i] = lon;
+			accuracies[i] = gps ? 3 + r.nextFloat() * 20
+					: 50 + r.nextFloat() * 500;
+			speeds[i] = gps ? speed : Float.NaN;
+		}
+	}
+
+	/**
+	 * Give the next fix to the core
+	 *
+	 * @return sequence number or -1 if filtered
+	 */
+	long addNext(TrackerCore core) {
+		int i = next;
+		next = (next + 1) & MASK;
+		time += 1000;
+		return core.add(providers[i], time, latitudes[i], longitudes[i],
+				accuracies[i], speeds[i]);
+	}
+
+	/**
+	 * @return a core with a full history
+	 */
+	TrackerCore newFullCore(int historySize, boolean filtered) {
+		TrackerCore core = new TrackerCore(historySize, SPATIAL_CELL_DEG,
+				filtered ? newFilterChain() : null);
+		while (core.getHistory().getAll().size() < historySize) {
+			addNext(core);
+		}
+		return core;
+	}
+
+	/**
+	 * Same stages and values as the LocationService defaults
+	 */
+	static FixFilterChain newFilterChain() {
+		return new FixFilterChain(new FixFilters.Duplicate(),
+				new FixFilters.Accuracy(100, 2000), new FixFilters.ImpliedSpeed(
+						70, 3), new FixFilters.Stationary(10, 0.5f, 60000));
+	}
+}
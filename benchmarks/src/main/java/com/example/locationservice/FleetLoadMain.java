@@ -0,0 +1,156 @@
+package com.example.locationservice;
+
+import java.util.Random;
+
+/**
+ * In process load of the fleet tracker: producer threads send a fix per
+ * second of simulated time for each of their devices, as fast as the queues
+ * take them, while a query thread ask for the devices in random boxes.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar \
+ *       com.example.locationservice.FleetLoadMain [devices] [seconds] [shards]
+ *
+ * Defaults are 10000 devices, 10 s and a shard per core.
+ *
+ */
+public final class FleetLoadMain {
+
+	private static final int PRODUCERS = 4;
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final int HISTORY_PER_DEVICE = 64;
+	private static final double GRID_CELL_DEG = 0.01;
+	private static final long SUBMIT_TIMEOUT_MS = 100;
+
+	// Devices are spread in this box around Montreal
+	private static final double MIN_LAT = 45.40;
+	private static final double MIN_LON = -73.80;
+	private static final double SPAN_DEG = 0.4;
+
+	// Size of the queried boxes
+	private static final double QUERY_DEG = 0.05;
+
+	private FleetLoadMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		final int devices = args.length > 0 ? Integer.parseInt(args[0])
+				: 10000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int shards = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+
+		final FleetTracker fleet = new FleetTracker(shards, QUEUE_CAPACITY,
+				GRID_CELL_DEG, new FleetTracker.CoreFactory() {
+					@Override
+					public TrackerCore newCore(long deviceId) {
+						return new TrackerCore(HISTORY_PER_DEVICE,
+								BenchmarkFixes.SPATIAL_CELL_DEG, BenchmarkFixes
+										.newFilterChain());
+					}
+				});
+		fleet.start();
+
+		final boolean[] running = { true };
+
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int first = p;
+			producers[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					produce(fleet, first, devices, running);
+				}
+			}, "Producer-" + p);
+			producers[p].start();
+		}
+
+		final LatencyHistogram queryNanos = new LatencyHistogram(
+				1000L * 1000 * 1000);
+		final long[] found = new long[1];
+		Thread query = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random r = new Random(7);
+				FleetTracker.Visitor count = new FleetTracker.Visitor() {
+					@Override
+					public void visit(long deviceId, long time,
+							double latitude, double longitude, float accuracy) {
+						found[0]++;
+					}
+				};
+				while (running[0]) {
+					double lat = MIN_LAT + r.nextDouble() * SPAN_DEG;
+					double lon = MIN_LON + r.nextDouble() * SPAN_DEG;
+					long start = System.nanoTime();
+					fleet.findInBox(lat, lon, lat + QUERY_DEG,
+							lon + QUERY_DEG, count);
+					queryNanos.record(System.nanoTime() - start);
+				}
+			}
+		}, "Query");
+		query.start();
+
+		long start = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		running[0] = false;
+		for (int p = 0; p < PRODUCERS; p++) {
+			producers[p].join();
+		}
+		query.join();
+		fleet.stop();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long usedMb = (rt.totalMemory() - rt.freeMemory()) >> 20;
+
+		System.out.println(fleet.getDeviceCount() + " devices on " + shards
+				+ " shards, " + usedMb + " MB used");
+		System.out.println(fleet.getProcessedCount() + " fixes processed ("
+				+ Math.round(fleet.getProcessedCount() / elapsed) + "/s), "
+				+ fleet.getFilteredCount() + " filtered, "
+				+ fleet.getRejectedCount() + " rejected");
+		System.out.println(queryNanos.getCount() + " box queries, "
+				+ (queryNanos.getCount() == 0 ? 0 : found[0]
+						/ queryNanos.getCount()) + " devices per query, us"
+				+ " p50/90/99/max : " + queryNanos.getValueAtPercentile(50)
+				/ 1000 + "/" + queryNanos.getValueAtPercentile(90) / 1000
+				+ "/" + queryNanos.getValueAtPercentile(99) / 1000 + "/"
+				+ queryNanos.getMax() / 1000);
+	}
+
+	/**
+	 * Move every device of this producer by one second at a time
+	 */
+	private static void produce(FleetTracker fleet, int first, int devices,
+			boolean[] running) {
+
+		Random r = new Random(first);
+		int n = (devices - first + PRODUCERS - 1) / PRODUCERS;
+		double[] lat = new double[n];
+		double[] lon = new double[n];
+		for (int i = 0; i < n; i++) {
+			lat[i] = MIN_LAT + r.nextDouble() * SPAN_DEG;
+			lon[i] = MIN_LON + r.nextDouble() * SPAN_DEG;
+		}
+
+		long time = 1367107200000L;
+		try {
+			while (running[0]) {
+				time += 1000;
+				for (int i = 0; i < n && running[0]; i++) {
+					float speed = r.nextFloat() * 20;
+					lat[i] += (r.nextDouble() - 0.5) * speed * 2e-5;
+					lon[i] += (r.nextDouble() - 0.5) * speed * 2.8e-5;
+					fleet.submit(first + (long) i * PRODUCERS,
+							LocationHistory.PROVIDER_GPS, time, lat[i],
+							lon[i], 3 + r.nextFloat() * 20, speed,
+							SUBMIT_TIMEOUT_MS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
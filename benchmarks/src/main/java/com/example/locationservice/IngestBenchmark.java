@@ -0,0 +1,50 @@
+package com.example.locationservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a location received by the tracker (addLocation without the
+ * Android part): filters, history, stats and spatial index. The history is
+ * full before measuring so every fix also pay the eviction of the oldest.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+
+	@Param({ "10", "1000", "100000", "1000000" })
+	int historySize;
+
+	@Param({ "false", "true" })
+	boolean filtered;
+
+	private BenchmarkFixes fixes;
+	private TrackerCore core;
+
+	@Setup
+	public void setUp() {
+		fixes = new BenchmarkFixes(42);
+		core = fixes.newFullCore(historySize, filtered);
+	}
+
+	@Benchmark
+	public long addLocation() {
+		return fixes.addNext(core);
+	}
+}
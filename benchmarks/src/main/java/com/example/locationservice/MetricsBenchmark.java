@@ -0,0 +1,77 @@
+package com.example.locationservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the instrumentation added to each fix (clock reads included,
+ * with the snapshot refreshed once a second like in the service) and of a
+ * event counter, and cost of building the snapshot shown in the report.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	// Same as the LocationService default
+	private static final long REFRESH_MS = 1000;
+
+	private TrackerMetrics metrics;
+	// Snapshot built again on every call
+	private TrackerMetrics unbuffered;
+	private long fixTime = 1367107200000L;
+
+	@Setup
+	public void setUp() {
+		metrics = new TrackerMetrics(REFRESH_MS);
+		unbuffered = new TrackerMetrics(0);
+		for (int i = 0; i < 100000; i++) {
+			instrumentFix();
+			instrument(unbuffered, fixTime);
+		}
+	}
+
+	@Benchmark
+	public void instrumentFix() {
+		fixTime += 1000;
+		instrument(metrics, fixTime);
+	}
+
+	private static void instrument(TrackerMetrics m, long fixTime) {
+		m.begin(LocationHistory.PROVIDER_GPS, fixTime, System.nanoTime());
+		m.markAdded(System.nanoTime());
+		m.end(false, System.nanoTime());
+	}
+
+	/**
+	 * Clock reads alone, to see what instrumentFix add to them
+	 */
+	@Benchmark
+	public long clockReads() {
+		return System.nanoTime() + System.nanoTime() + System.nanoTime();
+	}
+
+	@Benchmark
+	public void countEvent() {
+		metrics.count(TrackerMetrics.EVENT_BROADCAST_LOCATION);
+	}
+
+	@Benchmark
+	public TrackerMetrics.Snapshot snapshot() {
+		return unbuffered.snapshot(0);
+	}
+}
@@ -0,0 +1,98 @@
+package com.example.locationservice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replay a track through the headless tracker and print the result, the
+ * replay is run twice to check the final state is the same.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar \
+ *       com.example.locationservice.ReplayMain [track] [speed]
+ *
+ * track is a GPX file, a track (TrackEncoder), a track log directory or
+ * "synthetic:HOURS" (default synthetic:4), speed is 1 to 1000 or 0 for as
+ * fast as possible (default).
+ *
+ */
+public final class ReplayMain {
+
+	// Accuracy of the GPX points without hdop
+	private static final float GPX_ACCURACY_M = 10;
+
+	// Same as the LocationService defaults
+	private static final int HISTORY_SIZE = 20000;
+	private static final int METRICS_REFRESH_MS = 1000;
+	private static final int OUTAGE_MS = 30000;
+
+	private ReplayMain() {
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		String track = args.length > 0 ? args[0] : "synthetic:4";
+		double speed = args.length > 1 ? Double.parseDouble(args[1])
+				: TrackReplayer.SPEED_MAX;
+
+		ReplayTracker first = replay(track, speed);
+		ReplayTracker second = replay(track, speed);
+
+		System.out.println(first.buildReport(true));
+		if (first.getHistoryChecksum() != second.getHistoryChecksum()
+				|| first.getVersion() != second.getVersion()) {
+			System.out.println("Replays differ !");
+			System.exit(1);
+		}
+		System.out.println("Same state on both replays, checksum "
+				+ Long.toHexString(first.getHistoryChecksum()));
+	}
+
+	private static ReplayTracker replay(String track, double speed)
+			throws IOException {
+
+		ReplayClock clock = new ReplayClock(0);
+		ReplayTracker tracker = new ReplayTracker(clock, new TrackerCore(
+				HISTORY_SIZE, BenchmarkFixes.SPATIAL_CELL_DEG,
+				BenchmarkFixes.newFilterChain(), clock), new TrackerMetrics(
+				METRICS_REFRESH_MS, clock),
+				new FusedLocationFilter(2, 5, 300000), new SamplingScheduler(
+						new long[] { 60000, 10000, 3000, 1000 }, new float[] {
+								25, 5, 0, 0 }, new float[] { 0.5f, 3, 15 }, 2,
+						2, 60000, 15000, 50));
+
+		FixCursor source = open(track);
+		try {
+			TrackReplayer.Result r = new TrackReplayer(source, tracker, clock,
+					speed, OUTAGE_MS).run();
+			System.out.println(r);
+		} finally {
+			source.close();
+		}
+		return tracker;
+	}
+
+	private static FixCursor open(String track) throws IOException {
+
+		if (track.startsWith("synthetic:")) {
+			return new SyntheticTrack(42,
+					Double.parseDouble(track.substring(10)));
+		}
+
+		File f = new File(track);
+		if (f.isDirectory()) {
+			return new TrackLogReader(f);
+		}
+
+		InputStream in = new FileInputStream(f);
+		if (track.endsWith(".gpx")) {
+			try {
+				return new GpxReader(in, GPX_ACCURACY_M);
+			} finally {
+				in.close();
+			}
+		}
+		return new TrackDecoder(in);
+	}
+}
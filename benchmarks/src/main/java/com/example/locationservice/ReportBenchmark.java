@@ -0,0 +1,75 @@
+package com.example.locationservice;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the status report: taking the values (done on every published
+ * change), the provider summaries when fullReport (done once per report
+ * read) and building its text (done once per report).
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+	@Param({ "10", "1000", "100000", "1000000" })
+	int historySize;
+
+	@Param({ "false", "true" })
+	boolean fullReport;
+
+	private TrackerCore core;
+	private TrackerReport.Builder values;
+	private TrackerReport report;
+	private final StringBuilder sb = new StringBuilder(1024);
+	private final Calendar cal = Calendar.getInstance();
+
+	@Setup
+	public void setUp() {
+		core = new BenchmarkFixes(42).newFullCore(historySize, true);
+		values = new TrackerReport.Builder();
+		core.fillReport(values, fullReport);
+		report = values.build();
+	}
+
+	@Benchmark
+	public TrackerReport buildReport() {
+		TrackerReport.Builder b = new TrackerReport.Builder();
+		b.trackGPS = true;
+		b.trackNetwork = true;
+		b.trackerStarted = 1367107200000L;
+		core.fillReport(b, fullReport);
+		return b.build();
+	}
+
+	/**
+	 * toString keep the text, a new report is needed each time
+	 */
+	@Benchmark
+	public String reportText() {
+		return values.build().toString();
+	}
+
+	@Benchmark
+	public StringBuilder reportTextReused() {
+		sb.setLength(0);
+		return report.appendTo(sb, cal);
+	}
+}
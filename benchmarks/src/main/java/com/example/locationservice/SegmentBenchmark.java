@@ -0,0 +1,88 @@
+package com.example.locationservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a fix given to the trip segmenter. When not moving the fixes are the synthetic ones squeezed in a
+ * few meters, so the device is staying.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentBenchmark {
+
+	// Same as the LocationService defaults
+	private static final double STAY_RADIUS_M = 100;
+	private static final long MIN_STAY_MS = 300000;
+	private static final long MAX_GAP_MS = 1800000;
+	private static final float MAX_ACC_M = 100;
+
+	@Param({ "false", "true" })
+	boolean moving;
+
+	private BenchmarkFixes fixes;
+	private double[] latitudes;
+	private double[] longitudes;
+	private TripSegmenter segmenter;
+	private int next;
+	private long time = 1367107200000L;
+	private int segments;
+
+	private final TripSegmenter.Listener listener = new TripSegmenter.Listener() {
+
+		@Override
+		public void onSegmentStart(int type, long time, double latitude,
+				double longitude) {
+			segments++;
+		}
+
+		@Override
+		public void onSegmentEnd(TripSegmenter.Segment segment) {
+			segments++;
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		fixes = new BenchmarkFixes(42);
+		latitudes = fixes.latitudes;
+		longitudes = fixes.longitudes;
+		if (!moving) {
+			latitudes = new double[BenchmarkFixes.SIZE];
+			longitudes = new double[BenchmarkFixes.SIZE];
+			for (int i = 0; i < BenchmarkFixes.SIZE; i++) {
+				// Keep the noise, drop the walk
+				latitudes[i] = 45.5017 + (fixes.latitudes[i] * 1e4 % 1) * 1e-4;
+				longitudes[i] = -73.5673 + (fixes.longitudes[i] * 1e4 % 1) * 1e-4;
+			}
+		}
+		segmenter = new TripSegmenter(STAY_RADIUS_M, MIN_STAY_MS, MAX_GAP_MS,
+				MAX_ACC_M);
+	}
+
+	@Benchmark
+	public int process() {
+		int i = next;
+		next = (next + 1) & BenchmarkFixes.MASK;
+		time += 1000;
+		segmenter.process(time, latitudes[i], longitudes[i],
+				fixes.accuracies[i], fixes.speeds[i], listener);
+		return segments;
+	}
+}
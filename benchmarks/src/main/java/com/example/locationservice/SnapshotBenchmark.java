@@ -0,0 +1,67 @@
+package com.example.locationservice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the history part of a published TrackerSnapshot, and of reading
+ * it back like the map does.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+	@Param({ "10", "1000", "100000", "1000000" })
+	int historySize;
+
+	private LocationHistory history;
+	private HistorySnapshot snapshot;
+	private long time;
+
+	@Setup
+	public void setUp() {
+		history = new BenchmarkFixes(42).newFullCore(historySize, false)
+				.getHistory();
+		snapshot = history.snapshot();
+		time = history.getTimeAt(history.getNextSequence() - 1);
+	}
+
+	/**
+	 * A fix then the views of the snapshot, like the tracker on every fix
+	 */
+	@Benchmark
+	public void publish(Blackhole bh) {
+		time += 1000;
+		history.add(LocationHistory.PROVIDER_GPS, time, 48.85, 2.35, 10,
+				Float.NaN);
+		bh.consume(history.snapshot());
+		bh.consume(history.freezeGps());
+		bh.consume(history.freezeNetwork());
+	}
+
+	@Benchmark
+	public double readAll() {
+		double sum = 0;
+		for (int i = 0; i < snapshot.size(); i++) {
+			sum += snapshot.getLatitude(i) + snapshot.getLongitude(i);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,117 @@
+package com.example.locationservice;
+
+import java.util.Random;
+
+/**
+ * Made up recording for the replay: a drive around Montreal with a GPS fix
+ * every second and a network fix every 20 s, GPS is lost for a minute every
+ * 15 minutes (tunnel, parking) so the provider status change too. The same
+ * seed always give the same track.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+final class SyntheticTrack implements FixCursor {
+
+	private static final long GPS_INTERVAL_MS = 1000;
+	private static final long NET_INTERVAL_MS = 20000;
+	private static final long OUTAGE_EACH_MS = 15 * 60000;
+	private static final long OUTAGE_MS = 60000;
+
+	private final Random random;
+	private final long endTime;
+
+	// Next fix of each provider
+	private long nextGps = 1367107200000L;
+	private long nextNet = nextGps + NET_INTERVAL_MS / 2;
+
+	// Position of the vehicle, moved on each GPS fix
+	private double lat = 45.5017;
+	private double lon = -73.5673;
+	private double heading;
+	private float speed;
+
+	private byte provider;
+	private long time;
+	private double fixLat;
+	private double fixLon;
+	private float accuracy;
+	private float fixSpeed;
+
+	SyntheticTrack(long seed, double hours) {
+		random = new Random(seed);
+		endTime = nextGps + (long) (hours * 3600000);
+	}
+
+	@Override
+	public boolean moveToNext() {
+
+		if (nextGps <= nextNet) {
+			time = nextGps;
+			nextGps += GPS_INTERVAL_MS;
+			move();
+			if ((time - 1367107200000L) % OUTAGE_EACH_MS >= OUTAGE_EACH_MS
+					- OUTAGE_MS) {
+				// No GPS in the tunnel
+				return moveToNext();
+			}
+			provider = LocationHistory.PROVIDER_GPS;
+			fixLat = lat + random.nextGaussian() * 3e-5;
+			fixLon = lon + random.nextGaussian() * 4e-5;
+			accuracy = 3 + random.nextFloat() * 12;
+			fixSpeed = speed;
+		} else {
+			time = nextNet;
+			nextNet += NET_INTERVAL_MS;
+			provider = LocationHistory.PROVIDER_NETWORK;
+			fixLat = lat + random.nextGaussian() * 5e-4;
+			fixLon = lon + random.nextGaussian() * 7e-4;
+			accuracy = 50 + random.nextFloat() * 500;
+			fixSpeed = Float.NaN;
+		}
+
+		return time < endTime;
+	}
+
+	private void move() {
+		speed = Math.max(0, Math.min(30, speed + (float) random.nextGaussian()));
+		heading += random.nextGaussian() * 0.1;
+		// About 1e-5 degree per meter
+		lat += Math.cos(heading) * speed * 1e-5;
+		lon += Math.sin(heading) * speed * 1.4e-5;
+	}
+
+	@Override
+	public byte getProvider() {
+		return provider;
+	}
+
+	@Override
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public double getLatitude() {
+		return fixLat;
+	}
+
+	@Override
+	public double getLongitude() {
+		return fixLon;
+	}
+
+	@Override
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	@Override
+	public float getSpeed() {
+		return fixSpeed;
+	}
+
+	@Override
+	public void close() {
+	}
+}
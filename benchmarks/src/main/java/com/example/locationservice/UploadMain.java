@@ -0,0 +1,186 @@
+package com.example.locationservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Run the track uploader against a local stand-in of the server that fail
+ * part of the requests, stop the uploader while the server is down and
+ * start a new one on the same spool, then check every fix was received.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar \
+ *       com.example.locationservice.UploadMain [hours] [failure %]
+ *
+ * Defaults are 4 hours of synthetic track and 30% of failures.
+ *
+ */
+public final class UploadMain {
+
+	// Same batches as LocationService, faster backoff to end quickly
+	private static final int BATCH_FIXES = 600;
+	private static final int BATCH_BYTES = 16384;
+	private static final int BATCH_AGE_MS = 2000;
+	private static final int MAX_SPOOLED = 500;
+	private static final int BACKOFF_MS = 20;
+	private static final int MAX_BACKOFF_MS = 500;
+	private static final int TIMEOUT_MS = 5000;
+
+	private UploadMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		double hours = args.length > 0 ? Double.parseDouble(args[0]) : 4;
+		int failurePercent = args.length > 1 ? Integer.parseInt(args[1])
+				: 30;
+
+		StandInServer server = new StandInServer(failurePercent);
+		URL url = new URL("http://127.0.0.1:"
+				+ server.http.getAddress().getPort() + "/track");
+
+		File spool = new File(System.getProperty("java.io.tmpdir"),
+				"upload-spool-" + System.nanoTime());
+
+		// First half of the track, the server goes down before the end
+		SyntheticTrack track = new SyntheticTrack(42, hours);
+		long total = 0;
+		TrackUploader uploader = newUploader(spool, url);
+		long half = (long) (hours * 3600 * 1.05 / 2);
+		while (total < half && track.moveToNext()) {
+			append(uploader, track);
+			total++;
+		}
+		server.down = true;
+		for (int i = 0; i < 1000 && track.moveToNext(); i++) {
+			append(uploader, track);
+			total++;
+		}
+		uploader.close();
+		long requests = uploader.getRequests();
+		int left = uploader.getSpooledCount();
+
+		// Restart, the spool is sent by the new uploader
+		server.down = false;
+		uploader = newUploader(spool, url);
+		while (track.moveToNext()) {
+			append(uploader, track);
+			total++;
+		}
+		uploader.flush();
+		while (uploader.getSpooledCount() > 0) {
+			Thread.sleep(10);
+		}
+		uploader.close();
+		requests += uploader.getRequests();
+		server.http.stop(0);
+
+		System.out.println(total + " fixes, " + left
+				+ " batches left in the spool at restart");
+		System.out.println(requests + " requests (" + server.failed
+				+ " failed), " + server.batches.size() + " batches, "
+				+ server.duplicates + " received twice");
+		System.out.println(server.fixes + " fixes received, "
+				+ server.bytes / Math.max(1, server.fixes)
+				+ " bytes a fix, " + Math.round((double) total / requests)
+				+ " fixes per request");
+
+		spool.delete();
+		if (server.fixes != total) {
+			System.out.println("Fixes lost !");
+			System.exit(1);
+		}
+	}
+
+	private static TrackUploader newUploader(File spool, URL url)
+			throws IOException {
+		TrackUploader u = new TrackUploader(spool, new HttpTrackTransport(
+				url, TIMEOUT_MS), BATCH_FIXES, BATCH_BYTES, BATCH_AGE_MS,
+				MAX_SPOOLED, BACKOFF_MS, MAX_BACKOFF_MS);
+		u.start();
+		return u;
+	}
+
+	private static void append(TrackUploader u, FixCursor c)
+			throws IOException {
+		u.append(c.getProvider(), c.getTime(), c.getLatitude(),
+				c.getLongitude(), c.getAccuracy(), c.getSpeed());
+	}
+
+	/**
+	 * Accept batches once by id, fail some requests at random
+	 */
+	private static class StandInServer implements HttpHandler {
+
+		final HttpServer http;
+		private final int failurePercent;
+		private final Random random = new Random(1);
+
+		volatile boolean down;
+
+		// Guarded by this
+		final HashSet<String> batches = new HashSet<String>();
+		long fixes;
+		long bytes;
+		int duplicates;
+		int failed;
+
+		StandInServer(int failurePercent) throws IOException {
+			this.failurePercent = failurePercent;
+			http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			http.createContext("/track", this);
+			http.start();
+		}
+
+		@Override
+		public void handle(HttpExchange ex) throws IOException {
+
+			byte[] body = readAll(ex.getRequestBody());
+			String id = ex.getRequestHeaders().getFirst(
+					HttpTrackTransport.HEADER_BATCH_ID);
+
+			int code;
+			synchronized (this) {
+				if (down || random.nextInt(100) < failurePercent) {
+					failed++;
+					code = 503;
+				} else if (!batches.add(id)) {
+					duplicates++;
+					code = 200;
+				} else {
+					TrackDecoder d = new TrackDecoder(new ByteArrayInputStream(
+							body));
+					while (d.moveToNext()) {
+						fixes++;
+					}
+					bytes += body.length;
+					code = 200;
+				}
+			}
+
+			ex.sendResponseHeaders(code, -1);
+			ex.close();
+		}
+
+		private static byte[] readAll(InputStream in) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+			in.close();
+			return out.toByteArray();
+		}
+	}
+}
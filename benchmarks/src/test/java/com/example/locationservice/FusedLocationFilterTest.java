@@ -0,0 +1,153 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * FusedLocationFilter on simulated tracks with a known truth.
+ *
+ */
+public class FusedLocationFilterTest {
+
+	private static final double METERS_PER_DEGREE = SpatialIndex.EARTH_RADIUS_M
+			* Math.PI / 180;
+
+	private static final double LAT = 45.0;
+	private static final double LON = 6.0;
+	private static final long T0 = 1367411400000L;
+
+	@Test
+	public void firstFixIsTaken() {
+		FusedLocationFilter f = new FusedLocationFilter(1, 1, 60000);
+		assertFalse(f.hasFix());
+		f.update(T0, LAT, LON, 12, Float.NaN, Float.NaN);
+		assertTrue(f.hasFix());
+		assertEquals(T0, f.getTime());
+		assertEquals(LAT, f.getLatitude(), 1e-9);
+		assertEquals(LON, f.getLongitude(), 1e-9);
+		assertEquals(12, f.getAccuracy(), 1e-3);
+
+		f.clear();
+		assertFalse(f.hasFix());
+	}
+
+	@Test
+	public void noiseIsSmoothed() {
+
+		// Standing still, fixes with 10m of noise
+		FusedLocationFilter f = new FusedLocationFilter(0.5, 1, 60000);
+		Random r = new Random(1);
+		double fixError = 0;
+		double filterError = 0;
+		for (int i = 0; i < 300; i++) {
+			double north = r.nextGaussian() * 10;
+			double east = r.nextGaussian() * 10;
+			f.update(T0 + i * 1000L, LAT + north / METERS_PER_DEGREE, LON
+					+ east / lonDegree(), 10, Float.NaN, Float.NaN);
+			if (i >= 60) {
+				double d = SpatialIndex.distance(LAT, LON, f.getLatitude(),
+						f.getLongitude());
+				fixError += north * north + east * east;
+				filterError += d * d;
+			}
+		}
+
+		fixError = Math.sqrt(fixError / 240);
+		filterError = Math.sqrt(filterError / 240);
+		assertTrue(filterError + " " + fixError, filterError < fixError / 2);
+		assertTrue("Accuracy " + f.getAccuracy(), f.getAccuracy() < 10);
+	}
+
+	@Test
+	public void constantVelocityFromPositions() {
+
+		// 10 m/s to the east, no speed given
+		FusedLocationFilter f = new FusedLocationFilter(1, 1, 60000);
+		for (int i = 0; i <= 60; i++) {
+			f.update(T0 + i * 1000L, LAT, LON + i * 10 / lonDegree(), 5,
+					Float.NaN, Float.NaN);
+		}
+
+		assertEquals(10, f.getSpeed(), 1);
+		assertEquals(90, f.getBearing(), 5);
+		assertEquals(LON + 600 / lonDegree(), f.getLongitude(), 5 / lonDegree());
+		assertEquals(T0 + 60000, f.getTime());
+	}
+
+	@Test
+	public void speedAndBearingAreUsed() {
+
+		// 20 m/s to the north, speed given, positions noisy
+		FusedLocationFilter f = new FusedLocationFilter(1, 1, 60000);
+		Random r = new Random(2);
+		for (int i = 0; i <= 20; i++) {
+			double north = i * 20 + r.nextGaussian() * 20;
+			f.update(T0 + i * 1000L, LAT + north / METERS_PER_DEGREE, LON, 20,
+					20, 0);
+		}
+
+		assertEquals(20, f.getSpeed(), 0.5);
+		double bearing = f.getBearing();
+		assertTrue("Bearing " + bearing, bearing < 3 || bearing > 357);
+	}
+
+	@Test
+	public void resetAfterGap() {
+		FusedLocationFilter f = new FusedLocationFilter(1, 1, 60000);
+		for (int i = 0; i < 10; i++) {
+			f.update(T0 + i * 1000L, LAT, LON, 5, Float.NaN, Float.NaN);
+		}
+		long t = T0 + 9000 + 60001;
+		f.update(t, LAT + 1, LON + 1, 30, Float.NaN, Float.NaN);
+		assertEquals(t, f.getTime());
+		assertEquals(LAT + 1, f.getLatitude(), 1e-9);
+		assertEquals(LON + 1, f.getLongitude(), 1e-9);
+		assertEquals(30, f.getAccuracy(), 1e-3);
+	}
+
+	@Test
+	public void lateFixWeighsLess() {
+
+		FusedLocationFilter late = new FusedLocationFilter(1, 1, 60000);
+		FusedLocationFilter onTime = new FusedLocationFilter(1, 1, 60000);
+		for (int i = 0; i < 10; i++) {
+			late.update(T0 + i * 1000L, LAT, LON, 5, Float.NaN, Float.NaN);
+			onTime.update(T0 + i * 1000L, LAT, LON, 5, Float.NaN, Float.NaN);
+		}
+
+		// Same fix 100m north, 5s late and not late
+		double lat = LAT + 100 / METERS_PER_DEGREE;
+		late.update(T0 + 4000, lat, LON, 5, Float.NaN, Float.NaN);
+		onTime.update(T0 + 9000, lat, LON, 5, Float.NaN, Float.NaN);
+
+		assertEquals(T0 + 9000, late.getTime());
+		double lateMove = SpatialIndex.distance(LAT, LON, late.getLatitude(),
+				late.getLongitude());
+		double onTimeMove = SpatialIndex.distance(LAT, LON,
+				onTime.getLatitude(), onTime.getLongitude());
+		assertTrue(lateMove > 0);
+		assertTrue(lateMove + " " + onTimeMove, lateMove < onTimeMove);
+	}
+
+	@Test
+	public void acrossTheAntimeridian() {
+		FusedLocationFilter f = new FusedLocationFilter(1, 1, 60000);
+		for (int i = 0; i < 20; i++) {
+			double lon = i % 2 == 0 ? 179.99995 : -179.99995;
+			f.update(T0 + i * 1000L, 0, lon, 5, Float.NaN, Float.NaN);
+		}
+		double lon = f.getLongitude();
+		assertTrue("Longitude " + lon, lon >= -180 && lon <= 180);
+		// Close to the antimeridian, not to 0
+		assertEquals(180, Math.abs(lon), 1e-4);
+	}
+
+	private static double lonDegree() {
+		return METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT));
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Bucket index math and percentiles of LatencyHistogram.
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long v = 0; v < 32; v++) {
+			assertEquals(v, LatencyHistogram.indexOf(v));
+			assertEquals(v, LatencyHistogram.highestEquivalentValue((int) v));
+		}
+	}
+
+	@Test
+	public void bucketsBoundTheRelativeError() {
+
+		int last = -1;
+		for (long v = 0; v < 1 << 20; v++) {
+			check(v);
+			int index = LatencyHistogram.indexOf(v);
+			assertTrue("Index going back at " + v, index >= last);
+			assertTrue("Bucket skipped at " + v, index <= last + 1);
+			last = index;
+		}
+
+		for (long v = 1 << 20; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+			check(v);
+		}
+		check(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void highestEquivalentValueIsInItsBucket() {
+		int max = LatencyHistogram.indexOf(Long.MAX_VALUE);
+		for (int i = 0; i <= max; i++) {
+			long v = LatencyHistogram.highestEquivalentValue(i);
+			assertEquals(i, LatencyHistogram.indexOf(v));
+			if (v < Long.MAX_VALUE) {
+				assertEquals(i + 1, LatencyHistogram.indexOf(v + 1));
+			}
+		}
+	}
+
+	@Test
+	public void percentiles() {
+
+		LatencyHistogram h = new LatencyHistogram(1000000);
+		for (long v = 1; v <= 1000; v++) {
+			h.record(v);
+		}
+
+		assertEquals(1000, h.getCount());
+		assertEquals(1, h.getMin());
+		assertEquals(1000, h.getMax());
+		assertEquals(500.5, h.getMean(), 1e-9);
+
+		double[] p = { 0, 50, 90, 99, 100 };
+		long[] values = new long[p.length];
+		h.getValuesAtPercentiles(p, values);
+		assertEquals(1, values[0]);
+		checkPercentile(500, values[1]);
+		checkPercentile(900, values[2]);
+		checkPercentile(990, values[3]);
+		assertEquals(1000, values[4]);
+		assertEquals(values[1], h.getValueAtPercentile(50));
+
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMin());
+		assertEquals(0, h.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void outOfRangeValues() {
+
+		LatencyHistogram h = new LatencyHistogram(1000);
+		h.record(-5);
+		h.record(5000000);
+
+		assertEquals(0, h.getMin());
+		assertEquals(5000000, h.getMax());
+		assertEquals(0, h.getValueAtPercentile(50));
+		// Counted in the last bucket
+		long p100 = h.getValueAtPercentile(100);
+		assertTrue(p100 >= 1000 && p100 <= 1000 * 17 / 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooSmallRange() {
+		new LatencyHistogram(31);
+	}
+
+	private static void check(long v) {
+		long high = LatencyHistogram.highestEquivalentValue(LatencyHistogram
+				.indexOf(v));
+		assertTrue("Bucket of " + v + " end at " + high, high >= v);
+		// Bucket width is at most 1/16 of its values
+		assertTrue("Bucket of " + v + " too wide : " + high, (high - v) / 16.0
+				* 16 <= v);
+		assertTrue("Bucket of " + v + " too wide : " + high, high - v <= v / 16);
+	}
+
+	private static void checkPercentile(long expected, long value) {
+		assertTrue("Expected about " + expected + " got " + value,
+				value >= expected && value <= expected * 17 / 16);
+	}
+}
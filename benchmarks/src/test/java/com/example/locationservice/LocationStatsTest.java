@@ -0,0 +1,114 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Running stats of a sliding window against the values computed again from
+ * the fixes of the window.
+ *
+ */
+public class LocationStatsTest {
+
+	@Test
+	public void emptyStatsAreZero() {
+		LocationStats s = new LocationStats(10);
+		assertEquals(0, s.getCount());
+		assertEquals(0, s.getAverageAccuracy(), 0);
+		assertEquals(0, s.getBestAccuracy(), 0);
+		assertEquals(0, s.getWorstAccuracy(), 0);
+		assertEquals(0, s.getAccuracyStdDev(), 0);
+		assertEquals(0, s.getSpeedCount());
+	}
+
+	@Test
+	public void removalKeepsWindowValues() {
+
+		int capacity = 50;
+		int total = 2000;
+		LocationStats s = new LocationStats(capacity);
+		float[] acc = new float[total];
+		float[] spd = new float[total];
+		Random r = new Random(7);
+
+		for (int seq = 0; seq < total; seq++) {
+			// Slow drift so the best and worst fixes get evicted
+			acc[seq] = 5 + r.nextInt(200) / 4f + (seq % 300) / 10f;
+			spd[seq] = r.nextInt(4) == 0 ? Float.NaN : r.nextInt(300) / 10f;
+
+			if (seq >= capacity) {
+				int old = seq - capacity;
+				s.remove(old, acc[old], spd[old]);
+			}
+			s.add(seq, acc[seq], spd[seq]);
+
+			checkWindow(s, acc, spd, Math.max(0, seq - capacity + 1), seq + 1);
+		}
+
+		// Empty it
+		for (int seq = total - capacity; seq < total; seq++) {
+			s.remove(seq, acc[seq], spd[seq]);
+		}
+		assertEquals(0, s.getCount());
+		assertEquals(0, s.getAccuracySum(), 0);
+		assertEquals(0, s.getBestAccuracy(), 0);
+		assertEquals(0, s.getSpeedCount());
+	}
+
+	@Test
+	public void removeOnEmptyIsIgnored() {
+		LocationStats s = new LocationStats(4);
+		s.remove(0, 10, 1);
+		assertEquals(0, s.getCount());
+		s.add(1, 10, Float.NaN);
+		assertEquals(1, s.getCount());
+		assertEquals(10, s.getBestAccuracy(), 0);
+		assertEquals(0, s.getSpeedCount());
+	}
+
+	private static void checkWindow(LocationStats s, float[] acc, float[] spd,
+			int from, int to) {
+
+		int n = to - from;
+		double sum = 0;
+		float best = Float.MAX_VALUE;
+		float worst = 0;
+		double speedSum = 0;
+		int speedCount = 0;
+		for (int i = from; i < to; i++) {
+			sum += acc[i];
+			best = Math.min(best, acc[i]);
+			worst = Math.max(worst, acc[i]);
+			if (!Float.isNaN(spd[i])) {
+				speedSum += spd[i];
+				speedCount++;
+			}
+		}
+		double mean = sum / n;
+		double speedMean = speedCount == 0 ? 0 : speedSum / speedCount;
+
+		double m2 = 0;
+		double speedM2 = 0;
+		for (int i = from; i < to; i++) {
+			m2 += (acc[i] - mean) * (acc[i] - mean);
+			if (!Float.isNaN(spd[i])) {
+				speedM2 += (spd[i] - speedMean) * (spd[i] - speedMean);
+			}
+		}
+		double std = n < 2 ? 0 : Math.sqrt(m2 / (n - 1));
+		double speedStd = speedCount < 2 ? 0 : Math.sqrt(speedM2
+				/ (speedCount - 1));
+
+		assertEquals(n, s.getCount());
+		assertEquals(mean, s.getAverageAccuracy(), 1e-3);
+		assertEquals(best, s.getBestAccuracy(), 0);
+		assertEquals(worst, s.getWorstAccuracy(), 0);
+		assertEquals(std, s.getAccuracyStdDev(), 1e-2);
+		assertEquals(speedCount, s.getSpeedCount());
+		assertEquals(speedMean, s.getAverageSpeed(), 1e-3);
+		assertEquals(speedStd, s.getSpeedStdDev(), 1e-2);
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LongMap against a HashMap, keys from a small range so probe chains wrap
+ * and removals shift them back.
+ *
+ */
+public class LongMapTest {
+
+	@Test
+	public void sameAsHashMap() {
+
+		LongMap<String> map = new LongMap<String>();
+		Map<Long, String> expected = new HashMap<Long, String>();
+		Random r = new Random(5);
+
+		for (int i = 0; i < 200000; i++) {
+			// Grid cell like keys, row in the high bits
+			long key = ((long) r.nextInt(20) << 32) | r.nextInt(40);
+			Long boxed = Long.valueOf(key);
+			switch (r.nextInt(3)) {
+			case 0:
+				assertEquals(expected.put(boxed, "v" + i),
+						map.put(key, "v" + i));
+				break;
+			case 1:
+				assertEquals(expected.remove(boxed), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(boxed), map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+
+			if (i % 10000 == 0) {
+				checkSlots(map, expected);
+			}
+		}
+		checkSlots(map, expected);
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(0));
+	}
+
+	@Test
+	public void negativeAndExtremeKeys() {
+		LongMap<Integer> map = new LongMap<Integer>();
+		long[] keys = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, 64, 128 };
+		for (int i = 0; i < keys.length; i++) {
+			map.put(keys[i], Integer.valueOf(i));
+		}
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(Integer.valueOf(i), map.remove(keys[i]));
+			for (int j = i + 1; j < keys.length; j++) {
+				assertEquals(Integer.valueOf(j), map.get(keys[j]));
+			}
+		}
+		assertEquals(0, map.size());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullValue() {
+		new LongMap<String>().put(1, null);
+	}
+
+	private static void checkSlots(LongMap<String> map,
+			Map<Long, String> expected) {
+		int n = 0;
+		for (int i = 0; i < map.getCapacity(); i++) {
+			String v = map.valueAt(i);
+			if (v != null) {
+				assertEquals(expected.get(Long.valueOf(map.keyAt(i))), v);
+				n++;
+			}
+		}
+		assertEquals(expected.size(), n);
+		assertTrue(map.getCapacity() >= 2 * map.size());
+	}
+}
@@ -0,0 +1,143 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Queries of a SpatialIndex used as a sliding window (oldest fix removed),
+ * against a search of every fix of the window. Emptied cells are deleted from
+ * the table so removals shift the cells after them.
+ *
+ */
+public class SpatialIndexTest {
+
+	private static final double CELL_SIZE = 0.002;
+
+	@Test
+	public void slidingWindowMatchesBruteForce() {
+
+		int total = 30000;
+		int window = 3000;
+		double[] lats = new double[total];
+		double[] lons = new double[total];
+		Random r = new Random(3);
+		SpatialIndex index = new SpatialIndex(CELL_SIZE);
+
+		double lat = 48.85;
+		double lon = 2.35;
+		for (int seq = 0; seq < total; seq++) {
+			// A walk over many cells, with jumps to spread them in the table
+			if (r.nextInt(100) == 0) {
+				lat = 48.85 + r.nextDouble() * 0.2;
+				lon = 2.35 + r.nextDouble() * 0.2;
+			}
+			lat += r.nextGaussian() * 0.001;
+			lon += r.nextGaussian() * 0.001;
+			lats[seq] = lat;
+			lons[seq] = lon;
+
+			index.add(seq, lat, lon);
+			if (seq >= window) {
+				int old = seq - window;
+				index.remove(old, lats[old], lons[old]);
+			}
+
+			if (seq % 500 == 0) {
+				int from = Math.max(0, seq - window + 1);
+				assertEquals(seq - from + 1, index.size());
+				for (int q = 0; q < 10; q++) {
+					checkQueries(index, lats, lons, from, seq + 1, r);
+				}
+			}
+		}
+
+		// Removing everything empties every cell
+		for (int seq = total - window; seq < total; seq++) {
+			index.remove(seq, lats[seq], lons[seq]);
+		}
+		assertEquals(0, index.size());
+		assertEquals(-1, index.findNearest(48.9, 2.4));
+		assertEquals(0, index.findInBox(-90, -180, 90, 180, null));
+	}
+
+	@Test
+	public void removeNotOldestIsIgnored() {
+		SpatialIndex index = new SpatialIndex(CELL_SIZE);
+		index.add(1, 10, 10);
+		index.add(2, 10, 10);
+		index.remove(2, 10, 10);
+		assertEquals(2, index.size());
+		index.remove(1, 20, 20);
+		assertEquals(2, index.size());
+		index.remove(1, 10, 10);
+		assertEquals(1, index.size());
+		assertEquals(2, index.findNearest(10.0001, 10));
+	}
+
+	@Test
+	public void boxAcrossTheAntimeridian() {
+		SpatialIndex index = new SpatialIndex(CELL_SIZE);
+		index.add(1, -17, 179.9995);
+		index.add(2, -17, -179.9995);
+		index.add(3, -17, 0);
+		assertEquals(2, index.findInBox(-17.001, 179.999, -16.999, -179.999,
+				null));
+		assertEquals(2, index.findWithin(-17, 180, 100, null));
+	}
+
+	private static void checkQueries(SpatialIndex index, double[] lats,
+			double[] lons, int from, int to, Random r) {
+
+		double minLat = 48.83 + r.nextDouble() * 0.22;
+		double minLon = 2.33 + r.nextDouble() * 0.22;
+		double maxLat = minLat + r.nextDouble() * 0.02;
+		double maxLon = minLon + r.nextDouble() * 0.02;
+		Set<Long> expected = new HashSet<Long>();
+		for (int i = from; i < to; i++) {
+			if (lats[i] >= minLat && lats[i] <= maxLat && lons[i] >= minLon
+					&& lons[i] <= maxLon) {
+				expected.add(Long.valueOf(i));
+			}
+		}
+		Collector found = new Collector();
+		int n = index.findInBox(minLat, minLon, maxLat, maxLon, found);
+		assertEquals(expected, found.seqs);
+		assertEquals(expected.size(), n);
+
+		double radius = 50 + r.nextDouble() * 1000;
+		expected.clear();
+		long nearest = -1;
+		double nearestDistance = Double.MAX_VALUE;
+		for (int i = from; i < to; i++) {
+			double d = SpatialIndex.distance(minLat, minLon, lats[i], lons[i]);
+			if (d <= radius) {
+				expected.add(Long.valueOf(i));
+			}
+			if (d < nearestDistance) {
+				nearestDistance = d;
+				nearest = i;
+			}
+		}
+		found = new Collector();
+		n = index.findWithin(minLat, minLon, radius, found);
+		assertEquals(expected, found.seqs);
+		assertEquals(expected.size(), n);
+
+		assertEquals(nearest, index.findNearest(minLat, minLon));
+	}
+
+	private static class Collector implements SpatialIndex.Visitor {
+
+		final Set<Long> seqs = new HashSet<Long>();
+
+		@Override
+		public void visit(long seq, double latitude, double longitude) {
+			seqs.add(Long.valueOf(seq));
+		}
+	}
+}
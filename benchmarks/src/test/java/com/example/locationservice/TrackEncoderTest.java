@@ -0,0 +1,133 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Fixes written by TrackEncoder must be read back by TrackDecoder within the
+ * rounding of the format.
+ *
+ */
+public class TrackEncoderTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+
+		int n = 5000;
+		byte[] providers = new byte[n];
+		long[] times = new long[n];
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		float[] accs = new float[n];
+		float[] spds = new float[n];
+
+		Random r = new Random(11);
+		long time = 1367411400000L;
+		double lat = -33.8688;
+		double lon = 151.2093;
+		for (int i = 0; i < n; i++) {
+			// Time can go back (late network fix), big jumps too
+			time += r.nextInt(20) == 0 ? -r.nextInt(5000) : r.nextInt(2000);
+			lat += r.nextInt(50) == 0 ? r.nextGaussian() * 10 : r
+					.nextGaussian() * 1e-4;
+			lon += r.nextGaussian() * 1e-4;
+			lat = Math.max(-90, Math.min(90, lat));
+			providers[i] = (byte) (1 + r.nextInt(2));
+			times[i] = time;
+			lats[i] = lat;
+			lons[i] = lon;
+			accs[i] = r.nextInt(5000) / 7f;
+			spds[i] = r.nextInt(3) == 0 ? Float.NaN : r.nextInt(4000) / 13f;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackEncoder e = new TrackEncoder(out);
+		for (int i = 0; i < n; i++) {
+			e.append(providers[i], times[i], lats[i], lons[i], accs[i], spds[i]);
+		}
+		e.flush();
+		assertEquals(n, e.getCount());
+		assertEquals(out.size(), e.getSize());
+		e.close();
+
+		TrackDecoder d = new TrackDecoder(new ByteArrayInputStream(
+				out.toByteArray()));
+		for (int i = 0; i < n; i++) {
+			assertTrue(d.moveToNext());
+			assertEquals(providers[i], d.getProvider());
+			assertEquals(times[i], d.getTime());
+			assertEquals(lats[i], d.getLatitude(), 0.51e-7);
+			assertEquals(lons[i], d.getLongitude(), 0.51e-7);
+			assertEquals(accs[i], d.getAccuracy(), 0.051);
+			if (Float.isNaN(spds[i])) {
+				assertTrue(Float.isNaN(d.getSpeed()));
+			} else {
+				assertEquals(spds[i], d.getSpeed(), 0.0051);
+			}
+		}
+		assertFalse(d.moveToNext());
+		d.close();
+	}
+
+	@Test
+	public void hugeValuesAreClamped() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TrackEncoder e = new TrackEncoder(out);
+		// More than the buffer, every record as big as possible
+		int n = 1000;
+		for (int i = 0; i < n; i++) {
+			e.append(LocationHistory.PROVIDER_GPS, i % 2 == 0 ? Long.MIN_VALUE
+					/ 2 : Long.MAX_VALUE / 2, i % 2 == 0 ? -90 : 90,
+					i % 2 == 0 ? -180 : 180, Float.POSITIVE_INFINITY, 1e30f);
+		}
+		e.append(LocationHistory.PROVIDER_GPS, 0, 0, 0, -1, Float.NaN);
+		e.close();
+
+		TrackDecoder d = new TrackDecoder(new ByteArrayInputStream(
+				out.toByteArray()));
+		for (int i = 0; i < n; i++) {
+			assertTrue(d.moveToNext());
+			assertEquals(i % 2 == 0 ? -180 : 180, d.getLongitude(), 1e-7);
+			assertEquals(Integer.MAX_VALUE / TrackEncoder.ACCURACY_SCALE,
+					d.getAccuracy(), 1);
+			assertEquals(Integer.MAX_VALUE / TrackEncoder.SPEED_SCALE,
+					d.getSpeed(), 1);
+		}
+		// Negative accuracy is written as 0
+		assertTrue(d.moveToNext());
+		assertEquals(0, d.getAccuracy(), 0);
+		assertTrue(Float.isNaN(d.getSpeed()));
+		assertFalse(d.moveToNext());
+	}
+
+	@Test
+	public void emptyTrack() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new TrackEncoder(out).close();
+		assertEquals(5, out.size());
+		TrackDecoder d = new TrackDecoder(new ByteArrayInputStream(
+				out.toByteArray()));
+		assertFalse(d.moveToNext());
+	}
+
+	@Test
+	public void notATrack() {
+		try {
+			new TrackDecoder(new ByteArrayInputStream(new byte[] { 'G', 'P',
+					'X', '1', 1 }));
+			fail("Header not checked");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
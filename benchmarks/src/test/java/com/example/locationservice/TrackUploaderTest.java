@@ -0,0 +1,248 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * TrackUploader with a fake server: retries, refused batches, bounded spool
+ * and reload of the spool by the next uploader.
+ *
+ */
+public class TrackUploaderTest {
+
+	private static final long TIMEOUT_MS = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+	private TrackUploader uploader;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = folder.newFolder("spool");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (uploader != null) {
+			uploader.close();
+		}
+	}
+
+	@Test
+	public void sentAgainAfterFailures() throws Exception {
+
+		FakeServer server = new FakeServer();
+		server.failures = 3;
+		uploader = new TrackUploader(dir, server, 100, 4096, 0, 10, 1, 20);
+		uploader.start();
+
+		append(uploader, 42);
+		uploader.flush();
+		waitForEmptySpool(uploader, 1);
+
+		assertEquals(1, uploader.getSentBatches());
+		assertEquals(4, uploader.getRequests());
+		assertEquals(0, uploader.getDroppedBatches());
+		// Same id on each try
+		assertEquals(4, server.ids.size());
+		assertEquals(1, new HashSet<String>(server.ids).size());
+		assertEquals(Collections.singletonList(Long.valueOf(42)),
+				server.times());
+		assertEquals(0, spooledFiles());
+	}
+
+	@Test
+	public void transportBugDoesNotStopUploads() throws Exception {
+
+		FakeServer server = new FakeServer();
+		server.bugs = 2;
+		uploader = new TrackUploader(dir, server, 100, 4096, 0, 10, 1, 20);
+		uploader.start();
+
+		append(uploader, 1);
+		uploader.flush();
+		waitForEmptySpool(uploader, 1);
+		append(uploader, 2);
+		uploader.flush();
+		waitForEmptySpool(uploader, 2);
+
+		assertEquals(2, uploader.getSentBatches());
+		assertEquals(4, uploader.getRequests());
+		assertEquals(0, uploader.getDroppedBatches());
+	}
+
+	@Test
+	public void refusedBatchIsDropped() throws Exception {
+
+		FakeServer server = new FakeServer();
+		server.refuse = true;
+		uploader = new TrackUploader(dir, server, 100, 4096, 0, 10, 1, 20);
+		uploader.start();
+
+		append(uploader, 1);
+		uploader.flush();
+		waitForEmptySpool(uploader, 1);
+
+		assertEquals(0, uploader.getSentBatches());
+		assertEquals(1, uploader.getDroppedBatches());
+		assertEquals(1, uploader.getRequests());
+		assertEquals(0, spooledFiles());
+	}
+
+	@Test
+	public void batchIsClosedWhenFull() throws Exception {
+
+		// Not started, batches stay in the spool
+		uploader = new TrackUploader(dir, new FakeServer(), 10, 4096, 0, 10,
+				1, 20);
+		for (int i = 0; i < 25; i++) {
+			append(uploader, i);
+		}
+		assertEquals(2, uploader.getSpooledCount());
+		uploader.flush();
+		assertEquals(3, uploader.getSpooledCount());
+		// Nothing pending
+		uploader.flush();
+		assertEquals(3, uploader.getSpooledCount());
+		assertEquals(3, spooledFiles());
+	}
+
+	@Test
+	public void fullSpoolKeepsNewestAndIsReloaded() throws Exception {
+
+		TrackUploader first = new TrackUploader(dir, new FakeServer(), 1,
+				4096, 0, 3, 1, 20);
+		for (int i = 0; i < 5; i++) {
+			append(first, i);
+		}
+		assertEquals(3, first.getSpooledCount());
+		assertEquals(2, first.getDroppedBatches());
+		first.close();
+		assertEquals(3, spooledFiles());
+
+		try {
+			append(first, 5);
+			fail("Append after close");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		// Next run send what is left, oldest first
+		FakeServer server = new FakeServer();
+		uploader = new TrackUploader(dir, server, 1, 4096, 0, 3, 1, 20);
+		assertEquals(3, uploader.getSpooledCount());
+		uploader.start();
+		waitForEmptySpool(uploader, 3);
+
+		assertEquals(3, uploader.getSentBatches());
+		List<Long> expected = new ArrayList<Long>();
+		for (long t = 2; t < 5; t++) {
+			expected.add(Long.valueOf(t));
+		}
+		assertEquals(expected, server.times());
+		assertEquals(0, spooledFiles());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidBackoff() throws IOException {
+		new TrackUploader(dir, new FakeServer(), 1, 1, 0, 1, 10, 5);
+	}
+
+	private static void append(TrackUploader u, long time) throws IOException {
+		u.append(LocationHistory.PROVIDER_GPS, time, 45, 6, 5, Float.NaN);
+	}
+
+	private static void waitForEmptySpool(TrackUploader u, long done)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT_MS;
+		while (u.getSentBatches() + u.getDroppedBatches() < done
+				|| u.getSpooledCount() > 0) {
+			if (System.currentTimeMillis() > end) {
+				fail("Batches not sent, requests " + u.getRequests());
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private int spooledFiles() {
+		int n = 0;
+		for (File f : dir.listFiles()) {
+			if (f.getName().endsWith(TrackUploader.BATCH_SUFFIX)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Fail the first requests, then accept (or refuse) every batch
+	 */
+	private static class FakeServer implements TrackUploader.Transport {
+
+		int failures;
+		int bugs;
+		boolean refuse;
+
+		final List<String> ids = Collections
+				.synchronizedList(new ArrayList<String>());
+		private final List<byte[]> accepted = Collections
+				.synchronizedList(new ArrayList<byte[]>());
+
+		@Override
+		public boolean send(String batchId, byte[] data, int length)
+				throws IOException {
+			ids.add(batchId);
+			synchronized (this) {
+				if (failures > 0) {
+					failures--;
+					throw new IOException("Server unreachable");
+				}
+				if (bugs > 0) {
+					bugs--;
+					throw new IllegalStateException("Transport bug");
+				}
+			}
+			if (refuse) {
+				return false;
+			}
+			byte[] copy = new byte[length];
+			System.arraycopy(data, 0, copy, 0, length);
+			accepted.add(copy);
+			return true;
+		}
+
+		/**
+		 * @return time of the fixes of the accepted batches
+		 */
+		List<Long> times() throws IOException {
+			List<Long> times = new ArrayList<Long>();
+			synchronized (accepted) {
+				for (byte[] data : accepted) {
+					TrackDecoder d = new TrackDecoder(new ByteArrayInputStream(
+							data));
+					while (d.moveToNext()) {
+						assertEquals(5, d.getAccuracy(), 0);
+						times.add(Long.valueOf(d.getTime()));
+					}
+				}
+			}
+			return times;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package com.example.locationservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Segments of simulated days: stays at a place and trips between them.
+ *
+ */
+public class TripSegmenterTest {
+
+	private static final double METERS_PER_DEGREE = SpatialIndex.EARTH_RADIUS_M
+			* Math.PI / 180;
+
+	private static final double LAT = 0.0;
+	private static final double LON = 10.0;
+	private static final long T0 = 1367411400000L;
+	private static final long MINUTE = 60000;
+
+	private TripSegmenter segmenter;
+	private Recorder recorder;
+	private long time;
+
+	@Before
+	public void setUp() {
+		segmenter = new TripSegmenter(50, 5 * MINUTE, 10 * MINUTE, 100);
+		recorder = new Recorder();
+		time = T0;
+	}
+
+	@Test
+	public void stayTripStay() {
+
+		// 10 min at A, 3 km east at 10 m/s, 10 min at B
+		long lastAtA = stay(0, 10 * MINUTE);
+		long firstAtB = move(0, 3000, 10);
+		stay(3000, 10 * MINUTE);
+		segmenter.flush(recorder);
+
+		assertEquals(
+				"[start 2 0, end 2, start 1 " + (lastAtA - T0) + ", end 1, start 2 "
+						+ (firstAtB - T0) + ", end 2]", recorder.events.toString());
+		assertEquals(0, segmenter.getState());
+
+		TripSegmenter.Segment a = recorder.ended.get(0);
+		assertEquals(TripSegmenter.SEGMENT_STAY, a.getType());
+		assertEquals(T0, a.getStartTime());
+		assertEquals(lastAtA, a.getEndTime());
+		assertEquals(61, a.getFixCount());
+		assertTrue(SpatialIndex.distance(LAT, LON, a.getStartLatitude(),
+				a.getStartLongitude()) < 5);
+
+		TripSegmenter.Segment trip = recorder.ended.get(1);
+		assertEquals(TripSegmenter.SEGMENT_TRIP, trip.getType());
+		assertEquals(lastAtA, trip.getStartTime());
+		assertEquals(firstAtB, trip.getEndTime());
+		assertEquals(3000, trip.getDistance(), 50);
+		assertEquals(10, trip.getMaxSpeed(), 1);
+		assertEquals(10, trip.getAverageSpeed(), 1);
+
+		TripSegmenter.Segment b = recorder.ended.get(2);
+		assertEquals(TripSegmenter.SEGMENT_STAY, b.getType());
+		assertEquals(firstAtB, b.getStartTime());
+		assertTrue(SpatialIndex.distance(LAT, east(3000), b.getEndLatitude(),
+				b.getEndLongitude()) < 5);
+	}
+
+	@Test
+	public void startMoving() {
+		// First fix at 100m, the trip start there
+		move(0, 1000, 10);
+		assertEquals(TripSegmenter.SEGMENT_TRIP, segmenter.getState());
+		assertEquals("[start 1 10000]", recorder.events.toString());
+		segmenter.flush(recorder);
+		assertEquals(T0 + 10000, recorder.ended.get(0).getStartTime());
+		assertEquals(900, recorder.ended.get(0).getDistance(), 20);
+	}
+
+	@Test
+	public void inaccurateAndLateFixesAreIgnored() {
+
+		stay(0, 6 * MINUTE);
+		assertEquals(TripSegmenter.SEGMENT_STAY, segmenter.getState());
+
+		// Far away but not precise, then far away but late
+		segmenter.process(time, LAT, east(5000), 500, Float.NaN, recorder);
+		segmenter.process(time - 30000, LAT, east(5000), 5, Float.NaN,
+				recorder);
+		assertEquals(TripSegmenter.SEGMENT_STAY, segmenter.getState());
+
+		stay(0, 2 * MINUTE);
+		segmenter.flush(recorder);
+		assertEquals("[start 2 0, end 2]", recorder.events.toString());
+	}
+
+	@Test
+	public void gapEndsTheSegment() {
+
+		long end = stay(0, 6 * MINUTE);
+		time += 20 * MINUTE;
+		stay(0, 6 * MINUTE);
+
+		// The first stay ended at its last fix, a new one started after the
+		// gap
+		assertEquals("[start 2 0, end 2, start 2 "
+				+ (end + 10000 + 20 * MINUTE - T0) + "]",
+				recorder.events.toString());
+		assertEquals(end, recorder.ended.get(0).getEndTime());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidSettings() {
+		new TripSegmenter(0, MINUTE, MINUTE, 100);
+	}
+
+	/**
+	 * A fix every 10s at this place, with a few meters of noise
+	 *
+	 * @return time of the last fix
+	 */
+	private long stay(double eastMeters, long duration) {
+		long end = time + duration;
+		int i = 0;
+		for (; time <= end; time += 10000) {
+			double noise = (i++ % 5 - 2) * 3;
+			segmenter.process(time, LAT + noise / METERS_PER_DEGREE,
+					east(eastMeters + noise), 10, Float.NaN, recorder);
+		}
+		return time - 10000;
+	}
+
+	/**
+	 * A fix every 10s moving east, speed not given
+	 *
+	 * @return time of the last fix, at the end
+	 */
+	private long move(double fromEast, double toEast, double speed) {
+		double step = speed * 10;
+		for (double m = fromEast + step; m <= toEast + 1e-9; m += step) {
+			time += 10000;
+			segmenter.process(time, LAT, east(m), 10, Float.NaN, recorder);
+		}
+		long last = time;
+		time += 10000;
+		return last;
+	}
+
+	private static double east(double meters) {
+		return LON + meters / METERS_PER_DEGREE;
+	}
+
+	private static class Recorder implements TripSegmenter.Listener {
+
+		final List<String> events = new ArrayList<String>();
+		final List<TripSegmenter.Segment> ended = new ArrayList<TripSegmenter.Segment>();
+
+		@Override
+		public void onSegmentStart(int type, long time, double latitude,
+				double longitude) {
+			events.add("start " + type + " " + (time - T0));
+		}
+
+		@Override
+		public void onSegmentEnd(TripSegmenter.Segment segment) {
+			events.add("end " + segment.getType());
+			ended.add(segment);
+		}
+	}
+}
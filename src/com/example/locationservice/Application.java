@@ -21,6 +21,13 @@ public class Application extends android.app.Application {
 
 	private LocationTracker locationStatus;
 
+	// Provider state of the last report logged, the report is only logged
+	// when it change and not on every fix
+	private boolean loggedTrackGPS;
+	private boolean loggedTrackNetwork;
+	private int loggedGpsStatus = -1;
+	private int loggedNetworkStatus = -1;
+
 	@Override
 	public void onCreate() {
 		super.onCreate();
@@ -46,22 +53,36 @@ public class Application extends android.app.Application {
 	}
 
 	/**
-	 * We will receive update here...
+	 * We will receive update here... When the service process location on its
+	 * worker thread this is called from that thread.
 	 * 
 	 * @param locationStatus
 	 */
-	public void updateStatusTracker(LocationTracker locationStatus) {
+	public synchronized void updateStatusTracker(LocationTracker locationStatus) {
 
 		this.locationStatus = locationStatus;
 
-		// TODO Here call some web service or stuff, for now
-		// just displaying stuff in the logs...
-
-		if (locationStatus != null)
-			Log.i("" + this.getClass().getName(), locationStatus.toString());
+		// Fixes are sent to the server in batches by the TrackUploader of
+		// the service (see LocationService.CFG_UPLOAD_TRACK), not from here
+		// on every update. Just displaying stuff in the logs when the
+		// provider status change...
+
+		if (locationStatus != null) {
+			TrackerSnapshot snapshot = locationStatus.getSnapshot();
+			if (snapshot.isTrackGPS() != loggedTrackGPS
+					|| snapshot.isTrackNetwork() != loggedTrackNetwork
+					|| snapshot.getGpsProviderStatus() != loggedGpsStatus
+					|| snapshot.getNetworkProviderStatus() != loggedNetworkStatus) {
+				loggedTrackGPS = snapshot.isTrackGPS();
+				loggedTrackNetwork = snapshot.isTrackNetwork();
+				loggedGpsStatus = snapshot.getGpsProviderStatus();
+				loggedNetworkStatus = snapshot.getNetworkProviderStatus();
+				Log.i("" + this.getClass().getName(), snapshot.toString());
+			}
+		}
 	}
 
-	public LocationTracker getLocationStatus() {
+	public synchronized LocationTracker getLocationStatus() {
 		return locationStatus;
 	}
 
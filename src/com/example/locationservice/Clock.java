@@ -0,0 +1,37 @@
+package com.example.locationservice;
+
+/**
+ * Source of time of the tracker, the system one on a device, a virtual one
+ * when a recorded track is replayed (see ReplayClock).
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public interface Clock {
+
+	/**
+	 * Clock of the system
+	 */
+	Clock SYSTEM = new Clock() {
+
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * @return wall clock in ms, same as System.currentTimeMillis
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * @return monotonic clock in ns, same as System.nanoTime
+	 */
+	long nanoTime();
+}
@@ -0,0 +1,257 @@
+package com.example.locationservice;
+
+/**
+ * Grid index of the latest position of moving objects (ie. the devices of a
+ * fleet), to find the ones in a box without looking at all of them.
+ *
+ * Unlike SpatialIndex which keep every fix of a history, a object is in a
+ * single cell at a time and moving it is cheap: nothing is done while it
+ * stay in its cell, otherwise it is swapped out of the old cell list and
+ * appended to the new one. Objects are identified by small int ids (a slot
+ * number) so their state can be kept in arrays.
+ *
+ * This class is not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class DeviceGrid {
+
+	/**
+	 * Receive the objects found by a query
+	 */
+	public interface Visitor {
+		void visit(int id, double latitude, double longitude);
+	}
+
+	private final double cellSize;
+
+	// Cells by key(row, col)
+	private final LongMap<Cell> cells = new LongMap<Cell>();
+
+	// State of each id, cell is null when not in the grid
+	private Cell[] cellOf = new Cell[64];
+	private int[] indexInCell = new int[64];
+	private double[] latitudes = new double[64];
+	private double[] longitudes = new double[64];
+
+	private int size;
+
+	/**
+	 * @param cellSize
+	 *            size of a cell in degree, about the size of the usual query
+	 */
+	public DeviceGrid(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Invalid cell size : "
+					+ cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * @return number of objects in the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return last latitude given for this id
+	 */
+	public double getLatitude(int id) {
+		return latitudes[id];
+	}
+
+	public double getLongitude(int id) {
+		return longitudes[id];
+	}
+
+	/**
+	 * Add a object or move it to its new position
+	 */
+	public void update(int id, double latitude, double longitude) {
+
+		if (id >= cellOf.length) {
+			grow(Math.max(id + 1, cellOf.length * 2));
+		}
+
+		latitudes[id] = latitude;
+		longitudes[id] = longitude;
+
+		int row = row(latitude);
+		int col = col(longitude);
+		Cell c = cellOf[id];
+		if (c != null && c.row == row && c.col == col) {
+			return; // Same cell
+		}
+
+		if (c != null) {
+			removeFrom(c, id);
+		} else {
+			size++;
+		}
+
+		long key = key(row, col);
+		c = cells.get(key);
+		if (c == null) {
+			c = new Cell(row, col);
+			cells.put(key, c);
+		}
+		indexInCell[id] = c.count;
+		c.add(id);
+		cellOf[id] = c;
+	}
+
+	public void remove(int id) {
+		if (id < cellOf.length && cellOf[id] != null) {
+			removeFrom(cellOf[id], id);
+			cellOf[id] = null;
+			size--;
+		}
+	}
+
+	/**
+	 * Find the objects in a box, minLongitude > maxLongitude for a box
+	 * crossing the antimeridian
+	 *
+	 * @return number of objects found
+	 */
+	public int findInBox(double minLatitude, double minLongitude,
+			double maxLatitude, double maxLongitude, Visitor visitor) {
+
+		if (minLongitude <= maxLongitude) {
+			return scan(minLatitude, minLongitude, maxLatitude, maxLongitude,
+					visitor);
+		}
+		return scan(minLatitude, minLongitude, maxLatitude, 180, visitor)
+				+ scan(minLatitude, -180, maxLatitude, maxLongitude, visitor);
+	}
+
+	private int scan(double minLat, double minLon, double maxLat,
+			double maxLon, Visitor visitor) {
+
+		int minRow = row(minLat);
+		int maxRow = row(maxLat);
+		int minCol = col(minLon);
+		int maxCol = col(maxLon);
+
+		int found = 0;
+		if ((long) (maxRow - minRow + 1) * (maxCol - minCol + 1) > cells
+				.size()) {
+			// Box bigger than the used area, look at every cell
+			for (int i = 0; i < cells.getCapacity(); i++) {
+				Cell c = cells.valueAt(i);
+				if (c != null && c.row >= minRow && c.row <= maxRow
+						&& c.col >= minCol && c.col <= maxCol) {
+					found += visit(c, minLat, minLon, maxLat, maxLon, visitor);
+				}
+			}
+			return found;
+		}
+
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				Cell c = cells.get(key(row, col));
+				if (c != null) {
+					found += visit(c, minLat, minLon, maxLat, maxLon, visitor);
+				}
+			}
+		}
+		return found;
+	}
+
+	private int visit(Cell c, double minLat, double minLon, double maxLat,
+			double maxLon, Visitor visitor) {
+
+		int found = 0;
+		for (int i = 0; i < c.count; i++) {
+			int id = c.ids[i];
+			double lat = latitudes[id];
+			double lon = longitudes[id];
+			if (lat >= minLat && lat <= maxLat && lon >= minLon
+					&& lon <= maxLon) {
+				visitor.visit(id, lat, lon);
+				found++;
+			}
+		}
+		return found;
+	}
+
+	private void removeFrom(Cell c, int id) {
+		int moved = c.removeAt(indexInCell[id]);
+		if (moved >= 0) {
+			indexInCell[moved] = indexInCell[id];
+		}
+		if (c.count == 0) {
+			cells.remove(key(c.row, c.col));
+		}
+	}
+
+	private void grow(int n) {
+		Cell[] c = new Cell[n];
+		System.arraycopy(cellOf, 0, c, 0, cellOf.length);
+		cellOf = c;
+		int[] i = new int[n];
+		System.arraycopy(indexInCell, 0, i, 0, indexInCell.length);
+		indexInCell = i;
+		double[] d = new double[n];
+		System.arraycopy(latitudes, 0, d, 0, latitudes.length);
+		latitudes = d;
+		d = new double[n];
+		System.arraycopy(longitudes, 0, d, 0, longitudes.length);
+		longitudes = d;
+	}
+
+	private int row(double latitude) {
+		return (int) Math.floor(latitude / cellSize);
+	}
+
+	private int col(double longitude) {
+		return (int) Math.floor(longitude / cellSize);
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xffffffffL);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Unordered list of the ids in a cell
+	 */
+	private static class Cell {
+
+		final int row;
+		final int col;
+
+		int[] ids = new int[4];
+		int count;
+
+		Cell(int row, int col) {
+			this.row = row;
+			this.col = col;
+		}
+
+		void add(int id) {
+			if (count == ids.length) {
+				int[] n = new int[count * 2];
+				System.arraycopy(ids, 0, n, 0, count);
+				ids = n;
+			}
+			ids[count++] = id;
+		}
+
+		/**
+		 * Remove by moving the last id in place
+		 *
+		 * @return the id moved to index or -1 if it was the last one
+		 */
+		int removeAt(int index) {
+			count--;
+			if (index == count) {
+				return -1;
+			}
+			ids[index] = ids[count];
+			return ids[index];
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.locationservice;
+
+/**
+ * Immutable location fix record, only primitive values so it can be given to
+ * any thread and does not need any parcelling.
+ *
+ */
+public class Fix {
+
+	private final long sequence;
+	private final byte provider;
+	private final long time;
+	private final double latitude;
+	private final double longitude;
+	private final float accuracy;
+	private final float speed;
+
+	/**
+	 * @param sequence
+	 *            sequence number of this fix in the tracker history
+	 * @param provider
+	 *            one of LocationHistory.PROVIDER_*
+	 * @param time
+	 * @param latitude
+	 * @param longitude
+	 * @param accuracy
+	 * @param speed
+	 *            speed or NaN if not available
+	 */
+	public Fix(long sequence, byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+		this.sequence = sequence;
+		this.provider = provider;
+		this.time = time;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.accuracy = accuracy;
+		this.speed = speed;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public byte getProvider() {
+		return provider;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	public float getSpeed() {
+		return speed;
+	}
+
+	public boolean hasSpeed() {
+		return !Float.isNaN(speed);
+	}
+
+	@Override
+	public String toString() {
+		return "Fix #" + sequence + " provider " + provider + " at " + time
+				+ " (" + latitude + "," + longitude + ") acc " + accuracy;
+	}
+}
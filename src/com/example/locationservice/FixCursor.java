@@ -0,0 +1,36 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+
+/**
+ * Forward only cursor over stored fixes, getters give the values of the
+ * current fix so reading does not create any object.
+ *
+ */
+public interface FixCursor {
+
+	/**
+	 * Move to the next fix
+	 *
+	 * @return false when there is no more fix
+	 * @throws IOException
+	 */
+	boolean moveToNext() throws IOException;
+
+	byte getProvider();
+
+	long getTime();
+
+	double getLatitude();
+
+	double getLongitude();
+
+	float getAccuracy();
+
+	/**
+	 * @return speed or NaN if not available
+	 */
+	float getSpeed();
+
+	void close() throws IOException;
+}
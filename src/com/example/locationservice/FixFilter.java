@@ -0,0 +1,33 @@
+package com.example.locationservice;
+
+/**
+ * Stage of a FixFilterChain, decide if a fix is worth keeping.
+ *
+ */
+public interface FixFilter {
+
+	/**
+	 * @return short name shown in the report
+	 */
+	String getName();
+
+	/**
+	 * @param provider
+	 *            one of LocationHistory.PROVIDER_*
+	 * @param time
+	 * @param latitude
+	 * @param longitude
+	 * @param accuracy
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @return false to drop the fix
+	 */
+	boolean accept(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed);
+
+	/**
+	 * The fix was accepted by every stage, update the state
+	 */
+	void onAccepted(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed);
+}
@@ -0,0 +1,86 @@
+package com.example.locationservice;
+
+/**
+ * Run the fixes through a list of FixFilter before they reach the tracker,
+ * so junk fixes (network jumps, GPS jitter while standing still,
+ * duplicates) do not cost a broadcast, a redraw and storage.
+ *
+ * Stages are run in order, the first one refusing a fix drop it and get it
+ * counted. Stages are only told about the fixes accepted by all of them.
+ *
+ * This class is not thread safe.
+ *
+ */
+public class FixFilterChain {
+
+	private final FixFilter[] stages;
+	private final long[] dropped;
+	private long received;
+
+	// Given to the reports, copied again only after a drop
+	private String[] reportNames;
+	private long[] reportDropped;
+
+	public FixFilterChain(FixFilter... stages) {
+		this.stages = stages;
+		this.dropped = new long[stages.length];
+	}
+
+	/**
+	 * @return false if a stage dropped the fix
+	 */
+	public boolean accept(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+
+		received++;
+
+		for (int i = 0; i < stages.length; i++) {
+			if (!stages[i].accept(provider, time, latitude, longitude,
+					accuracy, speed)) {
+				dropped[i]++;
+				reportDropped = null;
+				return false;
+			}
+		}
+
+		for (int i = 0; i < stages.length; i++) {
+			stages[i].onAccepted(provider, time, latitude, longitude,
+					accuracy, speed);
+		}
+		return true;
+	}
+
+	public long getReceivedCount() {
+		return received;
+	}
+
+	/**
+	 * @param stage
+	 *            index of the stage
+	 * @return number of fixes dropped by this stage
+	 */
+	public long getDroppedCount(int stage) {
+		return dropped[stage];
+	}
+
+	/**
+	 * Copy the chain counters into the report builder, the arrays are shared
+	 * with the previous report if nothing was dropped since
+	 * 
+	 * @param b
+	 */
+	void fillReport(TrackerReport.Builder b) {
+		if (reportNames == null) {
+			reportNames = new String[stages.length];
+			for (int i = 0; i < stages.length; i++) {
+				reportNames[i] = stages[i].getName();
+			}
+		}
+		if (reportDropped == null) {
+			reportDropped = dropped.clone();
+		}
+		b.filterNames = reportNames;
+		b.filterDropped = reportDropped;
+		b.filterReceived = received;
+	}
+}
@@ -0,0 +1,232 @@
+package com.example.locationservice;
+
+/**
+ * The usual FixFilter stages.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public final class FixFilters {
+
+	private FixFilters() {
+	}
+
+	/**
+	 * Drop a fix with the same time as the last accepted one of its
+	 * provider, or the same position and accuracy (provider sending its
+	 * cached fix again)
+	 */
+	public static class Duplicate implements FixFilter {
+
+		private final long[] lastTimes = new long[3];
+		private final double[] lastLats = new double[3];
+		private final double[] lastLons = new double[3];
+		private final float[] lastAccs = new float[3];
+		private final boolean[] seen = new boolean[3];
+
+		@Override
+		public String getName() {
+			return "duplicate";
+		}
+
+		@Override
+		public boolean accept(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+			int p = slot(provider);
+			if (!seen[p]) {
+				return true;
+			}
+			if (time == lastTimes[p]) {
+				return false;
+			}
+			return latitude != lastLats[p] || longitude != lastLons[p]
+					|| accuracy != lastAccs[p];
+		}
+
+		@Override
+		public void onAccepted(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+			int p = slot(provider);
+			seen[p] = true;
+			lastTimes[p] = time;
+			lastLats[p] = latitude;
+			lastLons[p] = longitude;
+			lastAccs[p] = accuracy;
+		}
+
+		private static int slot(byte provider) {
+			return provider >= 0 && provider < 3 ? provider : 0;
+		}
+	}
+
+	/**
+	 * Drop fixes less accurate than a threshold for their provider
+	 */
+	public static class Accuracy implements FixFilter {
+
+		private final float maxGps;
+		private final float maxNetwork;
+
+		/**
+		 * @param maxGps
+		 *            in meters
+		 * @param maxNetwork
+		 *            in meters
+		 */
+		public Accuracy(float maxGps, float maxNetwork) {
+			this.maxGps = maxGps;
+			this.maxNetwork = maxNetwork;
+		}
+
+		@Override
+		public String getName() {
+			return "accuracy";
+		}
+
+		@Override
+		public boolean accept(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+			float max = provider == LocationHistory.PROVIDER_GPS ? maxGps
+					: maxNetwork;
+			return accuracy <= max;
+		}
+
+		@Override
+		public void onAccepted(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+		}
+	}
+
+	/**
+	 * Drop a fix that would mean moving faster than maxSpeed from the last
+	 * accepted fix, both accuracies are given as margin. After maxRejected
+	 * fixes in a row the next one is accepted anyway, the last accepted fix
+	 * was probably the wrong one.
+	 */
+	public static class ImpliedSpeed implements FixFilter {
+
+		private final double maxSpeed;
+		private final int maxRejected;
+
+		private boolean hasLast;
+		private long lastTime;
+		private double lastLat;
+		private double lastLon;
+		private float lastAcc;
+		private int rejected;
+
+		/**
+		 * @param maxSpeed
+		 *            in m/s
+		 * @param maxRejected
+		 */
+		public ImpliedSpeed(double maxSpeed, int maxRejected) {
+			this.maxSpeed = maxSpeed;
+			this.maxRejected = maxRejected;
+		}
+
+		@Override
+		public String getName() {
+			return "implied speed";
+		}
+
+		@Override
+		public boolean accept(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+
+			if (!hasLast) {
+				return true;
+			}
+
+			// At least a second, times of two providers are not that precise
+			double dt = Math.max(1, Math.abs(time - lastTime) / 1000.0);
+			double d = SpatialIndex.distance(lastLat, lastLon, latitude,
+					longitude) - lastAcc - accuracy;
+
+			if (d <= maxSpeed * dt) {
+				return true;
+			}
+			if (rejected >= maxRejected) {
+				return true;
+			}
+			rejected++;
+			return false;
+		}
+
+		@Override
+		public void onAccepted(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+			hasLast = true;
+			lastTime = time;
+			lastLat = latitude;
+			lastLon = longitude;
+			lastAcc = accuracy;
+			rejected = 0;
+		}
+	}
+
+	/**
+	 * Drop the jitter while standing still: a slow fix inside the accuracy
+	 * circle of the last accepted one is dropped, still one fix is kept
+	 * every keepAliveMs so the track show we were there.
+	 */
+	public static class Stationary implements FixFilter {
+
+		private final float minRadius;
+		private final float maxSpeed;
+		private final long keepAliveMs;
+
+		private boolean hasAnchor;
+		private long anchorTime;
+		private double anchorLat;
+		private double anchorLon;
+		private float anchorAcc;
+
+		/**
+		 * @param minRadius
+		 *            radius in meters under which a move is jitter
+		 * @param maxSpeed
+		 *            reported speed in m/s over which we are moving
+		 * @param keepAliveMs
+		 *            keep one fix every keepAliveMs anyway
+		 */
+		public Stationary(float minRadius, float maxSpeed, long keepAliveMs) {
+			this.minRadius = minRadius;
+			this.maxSpeed = maxSpeed;
+			this.keepAliveMs = keepAliveMs;
+		}
+
+		@Override
+		public String getName() {
+			return "stationary";
+		}
+
+		@Override
+		public boolean accept(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+
+			if (!hasAnchor || speed > maxSpeed
+					|| time - anchorTime >= keepAliveMs) {
+				return true;
+			}
+			if (accuracy < anchorAcc) {
+				// Better fix of the same place, worth keeping
+				return true;
+			}
+
+			double radius = Math.max(minRadius, anchorAcc);
+			return SpatialIndex.distance(anchorLat, anchorLon, latitude,
+					longitude) > radius;
+		}
+
+		@Override
+		public void onAccepted(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed) {
+			hasAnchor = true;
+			anchorTime = time;
+			anchorLat = latitude;
+			anchorLon = longitude;
+			anchorAcc = accuracy;
+		}
+	}
+}
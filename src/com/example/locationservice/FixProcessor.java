@@ -0,0 +1,312 @@
+package com.example.locationservice;
+
+/**
+ * Processing of the fixes and provider events shared by the location service
+ * and ReplayTracker. A fix go through the filters and history (TrackerCore)
+ * and the fusion, is published and notified by the Target, then given to the
+ * geofences, the trip segmenter and the adaptive sampling, every stage timed
+ * by the metrics. The provider state shown in the report (tracked, status,
+ * outages) is kept here too.
+ *
+ * What is tied to the platform (Location objects, snapshot, sinks,
+ * broadcasts) is left to the Target. The core, fusion and provider state are
+ * also read by other threads in the service, add and the provider events
+ * must then be called with the lock of the target held.
+ *
+ * Plain java, no Android dependency. This class is not thread safe, only the
+ * sampling can be replaced from another thread.
+ *
+ */
+public class FixProcessor {
+
+	/**
+	 * Where the fixes go once processed, ie. the tracker
+	 */
+	public interface Target {
+
+		/**
+		 * Store the fix with add and publish the new state
+		 *
+		 * @param speed
+		 *            speed or NaN if not available
+		 * @param bearing
+		 *            bearing or NaN if not available
+		 * @return sequence number of the fix in the history or -1 if it was
+		 *         dropped by the filters
+		 */
+		long onFix(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed, float bearing);
+
+		/**
+		 * The fix was stored and published, notify it
+		 *
+		 * @param seq
+		 *            given by onFix
+		 */
+		void onFixAdded(long seq);
+
+		/**
+		 * The adaptive sampling changed of level, providers should be
+		 * registered again
+		 */
+		void onSamplingChanged();
+	}
+
+	private final Clock clock;
+	private final TrackerCore core;
+	private final TrackerMetrics metrics;
+	private final FusedLocationFilter fusion;
+
+	private GeofenceEngine geofences;
+	private GeofenceEngine.Listener geofenceListener;
+
+	private TripSegmenter segmenter;
+	private TripSegmenter.Listener segmentListener;
+
+	// Update interval from the speed, null if fixed
+	private volatile SamplingScheduler sampling;
+
+	// Provider state ////////
+	private boolean trackGPS;
+	private boolean trackNetwork;
+	private int gpsProviderStatus = TrackReplayer.STATUS_OUT_OF_SERVICE;
+	private int networkProviderStatus = TrackReplayer.STATUS_OUT_OF_SERVICE;
+	private int nbOfOutageForGps;
+	private int nbOfOutageForNet;
+
+	/**
+	 * @param clock
+	 *            the one of the core and of the metrics
+	 * @param core
+	 * @param metrics
+	 * @param fusion
+	 *            or null
+	 */
+	public FixProcessor(Clock clock, TrackerCore core, TrackerMetrics metrics,
+			FusedLocationFilter fusion) {
+		this.clock = clock;
+		this.core = core;
+		this.metrics = metrics;
+		this.fusion = fusion;
+	}
+
+	/**
+	 * @param geofences
+	 *            tested with every fix kept, null for none
+	 * @param listener
+	 *            receive the transitions
+	 */
+	public void setGeofences(GeofenceEngine geofences,
+			GeofenceEngine.Listener listener) {
+		this.geofences = geofences;
+		this.geofenceListener = listener;
+	}
+
+	/**
+	 * @param segmenter
+	 *            given every fix kept, null for none
+	 * @param listener
+	 *            receive the segments
+	 */
+	public void setSegmenter(TripSegmenter segmenter,
+			TripSegmenter.Listener listener) {
+		this.segmenter = segmenter;
+		this.segmentListener = listener;
+	}
+
+	/**
+	 * Can be called from any thread
+	 *
+	 * @param sampling
+	 *            or null if the interval is fixed
+	 */
+	public void setSampling(SamplingScheduler sampling) {
+		this.sampling = sampling;
+	}
+
+	public SamplingScheduler getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Process a received fix, the target store it
+	 *
+	 * @param target
+	 * @param provider
+	 *            LocationHistory.PROVIDER_*
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @param bearing
+	 *            bearing or NaN if not available
+	 * @return false if the fix was dropped by the filters
+	 */
+	public boolean process(Target target, byte provider, long time,
+			double latitude, double longitude, float accuracy, float speed,
+			float bearing) {
+
+		metrics.begin(provider, time, clock.nanoTime());
+
+		long seq = target.onFix(provider, time, latitude, longitude,
+				accuracy, speed, bearing);
+		if (seq < 0) {
+			metrics.end(true, clock.nanoTime());
+			return false; // Filtered
+		}
+
+		metrics.markAdded(clock.nanoTime());
+		target.onFixAdded(seq);
+
+		if (geofences != null && geofences.size() > 0) {
+			geofences.process(time, latitude, longitude, accuracy,
+					geofenceListener);
+		}
+
+		if (segmenter != null) {
+			segmenter.process(time, latitude, longitude, accuracy, speed,
+					segmentListener);
+		}
+
+		SamplingScheduler s = sampling;
+		if (s != null
+				&& s.onFix(time, fusion != null && fusion.hasFix() ? fusion
+						.getSpeed() : Float.NaN, accuracy)) {
+			target.onSamplingChanged();
+			metrics.count(TrackerMetrics.EVENT_SAMPLING_CHANGE);
+		}
+
+		metrics.end(false, clock.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Run the fix through the filters, add it to the history and update the
+	 * fusion if kept. For Target.onFix.
+	 *
+	 * @return sequence number of the fix in the history or -1 if it was
+	 *         dropped by the filters
+	 */
+	public long add(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed, float bearing) {
+
+		long seq = core.add(provider, time, latitude, longitude, accuracy,
+				speed);
+		if (seq >= 0 && fusion != null) {
+			fusion.update(time, latitude, longitude, accuracy, speed, bearing);
+		}
+		return seq;
+	}
+
+	/**
+	 * @param provider
+	 *            LocationHistory.PROVIDER_*
+	 * @param status
+	 *            TrackReplayer.STATUS_* (same as LocationProvider)
+	 */
+	public void onStatusChanged(byte provider, int status) {
+
+		boolean track = status != TrackReplayer.STATUS_OUT_OF_SERVICE;
+		if (provider == LocationHistory.PROVIDER_GPS) {
+			trackGPS = track;
+			gpsProviderStatus = status;
+			if (!track)
+				nbOfOutageForGps++;
+		} else if (provider == LocationHistory.PROVIDER_NETWORK) {
+			trackNetwork = track;
+			networkProviderStatus = status;
+			if (!track)
+				nbOfOutageForNet++;
+		}
+
+		metrics.count(TrackerMetrics.EVENT_STATUS);
+	}
+
+	public void onProviderEnabled(byte provider) {
+
+		if (provider == LocationHistory.PROVIDER_GPS) {
+			trackGPS = true;
+			gpsProviderStatus = TrackReplayer.STATUS_TEMPORARILY_UNAVAILABLE;
+		} else if (provider == LocationHistory.PROVIDER_NETWORK) {
+			trackNetwork = true;
+			networkProviderStatus = TrackReplayer.STATUS_TEMPORARILY_UNAVAILABLE;
+		}
+
+		metrics.count(TrackerMetrics.EVENT_PROVIDER_ENABLED);
+	}
+
+	public void onProviderDisabled(byte provider) {
+
+		if (provider == LocationHistory.PROVIDER_GPS) {
+			trackGPS = false;
+			gpsProviderStatus = TrackReplayer.STATUS_OUT_OF_SERVICE;
+			nbOfOutageForGps++;
+		} else if (provider == LocationHistory.PROVIDER_NETWORK) {
+			trackNetwork = false;
+			networkProviderStatus = TrackReplayer.STATUS_OUT_OF_SERVICE;
+			nbOfOutageForNet++;
+		}
+
+		metrics.count(TrackerMetrics.EVENT_PROVIDER_DISABLED);
+	}
+
+	public TrackerCore getCore() {
+		return core;
+	}
+
+	public TrackerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return fusion or null
+	 */
+	public FusedLocationFilter getFusion() {
+		return fusion;
+	}
+
+	public boolean isTrackGPS() {
+		return trackGPS;
+	}
+
+	public void setTrackGPS(boolean trackGPS) {
+		this.trackGPS = trackGPS;
+	}
+
+	public boolean isTrackNetwork() {
+		return trackNetwork;
+	}
+
+	public void setTrackNetwork(boolean trackNetwork) {
+		this.trackNetwork = trackNetwork;
+	}
+
+	public int getGpsProviderStatus() {
+		return gpsProviderStatus;
+	}
+
+	public void setGpsProviderStatus(int gpsProviderStatus) {
+		this.gpsProviderStatus = gpsProviderStatus;
+	}
+
+	public int getNetworkProviderStatus() {
+		return networkProviderStatus;
+	}
+
+	public void setNetworkProviderStatus(int networkProviderStatus) {
+		this.networkProviderStatus = networkProviderStatus;
+	}
+
+	/**
+	 * Fill the report with the provider state and what the core know
+	 *
+	 * @param b
+	 * @param full
+	 *            add the stats of each provider and of the filters
+	 */
+	public void fillReport(TrackerReport.Builder b, boolean full) {
+		b.trackGPS = trackGPS;
+		b.trackNetwork = trackNetwork;
+		b.nbOfOutageForGps = nbOfOutageForGps;
+		b.nbOfOutageForNet = nbOfOutageForNet;
+		core.fillReport(b, full);
+	}
+}
@@ -0,0 +1,505 @@
+package com.example.locationservice;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Server side tracking of many devices: each device has its own TrackerCore
+ * (history, stats, filters) and the latest position of every device can be
+ * queried by box.
+ *
+ * Devices are split in shards by id, each shard has a bounded ingest queue
+ * and a single thread that own the cores of its devices, so the tracking
+ * itself need no lock. When a queue is full submit wait up to a timeout
+ * (backpressure) then reject the fix, offer reject it at once.
+ *
+ * Latest positions are kept per shard in a DeviceGrid guarded by a
+ * read/write lock: the shard thread take the write lock once per batch of
+ * fixes taken from its queue and queries take the read lock of one shard at
+ * a time, so readers only contend with one writer and not with each other.
+ *
+ * Plain java, no Android dependency. Methods can be called from any thread.
+ *
+ */
+public class FleetTracker {
+
+	/**
+	 * Create the tracking state of a new device
+	 */
+	public interface CoreFactory {
+		TrackerCore newCore(long deviceId);
+	}
+
+	/**
+	 * Receive the devices found by a query, called with the shard locked so
+	 * it must be quick and not call the fleet tracker
+	 */
+	public interface Visitor {
+		void visit(long deviceId, long time, double latitude,
+				double longitude, float accuracy);
+	}
+
+	private final Shard[] shards;
+
+	/**
+	 * @param shardCount
+	 *            number of shards (and threads), ie. the number of cores
+	 * @param queueCapacity
+	 *            fixes waiting in the queue of each shard
+	 * @param cellSize
+	 *            grid cell size in degree, about the size of the usual query
+	 * @param factory
+	 *            called on the shard thread for each new device
+	 */
+	public FleetTracker(int shardCount, int queueCapacity, double cellSize,
+			CoreFactory factory) {
+
+		if (shardCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Invalid shard count : "
+					+ shardCount + " or capacity : " + queueCapacity);
+		}
+
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, queueCapacity, cellSize, factory);
+		}
+	}
+
+	/**
+	 * Start the shard threads
+	 */
+	public void start() {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].thread.start();
+		}
+	}
+
+	/**
+	 * Stop taking fixes, process the ones already queued and wait for the
+	 * shard threads to end
+	 *
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].stop();
+		}
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].thread.join();
+		}
+	}
+
+	/**
+	 * Queue a fix of a device, wait if the queue of its shard is full
+	 *
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @param timeoutMs
+	 *            maximum wait for room in the queue
+	 * @return false if the fix was rejected (queue still full or stopped)
+	 * @throws InterruptedException
+	 */
+	public boolean submit(long deviceId, byte provider, long time,
+			double latitude, double longitude, float accuracy, float speed,
+			long timeoutMs) throws InterruptedException {
+		return shards[shardOf(deviceId)].put(deviceId, provider, time,
+				latitude, longitude, accuracy, speed, timeoutMs);
+	}
+
+	/**
+	 * Queue a fix of a device if there is room
+	 *
+	 * @return false if the fix was rejected
+	 */
+	public boolean offer(long deviceId, byte provider, long time,
+			double latitude, double longitude, float accuracy, float speed) {
+		try {
+			return shards[shardOf(deviceId)].put(deviceId, provider, time,
+					latitude, longitude, accuracy, speed, 0);
+		} catch (InterruptedException e) {
+			// Never wait without timeout
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Find the devices whose latest position is in a box, minLongitude >
+	 * maxLongitude for a box crossing the antimeridian
+	 *
+	 * @return number of devices found
+	 */
+	public int findInBox(double minLatitude, double minLongitude,
+			double maxLatitude, double maxLongitude, Visitor visitor) {
+		int found = 0;
+		for (int i = 0; i < shards.length; i++) {
+			found += shards[i].findInBox(minLatitude, minLongitude,
+					maxLatitude, maxLongitude, visitor);
+		}
+		return found;
+	}
+
+	/**
+	 * @param deviceId
+	 * @param visitor
+	 *            receive the latest position of the device
+	 * @return false if no fix of this device was kept yet
+	 */
+	public boolean getLatest(long deviceId, Visitor visitor) {
+		return shards[shardOf(deviceId)].getLatest(deviceId, visitor);
+	}
+
+	/**
+	 * @return number of devices with a position
+	 */
+	public int getDeviceCount() {
+		int n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].getDeviceCount();
+		}
+		return n;
+	}
+
+	/**
+	 * @return fixes taken from the queues, filtered ones included
+	 */
+	public long getProcessedCount() {
+		long n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].processed;
+		}
+		return n;
+	}
+
+	/**
+	 * @return fixes dropped by the filters of the devices
+	 */
+	public long getFilteredCount() {
+		long n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].filtered;
+		}
+		return n;
+	}
+
+	/**
+	 * @return fixes rejected because a queue was full
+	 */
+	public long getRejectedCount() {
+		long n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].getRejected();
+		}
+		return n;
+	}
+
+	/**
+	 * @return fixes waiting in the queues
+	 */
+	public int getQueuedCount() {
+		int n = 0;
+		for (int i = 0; i < shards.length; i++) {
+			n += shards[i].getQueued();
+		}
+		return n;
+	}
+
+	/**
+	 * Spread consecutive ids over the shards
+	 */
+	int shardOf(long deviceId) {
+		long h = deviceId * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 33) % shards.length);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Queue, thread and devices of a shard
+	 */
+	private static class Shard implements Runnable {
+
+		final Thread thread;
+		private final CoreFactory factory;
+
+		// Ring of queued fixes, guarded by this
+		private final long[] qDevices;
+		private final byte[] qProviders;
+		private final long[] qTimes;
+		private final double[] qLatitudes;
+		private final double[] qLongitudes;
+		private final float[] qAccuracies;
+		private final float[] qSpeeds;
+		private int head;
+		private int size;
+		private boolean running = true;
+		private long rejected;
+
+		// Batch taken from the queue, only used by the shard thread
+		private final long[] bDevices;
+		private final byte[] bProviders;
+		private final long[] bTimes;
+		private final double[] bLatitudes;
+		private final double[] bLongitudes;
+		private final float[] bAccuracies;
+		private final float[] bSpeeds;
+		private final int[] bSlots;
+
+		// Cores of the devices by slot, only used by the shard thread
+		private TrackerCore[] cores = new TrackerCore[64];
+
+		// Written by the shard thread with the write lock, read with the
+		// read lock
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final DeviceGrid grid;
+		// Slot of each device id, slots are given in order
+		private final LongMap<Integer> slots = new LongMap<Integer>();
+		private long[] deviceIds = new long[64];
+		private long[] lastTimes = new long[64];
+		private float[] lastAccuracies = new float[64];
+
+		// Only written by the shard thread
+		volatile long processed;
+		volatile long filtered;
+
+		Shard(int index, int capacity, double cellSize, CoreFactory factory) {
+
+			this.factory = factory;
+			grid = new DeviceGrid(cellSize);
+
+			qDevices = new long[capacity];
+			qProviders = new byte[capacity];
+			qTimes = new long[capacity];
+			qLatitudes = new double[capacity];
+			qLongitudes = new double[capacity];
+			qAccuracies = new float[capacity];
+			qSpeeds = new float[capacity];
+
+			bDevices = new long[capacity];
+			bProviders = new byte[capacity];
+			bTimes = new long[capacity];
+			bLatitudes = new double[capacity];
+			bLongitudes = new double[capacity];
+			bAccuracies = new float[capacity];
+			bSpeeds = new float[capacity];
+			bSlots = new int[capacity];
+
+			thread = new Thread(this, "FleetShard-" + index);
+		}
+
+		synchronized boolean put(long deviceId, byte provider, long time,
+				double latitude, double longitude, float accuracy,
+				float speed, long timeoutMs) throws InterruptedException {
+
+			if (size == qDevices.length && timeoutMs > 0 && running) {
+				long end = System.nanoTime() + timeoutMs * 1000000L;
+				long wait = timeoutMs;
+				while (size == qDevices.length && wait > 0 && running) {
+					wait(wait);
+					// Round up, do not give up before the timeout
+					wait = (end - System.nanoTime() + 999999L) / 1000000L;
+				}
+			}
+
+			if (size == qDevices.length || !running) {
+				rejected++;
+				return false;
+			}
+
+			int i = (head + size) % qDevices.length;
+			qDevices[i] = deviceId;
+			qProviders[i] = provider;
+			qTimes[i] = time;
+			qLatitudes[i] = latitude;
+			qLongitudes[i] = longitude;
+			qAccuracies[i] = accuracy;
+			qSpeeds[i] = speed;
+			if (size++ == 0) {
+				notifyAll();
+			}
+			return true;
+		}
+
+		synchronized void stop() {
+			running = false;
+			notifyAll();
+		}
+
+		synchronized long getRejected() {
+			return rejected;
+		}
+
+		synchronized int getQueued() {
+			return size;
+		}
+
+		@Override
+		public void run() {
+			try {
+				int n;
+				while ((n = take()) > 0) {
+					process(n);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Wait for fixes and move all of them in the batch
+		 *
+		 * @return number of fixes in the batch, 0 when stopped
+		 */
+		private synchronized int take() throws InterruptedException {
+
+			while (size == 0 && running) {
+				wait();
+			}
+
+			int n = size;
+			for (int b = 0; b < n; b++) {
+				int i = head;
+				bDevices[b] = qDevices[i];
+				bProviders[b] = qProviders[i];
+				bTimes[b] = qTimes[i];
+				bLatitudes[b] = qLatitudes[i];
+				bLongitudes[b] = qLongitudes[i];
+				bAccuracies[b] = qAccuracies[i];
+				bSpeeds[b] = qSpeeds[i];
+				head = (head + 1) % qDevices.length;
+			}
+			size = 0;
+
+			// Producers waiting for room
+			notifyAll();
+			return n;
+		}
+
+		private void process(int n) {
+
+			// Track without lock, keep only the accepted fixes
+			int accepted = 0;
+			for (int b = 0; b < n; b++) {
+				int slot = slotOf(bDevices[b]);
+				if (cores[slot].add(bProviders[b], bTimes[b], bLatitudes[b],
+						bLongitudes[b], bAccuracies[b], bSpeeds[b]) < 0) {
+					continue;
+				}
+				bSlots[accepted] = slot;
+				bTimes[accepted] = bTimes[b];
+				bLatitudes[accepted] = bLatitudes[b];
+				bLongitudes[accepted] = bLongitudes[b];
+				bAccuracies[accepted] = bAccuracies[b];
+				accepted++;
+			}
+
+			// Publish the positions
+			lock.writeLock().lock();
+			try {
+				for (int a = 0; a < accepted; a++) {
+					int slot = bSlots[a];
+					if (bTimes[a] < lastTimes[slot]) {
+						continue; // Late fix
+					}
+					lastTimes[slot] = bTimes[a];
+					lastAccuracies[slot] = bAccuracies[a];
+					grid.update(slot, bLatitudes[a], bLongitudes[a]);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+
+			filtered += n - accepted;
+			processed += n;
+		}
+
+		/**
+		 * @return slot of the device, a new one with its core if not known
+		 */
+		private int slotOf(long deviceId) {
+
+			Integer known = slots.get(deviceId);
+			if (known != null) {
+				return known.intValue();
+			}
+
+			int slot = slots.size();
+			TrackerCore core = factory.newCore(deviceId);
+
+			lock.writeLock().lock();
+			try {
+				if (slot == deviceIds.length) {
+					int length = slot * 2;
+					TrackerCore[] c = new TrackerCore[length];
+					System.arraycopy(cores, 0, c, 0, slot);
+					cores = c;
+					long[] l = new long[length];
+					System.arraycopy(deviceIds, 0, l, 0, slot);
+					deviceIds = l;
+					l = new long[length];
+					System.arraycopy(lastTimes, 0, l, 0, slot);
+					lastTimes = l;
+					float[] f = new float[length];
+					System.arraycopy(lastAccuracies, 0, f, 0, slot);
+					lastAccuracies = f;
+				}
+				cores[slot] = core;
+				deviceIds[slot] = deviceId;
+				lastTimes[slot] = Long.MIN_VALUE;
+				slots.put(deviceId, Integer.valueOf(slot));
+			} finally {
+				lock.writeLock().unlock();
+			}
+			return slot;
+		}
+
+		int findInBox(double minLatitude, double minLongitude,
+				double maxLatitude, double maxLongitude, final Visitor visitor) {
+
+			lock.readLock().lock();
+			try {
+				return grid.findInBox(minLatitude, minLongitude, maxLatitude,
+						maxLongitude, new DeviceGrid.Visitor() {
+							@Override
+							public void visit(int slot, double latitude,
+									double longitude) {
+								visitor.visit(deviceIds[slot],
+										lastTimes[slot], latitude, longitude,
+										lastAccuracies[slot]);
+							}
+						});
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		boolean getLatest(long deviceId, Visitor visitor) {
+
+			lock.readLock().lock();
+			try {
+				Integer known = slots.get(deviceId);
+				if (known == null) {
+					return false;
+				}
+				int slot = known.intValue();
+				if (lastTimes[slot] == Long.MIN_VALUE) {
+					return false;
+				}
+				visitor.visit(deviceId, lastTimes[slot],
+						grid.getLatitude(slot), grid.getLongitude(slot),
+						lastAccuracies[slot]);
+				return true;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		int getDeviceCount() {
+			lock.readLock().lock();
+			try {
+				return grid.size();
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package com.example.locationservice;
+
+/**
+ * Fuse the GPS and network fixes in a single position with a constant
+ * velocity Kalman filter.
+ *
+ * Positions are kept in meters on a flat plane around a reference point,
+ * east and north are filtered independently (position and velocity, 2x2
+ * covariance each). Each fix is weighted by its accuracy, a fix older than
+ * the filter (ie. a late network fix) get a bigger variance for its age, and
+ * GPS speed and bearing are used as a velocity measurement when given.
+ *
+ * The state is only primitive fields, an update does not allocate.
+ *
+ * This class is not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class FusedLocationFilter {
+
+	private static final double METERS_PER_DEGREE = SpatialIndex.EARTH_RADIUS_M
+			* Math.PI / 180;
+
+	// Move the reference point when this far from it
+	private static final double MAX_OFFSET_M = 50000;
+
+	// Variance of the velocity of the first fix (10 m/s)
+	private static final double INITIAL_VELOCITY_VARIANCE = 100;
+
+	// Variance of a speed/bearing measurement (1 m/s)
+	private static final double VELOCITY_MEASURE_VARIANCE = 1;
+
+	private final double accelerationNoise;
+	private final double ageNoise;
+	private final long resetAfterMs;
+
+	private boolean initialized;
+	private long time;
+
+	// Reference of the plane
+	private double refLat;
+	private double refLon;
+	private double metersPerDegreeLon;
+
+	// East axis: position, velocity and covariance
+	private double x;
+	private double vx;
+	private double pxx;
+	private double pxv;
+	private double pvv;
+
+	// North axis
+	private double y;
+	private double vy;
+	private double pyy;
+	private double pyv;
+	private double pww;
+
+	/**
+	 * @param accelerationNoise
+	 *            how fast the speed can change, in m/s^2 (about 1 walking, 3
+	 *            driving)
+	 * @param ageNoise
+	 *            error added per second of age of a late fix, in m/s
+	 * @param resetAfterMs
+	 *            start again from the next fix after this time without fix
+	 */
+	public FusedLocationFilter(double accelerationNoise, double ageNoise,
+			long resetAfterMs) {
+		this.accelerationNoise = accelerationNoise * accelerationNoise;
+		this.ageNoise = ageNoise;
+		this.resetAfterMs = resetAfterMs;
+	}
+
+	/**
+	 * Add a fix
+	 * 
+	 * @param fixTime
+	 *            in ms
+	 * @param latitude
+	 * @param longitude
+	 * @param accuracy
+	 *            in meters
+	 * @param speed
+	 *            in m/s or NaN if not available
+	 * @param bearing
+	 *            in degree or NaN if not available
+	 */
+	public void update(long fixTime, double latitude, double longitude,
+			float accuracy, float speed, float bearing) {
+
+		double r = Math.max(accuracy, 1);
+		r *= r;
+
+		if (!initialized || fixTime - time > resetAfterMs) {
+			reset(fixTime, latitude, longitude, r);
+			return;
+		}
+
+		if (fixTime > time) {
+			predict((fixTime - time) / 1000.0);
+			time = fixTime;
+		} else {
+			// Late fix, we moved since
+			double age = (time - fixTime) / 1000.0 * ageNoise;
+			r += age * age;
+		}
+
+		if (Math.abs(x) > MAX_OFFSET_M || Math.abs(y) > MAX_OFFSET_M) {
+			moveReference();
+		}
+
+		double dLon = longitude - refLon;
+		if (dLon > 180) {
+			dLon -= 360; // Across the antimeridian
+		} else if (dLon < -180) {
+			dLon += 360;
+		}
+		double mx = dLon * metersPerDegreeLon;
+		double my = (latitude - refLat) * METERS_PER_DEGREE;
+
+		// East
+		double s = pxx + r;
+		double k0 = pxx / s;
+		double k1 = pxv / s;
+		double e = mx - x;
+		x += k0 * e;
+		vx += k1 * e;
+		pvv -= k1 * pxv;
+		pxv -= k0 * pxv;
+		pxx -= k0 * pxx;
+
+		// North
+		s = pyy + r;
+		k0 = pyy / s;
+		k1 = pyv / s;
+		e = my - y;
+		y += k0 * e;
+		vy += k1 * e;
+		pww -= k1 * pyv;
+		pyv -= k0 * pyv;
+		pyy -= k0 * pyy;
+
+		if (!Float.isNaN(speed) && !Float.isNaN(bearing) && fixTime >= time) {
+			double b = Math.toRadians(bearing);
+			updateVelocity(speed * Math.sin(b), speed * Math.cos(b));
+		}
+	}
+
+	/**
+	 * Speed measurement, velocity is observed directly (H = [0 1])
+	 */
+	private void updateVelocity(double mvx, double mvy) {
+
+		double s = pvv + VELOCITY_MEASURE_VARIANCE;
+		double k0 = pxv / s;
+		double k1 = pvv / s;
+		double e = mvx - vx;
+		x += k0 * e;
+		vx += k1 * e;
+		pxx -= k0 * pxv;
+		pxv -= k0 * pvv;
+		pvv -= k1 * pvv;
+
+		s = pww + VELOCITY_MEASURE_VARIANCE;
+		k0 = pyv / s;
+		k1 = pww / s;
+		e = mvy - vy;
+		y += k0 * e;
+		vy += k1 * e;
+		pyy -= k0 * pyv;
+		pyv -= k0 * pww;
+		pww -= k1 * pww;
+	}
+
+	private void predict(double dt) {
+
+		double q = accelerationNoise;
+		double dt2 = dt * dt;
+
+		x += vx * dt;
+		pxx += 2 * dt * pxv + dt2 * pvv + q * dt2 * dt / 3;
+		pxv += dt * pvv + q * dt2 / 2;
+		pvv += q * dt;
+
+		y += vy * dt;
+		pyy += 2 * dt * pyv + dt2 * pww + q * dt2 * dt / 3;
+		pyv += dt * pww + q * dt2 / 2;
+		pww += q * dt;
+	}
+
+	private void reset(long fixTime, double latitude, double longitude,
+			double variance) {
+		initialized = true;
+		time = fixTime;
+		refLat = latitude;
+		refLon = longitude;
+		metersPerDegreeLon = METERS_PER_DEGREE
+				* Math.cos(Math.toRadians(latitude));
+		x = y = 0;
+		vx = vy = 0;
+		pxx = pyy = variance;
+		pxv = pyv = 0;
+		pvv = pww = INITIAL_VELOCITY_VARIANCE;
+	}
+
+	/**
+	 * Put the reference on the current position, the state is only
+	 * translated
+	 */
+	private void moveReference() {
+		double lat = getLatitude();
+		double lon = getLongitude();
+		refLat = lat;
+		refLon = lon;
+		metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+		x = 0;
+		y = 0;
+	}
+
+	public void clear() {
+		initialized = false;
+	}
+
+	/**
+	 * @return if at least a fix was given
+	 */
+	public boolean hasFix() {
+		return initialized;
+	}
+
+	/**
+	 * @return time of the newest fix used
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public double getLatitude() {
+		return refLat + y / METERS_PER_DEGREE;
+	}
+
+	public double getLongitude() {
+		double lon = refLon + x / metersPerDegreeLon;
+		if (lon > 180) {
+			lon -= 360;
+		} else if (lon < -180) {
+			lon += 360;
+		}
+		return lon;
+	}
+
+	/**
+	 * @return standard deviation of the position in meters (worst axis)
+	 */
+	public float getAccuracy() {
+		return (float) Math.sqrt(Math.max(pxx, pyy));
+	}
+
+	/**
+	 * @return speed in m/s
+	 */
+	public float getSpeed() {
+		return (float) Math.sqrt(vx * vx + vy * vy);
+	}
+
+	/**
+	 * @return bearing in degree from the north [0, 360[
+	 */
+	public float getBearing() {
+		double b = Math.toDegrees(Math.atan2(vx, vy));
+		return (float) (b < 0 ? b + 360 : b);
+	}
+}
@@ -0,0 +1,588 @@
+package com.example.locationservice;
+
+import java.util.HashMap;
+
+/**
+ * Check fixes against a set of circular and polygonal zones and report
+ * when the device enter, exit or stay (dwell) in them.
+ *
+ * Fences are put in a grid of cells when added, a fix only test the fences
+ * of its cell and the fences it is already in. Fences covering too many
+ * cells are kept apart and tested on every fix. Distances use a local flat
+ * projection around each fence, precise enough at fence scale and much
+ * cheaper than great circle.
+ *
+ * Hysteresis: a fix enter a fence when its position is inside, it only exit
+ * when it is further than max(accuracy, minHysteresis) outside, so a fix
+ * jittering on the border does not produce a stream of enter/exit.
+ *
+ * This class is not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class GeofenceEngine {
+
+	// Same values as the Google Play geofence API
+	public static final int TRANSITION_ENTER = 1;
+	public static final int TRANSITION_EXIT = 2;
+	public static final int TRANSITION_DWELL = 4;
+
+	private static final double METERS_PER_DEGREE = SpatialIndex.EARTH_RADIUS_M
+			* Math.PI / 180;
+
+	// Fences over this number of cells are tested on every fix
+	private static final int MAX_CELLS_PER_FENCE = 64;
+
+	/**
+	 * Receive the transitions found for a fix
+	 */
+	public interface Listener {
+		void onTransition(String fenceId, int transition, long time,
+				double latitude, double longitude);
+	}
+
+	private final double cellSize;
+	private final float minHysteresis;
+
+	// Fences by index, a removed fence has a null id until its index is
+	// reused. fenceCount is the number of indexes ever used
+	private int fenceCount;
+	private String[] ids = new String[16];
+	private double[] originLats = new double[16];
+	private double[] originLons = new double[16];
+	private double[] cosLats = new double[16];
+	private double[] radiuses = new double[16]; // NaN for polygon
+	private double[][] xs = new double[16][]; // polygon in meters from origin
+	private double[][] ys = new double[16][];
+	private long[] dwellMs = new long[16];
+
+	// Cells covered by each fence, or large
+	private int[] minRows = new int[16];
+	private int[] maxRows = new int[16];
+	private int[] minCols = new int[16];
+	private int[] maxCols = new int[16];
+	private boolean[] large = new boolean[16];
+
+	// Indexes of removed fences
+	private int[] freeIndexes = new int[16];
+	private int freeCount;
+
+	// State of the fences
+	private boolean[] inside = new boolean[16];
+	private long[] enteredAt = new long[16];
+	private boolean[] dwellSent = new boolean[16];
+
+	private final HashMap<String, Integer> indexById = new HashMap<String, Integer>();
+
+	// Fences the device is in, they are tested even far from their cells
+	private int[] insideList = new int[16];
+	private int insideCount;
+
+	// Fences tested on every fix
+	private int[] largeFences = new int[16];
+	private int largeCount;
+
+	// Grid, open addressing table of cell to fence indexes
+	private long[] cellKeys = new long[256];
+	private int[][] cellFences = new int[256][];
+	private int[] cellSizes = new int[256];
+	private int usedCells;
+
+	// Avoid testing a fence twice for the same fix
+	private int[] testedStamp = new int[16];
+	private int stamp;
+
+	/**
+	 * @param cellSize
+	 *            grid cell size in degree, about the size of the fences
+	 * @param minHysteresis
+	 *            minimum distance in meters outside a fence before exiting
+	 */
+	public GeofenceEngine(double cellSize, float minHysteresis) {
+		this.cellSize = cellSize;
+		this.minHysteresis = minHysteresis;
+	}
+
+	/**
+	 * @return number of fences
+	 */
+	public int size() {
+		return indexById.size();
+	}
+
+	/**
+	 * Add a circular fence, replace any fence with the same id
+	 * 
+	 * @param id
+	 * @param latitude
+	 * @param longitude
+	 * @param radius
+	 *            in meters
+	 * @param dwellMs
+	 *            time inside before a dwell transition, 0 for none
+	 */
+	public void addCircle(String id, double latitude, double longitude,
+			double radius, long dwellMs) {
+
+		int f = newFence(id, latitude, longitude, dwellMs);
+		radiuses[f] = radius;
+
+		double dLat = radius / METERS_PER_DEGREE;
+		double dLon = dLat / Math.max(cosLats[f], 1e-6);
+		addToGrid(f, latitude - dLat, longitude - dLon, latitude + dLat,
+				longitude + dLon);
+	}
+
+	/**
+	 * Add a polygonal fence, replace any fence with the same id
+	 * 
+	 * @param id
+	 * @param latitudes
+	 *            vertices, the polygon is closed automatically
+	 * @param longitudes
+	 * @param dwellMs
+	 *            time inside before a dwell transition, 0 for none
+	 */
+	public void addPolygon(String id, double[] latitudes, double[] longitudes,
+			long dwellMs) {
+
+		int n = latitudes.length;
+		if (n < 3 || longitudes.length != n) {
+			throw new IllegalArgumentException("Invalid polygon");
+		}
+
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minLat = Math.min(minLat, latitudes[i]);
+			maxLat = Math.max(maxLat, latitudes[i]);
+			minLon = Math.min(minLon, longitudes[i]);
+			maxLon = Math.max(maxLon, longitudes[i]);
+		}
+
+		int f = newFence(id, (minLat + maxLat) / 2, (minLon + maxLon) / 2,
+				dwellMs);
+		radiuses[f] = Double.NaN;
+		xs[f] = new double[n];
+		ys[f] = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[f][i] = toX(f, longitudes[i]);
+			ys[f][i] = toY(f, latitudes[i]);
+		}
+
+		addToGrid(f, minLat, minLon, maxLat, maxLon);
+	}
+
+	/**
+	 * Remove a fence, no exit transition is sent
+	 * 
+	 * @return if the fence existed
+	 */
+	public boolean remove(String id) {
+		Integer index = indexById.remove(id);
+		if (index == null) {
+			return false;
+		}
+		int f = index.intValue();
+		ids[f] = null;
+		xs[f] = null;
+		ys[f] = null;
+		if (inside[f]) {
+			inside[f] = false;
+			removeInside(f);
+		}
+		removeFromGrid(f);
+		freeIndexes = append(freeIndexes, freeCount++, f);
+		return true;
+	}
+
+	/**
+	 * Test a fix and report the transitions
+	 * 
+	 * @param time
+	 * @param latitude
+	 * @param longitude
+	 * @param accuracy
+	 *            in meters
+	 * @param listener
+	 * @return number of transitions
+	 */
+	public int process(long time, double latitude, double longitude,
+			float accuracy, Listener listener) {
+
+		if (++stamp == 0) {
+			// Wrapped, forget every stamp
+			for (int i = 0; i < fenceCount; i++) {
+				testedStamp[i] = 0;
+			}
+			stamp = 1;
+		}
+
+		double hysteresis = Math.max(minHysteresis, accuracy);
+		int transitions = 0;
+
+		// Fences we are in first, may exit them
+		for (int i = insideCount - 1; i >= 0; i--) {
+			transitions += test(insideList[i], time, latitude, longitude,
+					hysteresis, listener);
+		}
+
+		for (int i = 0; i < largeCount; i++) {
+			transitions += test(largeFences[i], time, latitude, longitude,
+					hysteresis, listener);
+		}
+
+		int slot = findCell(key(row(latitude), col(longitude)));
+		int[] fences = cellFences[slot];
+		if (fences != null) {
+			int n = cellSizes[slot];
+			for (int i = 0; i < n; i++) {
+				transitions += test(fences[i], time, latitude, longitude,
+						hysteresis, listener);
+			}
+		}
+
+		return transitions;
+	}
+
+	private int test(int f, long time, double lat, double lon,
+			double hysteresis, Listener listener) {
+
+		if (testedStamp[f] == stamp || ids[f] == null) {
+			return 0;
+		}
+		testedStamp[f] = stamp;
+
+		double d = signedDistance(f, lat, lon);
+
+		if (!inside[f]) {
+			if (d > 0) {
+				return 0;
+			}
+			inside[f] = true;
+			enteredAt[f] = time;
+			dwellSent[f] = false;
+			addInside(f);
+			listener.onTransition(ids[f], TRANSITION_ENTER, time, lat, lon);
+			return 1;
+		}
+
+		if (d > hysteresis) {
+			inside[f] = false;
+			removeInside(f);
+			listener.onTransition(ids[f], TRANSITION_EXIT, time, lat, lon);
+			return 1;
+		}
+
+		if (!dwellSent[f] && dwellMs[f] > 0 && time - enteredAt[f] >= dwellMs[f]) {
+			dwellSent[f] = true;
+			listener.onTransition(ids[f], TRANSITION_DWELL, time, lat, lon);
+			return 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @return distance in meters to the border of the fence, negative inside
+	 */
+	private double signedDistance(int f, double lat, double lon) {
+
+		double px = toX(f, lon);
+		double py = toY(f, lat);
+
+		if (!Double.isNaN(radiuses[f])) {
+			return Math.sqrt(px * px + py * py) - radiuses[f];
+		}
+
+		double[] x = xs[f];
+		double[] y = ys[f];
+		int n = x.length;
+		boolean in = false;
+		double minSq = Double.MAX_VALUE;
+
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			// Ray casting
+			if ((y[i] > py) != (y[j] > py)
+					&& px < (x[j] - x[i]) * (py - y[i]) / (y[j] - y[i]) + x[i]) {
+				in = !in;
+			}
+			minSq = Math.min(minSq,
+					SpatialIndex.distanceSq(px, py, x[j], y[j], x[i], y[i]));
+		}
+
+		double dist = Math.sqrt(minSq);
+		return in ? -dist : dist;
+	}
+
+	private double toX(int f, double lon) {
+		double dLon = lon - originLons[f];
+		if (dLon > 180) {
+			dLon -= 360;
+		} else if (dLon < -180) {
+			dLon += 360;
+		}
+		return dLon * cosLats[f] * METERS_PER_DEGREE;
+	}
+
+	private double toY(int f, double lat) {
+		return (lat - originLats[f]) * METERS_PER_DEGREE;
+	}
+
+	private int newFence(String id, double lat, double lon, long dwell) {
+
+		remove(id);
+
+		int f;
+		if (freeCount > 0) {
+			f = freeIndexes[--freeCount];
+		} else {
+			if (fenceCount == ids.length) {
+				growFences();
+			}
+			f = fenceCount++;
+		}
+		ids[f] = id;
+		originLats[f] = lat;
+		originLons[f] = lon;
+		cosLats[f] = Math.cos(Math.toRadians(lat));
+		dwellMs[f] = dwell;
+		inside[f] = false;
+		dwellSent[f] = false;
+		testedStamp[f] = 0;
+		indexById.put(id, Integer.valueOf(f));
+		return f;
+	}
+
+	private void addToGrid(int f, double minLat, double minLon, double maxLat,
+			double maxLon) {
+
+		int r0 = row(minLat);
+		int r1 = row(maxLat);
+		int c0 = col(minLon);
+		int c1 = col(maxLon);
+
+		if ((long) (r1 - r0 + 1) * (c1 - c0 + 1) > MAX_CELLS_PER_FENCE
+				|| minLon < -180 || maxLon > 180) {
+			// Too big for the grid, or across the antimeridian
+			large[f] = true;
+			largeFences = append(largeFences, largeCount++, f);
+			return;
+		}
+
+		large[f] = false;
+		minRows[f] = r0;
+		maxRows[f] = r1;
+		minCols[f] = c0;
+		maxCols[f] = c1;
+
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				addToCell(key(r, c), f);
+			}
+		}
+	}
+
+	private void addToCell(long key, int f) {
+		int slot = findCell(key);
+		if (cellFences[slot] == null) {
+			cellKeys[slot] = key;
+			cellFences[slot] = new int[4];
+			usedCells++;
+			if (usedCells * 2 > cellKeys.length) {
+				growCells();
+				slot = findCell(key);
+			}
+		}
+		cellFences[slot] = append(cellFences[slot], cellSizes[slot]++, f);
+	}
+
+	private void removeFromGrid(int f) {
+
+		if (large[f]) {
+			for (int i = 0; i < largeCount; i++) {
+				if (largeFences[i] == f) {
+					largeFences[i] = largeFences[--largeCount];
+					return;
+				}
+			}
+			return;
+		}
+
+		for (int r = minRows[f]; r <= maxRows[f]; r++) {
+			for (int c = minCols[f]; c <= maxCols[f]; c++) {
+				removeFromCell(key(r, c), f);
+			}
+		}
+	}
+
+	private void removeFromCell(long key, int f) {
+		int slot = findCell(key);
+		int[] fences = cellFences[slot];
+		if (fences == null) {
+			return;
+		}
+		int n = cellSizes[slot];
+		for (int i = 0; i < n; i++) {
+			if (fences[i] == f) {
+				fences[i] = fences[--n];
+				cellSizes[slot] = n;
+				break;
+			}
+		}
+		if (n == 0) {
+			removeCell(slot);
+		}
+	}
+
+	/**
+	 * Free a slot of the cell table, the following cells of the probe
+	 * sequence are moved back so findCell still find them
+	 */
+	private void removeCell(int slot) {
+		int mask = cellKeys.length - 1;
+		cellFences[slot] = null;
+		cellSizes[slot] = 0;
+		usedCells--;
+
+		int i = slot;
+		while (true) {
+			i = (i + 1) & mask;
+			if (cellFences[i] == null) {
+				return;
+			}
+			int home = hash(cellKeys[i]) & mask;
+			// Can move to the free slot if its home is not between them
+			boolean between = slot <= i ? home > slot && home <= i
+					: home > slot || home <= i;
+			if (!between) {
+				cellKeys[slot] = cellKeys[i];
+				cellFences[slot] = cellFences[i];
+				cellSizes[slot] = cellSizes[i];
+				cellFences[i] = null;
+				cellSizes[i] = 0;
+				slot = i;
+			}
+		}
+	}
+
+	private int findCell(long key) {
+		int mask = cellKeys.length - 1;
+		int i = hash(key) & mask;
+		while (cellFences[i] != null && cellKeys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void growCells() {
+		long[] oldKeys = cellKeys;
+		int[][] oldFences = cellFences;
+		int[] oldSizes = cellSizes;
+		int capacity = oldKeys.length * 2;
+		cellKeys = new long[capacity];
+		cellFences = new int[capacity][];
+		cellSizes = new int[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldFences[i] != null) {
+				int slot = findCell(oldKeys[i]);
+				cellKeys[slot] = oldKeys[i];
+				cellFences[slot] = oldFences[i];
+				cellSizes[slot] = oldSizes[i];
+			}
+		}
+	}
+
+	private void addInside(int f) {
+		insideList = append(insideList, insideCount++, f);
+	}
+
+	private void removeInside(int f) {
+		for (int i = 0; i < insideCount; i++) {
+			if (insideList[i] == f) {
+				insideList[i] = insideList[--insideCount];
+				return;
+			}
+		}
+	}
+
+	private void growFences() {
+		int n = ids.length * 2;
+		String[] newIds = new String[n];
+		System.arraycopy(ids, 0, newIds, 0, fenceCount);
+		ids = newIds;
+		originLats = copy(originLats, n);
+		originLons = copy(originLons, n);
+		cosLats = copy(cosLats, n);
+		radiuses = copy(radiuses, n);
+		double[][] newXs = new double[n][];
+		double[][] newYs = new double[n][];
+		System.arraycopy(xs, 0, newXs, 0, fenceCount);
+		System.arraycopy(ys, 0, newYs, 0, fenceCount);
+		xs = newXs;
+		ys = newYs;
+		long[] newDwell = new long[n];
+		long[] newEntered = new long[n];
+		System.arraycopy(dwellMs, 0, newDwell, 0, fenceCount);
+		System.arraycopy(enteredAt, 0, newEntered, 0, fenceCount);
+		dwellMs = newDwell;
+		enteredAt = newEntered;
+		boolean[] newInside = new boolean[n];
+		boolean[] newDwellSent = new boolean[n];
+		System.arraycopy(inside, 0, newInside, 0, fenceCount);
+		System.arraycopy(dwellSent, 0, newDwellSent, 0, fenceCount);
+		inside = newInside;
+		dwellSent = newDwellSent;
+		int[] newStamp = new int[n];
+		System.arraycopy(testedStamp, 0, newStamp, 0, fenceCount);
+		testedStamp = newStamp;
+		minRows = copy(minRows, n);
+		maxRows = copy(maxRows, n);
+		minCols = copy(minCols, n);
+		maxCols = copy(maxCols, n);
+		boolean[] newLarge = new boolean[n];
+		System.arraycopy(large, 0, newLarge, 0, fenceCount);
+		large = newLarge;
+	}
+
+	private static double[] copy(double[] src, int size) {
+		double[] dst = new double[size];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, size));
+		return dst;
+	}
+
+	private static int[] copy(int[] src, int size) {
+		int[] dst = new int[size];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, size));
+		return dst;
+	}
+
+	/**
+	 * Set array[index] = value, growing the array if needed
+	 */
+	private static int[] append(int[] array, int index, int value) {
+		if (index == array.length) {
+			int[] bigger = new int[array.length * 2];
+			System.arraycopy(array, 0, bigger, 0, array.length);
+			array = bigger;
+		}
+		array[index] = value;
+		return array;
+	}
+
+	private int row(double latitude) {
+		return (int) Math.floor(latitude / cellSize);
+	}
+
+	private int col(double longitude) {
+		return (int) Math.floor(longitude / cellSize);
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+}
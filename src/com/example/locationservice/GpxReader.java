@@ -0,0 +1,345 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Read the track points of a GPX file (ie. written by TrackExporter), the
+ * whole file is parsed when created and the points kept in primitive arrays.
+ *
+ * GPX does not give the accuracy, it is estimated from hdop when present
+ * otherwise a default one is used. The provider is read from src ("gps",
+ * "network"), a point without it is a GPS one. Points without time are
+ * skipped.
+ *
+ * The file may come from anywhere, DTD and external entities are refused.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class GpxReader implements FixCursor {
+
+	// Rough accuracy of a GPS fix for a hdop of 1
+	private static final float METERS_PER_HDOP = 5;
+
+	private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+	private byte[] providers = new byte[256];
+	private long[] times = new long[256];
+	private double[] latitudes = new double[256];
+	private double[] longitudes = new double[256];
+	private float[] accuracies = new float[256];
+	private float[] speeds = new float[256];
+	private int size;
+
+	private int index = -1;
+
+	/**
+	 * Parse the GPX, the stream is not closed
+	 *
+	 * @param in
+	 * @param defaultAccuracy
+	 *            accuracy of the points without hdop, in meters
+	 * @throws IOException
+	 *             if the file can not be read or is not valid XML
+	 */
+	public GpxReader(InputStream in, float defaultAccuracy) throws IOException {
+		try {
+			newParserFactory().newSAXParser().parse(in,
+					new Handler(defaultAccuracy));
+		} catch (SAXException e) {
+			IOException ex = new IOException("Invalid GPX : " + e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		} catch (ParserConfigurationException e) {
+			IOException ex = new IOException("No XML parser : "
+					+ e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	private static SAXParserFactory newParserFactory()
+			throws ParserConfigurationException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING);
+		setFeature(factory, DISALLOW_DOCTYPE);
+		return factory;
+	}
+
+	private static void setFeature(SAXParserFactory factory, String feature)
+			throws ParserConfigurationException {
+		try {
+			factory.setFeature(feature, true);
+		} catch (SAXNotRecognizedException e) {
+			// The Android parser only know the SAX features, it never load
+			// external entities
+		} catch (SAXNotSupportedException e) {
+			// Same
+		}
+	}
+
+	/**
+	 * @return number of points read
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean moveToNext() {
+		if (index + 1 >= size) {
+			return false;
+		}
+		index++;
+		return true;
+	}
+
+	@Override
+	public byte getProvider() {
+		return providers[index];
+	}
+
+	@Override
+	public long getTime() {
+		return times[index];
+	}
+
+	@Override
+	public double getLatitude() {
+		return latitudes[index];
+	}
+
+	@Override
+	public double getLongitude() {
+		return longitudes[index];
+	}
+
+	@Override
+	public float getAccuracy() {
+		return accuracies[index];
+	}
+
+	@Override
+	public float getSpeed() {
+		return speeds[index];
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void append(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+
+		if (size == times.length) {
+			int n = size * 2;
+			byte[] p = new byte[n];
+			System.arraycopy(providers, 0, p, 0, size);
+			providers = p;
+			long[] t = new long[n];
+			System.arraycopy(times, 0, t, 0, size);
+			times = t;
+			double[] d = new double[n];
+			System.arraycopy(latitudes, 0, d, 0, size);
+			latitudes = d;
+			d = new double[n];
+			System.arraycopy(longitudes, 0, d, 0, size);
+			longitudes = d;
+			float[] f = new float[n];
+			System.arraycopy(accuracies, 0, f, 0, size);
+			accuracies = f;
+			f = new float[n];
+			System.arraycopy(speeds, 0, f, 0, size);
+			speeds = f;
+		}
+
+		providers[size] = provider;
+		times[size] = time;
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		accuracies[size] = accuracy;
+		speeds[size] = speed;
+		size++;
+	}
+
+	/**
+	 * Parse a xsd:dateTime, "2013-05-01T12:30:00.250Z" or with a offset
+	 *
+	 * @param s
+	 * @param utc
+	 *            reused calendar
+	 * @return time in ms
+	 * @throws NumberFormatException
+	 *             if not a date
+	 */
+	static long parseTime(String s, Calendar utc) {
+
+		if (s.length() < 19 || s.charAt(4) != '-' || s.charAt(7) != '-'
+				|| s.charAt(10) != 'T' || s.charAt(13) != ':'
+				|| s.charAt(16) != ':') {
+			throw new NumberFormatException("Invalid time : " + s);
+		}
+
+		utc.clear();
+		utc.set(digits(s, 0, 4), digits(s, 5, 7) - 1, digits(s, 8, 10),
+				digits(s, 11, 13), digits(s, 14, 16), digits(s, 17, 19));
+		long time = utc.getTimeInMillis();
+
+		int i = 19;
+		if (i < s.length() && s.charAt(i) == '.') {
+			int start = ++i;
+			while (i < s.length() && Character.isDigit(s.charAt(i))) {
+				i++;
+			}
+			String fraction = (s.substring(start, i) + "000").substring(0, 3);
+			time += Integer.parseInt(fraction);
+		}
+
+		if (i == s.length() - 1 && s.charAt(i) == 'Z') {
+			return time;
+		}
+
+		if (i < s.length()) {
+			// +hh:mm or -hh:mm
+			char sign = s.charAt(i);
+			if (s.length() != i + 6 || (sign != '+' && sign != '-')
+					|| s.charAt(i + 3) != ':') {
+				throw new NumberFormatException("Invalid time offset : " + s);
+			}
+			int minutes = digits(s, i + 1, i + 3) * 60
+					+ digits(s, i + 4, i + 6);
+			time -= (sign == '-' ? -minutes : minutes) * 60000L;
+		}
+
+		return time;
+	}
+
+	/**
+	 * @return value of the digits from start to end, no sign allowed
+	 * @throws NumberFormatException
+	 *             if one is not a digit
+	 */
+	private static int digits(String s, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException("Invalid time : " + s);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	private class Handler extends DefaultHandler {
+
+		private final float defaultAccuracy;
+		private final Calendar utc = Calendar.getInstance(TimeZone
+				.getTimeZone("UTC"));
+		private final StringBuilder text = new StringBuilder();
+
+		// Point being read
+		private boolean inPoint;
+		private double lat;
+		private double lon;
+		private long time;
+		private byte provider;
+		private float accuracy;
+		private float speed;
+
+		Handler(float defaultAccuracy) {
+			this.defaultAccuracy = defaultAccuracy;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) throws SAXException {
+
+			text.setLength(0);
+			if ("trkpt".equals(name(localName, qName))) {
+				inPoint = true;
+				lat = parseCoordinate(attributes, "lat");
+				lon = parseCoordinate(attributes, "lon");
+				time = Long.MIN_VALUE;
+				provider = LocationHistory.PROVIDER_GPS;
+				accuracy = defaultAccuracy;
+				speed = Float.NaN;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inPoint) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+				throws SAXException {
+
+			if (!inPoint) {
+				return;
+			}
+
+			String name = name(localName, qName);
+			String value = text.toString().trim();
+			text.setLength(0);
+
+			try {
+				if ("trkpt".equals(name)) {
+					inPoint = false;
+					if (time != Long.MIN_VALUE) {
+						append(provider, time, lat, lon, accuracy, speed);
+					}
+				} else if ("time".equals(name)) {
+					time = parseTime(value, utc);
+				} else if ("src".equals(name)) {
+					provider = "network".equals(value) ? LocationHistory.PROVIDER_NETWORK
+							: LocationHistory.PROVIDER_GPS;
+				} else if ("hdop".equals(name)) {
+					accuracy = Float.parseFloat(value) * METERS_PER_HDOP;
+				} else if ("speed".equals(name)) {
+					speed = Float.parseFloat(value);
+				}
+			} catch (NumberFormatException e) {
+				throw new SAXException("Invalid " + name + " : " + value);
+			}
+		}
+
+		private double parseCoordinate(Attributes attributes, String name)
+				throws SAXException {
+			String value = attributes.getValue(name);
+			if (value == null) {
+				throw new SAXException("Point without " + name);
+			}
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new SAXException("Invalid " + name + " : " + value);
+			}
+		}
+
+		private String name(String localName, String qName) {
+			String n = localName != null && localName.length() > 0 ? localName
+					: qName;
+			int colon = n.indexOf(':');
+			return colon < 0 ? n : n.substring(colon + 1);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.example.locationservice;
+
+import com.example.locationservice.LocationHistory.HistoryView;
+
+/**
+ * FixCursor over a history view, from the oldest fix to the newest. The view
+ * must not change while reading, use a HistorySnapshot from other threads.
+ *
+ */
+public class HistoryCursor implements FixCursor {
+
+	private final HistoryView view;
+	private int index = -1;
+
+	public HistoryCursor(HistoryView view) {
+		this.view = view;
+	}
+
+	@Override
+	public boolean moveToNext() {
+		if (index + 1 >= view.size()) {
+			return false;
+		}
+		index++;
+		return true;
+	}
+
+	@Override
+	public byte getProvider() {
+		return view.getProvider(index);
+	}
+
+	@Override
+	public long getTime() {
+		return view.getTime(index);
+	}
+
+	@Override
+	public double getLatitude() {
+		return view.getLatitude(index);
+	}
+
+	@Override
+	public double getLongitude() {
+		return view.getLongitude(index);
+	}
+
+	@Override
+	public float getAccuracy() {
+		return view.getAccuracy(index);
+	}
+
+	@Override
+	public float getSpeed() {
+		return view.getSpeed(index);
+	}
+
+	@Override
+	public void close() {
+	}
+}
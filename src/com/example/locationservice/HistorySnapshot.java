@@ -0,0 +1,93 @@
+package com.example.locationservice;
+
+/**
+ * Immutable view of the fixes kept in a LocationHistory, safe to read from
+ * any thread while the tracker keep receiving location. It can hold only the
+ * fixes newer than a given sequence number so a reader can follow the
+ * history incrementally.
+ *
+ * Nothing is copied, the snapshot share the chunk table of the history: the
+ * history never write a slot twice nor modify a table so what was added
+ * before the snapshot stay as is.
+ *
+ */
+public class HistorySnapshot extends LocationHistory.ChunkView {
+
+	private final LocationHistory.Chunk[] chunks;
+	private final long oldestSeq;
+	private final long historyOldestSeq;
+	private final long nextSeq;
+
+	/**
+	 * Take fixes of this history starting at fromSeq (or the oldest one if
+	 * already dropped), caller must make sure the history does not change
+	 * while taking it
+	 *
+	 * @param history
+	 * @param fromSeq
+	 */
+	HistorySnapshot(LocationHistory history, long fromSeq) {
+		this(history.getChunks(), history.getOldestSequence(), history
+				.getNextSequence(), fromSeq);
+	}
+
+	private HistorySnapshot(LocationHistory.Chunk[] chunks,
+			long historyOldestSeq, long nextSeq, long fromSeq) {
+		this.chunks = chunks;
+		this.historyOldestSeq = historyOldestSeq;
+		this.nextSeq = nextSeq;
+		oldestSeq = Math.min(Math.max(fromSeq, historyOldestSeq), nextSeq);
+	}
+
+	/**
+	 * Part of this snapshot from a sequence number, nothing is copied
+	 *
+	 * @param fromSeq
+	 *            sequence number of the first fix wanted, usually
+	 *            getNextSequence of a previous snapshot
+	 * @return snapshot of the fixes from fromSeq
+	 */
+	public HistorySnapshot since(long fromSeq) {
+		if (fromSeq <= oldestSeq) {
+			return this;
+		}
+		return new HistorySnapshot(chunks, historyOldestSeq, nextSeq, fromSeq);
+	}
+
+	/**
+	 * @param seq
+	 * @return if the fix with this sequence number is in this snapshot
+	 */
+	public boolean contains(long seq) {
+		return seq >= oldestSeq && seq < nextSeq;
+	}
+
+	/**
+	 * @return sequence number of the oldest fix the history still had when
+	 *         this copy was made, fixes before it have been dropped
+	 */
+	public long getHistoryOldestSequence() {
+		return historyOldestSeq;
+	}
+
+	/**
+	 * @return sequence number the history will give to its next fix, use it
+	 *         to ask only for newer fixes next time
+	 */
+	public long getNextSequence() {
+		return nextSeq;
+	}
+
+	protected LocationHistory.Chunk[] chunks() {
+		return chunks;
+	}
+
+	public int size() {
+		return (int) (nextSeq - oldestSeq);
+	}
+
+	public long getSequence(int index) {
+		checkIndex(index);
+		return oldestSeq + index;
+	}
+}
@@ -0,0 +1,93 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Send the batches of TrackUploader with a HTTP POST, the body is the batch
+ * in track format and the X-Batch-Id header let the server ignore a batch
+ * received twice.
+ *
+ * 2xx is a success, 4xx (except 408 and 429) is a refusal for good, anything
+ * else or a network error is retried.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class HttpTrackTransport implements TrackUploader.Transport {
+
+	public static final String CONTENT_TYPE = "application/x-track";
+	public static final String HEADER_BATCH_ID = "X-Batch-Id";
+
+	private final URL url;
+	private final int timeoutMs;
+
+	/**
+	 * @param url
+	 *            where batches are posted
+	 * @param timeoutMs
+	 *            connect and read timeout
+	 */
+	public HttpTrackTransport(URL url, int timeoutMs) {
+		this.url = url;
+		this.timeoutMs = timeoutMs;
+	}
+
+	@Override
+	public boolean send(String batchId, byte[] data, int length)
+			throws IOException {
+
+		HttpURLConnection c = (HttpURLConnection) url.openConnection();
+		int code;
+		try {
+			c.setConnectTimeout(timeoutMs);
+			c.setReadTimeout(timeoutMs);
+			c.setDoOutput(true);
+			c.setFixedLengthStreamingMode(length);
+			c.setRequestMethod("POST");
+			c.setRequestProperty("Content-Type", CONTENT_TYPE);
+			c.setRequestProperty(HEADER_BATCH_ID, batchId);
+
+			OutputStream out = c.getOutputStream();
+			try {
+				out.write(data, 0, length);
+			} finally {
+				out.close();
+			}
+
+			code = c.getResponseCode();
+			drain(code < 400 ? c.getInputStream() : c.getErrorStream());
+		} catch (IOException e) {
+			// Do not reuse a broken connection
+			c.disconnect();
+			throw e;
+		}
+
+		if (code >= 200 && code < 300) {
+			return true;
+		}
+		if (code >= 400 && code < 500 && code != 408 && code != 429) {
+			return false;
+		}
+		throw new IOException("HTTP " + code);
+	}
+
+	/**
+	 * Read the response so the connection can be reused
+	 */
+	private static void drain(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buf = new byte[512];
+			while (in.read(buf) >= 0) {
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
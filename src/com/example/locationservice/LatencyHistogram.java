@@ -0,0 +1,151 @@
+package com.example.locationservice;
+
+/**
+ * Histogram of positive long values (latencies, ages, intervals) with a
+ * bounded relative error, like HdrHistogram but much smaller.
+ *
+ * Values under 2 * SUB_BUCKETS are counted exactly, over it each power of two
+ * is split in SUB_BUCKETS buckets so a value is known within 1/SUB_BUCKETS
+ * (about 6%). Counts are a single preallocated array, recording a value is a
+ * few shifts and a increment and never allocate. Values over the highest
+ * trackable one are counted in the last bucket (max stay exact).
+ *
+ * Plain java, no Android dependency. This class is not thread safe.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts;
+	private final long highestTrackable;
+
+	private long totalCount;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	/**
+	 * @param highestTrackable
+	 *            larger values are counted as this one for percentiles
+	 */
+	public LatencyHistogram(long highestTrackable) {
+
+		if (highestTrackable < 2 * SUB_BUCKETS) {
+			throw new IllegalArgumentException("Invalid highest value : "
+					+ highestTrackable);
+		}
+
+		this.highestTrackable = highestTrackable;
+		counts = new long[indexOf(highestTrackable) + 1];
+	}
+
+	public void record(long value) {
+
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts[indexOf(Math.min(value, highestTrackable))]++;
+		totalCount++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		totalCount = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return smallest value recorded, 0 if empty
+	 */
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) sum / totalCount;
+	}
+
+	/**
+	 * @param percentile
+	 *            0 to 100
+	 * @return highest value equivalent to the value at this percentile, 0 if
+	 *         empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] values = new long[1];
+		getValuesAtPercentiles(new double[] { percentile }, values);
+		return values[0];
+	}
+
+	/**
+	 * Find several percentiles in a single pass over the buckets
+	 *
+	 * @param percentiles
+	 *            0 to 100, in increasing order
+	 * @param values
+	 *            receive the value of each percentile
+	 */
+	public void getValuesAtPercentiles(double[] percentiles, long[] values) {
+
+		int p = 0;
+		long seen = 0;
+
+		for (int i = 0; i < counts.length && p < percentiles.length; i++) {
+			seen += counts[i];
+			while (p < percentiles.length && seen > 0
+					&& seen >= countAtPercentile(percentiles[p])) {
+				values[p++] = Math.min(highestEquivalentValue(i), max);
+			}
+		}
+
+		while (p < percentiles.length) {
+			values[p++] = max;
+		}
+	}
+
+	private long countAtPercentile(double percentile) {
+		long count = (long) Math.ceil(percentile / 100 * totalCount);
+		return Math.max(1, count);
+	}
+
+	static int indexOf(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		if (msb <= SUB_BUCKET_BITS) {
+			return (int) value;
+		}
+		int shift = msb - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift)
+				- SUB_BUCKETS;
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
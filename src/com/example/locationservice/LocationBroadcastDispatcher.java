@@ -0,0 +1,247 @@
+package com.example.locationservice;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+
+/**
+ * Send the INTENT_LOCATION_UPDATED broadcast without flooding subscribers.
+ *
+ * Subscribers are grouped in channels, one per subscriber class (ie. the map
+ * or the report screen), identified by a intent category. Each fix start a
+ * short coalescing window so a burst of GPS and network fixes end up in a
+ * single broadcast, then each channel send at most one broadcast per
+ * configured interval with the latest location. The number of fixes merged
+ * in a broadcast is given in EXTRA_COALESCED_COUNT.
+ *
+ * The default channel send the broadcast without category, only coalesced,
+ * so receivers registered without category keep getting every update. A
+ * IntentFilter with a category also match a intent without category, a
+ * receiver of a throttled channel must ignore the intents that do not have
+ * its category (Intent.hasCategory).
+ *
+ * Must be used from the thread of the looper given to the constructor.
+ *
+ */
+public class LocationBroadcastDispatcher {
+
+	// Number of location update merged into this broadcast (0 = none)
+	public static final String EXTRA_COALESCED_COUNT = "coalescedUpdateCount";
+
+	// Name of the channel without category in the report
+	private static final String DEFAULT_CHANNEL = "default";
+
+	private final LocalBroadcastManager lbm;
+
+	private final Handler handler;
+
+	private final long coalesceWindowMs;
+
+	// Count the broadcasts really sent, on the looper thread
+	private final TrackerMetrics metrics;
+
+	private final ArrayList<Channel> channels;
+
+	private Location latest;
+
+	// Counters are read by the report from other threads
+	private volatile long submittedCount;
+
+	// Given to the reports, copied again only when a counter changed
+	private String[] reportChannels;
+	private long[] reportSent;
+	private long[] reportCoalesced;
+
+	/**
+	 * @param ctx
+	 * @param looper
+	 *            looper used to send delayed broadcast
+	 * @param coalesceWindowMs
+	 *            time to wait for other fixes before sending
+	 * @param metrics
+	 *            get a EVENT_BROADCAST_LOCATION per broadcast sent, must be
+	 *            recorded from the looper thread
+	 */
+	public LocationBroadcastDispatcher(Context ctx, Looper looper,
+			long coalesceWindowMs, TrackerMetrics metrics) {
+		lbm = LocalBroadcastManager.getInstance(ctx);
+		handler = new Handler(looper);
+		this.coalesceWindowMs = coalesceWindowMs;
+		this.metrics = metrics;
+		channels = new ArrayList<Channel>();
+		channels.add(new Channel(null, 0));
+	}
+
+	/**
+	 * Add a subscriber class, they need to add this category to their
+	 * IntentFilter and ignore the broadcasts of the default channel
+	 *
+	 * @param category
+	 * @param minIntervalMs
+	 *            minimum time between two broadcast for this channel
+	 */
+	public void addChannel(String category, long minIntervalMs) {
+		channels.add(new Channel(category, minIntervalMs));
+	}
+
+	/**
+	 * A new location was received, schedule a broadcast on every channel that
+	 * does not have one pending
+	 *
+	 * @param location
+	 */
+	public void submit(Location location) {
+
+		latest = location;
+		submittedCount++;
+
+		long now = SystemClock.uptimeMillis();
+
+		for (int i = 0; i < channels.size(); i++) {
+			Channel c = channels.get(i);
+			c.pendingCount++;
+			if (!c.scheduled) {
+				c.scheduled = true;
+				long sendAt = Math.max(now + coalesceWindowMs, c.lastSentAt
+						+ c.minIntervalMs);
+				handler.postAtTime(c, sendAt);
+			}
+		}
+	}
+
+	/**
+	 * Drop every pending broadcast
+	 */
+	public void cancel() {
+		for (int i = 0; i < channels.size(); i++) {
+			Channel c = channels.get(i);
+			handler.removeCallbacks(c);
+			c.scheduled = false;
+			c.pendingCount = 0;
+		}
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	/**
+	 * @return number of location update that did not get their own broadcast
+	 *         over all channels
+	 */
+	public long getCoalescedCount() {
+		long total = 0;
+		for (int i = 0; i < channels.size(); i++) {
+			total += channels.get(i).coalescedCount;
+		}
+		return total;
+	}
+
+	/**
+	 * @return number of broadcast sent over all channels
+	 */
+	public long getDispatchedCount() {
+		long total = 0;
+		for (int i = 0; i < channels.size(); i++) {
+			total += channels.get(i).dispatchedCount;
+		}
+		return total;
+	}
+
+	/**
+	 * Copy the dispatcher counters into the report builder, can be called
+	 * from any thread but not concurrently (ie. with the tracker lock). The
+	 * arrays are shared with the previous report if no broadcast was sent
+	 * since.
+	 *
+	 * @param b
+	 */
+	void fillReport(TrackerReport.Builder b) {
+
+		int size = channels.size();
+		if (reportChannels == null || reportChannels.length != size) {
+			reportChannels = new String[size];
+			for (int i = 0; i < size; i++) {
+				String category = channels.get(i).category;
+				reportChannels[i] = category != null ? category
+						: DEFAULT_CHANNEL;
+			}
+			reportSent = null;
+		}
+
+		boolean changed = reportSent == null;
+		for (int i = 0; i < size && !changed; i++) {
+			Channel c = channels.get(i);
+			changed = c.dispatchedCount != reportSent[i]
+					|| c.coalescedCount != reportCoalesced[i];
+		}
+		if (changed) {
+			reportSent = new long[size];
+			reportCoalesced = new long[size];
+			for (int i = 0; i < size; i++) {
+				Channel c = channels.get(i);
+				reportSent[i] = c.dispatchedCount;
+				reportCoalesced[i] = c.coalescedCount;
+			}
+		}
+
+		b.dispatchChannels = reportChannels;
+		b.dispatchSent = reportSent;
+		b.dispatchCoalesced = reportCoalesced;
+		b.dispatchSubmitted = submittedCount;
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Throttle state of a subscriber class, category is null for the
+	 * default channel
+	 */
+	private class Channel implements Runnable {
+
+		final String category;
+		final long minIntervalMs;
+
+		boolean scheduled;
+		int pendingCount;
+		long lastSentAt = Long.MIN_VALUE / 2;
+
+		volatile long dispatchedCount;
+		volatile long coalescedCount;
+
+		Channel(String category, long minIntervalMs) {
+			this.category = category;
+			this.minIntervalMs = minIntervalMs;
+		}
+
+		@Override
+		public void run() {
+
+			scheduled = false;
+			if (pendingCount == 0) {
+				return;
+			}
+
+			Intent i = new Intent(LocationService.INTENT_LOCATION_UPDATED);
+			if (category != null) {
+				i.addCategory(category);
+			}
+			// Put location inside the extra (PARCELABLE)
+			i.putExtra(LocationService.EXTRA_LOCATION, latest);
+			i.putExtra(EXTRA_COALESCED_COUNT, pendingCount - 1);
+			lbm.sendBroadcast(i);
+			metrics.count(TrackerMetrics.EVENT_BROADCAST_LOCATION);
+
+			dispatchedCount++;
+			coalescedCount += pendingCount - 1;
+			pendingCount = 0;
+			lastSentAt = SystemClock.uptimeMillis();
+		}
+	}
+}
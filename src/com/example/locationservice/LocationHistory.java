@@ -0,0 +1,486 @@
+package com.example.locationservice;
+
+/**
+ * Fixed capacity history of location fixes.
+ *
+ * Fixes are kept in chunks of parallel primitive arrays (CHUNK_SIZE fixes
+ * each) so adding a fix and evicting the oldest one are both O(1) and only a
+ * chunk is allocated every CHUNK_SIZE fixes. Every fix is stored only once,
+ * the GPS and network histories are only chunks of sequence numbers pointing
+ * into the shared storage.
+ *
+ * A slot is never written twice: when the oldest chunk is dropped a new one
+ * replace it in the chunk table instead of being reused, and the table is
+ * copied before (once every CHUNK_SIZE fixes) instead of being modified. So
+ * the current table (see snapshot and freezeGps) is a immutable view of the
+ * history at this time and can be read from any thread once published, it
+ * cost neither a copy of the fixes nor of the table. The views are reused
+ * until the history change.
+ *
+ * Speed is optional and kept as NaN when the provider did not give one.
+ *
+ * Each fix get a sequence number (first fix is 0) that never change, index 0
+ * of a view is always the oldest fix still kept.
+ *
+ * This class is not thread safe, the tracker is responsible of locking.
+ *
+ */
+public class LocationHistory {
+
+	public static final byte PROVIDER_UNKNOWN = 0;
+	public static final byte PROVIDER_GPS = 1;
+	public static final byte PROVIDER_NETWORK = 2;
+
+	static final int CHUNK_SHIFT = 8;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int capacity;
+
+	// Ring of chunks, chunk of a sequence number is seq >> CHUNK_SHIFT.
+	// Copied on write, a table once replaced never change.
+	private Chunk[] chunks;
+
+	// Sequence number that will be given to the next fix
+	private long nextSeq;
+
+	// Sequence number of the first fix added (not 0 after a resize)
+	private long firstSeq;
+
+	private final ProviderIndex gpsIndex;
+	private final ProviderIndex networkIndex;
+
+	private final HistoryView allView;
+
+	// Last snapshot given, reused while no fix is added
+	private HistorySnapshot snapshot;
+
+	public LocationHistory(int capacity) {
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid history capacity : "
+					+ capacity);
+		}
+
+		this.capacity = capacity;
+
+		chunks = new Chunk[chunkTableSize(capacity)];
+
+		nextSeq = 0;
+
+		gpsIndex = new ProviderIndex(capacity);
+		networkIndex = new ProviderIndex(capacity);
+
+		allView = new AllView();
+	}
+
+	/**
+	 * The kept fixes can span a partial chunk at both ends, one more slot
+	 * make sure a chunk is only replaced once all its fixes are evicted
+	 */
+	private static int chunkTableSize(int capacity) {
+		return capacity / CHUNK_SIZE + 2;
+	}
+
+	/**
+	 * Add a fix at the end of the history, the oldest fix is dropped if the
+	 * history is full
+	 *
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @return the sequence number of the added fix
+	 */
+	public long add(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+
+		if (isFull()) {
+			// Oldest fix is dropped, forget it in its provider index
+			ProviderIndex evicted = indexOf(getProviderAt(nextSeq - capacity));
+			if (evicted != null) {
+				evicted.removeOldest();
+			}
+		}
+
+		long seq = nextSeq;
+		int offset = (int) (seq & CHUNK_MASK);
+		if (offset == 0 || seq == firstSeq) {
+			// New chunk, the one it replace (if any) is fully evicted
+			Chunk[] table = chunks.clone();
+			table[tableSlotOf(table, seq)] = new Chunk();
+			chunks = table;
+		}
+
+		Chunk c = chunkOf(chunks, seq);
+		c.latitudes[offset] = latitude;
+		c.longitudes[offset] = longitude;
+		c.accuracies[offset] = accuracy;
+		c.speeds[offset] = speed;
+		c.times[offset] = time;
+		c.providers[offset] = provider;
+
+		nextSeq++;
+
+		ProviderIndex index = indexOf(provider);
+		if (index != null) {
+			index.add(seq);
+		}
+
+		return seq;
+	}
+
+	/**
+	 * Copy the newest fixes into a history of a new capacity, sequence
+	 * numbers are kept
+	 *
+	 * @param newCapacity
+	 * @return new history
+	 */
+	public LocationHistory resize(int newCapacity) {
+
+		LocationHistory h = new LocationHistory(newCapacity);
+		long from = Math.max(getOldestSequence(), nextSeq - newCapacity);
+		h.firstSeq = from;
+		h.nextSeq = from;
+
+		for (long seq = from; seq < nextSeq; seq++) {
+			h.add(getProviderAt(seq), getTimeAt(seq), getLatitudeAt(seq),
+					getLongitudeAt(seq), getAccuracyAt(seq), getSpeedAt(seq));
+		}
+		return h;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of fix kept for all providers
+	 */
+	public int size() {
+		return (int) (nextSeq - getOldestSequence());
+	}
+
+	/**
+	 * @return if next add will drop the oldest fix
+	 */
+	public boolean isFull() {
+		return nextSeq - firstSeq >= capacity;
+	}
+
+	/**
+	 * @return sequence number of the oldest fix kept
+	 */
+	public long getOldestSequence() {
+		return Math.max(firstSeq, nextSeq - capacity);
+	}
+
+	/**
+	 * @return sequence number that will be given to the next fix
+	 */
+	public long getNextSequence() {
+		return nextSeq;
+	}
+
+	/**
+	 * @param seq
+	 * @return if the fix with this sequence number is still kept
+	 */
+	public boolean contains(long seq) {
+		return seq >= getOldestSequence() && seq < nextSeq;
+	}
+
+	public double getLatitudeAt(long seq) {
+		return chunkOf(chunks, seq).latitudes[(int) (seq & CHUNK_MASK)];
+	}
+
+	public double getLongitudeAt(long seq) {
+		return chunkOf(chunks, seq).longitudes[(int) (seq & CHUNK_MASK)];
+	}
+
+	public float getAccuracyAt(long seq) {
+		return chunkOf(chunks, seq).accuracies[(int) (seq & CHUNK_MASK)];
+	}
+
+	public float getSpeedAt(long seq) {
+		return chunkOf(chunks, seq).speeds[(int) (seq & CHUNK_MASK)];
+	}
+
+	public long getTimeAt(long seq) {
+		return chunkOf(chunks, seq).times[(int) (seq & CHUNK_MASK)];
+	}
+
+	public byte getProviderAt(long seq) {
+		return chunkOf(chunks, seq).providers[(int) (seq & CHUNK_MASK)];
+	}
+
+	/**
+	 * @return read only view over fixes of all providers
+	 */
+	public HistoryView getAll() {
+		return allView;
+	}
+
+	/**
+	 * @return read only view over GPS fixes
+	 */
+	public HistoryView getGps() {
+		return gpsIndex;
+	}
+
+	/**
+	 * @return read only view over network fixes
+	 */
+	public HistoryView getNetwork() {
+		return networkIndex;
+	}
+
+	/**
+	 * @return immutable view over the fixes of all providers kept now, the
+	 *         same instance until a fix is added
+	 */
+	public HistorySnapshot snapshot() {
+		HistorySnapshot s = snapshot;
+		if (s == null || s.getNextSequence() != nextSeq) {
+			s = new HistorySnapshot(this, 0);
+			snapshot = s;
+		}
+		return s;
+	}
+
+	/**
+	 * @return immutable view over the GPS fixes kept now, the same instance
+	 *         until a GPS fix is added or dropped
+	 */
+	public HistoryView freezeGps() {
+		return gpsIndex.freeze();
+	}
+
+	/**
+	 * @return immutable view over the network fixes kept now, the same
+	 *         instance until a network fix is added or dropped
+	 */
+	public HistoryView freezeNetwork() {
+		return networkIndex.freeze();
+	}
+
+	/**
+	 * @return current chunk table, it will never change
+	 */
+	Chunk[] getChunks() {
+		return chunks;
+	}
+
+	static int tableSlotOf(Object[] table, long seq) {
+		return (int) ((seq >>> CHUNK_SHIFT) % table.length);
+	}
+
+	static Chunk chunkOf(Chunk[] table, long seq) {
+		return table[tableSlotOf(table, seq)];
+	}
+
+	private ProviderIndex indexOf(byte provider) {
+		switch (provider) {
+		case PROVIDER_GPS:
+			return gpsIndex;
+		case PROVIDER_NETWORK:
+			return networkIndex;
+		default:
+			return null;
+		}
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Read only access to a part of the history, index 0 is the oldest fix
+	 */
+	public interface HistoryView {
+
+		int size();
+
+		long getSequence(int index);
+
+		double getLatitude(int index);
+
+		double getLongitude(int index);
+
+		float getAccuracy(int index);
+
+		float getSpeed(int index);
+
+		long getTime(int index);
+
+		byte getProvider(int index);
+	}
+
+	/**
+	 * CHUNK_SIZE fixes, a slot is written once
+	 */
+	static final class Chunk {
+		final double[] latitudes = new double[CHUNK_SIZE];
+		final double[] longitudes = new double[CHUNK_SIZE];
+		final float[] accuracies = new float[CHUNK_SIZE];
+		final float[] speeds = new float[CHUNK_SIZE];
+		final long[] times = new long[CHUNK_SIZE];
+		final byte[] providers = new byte[CHUNK_SIZE];
+	}
+
+	/**
+	 * Base view over a chunk table, sub class only have to map index to
+	 * sequence number
+	 */
+	abstract static class ChunkView implements HistoryView {
+
+		protected abstract Chunk[] chunks();
+
+		public double getLatitude(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).latitudes[(int) (seq & CHUNK_MASK)];
+		}
+
+		public double getLongitude(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).longitudes[(int) (seq & CHUNK_MASK)];
+		}
+
+		public float getAccuracy(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).accuracies[(int) (seq & CHUNK_MASK)];
+		}
+
+		public float getSpeed(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).speeds[(int) (seq & CHUNK_MASK)];
+		}
+
+		public long getTime(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).times[(int) (seq & CHUNK_MASK)];
+		}
+
+		public byte getProvider(int index) {
+			long seq = getSequence(index);
+			return chunkOf(chunks(), seq).providers[(int) (seq & CHUNK_MASK)];
+		}
+
+		protected void checkIndex(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + size());
+			}
+		}
+	}
+
+	/**
+	 * View over every fix kept
+	 */
+	private class AllView extends ChunkView {
+
+		protected Chunk[] chunks() {
+			return chunks;
+		}
+
+		public int size() {
+			return LocationHistory.this.size();
+		}
+
+		public long getSequence(int index) {
+			checkIndex(index);
+			return getOldestSequence() + index;
+		}
+	}
+
+	/**
+	 * Sequence numbers of a single provider in chunks like the fixes, since
+	 * eviction is done in order the oldest entry is always the one to remove
+	 */
+	private class ProviderIndex extends ChunkView {
+
+		// Copied on write like the chunk table
+		private long[][] seqs;
+
+		// Position of the oldest entry and of the next one
+		private long head;
+		private long next;
+
+		// Last frozen copy given, reused while head and next do not change
+		private FrozenIndex frozen;
+
+		ProviderIndex(int capacity) {
+			seqs = new long[chunkTableSize(capacity)][];
+			head = 0;
+			next = 0;
+		}
+
+		void add(long seq) {
+			if ((next & CHUNK_MASK) == 0) {
+				long[][] table = seqs.clone();
+				table[tableSlotOf(table, next)] = new long[CHUNK_SIZE];
+				seqs = table;
+			}
+			seqs[tableSlotOf(seqs, next)][(int) (next & CHUNK_MASK)] = seq;
+			next++;
+		}
+
+		void removeOldest() {
+			if (head < next) {
+				head++;
+			}
+		}
+
+		HistoryView freeze() {
+			FrozenIndex f = frozen;
+			if (f == null || f.head != head || f.size != next - head) {
+				f = new FrozenIndex(chunks, seqs, head, next);
+				frozen = f;
+			}
+			return f;
+		}
+
+		protected Chunk[] chunks() {
+			return chunks;
+		}
+
+		public int size() {
+			return (int) (next - head);
+		}
+
+		public long getSequence(int index) {
+			checkIndex(index);
+			long pos = head + index;
+			return seqs[tableSlotOf(seqs, pos)][(int) (pos & CHUNK_MASK)];
+		}
+	}
+
+	/**
+	 * Immutable copy of a ProviderIndex, share the tables
+	 */
+	private static class FrozenIndex extends ChunkView {
+
+		private final Chunk[] chunks;
+		private final long[][] seqs;
+		private final long head;
+		private final int size;
+
+		FrozenIndex(Chunk[] chunks, long[][] seqs, long head, long next) {
+			this.chunks = chunks;
+			this.seqs = seqs;
+			this.head = head;
+			this.size = (int) (next - head);
+		}
+
+		protected Chunk[] chunks() {
+			return chunks;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getSequence(int index) {
+			checkIndex(index);
+			long pos = head + index;
+			return seqs[tableSlotOf(seqs, pos)][(int) (pos & CHUNK_MASK)];
+		}
+	}
+}
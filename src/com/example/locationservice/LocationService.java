@@ -1,11 +1,18 @@
 package com.example.locationservice;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
-
-import com.google.android.gms.maps.model.LatLng;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.example.locationservice.LocationHistory.HistoryView;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
@@ -15,8 +22,14 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
@@ -24,15 +37,22 @@ import android.util.Log;
  * 
  * This service will keep track location change in background the rational for
  * this service is that we want to get a independent service to keep this
- * tracking even if the activity are no longer visible. This is running on the 
- * main thread son if you add any network operation make sure these are threaded! 
+ * tracking even if the activity are no longer visible. When
+ * CFG_PROCESS_ON_WORKER_THREAD is set location update are received and
+ * processed on a dedicated worker thread, all change to the tracker are done
+ * on this thread and activities only read the immutable TrackerSnapshot the
+ * tracker publish after each change, without locking. Otherwise this is
+ * running on the main thread so if you add any network operation make sure
+ * these are threaded!
  *
  * 
  * It will notify location change in various way (in preference order)
  * 
- * 1) Send local intent to any broadcast Receiver listening for it. 
- * 2) Update the Application singleton.
- * 3) Call getLocationTracker from somewhere.
+ * 1) Call TrackerListener registered through the LocalBinder (bind to this
+ *    service), no intent is created for them. 
+ * 2) Send local intent to any broadcast Receiver listening for it. 
+ * 3) Update the Application singleton.
+ * 4) Call getLocationTracker from somewhere.
  * 
  * @author francois.legare1
  * 
@@ -46,10 +66,51 @@ public class LocationService extends Service {
 	public static final String INTENT_LOCATION_UPDATED = "com.example.locationservice.locationUpdated";
 	public static final String EXTRA_LOCATION = "lastLocationReceived";
 
+	// Provider of the location given by getFusedLocation
+	public static final String FUSED_PROVIDER = "fused";
+
+	// Sent on each geofence transition, with the fix in EXTRA_LOCATION
+	public static final String INTENT_GEOFENCE_TRANSITION = "com.example.locationservice.geofenceTransition";
+	public static final String EXTRA_GEOFENCE_ID = "geofenceId";
+	// One of GeofenceEngine.TRANSITION_*
+	public static final String EXTRA_GEOFENCE_TRANSITION = "geofenceTransition";
+
+	// Sent when a trip or a stay start or end, with the time and position
+	// where it started or ended. Distance and speeds are only set on end
+	public static final String INTENT_SEGMENT = "com.example.locationservice.segment";
+	// SEGMENT_START or SEGMENT_END
+	public static final String EXTRA_SEGMENT_EVENT = "segmentEvent";
+	// One of TripSegmenter.SEGMENT_*
+	public static final String EXTRA_SEGMENT_TYPE = "segmentType";
+	public static final String EXTRA_SEGMENT_START_TIME = "segmentStartTime";
+	public static final String EXTRA_SEGMENT_END_TIME = "segmentEndTime";
+	public static final String EXTRA_SEGMENT_LATITUDE = "segmentLatitude";
+	public static final String EXTRA_SEGMENT_LONGITUDE = "segmentLongitude";
+	public static final String EXTRA_SEGMENT_DISTANCE = "segmentDistance";
+	public static final String EXTRA_SEGMENT_AVG_SPEED = "segmentAvgSpeed";
+	public static final String EXTRA_SEGMENT_MAX_SPEED = "segmentMaxSpeed";
+	public static final int SEGMENT_START = 1;
+	public static final int SEGMENT_END = 2;
+
+	// Subscriber class of location update, add one of them to the
+	// IntentFilter, each one is throttled separately. The location update
+	// is also sent without category to the receivers that do not add one
+	// (see LocationBroadcastDispatcher)
+	public static final String CATEGORY_REPORT = "com.example.locationservice.category.report";
+
 	// Possible action for this service
 	public static final String ACTION_LAUNCH_ALL_PROVIDER = "com.example.locationservice.requestLaunchAllLocationProvider";
+	public static final String ACTION_STOP_ALL_PROVIDER = "com.example.locationservice.requestStopAllLocationProvider";
+	public static final String ACTION_START_GPS = "com.example.locationservice.requestStartGps";
+	public static final String ACTION_STOP_GPS = "com.example.locationservice.requestStopGps";
+	public static final String ACTION_START_NETWORK = "com.example.locationservice.requestStartNetwork";
+	public static final String ACTION_STOP_NETWORK = "com.example.locationservice.requestStopNetwork";
+	// Only apply the TrackerConfig extras, they are applied with any action
+	public static final String ACTION_UPDATE_CONFIG = "com.example.locationservice.requestUpdateConfig";
 
 	// Configuration constant ////////////
+	// Options also found in TrackerConfig are only the defaults, they can be
+	// changed at runtime
 	public static final boolean CFG_USE_GPS = true;
 	public static final boolean CFG_USE_NETWORK = true;
 
@@ -62,20 +123,121 @@ public class LocationService extends Service {
 	// Will send intent on each location change
 	public static final boolean CFG_BROADCAST_LOCATION_CHANGE = true;
 
+	// Wait this long for other fixes before broadcasting a location change
+	public static final int CFG_BROADCAST_COALESCE_WINDOW_MS = 100;
+
+	// Minimum time between two location broadcast for each subscriber class
+	public static final int CFG_BROADCAST_REPORT_MIN_INTERVAL_MS = 1000;
+
 	// Get update every 3 sec.
 	public static final int CFG_GET_LOCATION_UPDATE_EACH_MS = 3000;
 
 	// Get update only every 5M
 	public static final int CFG_GET_LOCATION_UPDATE_EACH_METERS = 0;
 
-	public static final int CFG_MAX_LOCATION_HISTORY = 10; // We keep only the
-															// last 50 locations
-															// in memory
+	// Change the update interval with the speed, from still to fast. Levels
+	// change after 2 fixes when speeding up, after 60s when slowing down and
+	// not more than every 15s. Fixes less accurate than 50m are ignored.
+	public static final boolean CFG_ADAPTIVE_SAMPLING = true;
+	public static final long[] CFG_SAMPLING_INTERVALS_MS = { 60000, 10000,
+			CFG_GET_LOCATION_UPDATE_EACH_MS, 1000 };
+	public static final float[] CFG_SAMPLING_DISTANCES_M = { 25, 5,
+			CFG_GET_LOCATION_UPDATE_EACH_METERS, 0 };
+	public static final float[] CFG_SAMPLING_SPEEDS_MPS = { 0.5f, 3, 15 };
+	public static final int CFG_SAMPLING_INITIAL_LEVEL = 2;
+	public static final int CFG_SAMPLING_UP_CONFIRM = 2;
+	public static final int CFG_SAMPLING_DOWN_HOLD_MS = 60000;
+	public static final int CFG_SAMPLING_MIN_CHANGE_MS = 15000;
+	public static final float CFG_SAMPLING_MAX_ACC_M = 50;
+
+	public static final int CFG_MAX_LOCATION_HISTORY = 20000; // We keep only
+																// the last 20000
+																// locations in
+																// memory
+
+	// Keep every location in a track log on disk, reloaded on start
+	public static final boolean CFG_PERSIST_TRACK_LOG = true;
+
+	// 65536 fixes by segment file (2.5MB, about a day at full rate), keep 32
+	public static final int CFG_TRACK_LOG_RECORDS_PER_SEGMENT = 65536;
+	public static final int CFG_TRACK_LOG_MAX_SEGMENTS = 32;
+
+	// Cell size of the spatial index of the history in degree (about 200m)
+	public static final double CFG_SPATIAL_INDEX_CELL_DEG = 0.002;
+
+	// Geofence grid cell in degree (about 1km) and minimum distance outside a
+	// fence before exiting it
+	public static final double CFG_GEOFENCE_CELL_DEG = 0.01;
+	public static final float CFG_GEOFENCE_MIN_HYSTERESIS_M = 10;
+
+	// Fused location: expected acceleration (m/s^2), error per second of age
+	// of a late fix (m/s) and time without fix before restarting
+	public static final double CFG_FUSION_ACCELERATION_NOISE = 2;
+	public static final double CFG_FUSION_AGE_NOISE_MPS = 5;
+	public static final int CFG_FUSION_RESET_AFTER_MS = 300000;
+
+	// Drop bad location before they reach the tracker
+	public static final boolean CFG_FILTER_LOCATIONS = true;
+
+	// Worst accuracy accepted in meters
+	public static final float CFG_FILTER_MAX_ACC_GPS = 100;
+	public static final float CFG_FILTER_MAX_ACC_NET = 2000;
+
+	// Fastest move accepted in m/s (about 250 km/h), after 3 drops in a row
+	// the next location is accepted
+	public static final double CFG_FILTER_MAX_SPEED_MPS = 70;
+	public static final int CFG_FILTER_MAX_SPEED_REJECTED = 3;
+
+	// Move of less than 10m at less than 0.5 m/s is jitter, keep one
+	// location each minute while standing still
+	public static final float CFG_FILTER_STATIONARY_RADIUS_M = 10;
+	public static final float CFG_FILTER_STATIONARY_SPEED_MPS = 0.5f;
+	public static final int CFG_FILTER_STATIONARY_KEEP_MS = 60000;
+
+	// Also store every location in a SQLite database that can be queried
+	public static final boolean CFG_PERSIST_SQLITE = false;
+
+	// Insert in one transaction every 64 locations or 10s
+	public static final int CFG_SQLITE_BATCH_SIZE = 64;
+	public static final int CFG_SQLITE_FLUSH_INTERVAL_MS = 10000;
+
+	// Cut the track in trips and stays: a stay is 5 minutes within 100m, 30
+	// minutes without fix end the current segment
+	public static final boolean CFG_SEGMENT_TRIPS = true;
+	public static final double CFG_SEGMENT_STAY_RADIUS_M = 100;
+	public static final int CFG_SEGMENT_MIN_STAY_MS = 300000;
+	public static final int CFG_SEGMENT_MAX_GAP_MS = 1800000;
+	public static final float CFG_SEGMENT_MAX_ACC_M = 100;
+
+	// Send the fixes to a server in batches, unsent batches are kept in a
+	// spool on disk and sent again after a restart
+	public static final boolean CFG_UPLOAD_TRACK = false;
+	public static final String CFG_UPLOAD_URL = "https://example.com/track";
+	public static final int CFG_UPLOAD_BATCH_FIXES = 600;
+	public static final int CFG_UPLOAD_BATCH_BYTES = 16384;
+	public static final int CFG_UPLOAD_BATCH_AGE_MS = 300000;
+	public static final int CFG_UPLOAD_MAX_SPOOLED = 500;
+	public static final int CFG_UPLOAD_BACKOFF_MS = 5000;
+	public static final int CFG_UPLOAD_MAX_BACKOFF_MS = 1800000;
+	public static final int CFG_UPLOAD_TIMEOUT_MS = 30000;
+
+	// Processing metrics shown in the report are refreshed at most every
+	// second
+	public static final int CFG_METRICS_REFRESH_MS = 1000;
+
+	// A replayed provider without fix for this time is temporarily
+	// unavailable
+	public static final int CFG_REPLAY_OUTAGE_MS = 30000;
+
+	// Maximum time onDestroy wait for the worker to store pending locations
+	private static final int CFG_SHUTDOWN_TIMEOUT_MS = 2000;
 
 	// Generate a advance report for the tracker
-	private static final boolean CFG_SHOW_FULL_REPORT = true;
+	public static final boolean CFG_SHOW_FULL_REPORT = true;
 
-	String LR = "\n"; // Line return for report
+	// Receive and process location update on a worker thread instead of the
+	// main thread
+	public static final boolean CFG_PROCESS_ON_WORKER_THREAD = true;
 
 	private boolean serviceStarted;
 
@@ -89,6 +251,67 @@ public class LocationService extends Service {
 
 	private Application app;
 
+	// Thread where location are processed (null if on main thread)
+	private HandlerThread workerThread;
+
+	private Handler workerHandler;
+
+	private LocationBroadcastDispatcher broadcastDispatcher;
+
+	private TrackLog trackLog;
+
+	private SqliteTrackSink sqliteSink;
+
+	// Batch upload of the fixes, null if disabled
+	private TrackUploader uploader;
+
+	// Directory of the track log, null if not persisted
+	private File trackLogDir;
+
+	// Export run one at a time in background
+	private ExecutorService exportExecutor;
+
+	// Replay started from the binder, stopped with the service
+	private volatile ReplayListener activeReplay;
+
+	// Only used on the processing thread
+	private final GeofenceEngine geofences = new GeofenceEngine(
+			CFG_GEOFENCE_CELL_DEG, CFG_GEOFENCE_MIN_HYSTERESIS_M);
+
+	private final GeofenceBroadcaster geofenceBroadcaster = new GeofenceBroadcaster();
+
+	// Only used on the processing thread, null if disabled
+	private final TripSegmenter segmenter = CFG_SEGMENT_TRIPS ? new TripSegmenter(
+			CFG_SEGMENT_STAY_RADIUS_M, CFG_SEGMENT_MIN_STAY_MS,
+			CFG_SEGMENT_MAX_GAP_MS, CFG_SEGMENT_MAX_ACC_M) : null;
+
+	private final SegmentBroadcaster segmentBroadcaster = new SegmentBroadcaster();
+
+	// Current options, only replaced on the main thread
+	private volatile TrackerConfig config = TrackerConfig.getDefault();
+
+	// Registration result of each provider
+	private boolean gpsRegistered;
+	private boolean networkRegistered;
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final Runnable samplingChanged = new Runnable() {
+		@Override
+		public void run() {
+			registerAllListenerAgain();
+		}
+	};
+
+	// Latency and event counters, only recorded on the processing thread
+	private final TrackerMetrics metrics = new TrackerMetrics(
+			CFG_METRICS_REFRESH_MS);
+
+	// Listener of bound clients
+	private final TrackerListenerRegistry trackerListeners = new TrackerListenerRegistry();
+
+	private final LocalBinder binder = new LocalBinder();
+
 	private static LocationTracker locationStatus;
 
 	/**
@@ -100,6 +323,161 @@ public class LocationService extends Service {
 		locationStatus = new LocationTracker();
 	}
 
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		if (CFG_PROCESS_ON_WORKER_THREAD) {
+			workerThread = new HandlerThread("LocationWorker",
+					Process.THREAD_PRIORITY_BACKGROUND);
+			workerThread.start();
+			workerHandler = new Handler(workerThread.getLooper());
+		}
+
+		broadcastDispatcher = new LocationBroadcastDispatcher(this,
+				getProcessingLooper(), CFG_BROADCAST_COALESCE_WINDOW_MS, metrics);
+		broadcastDispatcher.addChannel(CATEGORY_REPORT,
+				CFG_BROADCAST_REPORT_MIN_INTERVAL_MS);
+
+		exportExecutor = Executors.newSingleThreadExecutor();
+
+		if (CFG_PERSIST_TRACK_LOG) {
+			final File dir = new File(getFilesDir(), "tracks");
+			trackLogDir = dir;
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					openTrackLog(dir);
+				}
+			});
+		}
+
+		if (CFG_PERSIST_SQLITE) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					openSqliteSink();
+				}
+			});
+		}
+
+		if (CFG_UPLOAD_TRACK) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					openUploader();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Open the track log, reload the last locations into the tracker and
+	 * keep logging every new location. Must run on the processing thread.
+	 * 
+	 * @param dir
+	 */
+	private void openTrackLog(File dir) {
+		try {
+			trackLog = new TrackLog(dir, CFG_TRACK_LOG_RECORDS_PER_SEGMENT,
+					CFG_TRACK_LOG_MAX_SEGMENTS);
+
+			TrackLogReader reader = trackLog
+					.openTailReader(config.getMaxLocationHistory());
+			try {
+				int restored = locationStatus.restoreHistory(reader);
+				Log.d(TAG, "Restored " + restored + " locations from track log");
+			} finally {
+				reader.close();
+			}
+
+			locationStatus.addSink(trackLog);
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to open track log", e);
+			closeTrackLog();
+		}
+	}
+
+	/**
+	 * Must run on the processing thread
+	 */
+	private void closeTrackLog() {
+		if (trackLog != null) {
+			locationStatus.removeSink(trackLog);
+			try {
+				trackLog.close();
+			} catch (IOException e) {
+				Log.w(TAG, "Unable to close track log", e);
+			}
+			trackLog = null;
+		}
+	}
+
+	/**
+	 * Must run on the processing thread
+	 */
+	private void openSqliteSink() {
+		try {
+			sqliteSink = new SqliteTrackSink(this, "tracks.db",
+					getProcessingLooper(), CFG_SQLITE_BATCH_SIZE,
+					CFG_SQLITE_FLUSH_INTERVAL_MS);
+			locationStatus.addSink(sqliteSink);
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Unable to open track database", e);
+			sqliteSink = null;
+		}
+	}
+
+	/**
+	 * Store pending locations and close, must run on the processing thread
+	 */
+	private void closeSqliteSink() {
+		if (sqliteSink != null) {
+			locationStatus.removeSink(sqliteSink);
+			try {
+				sqliteSink.close();
+			} catch (IOException e) {
+				Log.w(TAG, "Unable to close track database", e);
+			}
+			sqliteSink = null;
+		}
+	}
+
+	/**
+	 * Must run on the processing thread
+	 */
+	private void openUploader() {
+		try {
+			uploader = new TrackUploader(new File(getFilesDir(), "upload"),
+					new HttpTrackTransport(new URL(CFG_UPLOAD_URL),
+							CFG_UPLOAD_TIMEOUT_MS), CFG_UPLOAD_BATCH_FIXES,
+					CFG_UPLOAD_BATCH_BYTES, CFG_UPLOAD_BATCH_AGE_MS,
+					CFG_UPLOAD_MAX_SPOOLED, CFG_UPLOAD_BACKOFF_MS,
+					CFG_UPLOAD_MAX_BACKOFF_MS);
+			uploader.start();
+			locationStatus.addSink(uploader);
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to start track upload", e);
+			uploader = null;
+		}
+	}
+
+	/**
+	 * Spool the batch being filled, it is sent on next start if not before.
+	 * Must run on the processing thread
+	 */
+	private void closeUploader() {
+		if (uploader != null) {
+			locationStatus.removeSink(uploader);
+			try {
+				uploader.close();
+			} catch (IOException e) {
+				Log.w(TAG, "Unable to spool last upload batch", e);
+			}
+			uploader = null;
+		}
+	}
+
 	/**
 	 * Return the actual location status
 	 * 
@@ -121,19 +499,44 @@ public class LocationService extends Service {
 		 * This is a example where we update the application singleton on every
 		 * change...
 		 */
-		if (CFG_UPDATE_MAIN_APPLICATION) {
+		if (TrackerConfig.hasExtras(i)) {
+			applyConfig(config.buildUpon().readExtras(i.getExtras()).build());
+		}
+
+		if (config.isUpdateMainApplication()) {
 			// We give a instance of our location status tracker to the
 			// application
-			app.updateStatusTracker(locationStatus);
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					app.updateStatusTracker(locationStatus);
+				}
+			});
 		}
 
-		// TODO Add fine grain action (ex. start/stop GPS only or Network only,
-		// etc.)
-
-		if (i.getAction() != null) {
-			if (i.getAction().equals(ACTION_LAUNCH_ALL_PROVIDER)) {
-				startAllProvider();
+		String action = i.getAction();
+		if (ACTION_LAUNCH_ALL_PROVIDER.equals(action)) {
+			startAllProvider();
+		} else if (ACTION_STOP_ALL_PROVIDER.equals(action)) {
+			if (serviceStarted) {
+				stopAllProviderService();
 			}
+		} else if (ACTION_START_GPS.equals(action)) {
+			// Only this provider, the network one is left as it is
+			applyConfig(config.buildUpon().setUseGps(true).build());
+			markStarted();
+			startGps();
+			postTrackedProviders();
+		} else if (ACTION_STOP_GPS.equals(action)) {
+			// Listener removed by applyConfig if started
+			applyConfig(config.buildUpon().setUseGps(false).build());
+		} else if (ACTION_START_NETWORK.equals(action)) {
+			applyConfig(config.buildUpon().setUseNetwork(true).build());
+			markStarted();
+			startNetwork();
+			postTrackedProviders();
+		} else if (ACTION_STOP_NETWORK.equals(action)) {
+			applyConfig(config.buildUpon().setUseNetwork(false).build());
 		}
 
 		return super.onStartCommand(i, flags, startId);
@@ -149,12 +552,20 @@ public class LocationService extends Service {
 		}
 
 		activeListener.clear();
-
-		locationStatus.setTrackGPS(false);
-		locationStatus.setTrackNetwork(false);
+		gpsListener = null;
+		networkListener = null;
+		gpsRegistered = false;
+		networkRegistered = false;
 		serviceStarted = false;
 
-		notifyStatusChanged();
+		runOnWorker(new Runnable() {
+			@Override
+			public void run() {
+				locationStatus.setTrackGPS(false);
+				locationStatus.setTrackNetwork(false);
+				notifyStatusChanged();
+			}
+		});
 
 		Log.d(TAG, "Removed all localisation listener");
 
@@ -162,31 +573,198 @@ public class LocationService extends Service {
 
 	/**
 	 * We will put a listener and record all location update until stopped or
-	 * request to stop. We assume provider have been enabled
+	 * request to stop. We assume provider have been enabled. Only the
+	 * providers enabled in the config are used, calling this again apply a
+	 * config change.
 	 */
 	private void startAllProvider() {
 
-		if (serviceStarted)
-			return; // ignore this request
+		markStarted();
+
+		if (config.isUseGps()) {
+			startGps();
+		} else {
+			stopGps();
+		}
+
+		if (config.isUseNetwork()) {
+			startNetwork();
+		} else {
+			stopNetwork();
+		}
 
-		Log.d(TAG, "Starting localisation service");
+		postTrackedProviders();
+	}
 
-		serviceStarted = true;
+	private void markStarted() {
+		if (!serviceStarted) {
+			Log.d(TAG, "Starting localisation service");
+			serviceStarted = true;
+		}
+	}
 
-		if (CFG_USE_GPS) {
+	/**
+	 * Listen to the GPS, a listener not registered because the provider
+	 * was disabled is registered again
+	 */
+	private void startGps() {
+		if (gpsListener == null) {
 			gpsListener = new LocListner(LocationManager.GPS_PROVIDER);
-			locationStatus.setTrackGPS(registerLocationListner(
-					LocationManager.GPS_PROVIDER, gpsListener));
 			activeListener.add(gpsListener);
 		}
+		if (!gpsRegistered) {
+			gpsRegistered = registerLocationListner(
+					LocationManager.GPS_PROVIDER, gpsListener);
+		}
+	}
 
-		if (CFG_USE_NETWORK) {
+	private void stopGps() {
+		if (gpsListener != null) {
+			unregisterLocationListner(gpsListener);
+			gpsListener = null;
+			gpsRegistered = false;
+		}
+	}
+
+	private void startNetwork() {
+		if (networkListener == null) {
 			networkListener = new LocListner(LocationManager.NETWORK_PROVIDER);
-			locationStatus.setTrackNetwork(registerLocationListner(
-					LocationManager.NETWORK_PROVIDER, networkListener));
 			activeListener.add(networkListener);
 		}
+		if (!networkRegistered) {
+			networkRegistered = registerLocationListner(
+					LocationManager.NETWORK_PROVIDER, networkListener);
+		}
+	}
+
+	private void stopNetwork() {
+		if (networkListener != null) {
+			unregisterLocationListner(networkListener);
+			networkListener = null;
+			networkRegistered = false;
+		}
+	}
+
+	/**
+	 * Give the registered providers to the tracker
+	 */
+	private void postTrackedProviders() {
+
+		final boolean gps = gpsRegistered;
+		final boolean network = networkRegistered;
+
+		runOnWorker(new Runnable() {
+			@Override
+			public void run() {
+				locationStatus.setTrackGPS(gps);
+				locationStatus.setTrackNetwork(network);
+				notifyStatusChanged();
+			}
+		});
+
+	}
+
+	private void unregisterLocationListner(LocListner listener) {
+		locationManager.removeUpdates(listener);
+		activeListener.remove(listener);
+		Log.d(TAG, "Removed " + listener.getProvider() + " listener");
+	}
+
+	/**
+	 * Apply new options, must be called on the main thread
+	 * 
+	 * @param newConfig
+	 */
+	private void applyConfig(final TrackerConfig newConfig) {
+
+		final TrackerConfig old = config;
+		config = newConfig;
+
+		boolean registerAgain = old.getUpdateIntervalMs() != newConfig
+				.getUpdateIntervalMs()
+				|| old.getUpdateMinDistance() != newConfig
+						.getUpdateMinDistance();
+
+		if (old.isAdaptiveSampling() != newConfig.isAdaptiveSampling()) {
+			locationStatus.processor.setSampling(newConfig
+					.isAdaptiveSampling() ? newSamplingScheduler() : null);
+			registerAgain = true;
+		}
+
+		if (serviceStarted) {
+			// Only the provider turned on or off, the other one may have
+			// been started alone
+			if (old.isUseGps() != newConfig.isUseGps()) {
+				if (newConfig.isUseGps()) {
+					startGps();
+				} else {
+					stopGps();
+				}
+			}
+			if (old.isUseNetwork() != newConfig.isUseNetwork()) {
+				if (newConfig.isUseNetwork()) {
+					startNetwork();
+				} else {
+					stopNetwork();
+				}
+			}
+			if (old.isUseGps() != newConfig.isUseGps()
+					|| old.isUseNetwork() != newConfig.isUseNetwork()) {
+				postTrackedProviders();
+			}
+			if (registerAgain) {
+				registerAllListenerAgain();
+			}
+		}
+
+		runOnWorker(new Runnable() {
+			@Override
+			public void run() {
+				locationStatus.applyConfig(old, newConfig);
+			}
+		});
+	}
+
+	private static FixFilterChain newFilterChain() {
+		return new FixFilterChain(new FixFilters.Duplicate(),
+				new FixFilters.Accuracy(CFG_FILTER_MAX_ACC_GPS,
+						CFG_FILTER_MAX_ACC_NET), new FixFilters.ImpliedSpeed(
+						CFG_FILTER_MAX_SPEED_MPS, CFG_FILTER_MAX_SPEED_REJECTED),
+				new FixFilters.Stationary(CFG_FILTER_STATIONARY_RADIUS_M,
+						CFG_FILTER_STATIONARY_SPEED_MPS,
+						CFG_FILTER_STATIONARY_KEEP_MS));
+	}
+
+	private static SamplingScheduler newSamplingScheduler() {
+		return new SamplingScheduler(CFG_SAMPLING_INTERVALS_MS,
+				CFG_SAMPLING_DISTANCES_M, CFG_SAMPLING_SPEEDS_MPS,
+				CFG_SAMPLING_INITIAL_LEVEL, CFG_SAMPLING_UP_CONFIRM,
+				CFG_SAMPLING_DOWN_HOLD_MS, CFG_SAMPLING_MIN_CHANGE_MS,
+				CFG_SAMPLING_MAX_ACC_M);
+	}
+
+	/**
+	 * Run this on the thread that own the tracker, directly if we are on the
+	 * main thread mode
+	 * 
+	 * @param r
+	 */
+	private void runOnWorker(Runnable r) {
+		if (workerHandler != null) {
+			workerHandler.post(r);
+		} else {
+			r.run();
+		}
+	}
 
+	/**
+	 * @return looper where location update must be delivered
+	 */
+	private Looper getProcessingLooper() {
+		if (workerThread != null) {
+			return workerThread.getLooper();
+		}
+		return Looper.getMainLooper();
 	}
 
 	/**
@@ -198,23 +776,47 @@ public class LocationService extends Service {
 	 */
 	private boolean registerLocationListner(String provider, LocListner listener) {
 
+		long interval = config.getUpdateIntervalMs();
+		float distance = config.getUpdateMinDistance();
+		SamplingScheduler s = locationStatus.processor.getSampling();
+		if (s != null) {
+			interval = s.getIntervalMs();
+			distance = s.getMinDistance();
+		}
+
 		if (locationManager.isProviderEnabled(provider)) {
-			locationManager.requestLocationUpdates(provider,
-					CFG_GET_LOCATION_UPDATE_EACH_MS,
-					CFG_GET_LOCATION_UPDATE_EACH_METERS, listener);
+			locationManager.requestLocationUpdates(provider, interval,
+					distance, listener, getProcessingLooper());
 			return true;
 		} else {
 			return false;
 		}
 	}
 
+	/**
+	 * Request updates again with the current interval, a new request for the
+	 * same listener replace the previous one
+	 */
+	private void registerAllListenerAgain() {
+
+		if (!serviceStarted) {
+			return;
+		}
+
+		for (int i = 0; i < activeListener.size(); i++) {
+			LocListner l = activeListener.get(i);
+			registerLocationListner(l.getProvider(), l);
+		}
+
+		Log.d(TAG, "Location listeners registered again");
+	}
+
 	@Override
 	public IBinder onBind(Intent intent) {
-		// Not used since we want to keep this service
-		// running in the background, note that a binder
-		// could also be used to get update
-		// on location change...
-		return null;
+		// The service is still started to keep it running in the
+		// background, binding only give in process client a faster way to
+		// get update on location change...
+		return binder;
 	}
 
 	@Override
@@ -225,6 +827,61 @@ public class LocationService extends Service {
 			stopAllProviderService();
 		}
 
+		mainHandler.removeCallbacks(samplingChanged);
+
+		// Replayed fixes must not reach the closed sinks
+		ReplayListener replay = activeReplay;
+		if (replay != null) {
+			replay.stop();
+		}
+
+		final LocationBroadcastDispatcher dispatcher = broadcastDispatcher;
+
+		if (workerThread != null) {
+			// Let the worker process pending update before leaving
+			final HandlerThread thread = workerThread;
+			final CountDownLatch closed = new CountDownLatch(1);
+			workerHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// Queries posted before may still submit to the
+					// executor, running exports and queries finish
+					exportExecutor.shutdown();
+					dispatcher.cancel();
+					if (segmenter != null) {
+						segmenter.flush(segmentBroadcaster);
+					}
+					closeUploader();
+					closeSqliteSink();
+					closeTrackLog();
+					closed.countDown();
+					thread.quit();
+				}
+			});
+			workerThread = null;
+			workerHandler = null;
+
+			// The process may be killed once we return, wait until buffered
+			// locations are stored
+			try {
+				if (!closed.await(CFG_SHUTDOWN_TIMEOUT_MS,
+						TimeUnit.MILLISECONDS)) {
+					Log.w(TAG, "Worker did not store pending locations in time");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			exportExecutor.shutdown();
+			dispatcher.cancel();
+			if (segmenter != null) {
+				segmenter.flush(segmentBroadcaster);
+			}
+			closeUploader();
+			closeSqliteSink();
+			closeTrackLog();
+		}
+
 		Log.d(TAG, "Localisation service stopped");
 	}
 
@@ -234,12 +891,17 @@ public class LocationService extends Service {
 	 */
 	private void notifyStatusChanged() {
 
-		if (CFG_BROADCAST_STATUS_CHANGE) {
+		if (trackerListeners.hasListeners()) {
+			trackerListeners.dispatchStatus(locationStatus.getReport());
+		}
+
+		if (config.isBroadcastStatusChange()) {
 			Intent i = new Intent(INTENT_PROVIDER_STATUS_UPDATE);
 			LocalBroadcastManager.getInstance(this).sendBroadcast(i);
+			metrics.count(TrackerMetrics.EVENT_BROADCAST_STATUS);
 		}
 
-		if (CFG_UPDATE_MAIN_APPLICATION) {
+		if (config.isUpdateMainApplication()) {
 			app.updateStatusTracker(locationStatus);
 		}
 
@@ -247,35 +909,406 @@ public class LocationService extends Service {
 
 	/**
 	 * Will broadcast locally that location has changed all broadcast receiver
-	 * that subscribed to this type of intent will be notified
+	 * that subscribed to this type of intent will be notified (at most once
+	 * per interval of their subscriber class)
 	 */
 	private void notifyLocationChanged() {
 
-		if (CFG_BROADCAST_LOCATION_CHANGE) {
-			Intent i = new Intent(INTENT_LOCATION_UPDATED);
-			// Put location inside the extra (PARCELABLE)
-			i.putExtra(EXTRA_LOCATION, locationStatus.getLastLocation());
-			LocalBroadcastManager.getInstance(this).sendBroadcast(i);
+		if (config.isBroadcastLocationChange()) {
+			// Burst of update are merged, throttled and counted by the
+			// dispatcher
+			broadcastDispatcher.submit(locationStatus.getLastLocation());
 		}
 
-		if (CFG_UPDATE_MAIN_APPLICATION) {
+		if (config.isUpdateMainApplication()) {
 			app.updateStatusTracker(locationStatus);
 		}
 	}
 
+	/**
+	 * Send a INTENT_GEOFENCE_TRANSITION for each transition
+	 */
+	private class GeofenceBroadcaster implements GeofenceEngine.Listener {
+
+		// Fix being processed
+		Location location;
+
+		@Override
+		public void onTransition(String fenceId, int transition, long time,
+				double latitude, double longitude) {
+			Intent i = new Intent(INTENT_GEOFENCE_TRANSITION);
+			i.putExtra(EXTRA_GEOFENCE_ID, fenceId);
+			i.putExtra(EXTRA_GEOFENCE_TRANSITION, transition);
+			i.putExtra(EXTRA_LOCATION, location);
+			LocalBroadcastManager.getInstance(LocationService.this)
+					.sendBroadcast(i);
+			metrics.count(TrackerMetrics.EVENT_GEOFENCE);
+		}
+	}
+
+	/**
+	 * Send a INTENT_SEGMENT when a trip or a stay start or end
+	 */
+	private class SegmentBroadcaster implements TripSegmenter.Listener {
+
+		@Override
+		public void onSegmentStart(int type, long time, double latitude,
+				double longitude) {
+			Intent i = new Intent(INTENT_SEGMENT);
+			i.putExtra(EXTRA_SEGMENT_EVENT, SEGMENT_START);
+			i.putExtra(EXTRA_SEGMENT_TYPE, type);
+			i.putExtra(EXTRA_SEGMENT_START_TIME, time);
+			i.putExtra(EXTRA_SEGMENT_LATITUDE, latitude);
+			i.putExtra(EXTRA_SEGMENT_LONGITUDE, longitude);
+			LocalBroadcastManager.getInstance(LocationService.this)
+					.sendBroadcast(i);
+			metrics.count(TrackerMetrics.EVENT_SEGMENT);
+		}
+
+		@Override
+		public void onSegmentEnd(TripSegmenter.Segment segment) {
+			Log.d(TAG, "Segment ended : " + segment);
+			Intent i = new Intent(INTENT_SEGMENT);
+			i.putExtra(EXTRA_SEGMENT_EVENT, SEGMENT_END);
+			i.putExtra(EXTRA_SEGMENT_TYPE, segment.getType());
+			i.putExtra(EXTRA_SEGMENT_START_TIME, segment.getStartTime());
+			i.putExtra(EXTRA_SEGMENT_END_TIME, segment.getEndTime());
+			i.putExtra(EXTRA_SEGMENT_LATITUDE, segment.getEndLatitude());
+			i.putExtra(EXTRA_SEGMENT_LONGITUDE, segment.getEndLongitude());
+			i.putExtra(EXTRA_SEGMENT_DISTANCE, segment.getDistance());
+			i.putExtra(EXTRA_SEGMENT_AVG_SPEED, segment.getAverageSpeed());
+			i.putExtra(EXTRA_SEGMENT_MAX_SPEED, segment.getMaxSpeed());
+			LocalBroadcastManager.getInstance(LocationService.this)
+					.sendBroadcast(i);
+			metrics.count(TrackerMetrics.EVENT_SEGMENT);
+		}
+	}
+
+	/**
+	 * Give the replayed events to the location listeners on the processing
+	 * thread, like the LocationManager would. Events still queued when
+	 * stopped are dropped.
+	 */
+	private class ReplayListener implements TrackReplayer.Listener {
+
+		private final LocListner gps = new LocListner(
+				LocationManager.GPS_PROVIDER);
+		private final LocListner network = new LocListner(
+				LocationManager.NETWORK_PROVIDER);
+
+		private final Handler handler = new Handler(getProcessingLooper());
+
+		private TrackReplayer replayer;
+		private volatile boolean stopped;
+
+		void stop() {
+			stopped = true;
+			replayer.stop();
+		}
+
+		private LocListner listenerOf(byte provider) {
+			return provider == LocationHistory.PROVIDER_NETWORK ? network
+					: gps;
+		}
+
+		@Override
+		public void onLocationChanged(byte provider, long time,
+				double latitude, double longitude, float accuracy, float speed) {
+			final LocListner l = listenerOf(provider);
+			final Location location = new Location(l.getProvider());
+			location.setTime(time);
+			location.setLatitude(latitude);
+			location.setLongitude(longitude);
+			location.setAccuracy(accuracy);
+			if (!Float.isNaN(speed)) {
+				location.setSpeed(speed);
+			}
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (stopped) {
+						return;
+					}
+					l.onLocationChanged(location);
+				}
+			});
+		}
+
+		@Override
+		public void onStatusChanged(byte provider, final int status) {
+			final LocListner l = listenerOf(provider);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (stopped) {
+						return;
+					}
+					l.onStatusChanged(l.getProvider(), status, null);
+				}
+			});
+		}
+
+		@Override
+		public void onProviderEnabled(byte provider) {
+			final LocListner l = listenerOf(provider);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (stopped) {
+						return;
+					}
+					l.onProviderEnabled(l.getProvider());
+				}
+			});
+		}
+
+		@Override
+		public void onProviderDisabled(byte provider) {
+			final LocListner l = listenerOf(provider);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (stopped) {
+						return;
+					}
+					l.onProviderDisabled(l.getProvider());
+				}
+			});
+		}
+	}
+
 	// ///////////////////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Simple listener that will update the location status tracker
+	 * Binder given to in process clients, they can register a TrackerListener
+	 * to receive fixes directly instead of using broadcast
 	 * 
 	 * @author francois.legare1
 	 */
-	private class LocListner implements LocationListener {
+	public class LocalBinder extends Binder {
+
+		public LocationTracker getTracker() {
+			return locationStatus;
+		}
+
+		/**
+		 * @param listener
+		 * @param executor
+		 *            where listener is called (ie. MainThreadExecutor)
+		 * @param maxPending
+		 *            fixes kept for this listener before dropping the oldest
+		 *            one
+		 */
+		public void registerTrackerListener(TrackerListener listener,
+				Executor executor, int maxPending) {
+			trackerListeners.register(listener, executor, maxPending);
+		}
+
+		public void unregisterTrackerListener(TrackerListener listener) {
+			trackerListeners.unregister(listener);
+		}
+
+		/**
+		 * Add (or replace) a circular geofence, transitions are broadcast
+		 * with INTENT_GEOFENCE_TRANSITION
+		 * 
+		 * @param id
+		 * @param latitude
+		 * @param longitude
+		 * @param radius
+		 *            in meters
+		 * @param dwellMs
+		 *            time inside before a dwell transition, 0 for none
+		 */
+		public void addCircularGeofence(final String id, final double latitude,
+				final double longitude, final double radius, final long dwellMs) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					geofences.addCircle(id, latitude, longitude, radius,
+							dwellMs);
+				}
+			});
+		}
+
+		/**
+		 * Add (or replace) a polygonal geofence
+		 * 
+		 * @param id
+		 * @param latitudes
+		 *            vertices, not copied
+		 * @param longitudes
+		 * @param dwellMs
+		 *            time inside before a dwell transition, 0 for none
+		 */
+		public void addPolygonGeofence(final String id,
+				final double[] latitudes, final double[] longitudes,
+				final long dwellMs) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					geofences.addPolygon(id, latitudes, longitudes, dwellMs);
+				}
+			});
+		}
+
+		public void removeGeofence(final String id) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					geofences.remove(id);
+				}
+			});
+		}
+
+		/**
+		 * Export the track in background, from the track log when persisted
+		 * (the whole track) otherwise from the history in memory
+		 * 
+		 * @param exporter
+		 *            format and filters
+		 * @param file
+		 * @param callback
+		 *            called on the export thread, may be null. Called
+		 *            before returning if the service is stopped.
+		 */
+		public void exportTrack(TrackExporter exporter, File file,
+				TrackExporter.Callback callback) {
+			FixCursor source;
+			if (trackLogDir != null
+					&& TrackLog.listSegments(trackLogDir).length > 0) {
+				source = new TrackLogReader(trackLogDir);
+			} else {
+				source = new HistoryCursor(locationStatus.getHistorySnapshot());
+			}
+			try {
+				exporter.writeAsync(exportExecutor, source, file, callback);
+			} catch (RejectedExecutionException e) {
+				// Service destroyed
+				try {
+					source.close();
+				} catch (IOException ce) {
+					// Nothing read
+				}
+				if (callback != null) {
+					IOException ex = new IOException("Service stopped");
+					ex.initCause(e);
+					callback.onExportFailed(file, ex);
+				}
+			}
+		}
+
+		/**
+		 * Query the fixes stored in the track database (CFG_PERSIST_SQLITE),
+		 * the query run in background after the pending fixes are inserted
+		 * 
+		 * @param fromTime
+		 *            inclusive
+		 * @param toTime
+		 *            exclusive
+		 * @param provider
+		 *            LocationHistory.PROVIDER_* or PROVIDER_UNKNOWN for all
+		 * @param callback
+		 *            called on a background thread, must close the cursor
+		 */
+		public void queryTrack(final long fromTime, final long toTime,
+				final byte provider,
+				final SqliteTrackSink.QueryCallback callback) {
+			runOnWorker(new Runnable() {
+				@Override
+				public void run() {
+					if (sqliteSink == null) {
+						callback.onQueryFailed(new IOException(
+								"Track database not enabled"));
+						return;
+					}
+					try {
+						sqliteSink.queryAsync(exportExecutor, fromTime, toTime,
+								provider, callback);
+					} catch (IOException e) {
+						callback.onQueryFailed(e);
+					} catch (RejectedExecutionException e) {
+						// Service destroyed
+						IOException ex = new IOException("Service stopped");
+						ex.initCause(e);
+						callback.onQueryFailed(ex);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Replay a recorded track through the location listeners, as if the
+		 * fixes came from the LocationManager (ie. to test on a device that
+		 * does not move). The tracker keep the system clock, use
+		 * ReplayTracker for a deterministic replay on a JVM.
+		 * 
+		 * @param source
+		 *            fixes in order of time, closed at the end
+		 * @param speed
+		 *            1 for real time, 1000 for 1000x or
+		 *            TrackReplayer.SPEED_MAX
+		 * @return the replayer running on its own thread, stop it with
+		 *         TrackReplayer.stop. A new replay or the end of the service
+		 *         stop it too.
+		 */
+		public TrackReplayer replayTrack(final FixCursor source, double speed) {
+
+			ReplayListener listener = new ReplayListener();
+			final TrackReplayer replayer = new TrackReplayer(source, listener,
+					new ReplayClock(0), speed, CFG_REPLAY_OUTAGE_MS);
+			listener.replayer = replayer;
+
+			ReplayListener previous = activeReplay;
+			if (previous != null) {
+				previous.stop();
+			}
+			activeReplay = listener;
+
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Log.d(TAG, "Replay done : " + replayer.run());
+					} catch (IOException e) {
+						Log.w(TAG, "Replay failed", e);
+					} finally {
+						try {
+							source.close();
+						} catch (IOException e) {
+							Log.w(TAG, "Unable to close replayed track", e);
+						}
+					}
+				}
+			}, "LocationReplay").start();
+
+			return replayer;
+		}
+	}
+
+	/**
+	 * Simple listener that will update the location status tracker, the fixes
+	 * go through the FixProcessor of the tracker
+	 * 
+	 * @author francois.legare1
+	 */
+	private class LocListner implements LocationListener, FixProcessor.Target {
 
 		private String provider;
+		private final byte providerCode;
+
+		// Fix being processed
+		private Location location;
 
 		public LocListner(String provider) {
 			this.provider = provider;
+			if (LocationManager.GPS_PROVIDER.equals(provider)) {
+				providerCode = LocationHistory.PROVIDER_GPS;
+			} else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+				providerCode = LocationHistory.PROVIDER_NETWORK;
+			} else {
+				providerCode = LocationHistory.PROVIDER_UNKNOWN;
+			}
 		}
 
 		public String getProvider() {
@@ -284,7 +1317,32 @@ public class LocationService extends Service {
 
 		@Override
 		public void onLocationChanged(Location location) {
-			locationStatus.addLocation(location);
+
+			this.location = location;
+			geofenceBroadcaster.location = location;
+			locationStatus.processor.process(this, providerCode,
+					location.getTime(), location.getLatitude(),
+					location.getLongitude(), location.getAccuracy(),
+					location.hasSpeed() ? location.getSpeed() : Float.NaN,
+					location.hasBearing() ? location.getBearing() : Float.NaN);
+			this.location = null;
+		}
+
+		@Override
+		public long onFix(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed, float bearing) {
+			return locationStatus.addLocation(location);
+		}
+
+		@Override
+		public void onFixAdded(long seq) {
+			locationStatus.notifyLocationAdded(seq, location);
+		}
+
+		@Override
+		public void onSamplingChanged() {
+			// Listeners are managed on the main thread
+			mainHandler.post(samplingChanged);
 		}
 
 		@Override
@@ -318,57 +1376,60 @@ public class LocationService extends Service {
 	 */
 	public class LocationTracker {
 
-		private boolean trackGPS;
-		private boolean trackNetwork;
-
-		private int gpsProviderStatus;
-		private int networkProviderStatus;
-
 		private Location lastLocation;
 		private Location lastGpsLocation;
 		private Location lastNetworkLocation;
 		private Location lastMostPreciseLocation;
 
-		private ArrayList<Location> lastLocations;
-		private ArrayList<Location> lastGpsLocations;
-		private ArrayList<Location> lastNetworkLocations;
-
-		// Stats variables ////////
-		int totalGpsLocRx = 0;
-		int totalNetLocRx = 0;
+		// History, stats, index and filters of the locations
+		private final TrackerCore core = new TrackerCore(
+				config.getMaxLocationHistory(), CFG_SPATIAL_INDEX_CELL_DEG,
+				config.isFilterLocations() ? newFilterChain() : null);
 
-		float maxAccGps = 0;
-		float maxAccNet = 0;
+		// GPS and network fixes fused by a Kalman filter
+		private final FusedLocationFilter fusion = new FusedLocationFilter(
+				CFG_FUSION_ACCELERATION_NOISE, CFG_FUSION_AGE_NOISE_MPS,
+				CFG_FUSION_RESET_AFTER_MS);
 
-		int nbOfOutageForGps = 0;
-		int nbOfOutageForNet = 0;
+		// Fix pipeline and provider state, shared with ReplayTracker
+		private final FixProcessor processor = new FixProcessor(Clock.SYSTEM,
+				core, metrics, fusion);
 
-		long lastLocUpdate = 0;
-		long lastGpsLocUpdate = 0;
-		long lastNetLocUpdate = 0;
+		// Storage for every location received
+		private final ArrayList<TrackSink> sinks = new ArrayList<TrackSink>();
 
+		// Stats variables ////////
 		long trackerStarted = System.currentTimeMillis();
 
 		// TODO Add more wonderfull stats
 
-		public LocationTracker() {
+		// Incremented on every change, each version is published once
+		private long version = 0;
+
+		// Last published state, read by other threads without locking
+		private volatile TrackerSnapshot snapshot;
+		private final TrackerSnapshot.Builder snapshotBuilder = new TrackerSnapshot.Builder();
+		private final TrackerReport.Builder reportBuilder = new TrackerReport.Builder();
+		private Location fusedLocation;
+		private GpsStatus gpsStatus;
 
-			trackGPS = false;
-			trackNetwork = false;
+		// Asking the manager is a IPC, only done every CFG_METRICS_REFRESH_MS
+		private TrackerReport.GpsStatusSummary gpsStatusSummary;
+		private long gpsStatusTakenAt = Long.MIN_VALUE / 2;
 
-			gpsProviderStatus = LocationProvider.OUT_OF_SERVICE;
-			networkProviderStatus = LocationProvider.OUT_OF_SERVICE;
+		public LocationTracker() {
+
+			processor.setGeofences(geofences, geofenceBroadcaster);
+			processor.setSegmenter(segmenter, segmentBroadcaster);
+			processor.setSampling(config.isAdaptiveSampling() ? newSamplingScheduler()
+					: null);
 
 			lastLocation = null;
 			lastGpsLocation = null;
 			lastNetworkLocation = null;
 			lastMostPreciseLocation = null;
 
-			lastLocations = new ArrayList<Location>(CFG_MAX_LOCATION_HISTORY);
-			lastGpsLocations = new ArrayList<Location>(CFG_MAX_LOCATION_HISTORY);
-			lastNetworkLocations = new ArrayList<Location>(
-					CFG_MAX_LOCATION_HISTORY);
-
+			publish();
 		}
 
 		/**
@@ -378,22 +1439,12 @@ public class LocationService extends Service {
 		 * @param status
 		 * @param extras
 		 */
-		public void updateProviderStatus(String provider, int status,
+		public synchronized void updateProviderStatus(String provider, int status,
 				Bundle extras) {
 
-			if (provider.equals(LocationManager.GPS_PROVIDER)) {
-				trackGPS = status != LocationProvider.OUT_OF_SERVICE;
-				gpsProviderStatus = status;
-				if (!trackGPS)
-					nbOfOutageForNet++;
-				// TODO Keep track of bundle for gps
-			} else if (provider.equals(LocationManager.NETWORK_PROVIDER)) {
-				trackNetwork = status != LocationProvider.OUT_OF_SERVICE;
-				networkProviderStatus = status;
-				if (!trackNetwork)
-					nbOfOutageForNet++;
-			}
-
+			// TODO Keep track of bundle for gps
+			processor.onStatusChanged(providerOf(provider), status);
+			publish();
 			notifyStatusChanged();
 		}
 
@@ -402,15 +1453,9 @@ public class LocationService extends Service {
 		 * 
 		 * @param provider
 		 */
-		public void providerHasBeenEnabled(String provider) {
-			if (provider.equals(LocationManager.GPS_PROVIDER)) {
-				trackGPS = true;
-				gpsProviderStatus = LocationProvider.TEMPORARILY_UNAVAILABLE;
-			} else if (provider.equals(LocationManager.NETWORK_PROVIDER)) {
-				trackNetwork = true;
-				networkProviderStatus = LocationProvider.TEMPORARILY_UNAVAILABLE;
-			}
-
+		public synchronized void providerHasBeenEnabled(String provider) {
+			processor.onProviderEnabled(providerOf(provider));
+			publish();
 			notifyStatusChanged();
 		}
 
@@ -419,35 +1464,34 @@ public class LocationService extends Service {
 		 * 
 		 * @param provider
 		 */
-		public void providerHasBeenDisabled(String provider) {
-			if (provider.equals(LocationManager.GPS_PROVIDER)) {
-				trackGPS = false;
-				gpsProviderStatus = LocationProvider.OUT_OF_SERVICE;
-				nbOfOutageForGps++;
-			} else if (provider.equals(LocationManager.NETWORK_PROVIDER)) {
-				trackNetwork = false;
-				networkProviderStatus = LocationProvider.OUT_OF_SERVICE;
-				nbOfOutageForNet++;
-			}
-
+		public synchronized void providerHasBeenDisabled(String provider) {
+			processor.onProviderDisabled(providerOf(provider));
+			publish();
 			notifyStatusChanged();
 		}
 
 		/**
-		 * We stack last location and also organise location received
+		 * We stack last location and also organise location received, unless
+		 * the filter chain drop it. Called by the FixProcessor, see
+		 * notifyLocationAdded.
 		 * 
 		 * @param location
+		 * @return sequence number of the location in the history or -1 if
+		 *         dropped by the filters
 		 */
-		public synchronized void addLocation(Location location) {
+		synchronized long addLocation(Location location) {
 
-			lastLocation = location;
-			stackLocation(location, lastLocations);			
+			long seq = stackLocation(location);
+			if (seq < 0) {
+				return seq;
+			}
 
+			lastLocation = location;
 			if (LocationManager.GPS_PROVIDER.equals(location.getProvider())) {
-				updateGpsLocation(location);
+				lastGpsLocation = location;
 			} else if (LocationManager.NETWORK_PROVIDER.equals(location
 					.getProvider())) {
-				updateNetLocation(location);
+				lastNetworkLocation = location;
 			}
 
 			if (lastMostPreciseLocation == null) {
@@ -456,283 +1500,565 @@ public class LocationService extends Service {
 					.getAccuracy()) {
 				lastMostPreciseLocation = location;
 				// TODO Add time logic and maybe distance from last point logic
+				// (see getFusedLocation)
 			}
 
-			notifyLocationChanged();
+			fusedLocation = buildFusedLocation();
+
+			publish();
+			return seq;
 		}
 
 		/**
-		 * Handle GPS location
+		 * Give the location added to the listeners and broadcast it, the state
+		 * is already published so the lock is not needed
 		 * 
+		 * @param seq
 		 * @param location
 		 */
-		private void updateGpsLocation(Location location) {
+		void notifyLocationAdded(long seq, Location location) {
+
+			if (trackerListeners.hasListeners()) {
+				trackerListeners.dispatchFix(new Fix(seq, providerOf(location
+						.getProvider()), location.getTime(), location
+						.getLatitude(), location.getLongitude(), location
+						.getAccuracy(), speedOf(location)));
+				metrics.count(TrackerMetrics.EVENT_LISTENER_FIX);
+			}
 
-			lastGpsLocation = location;
-			lastGpsLocUpdate = System.currentTimeMillis();
-			totalGpsLocRx++;
+			notifyLocationChanged();
+		}
 
-			// TODO Add advance GPS stats (ie. Nb of sat etc)
+		/**
+		 * Give the location to the processor (filters, history, stats,
+		 * fusion) and if kept to the sinks
+		 * 
+		 * @param l
+		 * @return sequence number of the location in the history or -1 if
+		 *         dropped by the filters
+		 */
+		private long stackLocation(Location l) {
+
+			byte provider = providerOf(l.getProvider());
+			float speed = speedOf(l);
 
-			if (location.getAccuracy() < maxAccGps)
-				maxAccGps = location.getAccuracy();
+			long seq = processor.add(provider, l.getTime(), l.getLatitude(),
+					l.getLongitude(), l.getAccuracy(), speed,
+					l.hasBearing() ? l.getBearing() : Float.NaN);
+			if (seq < 0) {
+				return seq;
+			}
 
-			stackLocation(location, lastGpsLocations);
+			for (int i = 0; i < sinks.size(); i++) {
+				try {
+					sinks.get(i).append(provider, l.getTime(), l.getLatitude(),
+							l.getLongitude(), l.getAccuracy(), speed);
+				} catch (IOException e) {
+					Log.w(TAG, "Unable to store location", e);
+				}
+			}
+
+			return seq;
 		}
 
 		/**
-		 * Handle Network location
+		 * Apply the options handled by the tracker, must run on the
+		 * processing thread
 		 * 
-		 * @param location
+		 * @param old
+		 * @param newConfig
 		 */
-		private void updateNetLocation(Location location) {
+		synchronized void applyConfig(TrackerConfig old, TrackerConfig newConfig) {
 
-			lastNetworkLocation = location;
-			lastNetLocUpdate = System.currentTimeMillis();
-			totalNetLocRx++;
+			if (old.getMaxLocationHistory() != newConfig.getMaxLocationHistory()) {
+				core.resize(newConfig.getMaxLocationHistory());
+				Log.d(TAG, "History resized to "
+						+ newConfig.getMaxLocationHistory() + " locations");
+			}
 
-			if (location.getAccuracy() < maxAccGps)
-				maxAccNet = location.getAccuracy();
+			if (old.isFilterLocations() != newConfig.isFilterLocations()) {
+				core.setFilters(newConfig.isFilterLocations() ? newFilterChain()
+						: null);
+			}
 
-			stackLocation(location, lastNetworkLocations);
+			// Report content may have changed
+			publish();
+			notifyStatusChanged();
+		}
+
+		/**
+		 * Every location received will also be given to this sink
+		 * 
+		 * @param sink
+		 */
+		public synchronized void addSink(TrackSink sink) {
+			sinks.add(sink);
+		}
+
+		public synchronized void removeSink(TrackSink sink) {
+			sinks.remove(sink);
 		}
 
 		/**
-		 * Stack last know location into this array, also insure maximum number
-		 * of entry is kept to configured value
+		 * Reload stored fixes into the history (ie. after a restart), they
+		 * are not given to the sinks nor notified and do not count as
+		 * received
 		 * 
-		 * @param lastKnowLocation
-		 * @param arrLoc
-		 *            the array of location
+		 * @param cursor
+		 * @return number of fixes restored
+		 * @throws IOException
+		 */
+		public synchronized int restoreHistory(FixCursor cursor)
+				throws IOException {
+
+			int count = 0;
+			while (cursor.moveToNext()) {
+				core.restore(cursor.getProvider(), cursor.getTime(),
+						cursor.getLatitude(), cursor.getLongitude(),
+						cursor.getAccuracy(), cursor.getSpeed());
+				count++;
+			}
+
+			if (count > 0 && lastLocation == null) {
+				// Show where we were before the restart
+				lastLocation = getLocationAt(core.getHistory()
+						.getNextSequence() - 1);
+			}
+
+			publish();
+			return count;
+		}
+
+		/**
+		 * @param l
+		 * @return speed of the location or NaN if not available
 		 */
-		private void stackLocation(Location l, ArrayList<Location> arrLoc) {
+		private float speedOf(Location l) {
+			return l.hasSpeed() ? l.getSpeed() : Float.NaN;
+		}
 
-			if (arrLoc.size() >= CFG_MAX_LOCATION_HISTORY) {
-				arrLoc.remove(0); // remove first entry (LILO)
+		/**
+		 * @param provider
+		 *            history code
+		 * @return provider name
+		 */
+		private String providerName(byte provider) {
+			switch (provider) {
+			case LocationHistory.PROVIDER_GPS:
+				return LocationManager.GPS_PROVIDER;
+			case LocationHistory.PROVIDER_NETWORK:
+				return LocationManager.NETWORK_PROVIDER;
+			default:
+				return LocationManager.PASSIVE_PROVIDER;
 			}
+		}
 
-			arrLoc.add(l);
+		/**
+		 * @param provider
+		 * @return the history code for this provider name
+		 */
+		private byte providerOf(String provider) {
+			if (LocationManager.GPS_PROVIDER.equals(provider)) {
+				return LocationHistory.PROVIDER_GPS;
+			} else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+				return LocationHistory.PROVIDER_NETWORK;
+			}
+			return LocationHistory.PROVIDER_UNKNOWN;
+		}
+
+		/**
+		 * Last published state of the tracker, never block and can be called
+		 * from any thread. Take it once and read everything from it to get a
+		 * consistent view.
+		 * 
+		 * @return snapshot of the tracker
+		 */
+		public TrackerSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Publish the current state, must be called with the lock held after
+		 * every change
+		 */
+		private void publish() {
+
+			version++;
+
+			TrackerSnapshot.Builder b = snapshotBuilder;
+			b.version = version;
+			b.trackGPS = processor.isTrackGPS();
+			b.trackNetwork = processor.isTrackNetwork();
+			b.gpsProviderStatus = processor.getGpsProviderStatus();
+			b.networkProviderStatus = processor.getNetworkProviderStatus();
+			b.lastLocation = lastLocation;
+			b.lastGpsLocation = lastGpsLocation;
+			b.lastNetworkLocation = lastNetworkLocation;
+			b.lastMostPreciseLocation = lastMostPreciseLocation;
+			b.fusedLocation = fusedLocation;
+			// Same views as the last snapshot if the history did not change
+			LocationHistory history = core.getHistory();
+			b.history = history.snapshot();
+			b.gpsHistory = history.freezeGps();
+			b.networkHistory = history.freezeNetwork();
+			b.report = buildReport();
+
+			snapshot = b.build();
 		}
 
 		public Location getLastLocation() {
-			return lastLocation;
+			return snapshot.getLastLocation();
 		}
 
-		public ArrayList<Location> getLastLocations() {
-			return lastLocations;
+		/**
+		 * @return last locations of all providers
+		 */
+		public HistoryView getLastLocations() {
+			return snapshot.getHistory();
 		}
 
-		public ArrayList<Location> getLastGpsLocations() {
-			return lastGpsLocations;
+		public HistoryView getLastGpsLocations() {
+			return snapshot.getGpsHistory();
 		}
 
-		public ArrayList<Location> getLastNetworkLocations() {
-			return lastNetworkLocations;
+		public HistoryView getLastNetworkLocations() {
+			return snapshot.getNetworkHistory();
 		}
 
 		public boolean isTrackGPS() {
-			return trackGPS;
+			return snapshot.isTrackGPS();
 		}
 
 		public boolean isGpsLocationAvailable() {
-			return lastGpsLocation != null;
+			return snapshot.isGpsLocationAvailable();
 		}
 
 		public boolean isNetworkLocationAvailable() {
-			return lastNetworkLocation != null;
+			return snapshot.isNetworkLocationAvailable();
 		}
 
 		public boolean isMostPreciseLocationAvailable() {
-			return lastMostPreciseLocation != null;
+			return snapshot.isMostPreciseLocationAvailable();
 		}
 
-		public void setTrackGPS(boolean trackGPS) {
-			this.trackGPS = trackGPS;
+		public synchronized void setTrackGPS(boolean trackGPS) {
+			processor.setTrackGPS(trackGPS);
+			publish();
 		}
 
 		public boolean isTrackNetwork() {
-			return trackNetwork;
+			return snapshot.isTrackNetwork();
 		}
 
-		public void setTrackNetwork(boolean trackNetwork) {
-			this.trackNetwork = trackNetwork;
+		public synchronized void setTrackNetwork(boolean trackNetwork) {
+			processor.setTrackNetwork(trackNetwork);
+			publish();
 		}
 
 		public int getGpsProviderStatus() {
-			return gpsProviderStatus;
+			return snapshot.getGpsProviderStatus();
 		}
 
-		public void setGpsProviderStatus(int gpsProviderStatus) {
-			this.gpsProviderStatus = gpsProviderStatus;
+		public synchronized void setGpsProviderStatus(int gpsProviderStatus) {
+			processor.setGpsProviderStatus(gpsProviderStatus);
+			publish();
 		}
 
 		public int getNetworkProviderStatus() {
-			return networkProviderStatus;
+			return snapshot.getNetworkProviderStatus();
 		}
 
-		public void setNetworkProviderStatus(int networkProviderStatus) {
-			this.networkProviderStatus = networkProviderStatus;
+		public synchronized void setNetworkProviderStatus(int networkProviderStatus) {
+			processor.setNetworkProviderStatus(networkProviderStatus);
+			publish();
 		}
 
 		public Location getLastGpsLocation() {
-			return lastGpsLocation;
+			return snapshot.getLastGpsLocation();
 		}
 
-		public void setLastGpsLocation(Location lastGpsLocation) {
+		public synchronized void setLastGpsLocation(Location lastGpsLocation) {
 			this.lastGpsLocation = lastGpsLocation;
+			publish();
 		}
 
 		public Location getLastNetworkLocation() {
-			return lastNetworkLocation;
+			return snapshot.getLastNetworkLocation();
 		}
 
-		public void setLastNetworkLocation(Location lastNetworkLocation) {
+		public synchronized void setLastNetworkLocation(Location lastNetworkLocation) {
 			this.lastNetworkLocation = lastNetworkLocation;
+			publish();
 		}
 
-		public ArrayList<Location> getLastLocationsUpdate() {
-			return lastLocations;
+		public HistoryView getLastLocationsUpdate() {
+			return snapshot.getHistory();
 		}
 
-		public ArrayList<Location> getLastGPSLocationsUpdate() {
-			return lastGpsLocations;
+		public HistoryView getLastGPSLocationsUpdate() {
+			return snapshot.getGpsHistory();
 		}
 
-		public ArrayList<Location> getLastNetworkLocationsUpdate() {
-			return lastNetworkLocations;
+		public HistoryView getLastNetworkLocationsUpdate() {
+			return snapshot.getNetworkHistory();
+		}
+
+		/**
+		 * Best estimate of the current position from every provider, unlike
+		 * getLastMostPreciseLocation a old precise fix does not win over
+		 * newer ones.
+		 * 
+		 * @return fused location (provider "fused") or null if no location
+		 *         received yet
+		 */
+		public Location getFusedLocation() {
+			return snapshot.getFusedLocation();
+		}
+
+		/**
+		 * @return speed of the fused location in m/s, NaN if no location
+		 */
+		public float getFusedSpeed() {
+			Location l = snapshot.getFusedLocation();
+			return l != null ? l.getSpeed() : Float.NaN;
+		}
+
+		private Location buildFusedLocation() {
+			if (!fusion.hasFix()) {
+				return null;
+			}
+			Location l = new Location(FUSED_PROVIDER);
+			l.setTime(fusion.getTime());
+			l.setLatitude(fusion.getLatitude());
+			l.setLongitude(fusion.getLongitude());
+			l.setAccuracy(fusion.getAccuracy());
+			l.setSpeed(fusion.getSpeed());
+			l.setBearing(fusion.getBearing());
+			return l;
 		}
 
 		public Location getLastMostPreciseLocation() {
-			return lastMostPreciseLocation;
+			return snapshot.getLastMostPreciseLocation();
 		}
 		
 		public boolean isLocationAvailable() {
-			return lastLocation!=null;
+			return snapshot.isLocationAvailable();
 		}
 
-		@Override
-		public String toString() {
+		/**
+		 * Return a immutable view of the last locations, safe to read from
+		 * any thread while location are processed on the worker. The same
+		 * view is given until the tracker change.
+		 * 
+		 * @return snapshot of last locations of all providers
+		 */
+		public HistorySnapshot getHistorySnapshot() {
+			return snapshot.getHistory();
+		}
+
+		/**
+		 * Return a immutable view of the locations received since fromSeq,
+		 * nothing is copied
+		 * 
+		 * @param fromSeq
+		 *            sequence number of the first location wanted, usually
+		 *            getNextSequence of the previous copy
+		 * @return snapshot of the new locations of all providers
+		 */
+		public HistorySnapshot getHistorySince(long fromSeq) {
+			return snapshot.getHistory().since(fromSeq);
+		}
 
-			String report = "------------------------" + LR;
-			report += " Location status report " + LR;
-			report += "------------------------" + LR;
-			report += "GPS Tracked : " + trackGPS + LR;			
-			report += "Net Tracked : " + trackNetwork + LR;			
-			report += "Tracker started at : " + new Date(trackerStarted) + LR;
-			report += "Tracker started at : " + new Date(trackerStarted) + LR;
-			
-			if(lastGpsLocation!=null){
-				report += "Last gps loc received at : "
-						+ new Date(lastGpsLocUpdate) + LR;
-				report += "Last GPS location : " +
-						new LatLng(lastGpsLocation.getLatitude(),
-							       lastGpsLocation.getLongitude()) + LR;
-			}
-			
-			if(lastNetworkLocation!=null){
-				report += "Last net loc received at : "
-						+ new Date(lastNetLocUpdate) + LR;
-				
-				report += "Last Network location : " +
-						new LatLng(lastNetworkLocation.getLatitude(),
-								   lastNetworkLocation.getLongitude()) + LR;
-			}
-						
-			report += "Total GPS Loc received : " + totalGpsLocRx + LR;
-			report += "Total Net Loc received : " + totalNetLocRx + LR;
-			report += "Max acc for GPS : " + maxAccGps + LR;
-			report += "Max acc for Net : " + maxAccNet + LR;
-			report += "Nb of outage for GPS : " + nbOfOutageForGps + LR;
-			report += "Nb of outage for Net : " + nbOfOutageForNet + LR;
-			report += "Loc loc buff size : " + lastLocations.size() + LR;
-			report += "GPS loc buff size : " + lastGpsLocations.size() + LR;
-			report += "Net loc buff size : " + lastNetworkLocations.size() + LR;
-
-			if (CFG_SHOW_FULL_REPORT) {
-				report += " -- Extended report -- " + LR;
-				report += generateLocationSummary(lastLocations, "All provider");
-				report += generateLocationSummary(lastGpsLocations, "GPS");
-				report += generateLocationSummary(lastNetworkLocations,
-						"Network");
-				report += generateGpsStatusSummary();
-			}
-
-			return report;
-		}
-
-		/**
-		 * Return a summary of the GPS status
+		/**
+		 * Find the locations of the history at less than radiusMeters of a
+		 * point. The visitor is called with the tracker locked, it should not
+		 * do more than collect the sequence numbers.
 		 * 
-		 * @return
-		 */
-		private String generateGpsStatusSummary() {
-
-			String report = "";
-			GpsStatus gpsStatus = locationManager.getGpsStatus(null);
-			if (gpsStatus != null) {
-				report += "**** GPS Status ****" + LR;
-				report += "Time for first GPS fix : "
-						+ gpsStatus.getTimeToFirstFix() + LR;
-				report += "Max GPS sat : " + gpsStatus.getMaxSatellites() + LR;
-				int nbOfSat = 0;
-				Iterable<GpsSatellite> itr = gpsStatus.getSatellites();
-				for (GpsSatellite gpsSatellite : itr) {
-					report += "GPS Sat info : " + gpsSatellite + LR;
-					nbOfSat++;
-				}
-				report += "Found : " + nbOfSat + " GPS sat" + LR;
-				report += "**** End of GPS Status **** " + LR;
-			} else {
-				report += "Unable to get GPS status from manager" + LR;
+		 * @return number of locations found
+		 */
+		public synchronized int findLocationsWithin(double latitude,
+				double longitude, double radiusMeters,
+				SpatialIndex.Visitor visitor) {
+			return core.getSpatialIndex().findWithin(latitude, longitude,
+					radiusMeters, visitor);
+		}
+
+		/**
+		 * Find the locations of the history in a box, see findLocationsWithin
+		 * 
+		 * @return number of locations found
+		 */
+		public synchronized int findLocationsInBox(double minLatitude,
+				double minLongitude, double maxLatitude, double maxLongitude,
+				SpatialIndex.Visitor visitor) {
+			return core.getSpatialIndex().findInBox(minLatitude, minLongitude,
+					maxLatitude, maxLongitude, visitor);
+		}
+
+		/**
+		 * @return sequence number of the closest location in the history or
+		 *         -1 if empty, values can be read with getLocationAt
+		 */
+		public synchronized long findNearestLocation(double latitude,
+				double longitude) {
+			return core.getSpatialIndex().findNearest(latitude, longitude);
+		}
+
+		/**
+		 * @param seq
+		 * @return location of the history with this sequence number or null
+		 *         if evicted
+		 */
+		public synchronized Location getLocationAt(long seq) {
+			LocationHistory history = core.getHistory();
+			if (!history.contains(seq)) {
+				return null;
 			}
+			Location l = new Location(providerName(history.getProviderAt(seq)));
+			l.setTime(history.getTimeAt(seq));
+			l.setLatitude(history.getLatitudeAt(seq));
+			l.setLongitude(history.getLongitudeAt(seq));
+			l.setAccuracy(history.getAccuracyAt(seq));
+			float speed = history.getSpeedAt(seq);
+			if (!Float.isNaN(speed)) {
+				l.setSpeed(speed);
+			}
+			return l;
+		}
 
-			return report;
+		/**
+		 * Write the last locations in the compact track format (see
+		 * TrackEncoder), can be called from any thread. The stream is not
+		 * closed.
+		 *
+		 * @param out
+		 * @return number of locations written
+		 * @throws IOException
+		 */
+		public long exportHistory(OutputStream out) throws IOException {
+			TrackEncoder encoder = new TrackEncoder(out);
+			long n = encoder.appendAll(new HistoryCursor(getHistorySnapshot()));
+			encoder.flush();
+			return n;
 		}
 
 		/**
-		 * Show average and max acc for this list of location
+		 * Latencies, fix ages and intervals and event counters of the
+		 * processing, refreshed at most every CFG_METRICS_REFRESH_MS. Never
+		 * block.
 		 * 
-		 * @param locList
-		 * @param providerName
-		 * @return
+		 * @return metrics snapshot
 		 */
-		private String generateLocationSummary(ArrayList<Location> locList,
-				String providerName) {
+		public TrackerMetrics.Snapshot getMetrics() {
+			return metrics.getSnapshot();
+		}
 
-			// TODO Add speed stats too one day
+		/**
+		 * @return version of the tracker state, change on every update
+		 */
+		public long getVersion() {
+			return snapshot.getVersion();
+		}
 
-			String report = "";
+		/**
+		 * Return the report of the last published state, the same instance
+		 * is given until the tracker change. Its values were taken at
+		 * publish, never block.
+		 * 
+		 * @return report
+		 */
+		public TrackerReport getReport() {
+			return snapshot.getReport();
+		}
 
-			int size = locList.size();
+		/**
+		 * Take the report values of the current state, for publish. Only
+		 * copy counters, the arrays of the extended report are shared with
+		 * the previous report while they do not change.
+		 * 
+		 * @return report
+		 */
+		private TrackerReport buildReport() {
+
+			TrackerReport.Builder b = reportBuilder;
+			b.version = version;
+			b.trackerStarted = trackerStarted;
+			b.summaries = false;
+			b.gpsStatus = null;
+			b.dispatchChannels = null;
+			b.filterNames = null;
+
+			boolean full = config.isShowFullReport();
+			processor.fillReport(b, full);
+			if (full) {
+				long now = SystemClock.uptimeMillis();
+				if (now - gpsStatusTakenAt >= CFG_METRICS_REFRESH_MS) {
+					gpsStatusSummary = generateGpsStatusSummary();
+					gpsStatusTakenAt = now;
+				}
+				b.gpsStatus = gpsStatusSummary;
+				if (broadcastDispatcher != null) {
+					broadcastDispatcher.fillReport(b);
+				}
+			}
+			b.metrics = metrics.getSnapshot();
 
-			if (size != 0) {
+			return b.build();
+		}
 
-				float sum = 0;
-				float avgAcc = 0;
-				float maxAcc = 0;
+		/**
+		 * The report text is only built once per published state
+		 */
+		@Override
+		public String toString() {
+			return snapshot.toString();
+		}
 
-				Iterator<Location> i = locList.iterator();
-				while (i.hasNext()) {
-					Location location = (Location) i.next();
-					float acc = location.getAccuracy();
-					sum += acc;
-					if (acc < maxAcc || maxAcc == 0) {
-						maxAcc = acc;
-					}
-				}
+		/**
+		 * Return a summary of the GPS status, the status object from the
+		 * manager is reused between calls
+		 * 
+		 * @return summary or null if not available
+		 */
+		private TrackerReport.GpsStatusSummary generateGpsStatusSummary() {
+
+			if (locationManager == null) {
+				return null;
+			}
 
-				avgAcc = sum / size;
+			gpsStatus = locationManager.getGpsStatus(gpsStatus);
+			if (gpsStatus == null) {
+				return null;
+			}
 
-				report += providerName + " stats over " + size
-						+ " last samples" + LR;
-				report += providerName + " average accuracy : " + avgAcc + LR;
-				report += providerName + " max accuracy : " + maxAcc + LR;
+			int nbOfSat = 0;
+			Iterable<GpsSatellite> itr = gpsStatus.getSatellites();
+			for (GpsSatellite gpsSatellite : itr) {
+				nbOfSat++;
+			}
 
-			} else {
-				report += "No sample loc for " + providerName + LR;
+			int[] prns = new int[nbOfSat];
+			float[] snrs = new float[nbOfSat];
+			float[] elevations = new float[nbOfSat];
+			float[] azimuths = new float[nbOfSat];
+			boolean[] used = new boolean[nbOfSat];
+
+			int i = 0;
+			for (GpsSatellite gpsSatellite : itr) {
+				if (i >= nbOfSat)
+					break;
+				prns[i] = gpsSatellite.getPrn();
+				snrs[i] = gpsSatellite.getSnr();
+				elevations[i] = gpsSatellite.getElevation();
+				azimuths[i] = gpsSatellite.getAzimuth();
+				used[i] = gpsSatellite.usedInFix();
+				i++;
 			}
 
-			return report;
+			return new TrackerReport.GpsStatusSummary(
+					gpsStatus.getTimeToFirstFix(),
+					gpsStatus.getMaxSatellites(), prns, snrs, elevations,
+					azimuths, used);
 		}
 
 	
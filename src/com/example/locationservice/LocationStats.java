@@ -0,0 +1,223 @@
+package com.example.locationservice;
+
+/**
+ * Running statistics over the fixes kept in a history window.
+ *
+ * Fixes are added when received and removed when the history drop them so
+ * every value is available in constant time whatever the history size.
+ * Average and variance use Welford algorithm (and its reverse for removal),
+ * best and worst accuracy are kept with monotonic queues so they stay exact
+ * when the current best fix is evicted.
+ *
+ * Speed is optional, fixes without speed (NaN) are only counted for accuracy.
+ *
+ */
+public class LocationStats {
+
+	private int count;
+	private double accuracySum;
+
+	private final RunningVariance accuracy = new RunningVariance();
+	private final RunningVariance speed = new RunningVariance();
+
+	// Lowest accuracy value is the best one
+	private final MonotonicQueue bestAccuracy;
+	private final MonotonicQueue worstAccuracy;
+
+	/**
+	 * @param capacity
+	 *            maximum number of fix in the window at the same time
+	 */
+	public LocationStats(int capacity) {
+		bestAccuracy = new MonotonicQueue(capacity, true);
+		worstAccuracy = new MonotonicQueue(capacity, false);
+	}
+
+	/**
+	 * Add a fix to the window
+	 *
+	 * @param seq
+	 *            sequence number of the fix in the history
+	 * @param acc
+	 * @param spd
+	 *            speed or NaN if not available
+	 */
+	public void add(long seq, float acc, float spd) {
+		count++;
+		accuracySum += acc;
+		accuracy.add(acc);
+		if (!Float.isNaN(spd)) {
+			speed.add(spd);
+		}
+		bestAccuracy.add(seq, acc);
+		worstAccuracy.add(seq, acc);
+	}
+
+	/**
+	 * Remove the oldest fix of the window, values must be the same as the one
+	 * given to add
+	 *
+	 * @param seq
+	 * @param acc
+	 * @param spd
+	 */
+	public void remove(long seq, float acc, float spd) {
+		if (count == 0) {
+			return;
+		}
+		count--;
+		accuracySum = count == 0 ? 0 : accuracySum - acc;
+		accuracy.remove(acc);
+		if (!Float.isNaN(spd)) {
+			speed.remove(spd);
+		}
+		bestAccuracy.remove(seq);
+		worstAccuracy.remove(seq);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getAccuracySum() {
+		return accuracySum;
+	}
+
+	public float getAverageAccuracy() {
+		return count == 0 ? 0 : (float) (accuracySum / count);
+	}
+
+	/**
+	 * @return lowest accuracy radius in the window (0 if empty)
+	 */
+	public float getBestAccuracy() {
+		return bestAccuracy.peek();
+	}
+
+	/**
+	 * @return highest accuracy radius in the window (0 if empty)
+	 */
+	public float getWorstAccuracy() {
+		return worstAccuracy.peek();
+	}
+
+	public float getAccuracyVariance() {
+		return accuracy.getVariance();
+	}
+
+	public float getAccuracyStdDev() {
+		return (float) Math.sqrt(accuracy.getVariance());
+	}
+
+	/**
+	 * @return number of fix in the window that had a speed
+	 */
+	public int getSpeedCount() {
+		return speed.getCount();
+	}
+
+	public float getAverageSpeed() {
+		return speed.getMean();
+	}
+
+	public float getSpeedVariance() {
+		return speed.getVariance();
+	}
+
+	public float getSpeedStdDev() {
+		return (float) Math.sqrt(speed.getVariance());
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Welford mean and variance supporting removal of a previously added value
+	 */
+	private static class RunningVariance {
+
+		private int n;
+		private double mean;
+		private double m2;
+
+		void add(double x) {
+			n++;
+			double delta = x - mean;
+			mean += delta / n;
+			m2 += delta * (x - mean);
+		}
+
+		void remove(double x) {
+			if (n <= 1) {
+				n = 0;
+				mean = 0;
+				m2 = 0;
+				return;
+			}
+			double oldMean = mean;
+			mean = (n * mean - x) / (n - 1);
+			m2 -= (x - oldMean) * (x - mean);
+			n--;
+			if (m2 < 0) {
+				m2 = 0; // Rounding error
+			}
+		}
+
+		int getCount() {
+			return n;
+		}
+
+		float getMean() {
+			return (float) mean;
+		}
+
+		float getVariance() {
+			return n < 2 ? 0 : (float) (m2 / (n - 1));
+		}
+	}
+
+	/**
+	 * Sliding window minimum (or maximum), values that can never become the
+	 * extreme are dropped on add so the head is always the answer. Amortized
+	 * O(1) per fix.
+	 */
+	private static class MonotonicQueue {
+
+		private final long[] seqs;
+		private final float[] values;
+		private final boolean keepMin;
+		private int head;
+		private int size;
+
+		MonotonicQueue(int capacity, boolean keepMin) {
+			seqs = new long[capacity];
+			values = new float[capacity];
+			this.keepMin = keepMin;
+		}
+
+		void add(long seq, float value) {
+			while (size > 0) {
+				float last = values[(head + size - 1) % values.length];
+				if (keepMin ? last >= value : last <= value) {
+					size--;
+				} else {
+					break;
+				}
+			}
+			int slot = (head + size) % values.length;
+			seqs[slot] = seq;
+			values[slot] = value;
+			size++;
+		}
+
+		void remove(long seq) {
+			if (size > 0 && seqs[head] == seq) {
+				head = (head + 1) % values.length;
+				size--;
+			}
+		}
+
+		float peek() {
+			return size == 0 ? 0 : values[head];
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.example.locationservice;
+
+/**
+ * Hash map with primitive long keys, so looking up a key (ie. a grid cell or
+ * a device id) does not box it.
+ *
+ * Open addressing with linear probing in a power of 2 table kept at most
+ * half full. Remove shift the following entries back instead of leaving a
+ * tombstone, so probes never get longer than needed. Null values are not
+ * allowed, a null slot is empty.
+ *
+ * Entries can be visited without iterator with getCapacity and
+ * keyAt/valueAt, the order is the one of the table.
+ *
+ * This class is not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class LongMap<V> {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	public LongMap() {
+		clear();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return value of the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		return (V) values[find(key)];
+	}
+
+	/**
+	 * @param value
+	 *            not null
+	 * @return previous value of the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+
+		if (value == null) {
+			throw new NullPointerException("Null value for key " + key);
+		}
+
+		int slot = find(key);
+		V old = (V) values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+		if (old == null) {
+			size++;
+			if (size * 2 > values.length) {
+				resize(values.length * 2);
+			}
+		}
+		return old;
+	}
+
+	/**
+	 * @return value removed or null if the key was not there
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = find(key);
+		V old = (V) values[slot];
+		if (old != null) {
+			delete(slot);
+		}
+		return old;
+	}
+
+	public void clear() {
+		keys = new long[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * @return number of slots of the table, for keyAt and valueAt
+	 */
+	public int getCapacity() {
+		return values.length;
+	}
+
+	/**
+	 * @return key of this slot, only valid when valueAt is not null
+	 */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * @return value of this slot or null if empty
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	private int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (values.length - 1);
+	}
+
+	/**
+	 * @return slot of the key or the empty slot where it should go
+	 */
+	private int find(long key) {
+		int mask = values.length - 1;
+		int i = hash(key);
+		while (values[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Empty a slot, following entries are shifted back so probing still
+	 * find them
+	 */
+	private void delete(int slot) {
+		int mask = values.length - 1;
+		int i = slot;
+		values[i] = null;
+		size--;
+
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null) {
+				return;
+			}
+			int k = hash(keys[j]);
+			boolean inPlace = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+			if (!inPlace) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
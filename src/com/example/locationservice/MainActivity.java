@@ -1,21 +1,18 @@
 package com.example.locationservice;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.ArrayDeque;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.location.Location;
-import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Build;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
@@ -27,11 +24,11 @@ import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptor;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.LatLngBounds;
 
 /**
  * Simple activity to demonstrate a clean way of handling location service
@@ -42,7 +39,25 @@ import com.google.android.gms.maps.model.MarkerOptions;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class MainActivity extends Activity {
 
-	private BroadcastReceiver locUptEventReceiver = null;
+	private ServiceConnection locServiceConnection = null;
+
+	private LocationService.LocalBinder locServiceBinder = null;
+
+	// Only the latest fix matter for the map
+	private static final int MAX_PENDING_FIX = 1;
+
+	private final TrackerListener trackerListener = new TrackerListener() {
+
+		@Override
+		public void onFix(Fix fix, int dropped) {
+			updateLocationInformation();
+		}
+
+		@Override
+		public void onStatusChanged(TrackerReport report) {
+			// Nothing to show for now
+		}
+	};
 
 	private Application app;
 
@@ -56,6 +71,35 @@ public class MainActivity extends Activity {
 
 	private LatLng currentPosition;
 
+	// What is drawn on the map, so we only draw what changed
+	private LocationTracker drawnTracker;
+
+	private Circle currentDot;
+
+	private Circle accuracyCircle;
+
+	private long nextSeqToDraw = 0;
+
+	// Track is simplified for the zoom so we draw only what can be seen
+	private static final double LOD_TOLERANCE_PX = 2;
+
+	// Lod is updated on the UI thread, a fix cost at most this many distance
+	// checks per zoom level visited
+	private static final int LOD_MAX_WINDOW = 32;
+
+	private final TrackLevelOfDetail lod = new TrackLevelOfDetail(
+			LOD_TOLERANCE_PX, LOD_MAX_WINDOW);
+
+	private TrackLevelOfDetail.Level drawnLevel;
+
+	private LatLngBounds drawnBounds;
+
+	private final DotLayer gpsDots = new DotLayer(
+			LocationHistory.PROVIDER_GPS, Color.RED);
+
+	private final DotLayer networkDots = new DotLayer(
+			LocationHistory.PROVIDER_NETWORK, Color.BLUE);
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -73,6 +117,15 @@ public class MainActivity extends Activity {
 		toggleButton = ((ToggleButton) findViewById(R.id.main_bt_toggle));
 		map = ((MapFragment) getFragmentManager().findFragmentById(R.id.map))
 				.getMap();
+		map.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
+			@Override
+			public void onCameraChange(CameraPosition position) {
+				// Other zoom level or other part of the track visible
+				if (drawnTracker != null) {
+					renderTrack(drawnTracker.getHistorySnapshot());
+				}
+			}
+		});
 	}
 
 	@Override
@@ -104,37 +157,53 @@ public class MainActivity extends Activity {
 	 */
 	private void unregisterForLocationUpdate() {
 
-		if (locUptEventReceiver != null) {
-			LocalBroadcastManager.getInstance(this).unregisterReceiver(
-					locUptEventReceiver);
-			locUptEventReceiver = null;
+		if (locServiceBinder != null) {
+			locServiceBinder.unregisterTrackerListener(trackerListener);
+			locServiceBinder = null;
+		}
+
+		if (locServiceConnection != null) {
+			unbindService(locServiceConnection);
+			locServiceConnection = null;
 		}
 
 	}
 
 	/**
-	 * This will register a broadcast receiver that alert us on location change,
-	 * we will update the view upon receiving these events
+	 * This will bind to the location service and register a listener that
+	 * alert us on location change, we will update the view upon receiving
+	 * these events. We don't auto create the service, we get connected when
+	 * the tracking is started.
 	 */
 	private void registerForLocationUpdate() {
 
-		locUptEventReceiver = new BroadcastReceiver() {
+		locServiceConnection = new ServiceConnection() {
+
+			@Override
+			public void onServiceConnected(ComponentName name, IBinder service) {
+				locServiceBinder = (LocationService.LocalBinder) service;
+				locServiceBinder.registerTrackerListener(trackerListener,
+						new MainThreadExecutor(), MAX_PENDING_FIX);
+			}
+
 			@Override
-			public void onReceive(Context context, Intent i) {
-				updateLocationInformation();
+			public void onServiceDisconnected(ComponentName name) {
+				locServiceBinder = null;
 			}
 		};
 
-		// We register this listener, we need to unregister it onPause!
-		IntentFilter locUptFilter = new IntentFilter(
-				LocationService.INTENT_LOCATION_UPDATED);
-		LocalBroadcastManager lbm = LocalBroadcastManager.getInstance(this);
-		lbm.registerReceiver(locUptEventReceiver, locUptFilter);
+		// We bind to the service, we need to unbind onPause!
+		bindService(new Intent(this, LocationService.class),
+				locServiceConnection, 0);
 
 	}
 
 	/**
-	 * Map usage example
+	 * Map usage example, the map is updated incrementally: we keep the
+	 * circles already drawn, add only the new locations, remove the ones the
+	 * tracker dropped and move the current location circles. The track is
+	 * simplified for the current zoom and only the visible part is drawn so
+	 * the number of circles stay bounded.
 	 */
 	protected void updateLocationInformation() {
 
@@ -142,49 +211,54 @@ public class MainActivity extends Activity {
 									
 			// Update our location on the map
 			LocationTracker lt = LocationService.getLocationTracker();
-			if (lt!=null && lt.isLocationAvailable()) {
+			// Read everything from the same state, never wait for the tracker
+			TrackerSnapshot snapshot = lt != null ? lt.getSnapshot() : null;
+			if (snapshot != null && snapshot.isLocationAvailable()) {
+
+				if (lt != drawnTracker) {
+					// New tracker, what we drawn is not valid anymore
+					resetDrawnLocations();
+					drawnTracker = lt;
+				}
 
-				Location lastLoc = LocationService.getLocationTracker().getLastLocation();				
+				Location lastLoc = snapshot.getLastLocation();				
 				currentPosition = MapUtil.converLocToLatLng(lastLoc);
 
 				Log.d("MAP", "Updating map location " + currentPosition);
-				BitmapDescriptor icon = BitmapDescriptorFactory.fromResource(R.drawable.ic_launcher);
-				
-				// Clear old marker (could update the crap too)
-				map.clear();								
-				map.setMyLocationEnabled(true);
-				
-				//Mark current location with a black circle (will be overided by bluedot)
-				showDotAtLoc(currentPosition, Color.BLUE);
-													
-				// We put a circle that match accuracy of the last signal
-				map.addCircle(new CircleOptions().center(currentPosition)
-						.fillColor(Color.argb(75, 0, 0, 255))
-						.radius(lastLoc.getAccuracy()).strokeColor(Color.RED)
-						.strokeWidth(2));
 				
-				//Show last received location
-				ArrayList<Location> listOfLocation = lt.getLastLocations();
-				for (Iterator iterator = listOfLocation.iterator(); iterator.hasNext();) {
-					Location location = (Location) iterator.next();
-					if(LocationManager.GPS_PROVIDER.equals(location.getProvider())){
-						//Draw a red dot for GPS
-						showDotAtLoc(MapUtil.converLocToLatLng(location), Color.RED);
-					}
-					else if(LocationManager.NETWORK_PROVIDER.equals(location.getProvider())){
-						//Draw a red dot for GPS
-						showDotAtLoc(MapUtil.converLocToLatLng(location), Color.BLUE);
-					}
+				if (currentDot == null) {
+					map.setMyLocationEnabled(true);
+
+					//Mark current location with a black circle (will be overided by bluedot)
+					currentDot = showDotAtLoc(currentPosition, Color.BLUE);
+
+					// We put a circle that match accuracy of the last signal
+					accuracyCircle = map.addCircle(new CircleOptions().center(currentPosition)
+							.fillColor(Color.argb(75, 0, 0, 255))
+							.radius(lastLoc.getAccuracy()).strokeColor(Color.RED)
+							.strokeWidth(2));
+				} else {
+					currentDot.setCenter(currentPosition);
+					accuracyCircle.setCenter(currentPosition);
+					accuracyCircle.setRadius(lastLoc.getAccuracy());
 				}
 				
+				//Only get location received since last update
+				HistorySnapshot newLocations = snapshot.getHistory().since(nextSeqToDraw);
+
+				//Feed the simplified tracks with the new locations
+				for (int i = 0; i < newLocations.size(); i++) {
+					lod.add(newLocations.getSequence(i),
+							newLocations.getProvider(i),
+							newLocations.getLatitude(i),
+							newLocations.getLongitude(i));
+				}
+				lod.evictBefore(newLocations.getHistoryOldestSequence());
 				
-				
-				/*
-				// We add a marker of yourself
-				map.addMarker(new MarkerOptions().title("You")
-						.snippet("You are here!").icon(icon)
-						.position(currentPosition));
-				*/
+				nextSeqToDraw = newLocations.getNextSequence();
+
+				//Show last received location (red for GPS, blue for network)
+				renderTrack(snapshot.getHistory());
 									
 			}
 			
@@ -194,13 +268,55 @@ public class MainActivity extends Activity {
 		}
 	}
 
+	/**
+	 * Forget everything drawn, next update will draw the whole history
+	 */
+	private void resetDrawnLocations() {
+		map.clear();
+		lod.clear();
+		gpsDots.forget();
+		networkDots.forget();
+		drawnLevel = null;
+		drawnBounds = null;
+		currentDot = null;
+		accuracyCircle = null;
+		nextSeqToDraw = 0;
+	}
+
+	/**
+	 * Draw the simplified track for the current zoom, only what changed is
+	 * drawn unless the zoom or the visible region changed
+	 */
+	private void renderTrack(HistorySnapshot history) {
+
+		int zoom = (int) map.getCameraPosition().zoom;
+		TrackLevelOfDetail.Level level = lod.getLevel(zoom);
+		if (level == null) {
+			// First time at this zoom, build it from the whole history
+			level = lod.getLevel(zoom, history);
+		}
+
+		LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+
+		if (level != drawnLevel || !bounds.equals(drawnBounds)) {
+			gpsDots.clear();
+			networkDots.clear();
+			drawnLevel = level;
+			drawnBounds = bounds;
+		}
+
+		gpsDots.sync(level, bounds);
+		networkDots.sync(level, bounds);
+	}
+
 	/**
 	 * Draw a dot at provided location
 	 * @param pos
 	 * @param color
+	 * @return the circle drawn
 	 */
-	private void showDotAtLoc(LatLng pos, int color ) {		
-		map.addCircle(new CircleOptions()
+	private Circle showDotAtLoc(LatLng pos, int color ) {		
+		return map.addCircle(new CircleOptions()
 				.center(pos)
 				.fillColor(color)
 				.radius(0.5)
@@ -208,6 +324,101 @@ public class MainActivity extends Activity {
 				.strokeWidth(1f));
 	}
 
+	/**
+	 * Circles drawn for the simplified track of a provider, keyed by their
+	 * index in the track so we can follow the changes
+	 */
+	private class DotLayer {
+
+		final byte provider;
+		final int color;
+
+		final ArrayDeque<DrawnDot> dots = new ArrayDeque<DrawnDot>();
+		long nextIndex = 0;
+		Circle floatingDot;
+
+		DotLayer(byte provider, int color) {
+			this.provider = provider;
+			this.color = color;
+		}
+
+		/**
+		 * Draw the new points of the track, remove the dropped ones
+		 */
+		void sync(TrackLevelOfDetail.Level level, LatLngBounds bounds) {
+
+			TrackLevelOfDetail.Track track = level.getTrack(provider);
+
+			while (!dots.isEmpty()
+					&& dots.peekFirst().index < track.getFirstIndex()) {
+				dots.pollFirst().circle.remove();
+			}
+
+			long index = Math.max(nextIndex, track.getFirstIndex());
+			for (; index < track.getNextIndex(); index++) {
+				LatLng pos = new LatLng(track.getLatitude(index),
+						track.getLongitude(index));
+				if (bounds.contains(pos)) {
+					dots.addLast(new DrawnDot(index, showDotAtLoc(pos, color)));
+				}
+			}
+			nextIndex = index;
+
+			LatLng floating = null;
+			if (track.hasFloatingPoint()) {
+				floating = new LatLng(track.getFloatingLatitude(),
+						track.getFloatingLongitude());
+			}
+
+			if (floating == null || !bounds.contains(floating)) {
+				if (floatingDot != null) {
+					floatingDot.remove();
+					floatingDot = null;
+				}
+			} else if (floatingDot == null) {
+				floatingDot = showDotAtLoc(floating, color);
+			} else {
+				floatingDot.setCenter(floating);
+			}
+		}
+
+		/**
+		 * Remove every circle, next sync draw everything visible
+		 */
+		void clear() {
+			while (!dots.isEmpty()) {
+				dots.pollFirst().circle.remove();
+			}
+			if (floatingDot != null) {
+				floatingDot.remove();
+			}
+			forget();
+		}
+
+		/**
+		 * Map has been cleared, forget the circles
+		 */
+		void forget() {
+			dots.clear();
+			floatingDot = null;
+			nextIndex = 0;
+		}
+	}
+
+	/**
+	 * A track point drawn on the map
+	 */
+	private static class DrawnDot {
+
+		final long index;
+		final Circle circle;
+
+		DrawnDot(long index, Circle circle) {
+			this.index = index;
+			this.circle = circle;
+		}
+	}
+
 	private void centerOnMe() {
 		map.moveCamera(CameraUpdateFactory.newLatLng(currentPosition));
 		map.animateCamera(CameraUpdateFactory.zoomTo(18), 500, null);
@@ -0,0 +1,21 @@
+package com.example.locationservice;
+
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Executor running task on the main thread, use it to register a
+ * TrackerListener that update views.
+ *
+ */
+public class MainThreadExecutor implements Executor {
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	@Override
+	public void execute(Runnable command) {
+		handler.post(command);
+	}
+}
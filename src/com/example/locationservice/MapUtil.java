@@ -2,6 +2,7 @@ package com.example.locationservice;
 
 import android.location.Location;
 
+import com.example.locationservice.LocationHistory.HistoryView;
 import com.google.android.gms.maps.model.LatLng;
 
 public class MapUtil {
@@ -15,6 +16,16 @@ public class MapUtil {
 		return new LatLng(l.getLatitude(),l.getLongitude()); 
 	}
 	
+	/**
+	 * Convert a history entry into LatLng
+	 * @param history
+	 * @param index
+	 * @return LatLng
+	 */
+	public static LatLng converHistoryToLatLng(HistoryView history, int index){
+		return new LatLng(history.getLatitude(index),history.getLongitude(index));
+	}
+	
 	
 
 }
@@ -0,0 +1,59 @@
+package com.example.locationservice;
+
+/**
+ * Virtual clock of a replay, the wall clock is the time of the fix being
+ * replayed so everything derived from it (last update, fix age, intervals)
+ * is the same on every run whatever the replay speed.
+ *
+ * The monotonic clock follow the virtual time too but also add the real time
+ * elapsed since the last fix, so the processing latencies are still
+ * measured. It never go back.
+ *
+ * Plain java, no Android dependency. Set and read from a single thread.
+ *
+ */
+public class ReplayClock implements Clock {
+
+	private long millis;
+	private long virtualNanos;
+	private long setAtNanos;
+	private long lastNanos;
+
+	/**
+	 * @param startMillis
+	 *            initial wall clock
+	 */
+	public ReplayClock(long startMillis) {
+		set(startMillis);
+	}
+
+	/**
+	 * Move the clock, a time before the current one is ignored
+	 *
+	 * @param nowMillis
+	 *            new wall clock
+	 */
+	public void set(long nowMillis) {
+		if (nowMillis < millis) {
+			return;
+		}
+		millis = nowMillis;
+		virtualNanos = nowMillis * 1000000;
+		setAtNanos = System.nanoTime();
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return millis;
+	}
+
+	@Override
+	public long nanoTime() {
+		long n = virtualNanos + System.nanoTime() - setAtNanos;
+		if (n < lastNanos) {
+			n = lastNanos;
+		}
+		lastNanos = n;
+		return n;
+	}
+}
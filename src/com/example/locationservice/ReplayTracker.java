@@ -0,0 +1,182 @@
+package com.example.locationservice;
+
+/**
+ * Headless stand-in of the location service for TrackReplayer: process the
+ * replayed fixes and provider events with the same FixProcessor as the
+ * service (filters, history, fusion, geofences, trip segments, adaptive
+ * sampling, metrics) without Android, so a recorded track can be run through
+ * the tracker on a desktop JVM.
+ *
+ * The core and the metrics must use the same ReplayClock as the replayer,
+ * the resulting state is then the same on every run of the same track, see
+ * getHistoryChecksum. Recorded tracks have no bearing, the fusion only get
+ * the speed.
+ *
+ * Plain java, no Android dependency. This class is not thread safe.
+ *
+ */
+public class ReplayTracker implements TrackReplayer.Listener,
+		FixProcessor.Target {
+
+	private final Clock clock;
+	private final FixProcessor processor;
+
+	// Time of the first event
+	private long started;
+	private long version;
+
+	/**
+	 * @param clock
+	 *            the one of the replay
+	 * @param core
+	 *            built with the same clock
+	 * @param metrics
+	 *            built with the same clock
+	 * @param fusion
+	 *            or null
+	 * @param sampling
+	 *            or null
+	 */
+	public ReplayTracker(Clock clock, TrackerCore core,
+			TrackerMetrics metrics, FusedLocationFilter fusion,
+			SamplingScheduler sampling) {
+		this.clock = clock;
+		processor = new FixProcessor(clock, core, metrics, fusion);
+		processor.setSampling(sampling);
+	}
+
+	@Override
+	public void onLocationChanged(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+		processor.process(this, provider, time, latitude, longitude,
+				accuracy, speed, Float.NaN);
+	}
+
+	@Override
+	public long onFix(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed, float bearing) {
+		long seq = processor.add(provider, time, latitude, longitude,
+				accuracy, speed, bearing);
+		if (seq >= 0) {
+			version++;
+		}
+		return seq;
+	}
+
+	@Override
+	public void onFixAdded(long seq) {
+		// Nobody to notify
+	}
+
+	@Override
+	public void onSamplingChanged() {
+		// No provider to register again
+	}
+
+	@Override
+	public void onStatusChanged(byte provider, int status) {
+		processor.onStatusChanged(provider, status);
+		version++;
+	}
+
+	@Override
+	public void onProviderEnabled(byte provider) {
+
+		if (started == 0) {
+			started = clock.currentTimeMillis();
+		}
+
+		processor.onProviderEnabled(provider);
+		version++;
+	}
+
+	@Override
+	public void onProviderDisabled(byte provider) {
+		processor.onProviderDisabled(provider);
+		version++;
+	}
+
+	/**
+	 * @return processor of the events, to add geofences or a trip segmenter
+	 *         before the replay
+	 */
+	public FixProcessor getProcessor() {
+		return processor;
+	}
+
+	public TrackerCore getCore() {
+		return processor.getCore();
+	}
+
+	public TrackerMetrics getMetrics() {
+		return processor.getMetrics();
+	}
+
+	/**
+	 * @return number of changes of the state, same meaning as the tracker
+	 *         version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getGpsProviderStatus() {
+		return processor.getGpsProviderStatus();
+	}
+
+	public int getNetworkProviderStatus() {
+		return processor.getNetworkProviderStatus();
+	}
+
+	/**
+	 * @return level of the adaptive sampling, -1 if none
+	 */
+	public int getSamplingLevel() {
+		SamplingScheduler sampling = processor.getSampling();
+		return sampling != null ? sampling.getLevel() : -1;
+	}
+
+	/**
+	 * Checksum of every fix of the history, two runs of the same track with
+	 * the same settings must give the same one
+	 *
+	 * @return checksum
+	 */
+	public long getHistoryChecksum() {
+
+		LocationHistory h = processor.getCore().getHistory();
+		long sum = 17;
+		for (long seq = h.getOldestSequence(); seq < h.getNextSequence(); seq++) {
+			sum = 31 * sum + seq;
+			sum = 31 * sum + h.getProviderAt(seq);
+			sum = 31 * sum + h.getTimeAt(seq);
+			sum = 31 * sum + Double.doubleToLongBits(h.getLatitudeAt(seq));
+			sum = 31 * sum + Double.doubleToLongBits(h.getLongitudeAt(seq));
+			sum = 31 * sum + Float.floatToIntBits(h.getAccuracyAt(seq));
+		}
+		FusedLocationFilter fusion = processor.getFusion();
+		if (fusion != null && fusion.hasFix()) {
+			sum = 31 * sum + Double.doubleToLongBits(fusion.getLatitude());
+			sum = 31 * sum + Double.doubleToLongBits(fusion.getLongitude());
+		}
+		return sum;
+	}
+
+	/**
+	 * @param full
+	 *            add the stats of each provider and of the filters
+	 * @return report of the current state, the tracker time is the one of
+	 *         the replay
+	 */
+	public TrackerReport buildReport(boolean full) {
+
+		TrackerReport.Builder b = new TrackerReport.Builder();
+		b.version = version;
+		b.trackerStarted = started;
+
+		processor.fillReport(b, full);
+		b.metrics = processor.getMetrics().snapshot(clock.currentTimeMillis());
+
+		return b.build();
+	}
+}
@@ -0,0 +1,157 @@
+package com.example.locationservice;
+
+/**
+ * Choose how often the providers are asked for a fix from the observed
+ * speed, so we get few fixes when standing still and many when moving fast.
+ *
+ * Speeds are cut in levels (ie. still, slow, normal, fast), each with its
+ * own interval and minimum distance. To avoid registration storms:
+ *
+ * - a speed must cross a level boundary by a margin (hysteresis) to count,
+ * - going to a faster level need the speed to stay there for upConfirm fixes,
+ * - going to a slower level need the speed to stay there for downHoldMs,
+ * - the level never change twice in less than minChangeMs.
+ *
+ * Fixes less accurate than maxAccuracy say too little about the speed and
+ * are ignored.
+ *
+ * onFix must be called from a single thread, the interval and distance can
+ * be read from any thread. Plain java, no Android dependency.
+ *
+ */
+public class SamplingScheduler {
+
+	// Margin around a speed boundary, 20%
+	private static final float HYSTERESIS = 0.2f;
+
+	private final long[] intervalsMs;
+	private final float[] distances;
+	private final float[] speeds;
+
+	private final int upConfirm;
+	private final long downHoldMs;
+	private final long minChangeMs;
+	private final float maxAccuracy;
+
+	private volatile int level;
+	private long changedAt = Long.MIN_VALUE / 2;
+
+	// Level the fixes are pointing to and since when
+	private int candidate;
+	private int candidateCount;
+	private long candidateSince;
+
+	private volatile int changeCount;
+
+	/**
+	 * @param intervalsMs
+	 *            interval of each level, from the slowest
+	 * @param distances
+	 *            minimum distance in meters of each level
+	 * @param speeds
+	 *            speed boundaries between levels in m/s, one less than
+	 *            levels
+	 * @param initialLevel
+	 * @param upConfirm
+	 *            fixes needed to go to a faster level
+	 * @param downHoldMs
+	 *            time needed to go to a slower level
+	 * @param minChangeMs
+	 *            minimum time between two changes
+	 * @param maxAccuracy
+	 *            fixes less accurate are ignored
+	 */
+	public SamplingScheduler(long[] intervalsMs, float[] distances,
+			float[] speeds, int initialLevel, int upConfirm, long downHoldMs,
+			long minChangeMs, float maxAccuracy) {
+
+		if (distances.length != intervalsMs.length
+				|| speeds.length != intervalsMs.length - 1) {
+			throw new IllegalArgumentException("Inconsistent sampling levels");
+		}
+
+		this.intervalsMs = intervalsMs;
+		this.distances = distances;
+		this.speeds = speeds;
+		this.upConfirm = upConfirm;
+		this.downHoldMs = downHoldMs;
+		this.minChangeMs = minChangeMs;
+		this.maxAccuracy = maxAccuracy;
+		this.level = initialLevel;
+		this.candidate = initialLevel;
+	}
+
+	/**
+	 * @param time
+	 *            time of the fix
+	 * @param speed
+	 *            estimated speed in m/s
+	 * @param accuracy
+	 *            of the fix
+	 * @return true if the level changed, providers should be registered
+	 *         again
+	 */
+	public boolean onFix(long time, float speed, float accuracy) {
+
+		if (accuracy > maxAccuracy || Float.isNaN(speed)) {
+			return false;
+		}
+
+		int current = level;
+		int target = current;
+		while (target < speeds.length
+				&& speed > speeds[target] * (1 + HYSTERESIS)) {
+			target++;
+		}
+		while (target > 0 && speed < speeds[target - 1] * (1 - HYSTERESIS)) {
+			target--;
+		}
+
+		if (target != candidate) {
+			candidate = target;
+			candidateCount = 0;
+			candidateSince = time;
+		}
+		candidateCount++;
+
+		if (target == current || time - changedAt < minChangeMs) {
+			return false;
+		}
+
+		boolean confirmed = target > current ? candidateCount >= upConfirm
+				: time - candidateSince >= downHoldMs;
+		if (!confirmed) {
+			return false;
+		}
+
+		level = target;
+		changedAt = time;
+		changeCount++;
+		return true;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return interval to ask the providers for
+	 */
+	public long getIntervalMs() {
+		return intervalsMs[level];
+	}
+
+	/**
+	 * @return minimum distance to ask the providers for
+	 */
+	public float getMinDistance() {
+		return distances[level];
+	}
+
+	/**
+	 * @return number of level changes
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+}
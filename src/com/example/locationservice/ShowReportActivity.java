@@ -22,6 +22,9 @@ public class ShowReportActivity extends Activity {
 
 	private TextView txt;
 	private BroadcastReceiver br;
+	
+	// Version of the report shown, no need to set the same text again
+	private long shownVersion = -1;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -30,7 +33,7 @@ public class ShowReportActivity extends Activity {
 		txt = (TextView) findViewById(R.id.report_txt_bulk);
 		
 		if(LocationService.getLocationTracker()!=null){
-			txt.setText(LocationService.getLocationTracker().toString());
+			updateTheView();
 		}
 		
 	}
@@ -74,12 +77,16 @@ public class ShowReportActivity extends Activity {
 		
 		//This is the event we want to receive
 		IntentFilter iFilter = new IntentFilter(LocationService.INTENT_LOCATION_UPDATED);
+		iFilter.addCategory(LocationService.CATEGORY_REPORT);
 		
 		br = new BroadcastReceiver(){
 
 			@Override
 			public void onReceive(Context context, Intent intent) {
-				updateTheView();				
+				//Also match the broadcast without category, not throttled
+				if(intent.hasCategory(LocationService.CATEGORY_REPORT)){
+					updateTheView();
+				}
 			}			
 		};
 		
@@ -94,7 +101,12 @@ public class ShowReportActivity extends Activity {
 	private void updateTheView() {
 		//We could get the location from many place, this is the easiest way
 		//since we are on the main thread...
-		txt.setText(LocationService.getLocationTracker().toString());
+		//Version and text must come from the same state
+		TrackerSnapshot snapshot = LocationService.getLocationTracker().getSnapshot();
+		if(snapshot.getVersion()!=shownVersion){
+			shownVersion = snapshot.getVersion();
+			txt.setText(snapshot.toString());
+		}
 	}
 
 }
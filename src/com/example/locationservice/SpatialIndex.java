@@ -0,0 +1,415 @@
+package com.example.locationservice;
+
+/**
+ * Grid index of fixes by position, to find fixes around a point without
+ * scanning the whole history.
+ *
+ * The world is cut in cells of cellSize degrees, each cell holding the fixes
+ * inside it in order of sequence number. Cells are kept in a LongMap keyed by
+ * cell coordinates so only visited cells use memory. A
+ * query only look at the cells covering the area (or every used cell when
+ * the area is bigger), and nearest search look at rings of cells around the
+ * point until no closer fix is possible.
+ *
+ * Fixes must be removed from the oldest to the newest (like the history
+ * evict them), which is a simple pop in the cell.
+ *
+ * This class is not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class SpatialIndex {
+
+	// Mean radius of the earth used for distances
+	static final double EARTH_RADIUS_M = 6371008.8;
+
+	private static final double METERS_PER_DEGREE = EARTH_RADIUS_M * Math.PI / 180;
+
+	/**
+	 * Receive the fixes found by a query
+	 */
+	public interface Visitor {
+		void visit(long seq, double latitude, double longitude);
+	}
+
+	private final double cellSize;
+
+	// Cells by key(row, col)
+	private final LongMap<Cell> cells = new LongMap<Cell>();
+
+	private int size;
+
+	// Bounds of the cells ever used, for the nearest search
+	private int minRow = Integer.MAX_VALUE;
+	private int maxRow = Integer.MIN_VALUE;
+	private int minCol = Integer.MAX_VALUE;
+	private int maxCol = Integer.MIN_VALUE;
+
+	// Current query, set by the public methods
+	private double qLat;
+	private double qLon;
+	private double qRadius;
+	private double qMinLat;
+	private double qMaxLat;
+	private Visitor qVisitor;
+	private int qFound;
+	private long nearestSeq;
+	private double nearestDistance;
+
+	/**
+	 * @param cellSize
+	 *            size of a cell in degree, about the size of the usual query
+	 *            (0.002 is about 200m)
+	 */
+	public SpatialIndex(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Invalid cell size : "
+					+ cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(long seq, double latitude, double longitude) {
+
+		int row = row(latitude);
+		int col = col(longitude);
+		long key = key(row, col);
+
+		Cell c = cells.get(key);
+		if (c == null) {
+			c = new Cell();
+			cells.put(key, c);
+			minRow = Math.min(minRow, row);
+			maxRow = Math.max(maxRow, row);
+			minCol = Math.min(minCol, col);
+			maxCol = Math.max(maxCol, col);
+		}
+		c.add(seq, latitude, longitude);
+		size++;
+	}
+
+	/**
+	 * Remove a fix, it must be the oldest one of its cell
+	 */
+	public void remove(long seq, double latitude, double longitude) {
+
+		long key = key(row(latitude), col(longitude));
+		Cell c = cells.get(key);
+		if (c == null || c.count == 0 || c.seqs[c.head] != seq) {
+			return; // Not indexed
+		}
+
+		c.removeOldest();
+		size--;
+		if (c.count == 0) {
+			cells.remove(key);
+		}
+	}
+
+	public void clear() {
+		cells.clear();
+		size = 0;
+		minRow = minCol = Integer.MAX_VALUE;
+		maxRow = maxCol = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Find the fixes in a box, minLongitude > maxLongitude for a box crossing
+	 * the antimeridian
+	 * 
+	 * @return number of fixes found
+	 */
+	public int findInBox(double minLatitude, double minLongitude,
+			double maxLatitude, double maxLongitude, Visitor visitor) {
+
+		startQuery(visitor);
+		qRadius = -1;
+		qMinLat = minLatitude;
+		qMaxLat = maxLatitude;
+
+		if (minLongitude <= maxLongitude) {
+			scan(minLongitude, maxLongitude);
+		} else {
+			scan(minLongitude, 180);
+			scan(-180, maxLongitude);
+		}
+		return endQuery();
+	}
+
+	/**
+	 * Find the fixes at less than radius meters of a point
+	 * 
+	 * @return number of fixes found
+	 */
+	public int findWithin(double latitude, double longitude,
+			double radiusMeters, Visitor visitor) {
+
+		startQuery(visitor);
+		qLat = latitude;
+		qLon = longitude;
+		qRadius = radiusMeters;
+
+		double dLat = radiusMeters / METERS_PER_DEGREE;
+		qMinLat = latitude - dLat;
+		qMaxLat = latitude + dLat;
+
+		double cos = Math.cos(Math.toRadians(Math.min(90,
+				Math.abs(latitude) + dLat)));
+		double dLon = cos > 0 ? dLat / cos : 360;
+
+		if (dLon >= 180) {
+			scan(-180, 180);
+		} else if (longitude - dLon < -180) {
+			scan(longitude - dLon + 360, 180);
+			scan(-180, longitude + dLon);
+		} else if (longitude + dLon > 180) {
+			scan(longitude - dLon, 180);
+			scan(-180, longitude + dLon - 360);
+		} else {
+			scan(longitude - dLon, longitude + dLon);
+		}
+		return endQuery();
+	}
+
+	/**
+	 * Find the closest fix to a point. Cells are searched in growing rings
+	 * around the point, fixes on the other side of the antimeridian may be
+	 * missed.
+	 * 
+	 * @return sequence number of the closest fix or -1 if empty
+	 */
+	public long findNearest(double latitude, double longitude) {
+
+		if (size == 0) {
+			return -1;
+		}
+
+		qLat = latitude;
+		qLon = longitude;
+		nearestSeq = -1;
+		nearestDistance = Double.MAX_VALUE;
+
+		int row = row(latitude);
+		int col = col(longitude);
+		int maxRing = Math.max(Math.max(row - minRow, maxRow - row),
+				Math.max(col - minCol, maxCol - col));
+
+		for (int r = 0; r <= maxRing; r++) {
+
+			if (8L * r > cells.size()) {
+				// Ring bigger than the used cells, faster to check them all
+				for (int i = 0; i < cells.getCapacity(); i++) {
+					Cell c = cells.valueAt(i);
+					if (c != null) {
+						nearestInCell(c);
+					}
+				}
+				break;
+			}
+
+			for (int dc = -r; dc <= r; dc++) {
+				nearestInCell(row - r, col + dc);
+				if (r > 0) {
+					nearestInCell(row + r, col + dc);
+				}
+			}
+			for (int dr = -r + 1; dr <= r - 1; dr++) {
+				nearestInCell(row + dr, col - r);
+				nearestInCell(row + dr, col + r);
+			}
+
+			// Any fix in the next rings is at least r cells away
+			double highest = Math.min(90, Math.abs(latitude) + (r + 1)
+					* cellSize);
+			double cellWidth = cellSize * METERS_PER_DEGREE
+					* Math.cos(Math.toRadians(highest));
+			if (nearestSeq >= 0 && nearestDistance <= r * cellWidth) {
+				break;
+			}
+		}
+
+		return nearestSeq;
+	}
+
+	/**
+	 * Great circle distance in meters (haversine)
+	 */
+	public static double distance(double lat1, double lon1, double lat2,
+			double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double sinLat = Math.sin(dLat / 2);
+		double sinLon = Math.sin(dLon / 2);
+		double h = sinLat * sinLat + Math.cos(Math.toRadians(lat1))
+				* Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(h)));
+	}
+
+	/**
+	 * Squared distance from point p to segment a-b, on a plane (ie. projected
+	 * coordinates)
+	 */
+	static double distanceSq(double px, double py, double ax, double ay,
+			double bx, double by) {
+
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lenSq = dx * dx + dy * dy;
+
+		double t = 0;
+		if (lenSq > 0) {
+			t = ((px - ax) * dx + (py - ay) * dy) / lenSq;
+			t = Math.max(0, Math.min(1, t));
+		}
+
+		double cx = ax + t * dx - px;
+		double cy = ay + t * dy - py;
+		return cx * cx + cy * cy;
+	}
+
+	private void startQuery(Visitor visitor) {
+		qVisitor = visitor;
+		qFound = 0;
+	}
+
+	private int endQuery() {
+		qVisitor = null;
+		return qFound;
+	}
+
+	/**
+	 * Visit the fixes of the current query between these longitudes
+	 */
+	private void scan(double minLon, double maxLon) {
+
+		int r0 = row(qMinLat);
+		int r1 = row(qMaxLat);
+		int c0 = col(minLon);
+		int c1 = col(maxLon);
+
+		long area = (long) (r1 - r0 + 1) * (c1 - c0 + 1);
+
+		if (area > cells.size()) {
+			// Cheaper to look at every used cell
+			for (int i = 0; i < cells.getCapacity(); i++) {
+				Cell c = cells.valueAt(i);
+				if (c != null) {
+					long key = cells.keyAt(i);
+					int row = (int) (key >> 32);
+					int col = (int) key;
+					if (row >= r0 && row <= r1 && col >= c0 && col <= c1) {
+						scanCell(c, minLon, maxLon);
+					}
+				}
+			}
+			return;
+		}
+
+		for (int row = r0; row <= r1; row++) {
+			for (int col = c0; col <= c1; col++) {
+				Cell c = cells.get(key(row, col));
+				if (c != null) {
+					scanCell(c, minLon, maxLon);
+				}
+			}
+		}
+	}
+
+	private void scanCell(Cell c, double minLon, double maxLon) {
+		for (int i = 0; i < c.count; i++) {
+			int s = (c.head + i) & (c.seqs.length - 1);
+			double lat = c.lats[s];
+			double lon = c.lons[s];
+			if (lat < qMinLat || lat > qMaxLat || lon < minLon || lon > maxLon) {
+				continue;
+			}
+			if (qRadius >= 0 && distance(qLat, qLon, lat, lon) > qRadius) {
+				continue;
+			}
+			qFound++;
+			if (qVisitor != null) {
+				qVisitor.visit(c.seqs[s], lat, lon);
+			}
+		}
+	}
+
+	private void nearestInCell(int row, int col) {
+		Cell c = cells.get(key(row, col));
+		if (c != null) {
+			nearestInCell(c);
+		}
+	}
+
+	private void nearestInCell(Cell c) {
+		for (int i = 0; i < c.count; i++) {
+			int s = (c.head + i) & (c.seqs.length - 1);
+			double d = distance(qLat, qLon, c.lats[s], c.lons[s]);
+			if (d < nearestDistance) {
+				nearestDistance = d;
+				nearestSeq = c.seqs[s];
+			}
+		}
+	}
+
+	private int row(double latitude) {
+		return (int) Math.floor(latitude / cellSize);
+	}
+
+	private int col(double longitude) {
+		return (int) Math.floor(longitude / cellSize);
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Fixes of a cell, a ring growing by power of 2
+	 */
+	private static class Cell {
+
+		long[] seqs = new long[4];
+		double[] lats = new double[4];
+		double[] lons = new double[4];
+		int head;
+		int count;
+
+		void add(long seq, double lat, double lon) {
+			if (count == seqs.length) {
+				grow();
+			}
+			int s = (head + count) & (seqs.length - 1);
+			seqs[s] = seq;
+			lats[s] = lat;
+			lons[s] = lon;
+			count++;
+		}
+
+		void removeOldest() {
+			head = (head + 1) & (seqs.length - 1);
+			count--;
+		}
+
+		private void grow() {
+			int n = seqs.length * 2;
+			long[] s = new long[n];
+			double[] la = new double[n];
+			double[] lo = new double[n];
+			for (int i = 0; i < count; i++) {
+				int from = (head + i) & (seqs.length - 1);
+				s[i] = seqs[from];
+				la[i] = lats[from];
+				lo[i] = lons[from];
+			}
+			seqs = s;
+			lats = la;
+			lons = lo;
+			head = 0;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Optional SQLite storage of the fixes for consumers that need to query the
+ * history.
+ *
+ * Fixes are buffered and inserted in a single transaction every batchSize
+ * fixes or flushIntervalMs after the first buffered one, with a single
+ * prepared statement, so we never pay a transaction (and fsync) per fix. The
+ * database use write ahead logging when available so readers do not block
+ * the inserts.
+ *
+ * Must be used from the thread of the looper given to the constructor,
+ * queryAsync run the query itself on a other thread.
+ *
+ */
+public class SqliteTrackSink implements TrackSink {
+
+	private static final String TAG = SqliteTrackSink.class.getName();
+
+	/**
+	 * Receive the result of queryAsync, called on the executor thread
+	 */
+	public interface QueryCallback {
+
+		/**
+		 * @param cursor
+		 *            must be closed by the callback
+		 */
+		void onQueryDone(Cursor cursor);
+
+		void onQueryFailed(IOException e);
+	}
+
+	public static final String TABLE_FIXES = "fixes";
+	public static final String COL_TIME = "time";
+	public static final String COL_PROVIDER = "provider";
+	public static final String COL_LATITUDE = "latitude";
+	public static final String COL_LONGITUDE = "longitude";
+	public static final String COL_ACCURACY = "accuracy";
+	public static final String COL_SPEED = "speed";
+
+	private static final int DB_VERSION = 1;
+
+	private static final String SQL_INSERT = "INSERT INTO " + TABLE_FIXES
+			+ " (" + COL_TIME + "," + COL_PROVIDER + "," + COL_LATITUDE + ","
+			+ COL_LONGITUDE + "," + COL_ACCURACY + "," + COL_SPEED
+			+ ") VALUES (?,?,?,?,?,?)";
+
+	private final DbHelper helper;
+	private final SQLiteDatabase db;
+	private final SQLiteStatement insert;
+
+	private final Handler handler;
+	private final long flushIntervalMs;
+
+	// Fixes waiting for the next transaction
+	private final byte[] providers;
+	private final long[] times;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final float[] accuracies;
+	private final float[] speeds;
+	private int count;
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushQuietly();
+		}
+	};
+
+	/**
+	 * @param ctx
+	 * @param dbName
+	 * @param looper
+	 *            looper of the thread using this sink
+	 * @param batchSize
+	 *            fixes inserted in one transaction
+	 * @param flushIntervalMs
+	 *            maximum time a fix wait in the buffer
+	 */
+	public SqliteTrackSink(Context ctx, String dbName, Looper looper,
+			int batchSize, long flushIntervalMs) {
+
+		helper = new DbHelper(ctx, dbName);
+		db = helper.getWritableDatabase();
+		enableWal(db);
+		insert = db.compileStatement(SQL_INSERT);
+
+		handler = new Handler(looper);
+		this.flushIntervalMs = flushIntervalMs;
+
+		providers = new byte[batchSize];
+		times = new long[batchSize];
+		latitudes = new double[batchSize];
+		longitudes = new double[batchSize];
+		accuracies = new float[batchSize];
+		speeds = new float[batchSize];
+		count = 0;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static void enableWal(SQLiteDatabase db) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			db.enableWriteAheadLogging();
+		}
+	}
+
+	@Override
+	public void append(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) throws IOException {
+
+		providers[count] = provider;
+		times[count] = time;
+		latitudes[count] = latitude;
+		longitudes[count] = longitude;
+		accuracies[count] = accuracy;
+		speeds[count] = speed;
+		count++;
+
+		if (count == providers.length) {
+			flush();
+		} else if (count == 1) {
+			handler.postDelayed(flushTask, flushIntervalMs);
+		}
+	}
+
+	/**
+	 * Insert every buffered fix in a single transaction
+	 */
+	@Override
+	public void flush() throws IOException {
+
+		handler.removeCallbacks(flushTask);
+
+		if (count == 0) {
+			return;
+		}
+
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				insert.bindLong(1, times[i]);
+				insert.bindLong(2, providers[i]);
+				insert.bindDouble(3, latitudes[i]);
+				insert.bindDouble(4, longitudes[i]);
+				insert.bindDouble(5, accuracies[i]);
+				if (Float.isNaN(speeds[i])) {
+					insert.bindNull(6);
+				} else {
+					insert.bindDouble(6, speeds[i]);
+				}
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} catch (RuntimeException e) {
+			IOException ex = new IOException("Unable to insert fixes");
+			ex.initCause(e);
+			throw ex;
+		} finally {
+			db.endTransaction();
+			// Dropped on error, better than retrying a bad batch forever
+			count = 0;
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to flush fixes", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			insert.close();
+			helper.close();
+		}
+	}
+
+	/**
+	 * Query stored fixes in a time range, pending fixes are flushed first
+	 *
+	 * @param fromTime
+	 *            inclusive
+	 * @param toTime
+	 *            exclusive
+	 * @param provider
+	 *            LocationHistory.PROVIDER_* or PROVIDER_UNKNOWN for all
+	 * @return cursor on time, provider, latitude, longitude, accuracy, speed
+	 *         ordered by time
+	 * @throws IOException
+	 */
+	public Cursor query(long fromTime, long toTime, byte provider)
+			throws IOException {
+		flush();
+		return rawQuery(fromTime, toTime, provider);
+	}
+
+	/**
+	 * Same as query but the query run on the executor (ie. not on the thread
+	 * processing locations), pending fixes are flushed first on this thread
+	 *
+	 * @param executor
+	 * @param fromTime
+	 *            inclusive
+	 * @param toTime
+	 *            exclusive
+	 * @param provider
+	 *            LocationHistory.PROVIDER_* or PROVIDER_UNKNOWN for all
+	 * @param callback
+	 *            called on the executor thread
+	 * @throws IOException
+	 *             if pending fixes can not be inserted
+	 */
+	public void queryAsync(Executor executor, final long fromTime,
+			final long toTime, final byte provider,
+			final QueryCallback callback) throws IOException {
+
+		flush();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Cursor c;
+				try {
+					c = rawQuery(fromTime, toTime, provider);
+				} catch (IOException e) {
+					callback.onQueryFailed(e);
+					return;
+				}
+				callback.onQueryDone(c);
+			}
+		});
+	}
+
+	/**
+	 * The database is thread safe, can be called from any thread
+	 */
+	private Cursor rawQuery(long fromTime, long toTime, byte provider)
+			throws IOException {
+
+		String sql = "SELECT " + COL_TIME + "," + COL_PROVIDER + ","
+				+ COL_LATITUDE + "," + COL_LONGITUDE + "," + COL_ACCURACY
+				+ "," + COL_SPEED + " FROM " + TABLE_FIXES + " WHERE "
+				+ COL_TIME + ">=? AND " + COL_TIME + "<?";
+
+		try {
+			if (provider != LocationHistory.PROVIDER_UNKNOWN) {
+				return db.rawQuery(sql + " AND " + COL_PROVIDER
+						+ "=? ORDER BY " + COL_TIME,
+						new String[] { Long.toString(fromTime),
+								Long.toString(toTime),
+								Byte.toString(provider) });
+			}
+
+			return db.rawQuery(sql + " ORDER BY " + COL_TIME, new String[] {
+					Long.toString(fromTime), Long.toString(toTime) });
+		} catch (RuntimeException e) {
+			// Closed meanwhile or database error
+			IOException ex = new IOException("Unable to query fixes");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	private static class DbHelper extends SQLiteOpenHelper {
+
+		DbHelper(Context ctx, String name) {
+			super(ctx, name, null, DB_VERSION);
+		}
+
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + TABLE_FIXES
+					+ " (_id INTEGER PRIMARY KEY AUTOINCREMENT, " + COL_TIME
+					+ " INTEGER NOT NULL, " + COL_PROVIDER
+					+ " INTEGER NOT NULL, " + COL_LATITUDE + " REAL NOT NULL, "
+					+ COL_LONGITUDE + " REAL NOT NULL, " + COL_ACCURACY
+					+ " REAL, " + COL_SPEED + " REAL)");
+			db.execSQL("CREATE INDEX idx_fixes_time ON " + TABLE_FIXES + " ("
+					+ COL_TIME + ")");
+			db.execSQL("CREATE INDEX idx_fixes_provider ON " + TABLE_FIXES
+					+ " (" + COL_PROVIDER + ", " + COL_TIME + ")");
+		}
+
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// Only one version for now
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.locationservice;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read a track written by TrackEncoder, one fix at a time.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class TrackDecoder implements FixCursor {
+
+	private final InputStream in;
+
+	private byte provider;
+	private long time;
+	private long lat;
+	private long lon;
+	private float accuracy;
+	private float speed;
+
+	/**
+	 * Check the header of the track
+	 *
+	 * @param in
+	 *            buffered if not already
+	 * @throws IOException
+	 *             if this is not a track
+	 */
+	public TrackDecoder(InputStream in) throws IOException {
+
+		this.in = in instanceof BufferedInputStream ? in
+				: new BufferedInputStream(in);
+
+		int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8)
+				| readByte();
+		int version = readByte();
+
+		if (magic != TrackEncoder.MAGIC
+				|| version != TrackEncoder.FORMAT_VERSION) {
+			throw new IOException("Not a track or unsupported version");
+		}
+	}
+
+	@Override
+	public boolean moveToNext() throws IOException {
+
+		int flags = in.read();
+		if (flags < 0) {
+			return false;
+		}
+
+		provider = (byte) (flags & TrackEncoder.PROVIDER_MASK);
+		time += getSigned();
+		lat += getSigned();
+		lon += getSigned();
+		accuracy = getUnsigned() / TrackEncoder.ACCURACY_SCALE;
+		if ((flags & TrackEncoder.FLAG_SPEED) != 0) {
+			speed = getUnsigned() / TrackEncoder.SPEED_SCALE;
+		} else {
+			speed = Float.NaN;
+		}
+		return true;
+	}
+
+	@Override
+	public byte getProvider() {
+		return provider;
+	}
+
+	@Override
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public double getLatitude() {
+		return lat / TrackEncoder.COORD_SCALE;
+	}
+
+	@Override
+	public double getLongitude() {
+		return lon / TrackEncoder.COORD_SCALE;
+	}
+
+	@Override
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	@Override
+	public float getSpeed() {
+		return speed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated track");
+		}
+		return b;
+	}
+
+	private long getSigned() throws IOException {
+		long v = getUnsigned();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private long getUnsigned() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,174 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write fixes in the compact track format, for export or long term storage.
+ *
+ * A fix is stored as the difference with the previous one: time in ms,
+ * latitude and longitude in fixed point (1e-7 degree, about 1cm), each as a
+ * zigzag varint so small moves take one or two bytes. Accuracy is rounded
+ * to 10cm and speed to 1cm/s. A fix usually take 8 to 10 bytes instead of
+ * the 40 of a TrackLog record.
+ *
+ * Format: magic(4) version(1) then for each fix
+ * flags(1) time delta, lat delta, lon delta (zigzag varint) accuracy (varint)
+ * [speed (varint)]. The stream end after the last fix.
+ *
+ * Fixes are written to the stream as they come through a small buffer, the
+ * track is never kept in memory. Plain java, no Android dependency.
+ *
+ */
+public class TrackEncoder implements TrackSink {
+
+	static final int MAGIC = 0x54524B43; // "TRKC"
+	static final byte FORMAT_VERSION = 1;
+
+	// flags, the low bits are the provider
+	static final int PROVIDER_MASK = 0x0F;
+	static final int FLAG_SPEED = 0x10;
+
+	static final double COORD_SCALE = 1e7;
+	static final float ACCURACY_SCALE = 10f;
+	static final float SPEED_SCALE = 100f;
+
+	// Largest record: flags + 3 varint of 10 bytes + 2 varint of 5 bytes
+	private static final int MAX_RECORD_SIZE = 41;
+
+	private final OutputStream out;
+
+	private final byte[] buf = new byte[8192];
+	private int pos;
+
+	private long lastTime;
+	private long lastLat;
+	private long lastLon;
+
+	private long count;
+
+	// Bytes given to the stream
+	private long drained;
+
+	/**
+	 * Start a track on this stream, the header is written immediately
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public TrackEncoder(OutputStream out) throws IOException {
+		this.out = out;
+		buf[pos++] = (byte) (MAGIC >>> 24);
+		buf[pos++] = (byte) (MAGIC >>> 16);
+		buf[pos++] = (byte) (MAGIC >>> 8);
+		buf[pos++] = (byte) MAGIC;
+		buf[pos++] = FORMAT_VERSION;
+	}
+
+	@Override
+	public void append(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) throws IOException {
+
+		if (pos + MAX_RECORD_SIZE > buf.length) {
+			drain();
+		}
+
+		long lat = Math.round(latitude * COORD_SCALE);
+		long lon = Math.round(longitude * COORD_SCALE);
+		boolean hasSpeed = !Float.isNaN(speed);
+
+		buf[pos++] = (byte) ((provider & PROVIDER_MASK) | (hasSpeed ? FLAG_SPEED
+				: 0));
+		putSigned(time - lastTime);
+		putSigned(lat - lastLat);
+		putSigned(lon - lastLon);
+		putUnsigned(quantize(accuracy, ACCURACY_SCALE));
+		if (hasSpeed) {
+			putUnsigned(quantize(speed, SPEED_SCALE));
+		}
+
+		lastTime = time;
+		lastLat = lat;
+		lastLon = lon;
+		count++;
+	}
+
+	/**
+	 * Write every fix of the cursor, the cursor is not closed
+	 *
+	 * @param cursor
+	 * @return number of fixes written
+	 * @throws IOException
+	 */
+	public long appendAll(FixCursor cursor) throws IOException {
+		long n = 0;
+		while (cursor.moveToNext()) {
+			append(cursor.getProvider(), cursor.getTime(),
+					cursor.getLatitude(), cursor.getLongitude(),
+					cursor.getAccuracy(), cursor.getSpeed());
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return number of fixes written
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return size of the track so far in bytes, header included
+	 */
+	public long getSize() {
+		return drained + pos;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		if (pos > 0) {
+			out.write(buf, 0, pos);
+			drained += pos;
+			pos = 0;
+		}
+	}
+
+	/**
+	 * Non negative value rounded to 1/scale, NaN and negative give 0. Clamped
+	 * to Integer.MAX_VALUE so it always fit in a 5 bytes varint (see
+	 * MAX_RECORD_SIZE), even for a infinite value.
+	 */
+	private static long quantize(float value, float scale) {
+		if (!(value > 0)) {
+			return 0;
+		}
+		return Math.min(Math.round((double) value * scale), Integer.MAX_VALUE);
+	}
+
+	private void putSigned(long value) {
+		putUnsigned((value << 1) ^ (value >> 63));
+	}
+
+	private void putUnsigned(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+	}
+}
@@ -0,0 +1,396 @@
+package com.example.locationservice;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+
+/**
+ * Write a track as GPX 1.1 or as a GeoJSON LineString feature (a Point or
+ * no geometry when there is less than 2 fixes).
+ *
+ * Fixes are read from a FixCursor and written one by one through a buffered
+ * writer, numbers and dates are formatted by hand into a reused buffer, so
+ * the memory used does not depend on the length of the track and a export
+ * of millions of fixes create almost no garbage.
+ *
+ * Fixes outside [fromTime, toTime[ or not from the selected provider are
+ * skipped. An exporter is immutable and can be shared between threads.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class TrackExporter {
+
+	public static final int FORMAT_GPX = 0;
+	public static final int FORMAT_GEOJSON = 1;
+
+	private static final int COORD_DECIMALS = 7;
+
+	/**
+	 * Result of a export made on a executor, called on the executor thread
+	 */
+	public interface Callback {
+
+		void onExportDone(File file, long count);
+
+		void onExportFailed(File file, IOException e);
+	}
+
+	private final int format;
+	private final long fromTime;
+	private final long toTime;
+	private final byte provider;
+
+	/**
+	 * Export the whole track of every provider
+	 * 
+	 * @param format
+	 *            FORMAT_GPX or FORMAT_GEOJSON
+	 */
+	public TrackExporter(int format) {
+		this(format, Long.MIN_VALUE, Long.MAX_VALUE,
+				LocationHistory.PROVIDER_UNKNOWN);
+	}
+
+	/**
+	 * @param format
+	 *            FORMAT_GPX or FORMAT_GEOJSON
+	 * @param fromTime
+	 *            inclusive
+	 * @param toTime
+	 *            exclusive
+	 * @param provider
+	 *            LocationHistory.PROVIDER_GPS, PROVIDER_NETWORK or
+	 *            PROVIDER_UNKNOWN for all
+	 */
+	public TrackExporter(int format, long fromTime, long toTime, byte provider) {
+		if (format != FORMAT_GPX && format != FORMAT_GEOJSON) {
+			throw new IllegalArgumentException("Unknown format : " + format);
+		}
+		this.format = format;
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.provider = provider;
+	}
+
+	/**
+	 * Write the fixes of source, neither source nor out are closed
+	 * 
+	 * @param source
+	 * @param out
+	 * @return number of fixes written
+	 * @throws IOException
+	 */
+	public long write(FixCursor source, OutputStream out) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"),
+				8192);
+		long count = format == FORMAT_GPX ? new GpxWriter(w).write(source)
+				: new GeoJsonWriter(w).write(source);
+		w.flush();
+		return count;
+	}
+
+	/**
+	 * Write the fixes of source into file on the executor, source is closed
+	 * when done
+	 * 
+	 * @param executor
+	 * @param source
+	 *            only read on the executor
+	 * @param file
+	 * @param callback
+	 *            may be null
+	 */
+	public void writeAsync(Executor executor, final FixCursor source,
+			final File file, final Callback callback) {
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long count = 0;
+				IOException error = null;
+				OutputStream out = null;
+				try {
+					out = new BufferedOutputStream(new FileOutputStream(file));
+					count = write(source, out);
+				} catch (IOException e) {
+					error = e;
+				} finally {
+					error = closeQuietly(out, error);
+					try {
+						source.close();
+					} catch (IOException e) {
+						// Already read, nothing lost
+					}
+				}
+
+				if (callback == null) {
+					return;
+				}
+				if (error == null) {
+					callback.onExportDone(file, count);
+				} else {
+					file.delete();
+					callback.onExportFailed(file, error);
+				}
+			}
+		});
+	}
+
+	private static IOException closeQuietly(OutputStream out, IOException error) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				return error != null ? error : e;
+			}
+		}
+		return error;
+	}
+
+	private boolean accept(FixCursor c) {
+		long t = c.getTime();
+		return t >= fromTime && t < toTime
+				&& (provider == LocationHistory.PROVIDER_UNKNOWN || provider == c
+						.getProvider());
+	}
+
+	private String filterName() {
+		return provider == LocationHistory.PROVIDER_UNKNOWN ? "all"
+				: providerName(provider);
+	}
+
+	static String providerName(byte provider) {
+		switch (provider) {
+		case LocationHistory.PROVIDER_GPS:
+			return "gps";
+		case LocationHistory.PROVIDER_NETWORK:
+			return "network";
+		default:
+			return "unknown";
+		}
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Format numbers and dates without creating strings
+	 */
+	private static class Formatter {
+
+		final Writer w;
+
+		private final char[] digits = new char[32];
+		private final Calendar utc = Calendar.getInstance(TimeZone
+				.getTimeZone("UTC"));
+
+		Formatter(Writer w) {
+			this.w = w;
+		}
+
+		void writeLong(long v) throws IOException {
+			if (v == Long.MIN_VALUE) {
+				w.write(Long.toString(v));
+				return;
+			}
+			if (v < 0) {
+				w.write('-');
+				v = -v;
+			}
+			int p = digits.length;
+			do {
+				digits[--p] = (char) ('0' + v % 10);
+				v /= 10;
+			} while (v != 0);
+			w.write(digits, p, digits.length - p);
+		}
+
+		/**
+		 * Write v with a fixed number of decimals, trailing zeros removed
+		 */
+		void writeFixed(double v, int decimals) throws IOException {
+
+			if (Double.isNaN(v) || Double.isInfinite(v)) {
+				w.write('0');
+				return;
+			}
+
+			long scale = 1;
+			for (int i = 0; i < decimals; i++) {
+				scale *= 10;
+			}
+
+			long fixed = Math.round(Math.abs(v) * scale);
+			if (v < 0 && fixed != 0) {
+				w.write('-');
+			}
+			writeLong(fixed / scale);
+
+			long frac = fixed % scale;
+			if (frac == 0) {
+				return;
+			}
+			int n = decimals;
+			while (frac % 10 == 0) {
+				frac /= 10;
+				n--;
+			}
+			w.write('.');
+			int p = digits.length;
+			for (int i = 0; i < n; i++) {
+				digits[--p] = (char) ('0' + frac % 10);
+				frac /= 10;
+			}
+			w.write(digits, p, n);
+		}
+
+		/**
+		 * ISO 8601 in UTC (2013-05-21T13:45:02.250Z)
+		 */
+		void writeTime(long time) throws IOException {
+			utc.setTimeInMillis(time);
+			pad(utc.get(Calendar.YEAR), 4);
+			w.write('-');
+			pad(utc.get(Calendar.MONTH) + 1, 2);
+			w.write('-');
+			pad(utc.get(Calendar.DAY_OF_MONTH), 2);
+			w.write('T');
+			pad(utc.get(Calendar.HOUR_OF_DAY), 2);
+			w.write(':');
+			pad(utc.get(Calendar.MINUTE), 2);
+			w.write(':');
+			pad(utc.get(Calendar.SECOND), 2);
+			w.write('.');
+			pad(utc.get(Calendar.MILLISECOND), 3);
+			w.write('Z');
+		}
+
+		private void pad(int v, int width) throws IOException {
+			int p = digits.length;
+			for (int i = 0; i < width; i++) {
+				digits[--p] = (char) ('0' + v % 10);
+				v /= 10;
+			}
+			w.write(digits, p, width);
+		}
+	}
+
+	private class GpxWriter extends Formatter {
+
+		GpxWriter(Writer w) {
+			super(w);
+		}
+
+		long write(FixCursor c) throws IOException {
+
+			w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			w.write("<gpx version=\"1.1\" creator=\"LocationService\""
+					+ " xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+			w.write("<trk><name>");
+			w.write(filterName());
+			w.write("</name><trkseg>\n");
+
+			long count = 0;
+			while (c.moveToNext()) {
+				if (!accept(c)) {
+					continue;
+				}
+				w.write("<trkpt lat=\"");
+				writeFixed(c.getLatitude(), COORD_DECIMALS);
+				w.write("\" lon=\"");
+				writeFixed(c.getLongitude(), COORD_DECIMALS);
+				w.write("\"><time>");
+				writeTime(c.getTime());
+				w.write("</time><src>");
+				w.write(providerName(c.getProvider()));
+				w.write("</src></trkpt>\n");
+				count++;
+			}
+
+			w.write("</trkseg></trk>\n</gpx>\n");
+			return count;
+		}
+	}
+
+	private class GeoJsonWriter extends Formatter {
+
+		GeoJsonWriter(Writer w) {
+			super(w);
+		}
+
+		/**
+		 * A LineString need at least 2 positions, the geometry is a Point
+		 * for a single fix and null when there is none. The first fix is
+		 * kept until the second one tell which one it is.
+		 */
+		long write(FixCursor c) throws IOException {
+
+			long count = 0;
+			long firstTime = 0;
+			long lastTime = 0;
+			double firstLatitude = 0;
+			double firstLongitude = 0;
+			while (c.moveToNext()) {
+				if (!accept(c)) {
+					continue;
+				}
+				if (count == 0) {
+					firstTime = c.getTime();
+					firstLatitude = c.getLatitude();
+					firstLongitude = c.getLongitude();
+				} else {
+					if (count == 1) {
+						w.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+						writePosition(firstLatitude, firstLongitude);
+					}
+					w.write(',');
+					writePosition(c.getLatitude(), c.getLongitude());
+				}
+				lastTime = c.getTime();
+				count++;
+			}
+
+			if (count == 0) {
+				w.write("{\"type\":\"Feature\",\"geometry\":null,");
+			} else if (count == 1) {
+				w.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":");
+				writePosition(firstLatitude, firstLongitude);
+				w.write("},");
+			} else {
+				w.write("]},");
+			}
+
+			// Properties after the geometry so nothing is kept while writing
+			w.write("\n\"properties\":{\"provider\":\"");
+			w.write(filterName());
+			w.write("\",\"count\":");
+			writeLong(count);
+			if (count > 0) {
+				w.write(",\"startTime\":\"");
+				writeTime(firstTime);
+				w.write("\",\"endTime\":\"");
+				writeTime(lastTime);
+				w.write('"');
+			}
+			w.write("}}\n");
+			return count;
+		}
+
+		private void writePosition(double latitude, double longitude)
+				throws IOException {
+			w.write("\n[");
+			writeFixed(longitude, COORD_DECIMALS);
+			w.write(',');
+			writeFixed(latitude, COORD_DECIMALS);
+			w.write(']');
+		}
+	}
+}
@@ -0,0 +1,399 @@
+package com.example.locationservice;
+
+import com.example.locationservice.LocationHistory.HistoryView;
+
+/**
+ * Level of detail for drawing long tracks.
+ *
+ * For each map zoom level (bucket) the track of each provider is simplified
+ * so two consecutive points kept are never closer than needed to show the
+ * shape at this zoom: a point is dropped when it is less than tolerancePx
+ * pixels away from the segment joining the points around it. The
+ * simplification is done in a single pass with a opening window: the points
+ * since the last kept one are checked against the segment from it to the new
+ * fix, and the previous point is kept as soon as one is too far. Levels are
+ * so kept up to date incrementally.
+ *
+ * The window is closed after maxWindow points, a new fix cost at most
+ * maxWindow distance checks per level built.
+ *
+ * Levels are only built when asked for a zoom and then cached.
+ *
+ * Each kept point get a index in its track that never change, like the
+ * history sequence numbers, so a renderer can follow the changes: new points
+ * are added at the end, dropped ones are removed at the start, and the last
+ * point received is given apart (floating point) since it can still be
+ * replaced by the next one.
+ *
+ * This class is not thread safe.
+ *
+ */
+public class TrackLevelOfDetail {
+
+	public static final int MAX_ZOOM = 21;
+
+	// Tile size of the map in pixel
+	private static final double TILE_SIZE = 256;
+
+	private final double tolerancePx;
+
+	private final int maxWindow;
+
+	private final Level[] levels = new Level[MAX_ZOOM + 1];
+
+	/**
+	 * @param tolerancePx
+	 *            distance in screen pixel under which a point is dropped
+	 * @param maxWindow
+	 *            maximum number of points between two kept points, bound the
+	 *            cost of a fix
+	 */
+	public TrackLevelOfDetail(double tolerancePx, int maxWindow) {
+
+		if (maxWindow <= 0) {
+			throw new IllegalArgumentException("Invalid window : " + maxWindow);
+		}
+
+		this.tolerancePx = tolerancePx;
+		this.maxWindow = maxWindow;
+	}
+
+	/**
+	 * Add a fix to every level already built
+	 */
+	public void add(long seq, byte provider, double latitude, double longitude) {
+
+		double x = projectX(longitude);
+		double y = projectY(latitude);
+
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] != null) {
+				levels[i].add(seq, provider, latitude, longitude, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Drop every point with a sequence number lower than seq
+	 *
+	 * @param seq
+	 *            oldest sequence number still in the history
+	 */
+	public void evictBefore(long seq) {
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i] != null) {
+				levels[i].evictBefore(seq);
+			}
+		}
+	}
+
+	/**
+	 * @param zoom
+	 * @return the level for this zoom or null if not built yet
+	 */
+	public Level getLevel(int zoom) {
+		return levels[clampZoom(zoom)];
+	}
+
+	/**
+	 * Return the level for this zoom, build it from source if needed
+	 *
+	 * @param zoom
+	 * @param source
+	 *            the whole history, only used if the level is not built
+	 * @return level
+	 */
+	public Level getLevel(int zoom, HistoryView source) {
+
+		int z = clampZoom(zoom);
+
+		if (levels[z] == null) {
+			Level level = new Level(tolerancePx / (TILE_SIZE * (1L << z)));
+			for (int i = 0; i < source.size(); i++) {
+				double lat = source.getLatitude(i);
+				double lon = source.getLongitude(i);
+				level.add(source.getSequence(i), source.getProvider(i), lat,
+						lon, projectX(lon), projectY(lat));
+			}
+			levels[z] = level;
+		}
+
+		return levels[z];
+	}
+
+	/**
+	 * Forget every level
+	 */
+	public void clear() {
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = null;
+		}
+	}
+
+	private static int clampZoom(int zoom) {
+		return Math.max(0, Math.min(MAX_ZOOM, zoom));
+	}
+
+	/**
+	 * Web mercator projection, world is [0,1]
+	 */
+	private static double projectX(double longitude) {
+		return (longitude + 180.0) / 360.0;
+	}
+
+	private static double projectY(double latitude) {
+		double sin = Math.sin(Math.toRadians(latitude));
+		// Clamp near the pole, mercator is infinite there
+		sin = Math.max(-0.9999, Math.min(0.9999, sin));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Simplified tracks for a zoom level
+	 */
+	public class Level {
+
+		private final Track gps;
+		private final Track network;
+
+		Level(double tolerance) {
+			gps = new Track(tolerance * tolerance);
+			network = new Track(tolerance * tolerance);
+		}
+
+		/**
+		 * @param provider
+		 *            LocationHistory.PROVIDER_GPS or PROVIDER_NETWORK
+		 * @return simplified track of this provider or null
+		 */
+		public Track getTrack(byte provider) {
+			switch (provider) {
+			case LocationHistory.PROVIDER_GPS:
+				return gps;
+			case LocationHistory.PROVIDER_NETWORK:
+				return network;
+			default:
+				return null;
+			}
+		}
+
+		void add(long seq, byte provider, double lat, double lon, double x,
+				double y) {
+			Track t = getTrack(provider);
+			if (t != null) {
+				t.add(seq, lat, lon, x, y);
+			}
+		}
+
+		void evictBefore(long seq) {
+			gps.evictBefore(seq);
+			network.evictBefore(seq);
+		}
+	}
+
+	/**
+	 * Simplified track of one provider
+	 */
+	public class Track {
+
+		private final double toleranceSq;
+
+		// Points kept, index of the first one is firstIndex
+		private long firstIndex = 0;
+		private int head = 0;
+		private int count = 0;
+		private long[] seqs = new long[64];
+		private double[] lats = new double[64];
+		private double[] lons = new double[64];
+		private double[] xs = new double[64];
+		private double[] ys = new double[64];
+
+		// Points received since the last kept one, the last is the floating
+		// point
+		private final long[] wSeqs;
+		private final double[] wLats;
+		private final double[] wLons;
+		private final double[] wXs;
+		private final double[] wYs;
+		private int wCount = 0;
+
+		private long lastSeq = -1;
+
+		Track(double toleranceSq) {
+			this.toleranceSq = toleranceSq;
+			wSeqs = new long[maxWindow];
+			wLats = new double[maxWindow];
+			wLons = new double[maxWindow];
+			wXs = new double[maxWindow];
+			wYs = new double[maxWindow];
+		}
+
+		/**
+		 * @return index of the oldest kept point
+		 */
+		public long getFirstIndex() {
+			return firstIndex;
+		}
+
+		/**
+		 * @return index the next kept point will get
+		 */
+		public long getNextIndex() {
+			return firstIndex + count;
+		}
+
+		public long getSequence(long index) {
+			return seqs[slotOf(index)];
+		}
+
+		public double getLatitude(long index) {
+			return lats[slotOf(index)];
+		}
+
+		public double getLongitude(long index) {
+			return lons[slotOf(index)];
+		}
+
+		/**
+		 * @return if there is a last point not yet kept or dropped
+		 */
+		public boolean hasFloatingPoint() {
+			return wCount > 0;
+		}
+
+		public long getFloatingSequence() {
+			return wSeqs[wCount - 1];
+		}
+
+		public double getFloatingLatitude() {
+			return wLats[wCount - 1];
+		}
+
+		public double getFloatingLongitude() {
+			return wLons[wCount - 1];
+		}
+
+		private int slotOf(long index) {
+			return (int) ((head + (index - firstIndex)) % seqs.length);
+		}
+
+		void add(long seq, double lat, double lon, double x, double y) {
+
+			if (seq <= lastSeq) {
+				return; // Already known
+			}
+			lastSeq = seq;
+
+			if (count == 0) {
+				keep(seq, lat, lon, x, y);
+				return;
+			}
+
+			if (wCount < maxWindow && windowFits(x, y)) {
+				pushWindow(seq, lat, lon, x, y);
+				return;
+			}
+
+			// The previous point is needed to keep the shape
+			int last = wCount - 1;
+			if (last >= 0) {
+				keep(wSeqs[last], wLats[last], wLons[last], wXs[last],
+						wYs[last]);
+			}
+			wCount = 0;
+			pushWindow(seq, lat, lon, x, y);
+		}
+
+		/**
+		 * Check if every point of the window stay close to the segment from
+		 * the last kept point to (x,y)
+		 */
+		private boolean windowFits(double x, double y) {
+
+			int anchor = slotOf(getNextIndex() - 1);
+			double ax = xs[anchor];
+			double ay = ys[anchor];
+
+			for (int i = 0; i < wCount; i++) {
+				if (SpatialIndex.distanceSq(wXs[i], wYs[i], ax, ay, x, y) > toleranceSq) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void evictBefore(long seq) {
+
+			while (count > 0 && seqs[head] < seq) {
+				head = (head + 1) % seqs.length;
+				count--;
+				firstIndex++;
+			}
+
+			if (count == 0 && wCount > 0) {
+				// Lost the anchor, restart from what is left of the window
+				int n = wCount;
+				wCount = 0;
+				lastSeq = -1;
+				for (int i = 0; i < n; i++) {
+					if (wSeqs[i] >= seq) {
+						add(wSeqs[i], wLats[i], wLons[i], wXs[i], wYs[i]);
+					}
+				}
+			}
+		}
+
+		private void pushWindow(long seq, double lat, double lon, double x,
+				double y) {
+			wSeqs[wCount] = seq;
+			wLats[wCount] = lat;
+			wLons[wCount] = lon;
+			wXs[wCount] = x;
+			wYs[wCount] = y;
+			wCount++;
+		}
+
+		private void keep(long seq, double lat, double lon, double x, double y) {
+
+			if (count == seqs.length) {
+				grow();
+			}
+
+			int slot = (head + count) % seqs.length;
+			seqs[slot] = seq;
+			lats[slot] = lat;
+			lons[slot] = lon;
+			xs[slot] = x;
+			ys[slot] = y;
+			count++;
+		}
+
+		private void grow() {
+			int size = seqs.length * 2;
+			seqs = copy(seqs, size);
+			lats = copy(lats, size);
+			lons = copy(lons, size);
+			xs = copy(xs, size);
+			ys = copy(ys, size);
+			head = 0;
+		}
+
+		private long[] copy(long[] src, int size) {
+			long[] dst = new long[size];
+			for (int i = 0; i < count; i++) {
+				dst[i] = src[(head + i) % src.length];
+			}
+			return dst;
+		}
+
+		private double[] copy(double[] src, int size) {
+			double[] dst = new double[size];
+			for (int i = 0; i < count; i++) {
+				dst[i] = src[(head + i) % src.length];
+			}
+			return dst;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package com.example.locationservice;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of every fix received, kept on disk so the tracker can keep
+ * weeks of track without holding them in memory and can restart warm.
+ *
+ * The log is a directory of segment files (track-00000001.seg...). Each
+ * segment has a small header followed by fixed size records and is memory
+ * mapped, appending a fix is only a copy into the mapped buffer. When a
+ * segment is full the next one is created and the oldest segments are
+ * deleted to keep at most maxSegments.
+ *
+ * Each record end with a CRC32 of its content. On open the last segment is
+ * scanned and writing restart after the last valid record, so a record torn
+ * by a crash is simply overwritten.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class TrackLog implements TrackSink {
+
+	static final int MAGIC = 0x544C4F47; // "TLOG"
+	static final short FORMAT_VERSION = 1;
+
+	// magic(4) version(2) record size(2) records per segment(4) reserved(4)
+	static final int HEADER_SIZE = 16;
+
+	// time(8) lat(8) lon(8) acc(4) speed(4) provider(1) pad(3) crc(4)
+	static final int RECORD_SIZE = 40;
+	static final int CRC_OFFSET = 36;
+
+	private static final String SEGMENT_PREFIX = "track-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private final File dir;
+	private final int recordsPerSegment;
+	private final int maxSegments;
+
+	private long segmentNumber;
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+	private int segmentCapacity;
+	private int recordCount;
+
+	// Reused to encode a record
+	private final byte[] scratch = new byte[RECORD_SIZE];
+	private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Open (or create) the log in this directory
+	 *
+	 * @param dir
+	 * @param recordsPerSegment
+	 *            number of fix in a segment file
+	 * @param maxSegments
+	 *            oldest segments are deleted over this number
+	 * @throws IOException
+	 */
+	public TrackLog(File dir, int recordsPerSegment, int maxSegments)
+			throws IOException {
+
+		if (recordsPerSegment <= 0 || maxSegments <= 0) {
+			throw new IllegalArgumentException("Invalid log size : "
+					+ recordsPerSegment + " x " + maxSegments);
+		}
+
+		this.dir = dir;
+		this.recordsPerSegment = recordsPerSegment;
+		this.maxSegments = maxSegments;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+
+		long[] segments = listSegments(dir);
+		if (segments.length == 0) {
+			openSegment(1, true);
+		} else {
+			segmentNumber = segments[segments.length - 1];
+			if (!openSegment(segmentNumber, false)) {
+				// Last segment unreadable, start a new one after it
+				openSegment(segmentNumber + 1, true);
+			}
+		}
+
+		deleteOldSegments();
+	}
+
+	@Override
+	public void append(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) throws IOException {
+
+		if (buffer == null) {
+			throw new IOException("Track log closed");
+		}
+
+		if (recordCount >= segmentCapacity) {
+			rotate();
+		}
+
+		encode(scratchBuffer, crc, provider, time, latitude, longitude,
+				accuracy, speed);
+
+		buffer.position(HEADER_SIZE + recordCount * RECORD_SIZE);
+		buffer.put(scratch);
+		recordCount++;
+	}
+
+	/**
+	 * Force the mapped segment to the disk, not needed to survive a crash of
+	 * the process only a crash of the system
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer != null) {
+			buffer.force();
+			buffer = null;
+		}
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return number of record in the segment being written
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Open a reader over the last records of the log
+	 *
+	 * @param maxRecords
+	 * @return reader, must be closed
+	 * @throws IOException
+	 */
+	public TrackLogReader openTailReader(long maxRecords) throws IOException {
+		flush();
+		return TrackLogReader.openTail(dir, maxRecords);
+	}
+
+	private void rotate() throws IOException {
+		close();
+		openSegment(segmentNumber + 1, true);
+		deleteOldSegments();
+	}
+
+	/**
+	 * @return false if the existing segment is not valid
+	 */
+	private boolean openSegment(long number, boolean create) throws IOException {
+
+		File f = segmentFile(dir, number);
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		boolean opened = false;
+		try {
+			FileChannel channel = raf.getChannel();
+
+			int capacity = recordsPerSegment;
+			MappedByteBuffer map;
+
+			if (create || raf.length() < HEADER_SIZE) {
+				long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+				raf.setLength(size);
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				map.putInt(MAGIC);
+				map.putShort(FORMAT_VERSION);
+				map.putShort((short) RECORD_SIZE);
+				map.putInt(capacity);
+				map.putInt(0);
+			} else {
+				capacity = readCapacity(raf);
+				if (capacity <= 0) {
+					return false;
+				}
+				long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+				if (raf.length() < size) {
+					raf.setLength(size);
+				}
+				map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+
+			int records = create ? 0 : countValidRecords(map, capacity);
+
+			segmentNumber = number;
+			file = raf;
+			buffer = map;
+			segmentCapacity = capacity;
+			recordCount = records;
+
+			opened = true;
+			return true;
+		} finally {
+			if (!opened) {
+				// Invalid segment, or unable to size or map it
+				try {
+					raf.close();
+				} catch (IOException e) {
+					// Keep the first error
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tail recovery, find the first record not written or torn
+	 */
+	private int countValidRecords(ByteBuffer map, int capacity) {
+		int n = 0;
+		while (n < capacity && readRecord(map, n, scratch, crc)) {
+			n++;
+		}
+		return n;
+	}
+
+	private void deleteOldSegments() {
+		long[] segments = listSegments(dir);
+		for (int i = 0; i < segments.length - maxSegments; i++) {
+			segmentFile(dir, segments[i]).delete();
+		}
+	}
+
+	// Format helpers shared with the reader //////////////
+
+	/**
+	 * @return records per segment from the header or -1 if not a valid
+	 *         segment
+	 */
+	static int readCapacity(RandomAccessFile raf) throws IOException {
+
+		if (raf.length() < HEADER_SIZE) {
+			return -1;
+		}
+
+		raf.seek(0);
+		int magic = raf.readInt();
+		short version = raf.readShort();
+		short recordSize = raf.readShort();
+		int capacity = raf.readInt();
+
+		if (magic != MAGIC || version != FORMAT_VERSION
+				|| recordSize != RECORD_SIZE) {
+			return -1;
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Write a record in buf (wrapping a RECORD_SIZE array)
+	 */
+	static void encode(ByteBuffer buf, CRC32 crc, byte provider, long time,
+			double latitude, double longitude, float accuracy, float speed) {
+		buf.clear();
+		buf.putLong(time);
+		buf.putDouble(latitude);
+		buf.putDouble(longitude);
+		buf.putFloat(accuracy);
+		buf.putFloat(speed);
+		buf.put(provider);
+		buf.put((byte) 0);
+		buf.put((byte) 0);
+		buf.put((byte) 0);
+		crc.reset();
+		crc.update(buf.array(), 0, CRC_OFFSET);
+		buf.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Copy record at index into dst and check its CRC
+	 *
+	 * @return if the record is valid
+	 */
+	static boolean readRecord(ByteBuffer map, int index, byte[] dst, CRC32 crc) {
+
+		int offset = HEADER_SIZE + index * RECORD_SIZE;
+		if (offset + RECORD_SIZE > map.limit()) {
+			return false;
+		}
+
+		map.position(offset);
+		map.get(dst, 0, RECORD_SIZE);
+
+		crc.reset();
+		crc.update(dst, 0, CRC_OFFSET);
+		int expected = ((dst[CRC_OFFSET] & 0xFF) << 24)
+				| ((dst[CRC_OFFSET + 1] & 0xFF) << 16)
+				| ((dst[CRC_OFFSET + 2] & 0xFF) << 8)
+				| (dst[CRC_OFFSET + 3] & 0xFF);
+
+		return (int) crc.getValue() == expected;
+	}
+
+	static File segmentFile(File dir, long number) {
+		String n = Long.toString(number);
+		StringBuilder name = new StringBuilder(SEGMENT_PREFIX);
+		for (int i = n.length(); i < 8; i++) {
+			name.append('0');
+		}
+		return new File(dir, name.append(n).append(SEGMENT_SUFFIX).toString());
+	}
+
+	/**
+	 * @return segment numbers found in dir, sorted
+	 */
+	static long[] listSegments(File dir) {
+
+		String[] names = dir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.startsWith(SEGMENT_PREFIX)
+						&& name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+
+		if (names == null) {
+			return new long[0];
+		}
+
+		long[] numbers = new long[names.length];
+		int n = 0;
+		for (int i = 0; i < names.length; i++) {
+			try {
+				numbers[n] = Long.parseLong(names[i].substring(
+						SEGMENT_PREFIX.length(), names[i].length()
+								- SEGMENT_SUFFIX.length()));
+				n++;
+			} catch (NumberFormatException e) {
+				// Not one of ours
+			}
+		}
+
+		long[] found = new long[n];
+		System.arraycopy(numbers, 0, found, 0, n);
+		Arrays.sort(found);
+		return found;
+	}
+}
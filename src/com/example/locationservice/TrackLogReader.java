@@ -0,0 +1,222 @@
+package com.example.locationservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Read the fixes of a TrackLog from the oldest to the newest, one segment is
+ * mapped at a time. Reading stop at the first invalid record of a segment
+ * (end of the written part or torn record).
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class TrackLogReader implements FixCursor {
+
+	private final File dir;
+	private final long[] segments;
+	private int segmentIndex;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int recordIndex;
+
+	private final byte[] record = new byte[TrackLog.RECORD_SIZE];
+	private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+	private final CRC32 crc = new CRC32();
+
+	private byte provider;
+	private long time;
+	private double latitude;
+	private double longitude;
+	private float accuracy;
+	private float speed;
+
+	/**
+	 * Read the whole log
+	 *
+	 * @param dir
+	 *            directory of the log
+	 */
+	public TrackLogReader(File dir) {
+		this(dir, 0, 0);
+	}
+
+	private TrackLogReader(File dir, int firstSegment, int firstRecord) {
+		this.dir = dir;
+		this.segments = TrackLog.listSegments(dir);
+		this.segmentIndex = firstSegment - 1;
+		this.recordIndex = firstRecord;
+	}
+
+	/**
+	 * Open a reader over the last maxRecords of the log. Segments are
+	 * scanned from the newest until enough records are found, a older
+	 * segment may not be full if its tail was torn.
+	 *
+	 * @param dir
+	 * @param maxRecords
+	 * @return reader
+	 * @throws IOException
+	 */
+	public static TrackLogReader openTail(File dir, long maxRecords)
+			throws IOException {
+
+		long[] segments = TrackLog.listSegments(dir);
+
+		long remaining = maxRecords;
+		for (int i = segments.length - 1; i >= 0; i--) {
+
+			int count = countRecords(TrackLog.segmentFile(dir, segments[i]));
+
+			if (count >= remaining) {
+				return new TrackLogReader(dir, i, (int) (count - remaining));
+			}
+			remaining -= count;
+		}
+
+		return new TrackLogReader(dir);
+	}
+
+	@Override
+	public boolean moveToNext() throws IOException {
+
+		while (true) {
+
+			if (buffer == null) {
+				if (!openNextSegment()) {
+					return false;
+				}
+			}
+
+			if (recordIndex < capacity
+					&& TrackLog.readRecord(buffer, recordIndex, record, crc)) {
+				recordIndex++;
+				decode();
+				return true;
+			}
+
+			closeSegment();
+			recordIndex = 0;
+		}
+	}
+
+	private void decode() {
+		recordBuffer.clear();
+		time = recordBuffer.getLong();
+		latitude = recordBuffer.getDouble();
+		longitude = recordBuffer.getDouble();
+		accuracy = recordBuffer.getFloat();
+		speed = recordBuffer.getFloat();
+		provider = recordBuffer.get();
+	}
+
+	private boolean openNextSegment() throws IOException {
+
+		while (++segmentIndex < segments.length) {
+
+			File f = TrackLog.segmentFile(dir, segments[segmentIndex]);
+			if (!f.exists()) {
+				continue; // Deleted by rotation since we listed them
+			}
+
+			RandomAccessFile raf = new RandomAccessFile(f, "r");
+			int cap = TrackLog.readCapacity(raf);
+			long size = TrackLog.HEADER_SIZE + (long) cap * TrackLog.RECORD_SIZE;
+			if (cap <= 0 || raf.length() < size) {
+				raf.close();
+				continue;
+			}
+
+			file = raf;
+			capacity = cap;
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					size);
+			return true;
+		}
+
+		return false;
+	}
+
+	private void closeSegment() throws IOException {
+		buffer = null;
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * @return number of valid records the reader will give for this segment
+	 */
+	private static int countRecords(File f) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			int cap = TrackLog.readCapacity(raf);
+			if (cap <= 0) {
+				return 0;
+			}
+
+			long size = TrackLog.HEADER_SIZE + (long) cap
+					* TrackLog.RECORD_SIZE;
+			if (raf.length() < size) {
+				return 0;
+			}
+
+			MappedByteBuffer map = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, size);
+			byte[] rec = new byte[TrackLog.RECORD_SIZE];
+			CRC32 crc = new CRC32();
+			int n = 0;
+			while (n < cap && TrackLog.readRecord(map, n, rec, crc)) {
+				n++;
+			}
+			return n;
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public byte getProvider() {
+		return provider;
+	}
+
+	@Override
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public double getLatitude() {
+		return latitude;
+	}
+
+	@Override
+	public double getLongitude() {
+		return longitude;
+	}
+
+	@Override
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	@Override
+	public float getSpeed() {
+		return speed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeSegment();
+		segmentIndex = segments.length;
+	}
+}
@@ -0,0 +1,334 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+
+/**
+ * Play a recorded track (TrackDecoder, TrackLogReader, GpxReader...) like a
+ * LocationManager would: fixes and provider events are given to a listener
+ * in the order of their time, at 1x to 1000x the real speed or as fast as
+ * possible.
+ *
+ * The recorded track has no provider events, they are made up from the
+ * fixes: a provider is enabled on its first fix and disabled at the end, it
+ * become temporarily unavailable when no fix is received for outageMs and
+ * available again on the next one.
+ *
+ * The ReplayClock is set to the time of each event before the listener is
+ * called, so the tracker state at the end only depend on the track and not
+ * on the speed or the host. The time spent in the listener is measured.
+ *
+ * Plain java, no Android dependency. run() block until the end of the track
+ * or stop().
+ *
+ */
+public class TrackReplayer {
+
+	// Same values as android.location.LocationProvider
+	public static final int STATUS_OUT_OF_SERVICE = 0;
+	public static final int STATUS_TEMPORARILY_UNAVAILABLE = 1;
+	public static final int STATUS_AVAILABLE = 2;
+
+	// Replay as fast as possible
+	public static final double SPEED_MAX = 0;
+
+	private static final long MAX_LATENCY_NS = 60L * 1000 * 1000 * 1000;
+
+	/**
+	 * Receive the replayed events, same as a LocationListener with the
+	 * provider given as LocationHistory.PROVIDER_*
+	 */
+	public interface Listener {
+
+		/**
+		 * @param speed
+		 *            speed or NaN if not available
+		 */
+		void onLocationChanged(byte provider, long time, double latitude,
+				double longitude, float accuracy, float speed);
+
+		/**
+		 * @param status
+		 *            STATUS_*
+		 */
+		void onStatusChanged(byte provider, int status);
+
+		void onProviderEnabled(byte provider);
+
+		void onProviderDisabled(byte provider);
+	}
+
+	private final FixCursor source;
+	private final Listener listener;
+	private final ReplayClock clock;
+	private final double speed;
+	private final long outageMs;
+
+	private volatile boolean stopped;
+
+	// State of each provider, indexed by LocationHistory.PROVIDER_*
+	private final boolean[] enabled = new boolean[3];
+	private final boolean[] available = new boolean[3];
+	private final long[] lastFix = new long[3];
+
+	private final long[] fixes = new long[3];
+	private int statusEvents;
+	private final LatencyHistogram latency = new LatencyHistogram(
+			MAX_LATENCY_NS);
+
+	// Pacing, time of the first event and when it was played
+	private long firstTime = Long.MIN_VALUE;
+	private long startNanos;
+
+	/**
+	 * @param source
+	 *            fixes in order of time, not closed
+	 * @param listener
+	 *            called on the thread running the replay
+	 * @param clock
+	 *            moved to the time of each event, give it to the tracker
+	 * @param speed
+	 *            1 for real time, 1000 for 1000x or SPEED_MAX
+	 * @param outageMs
+	 *            a provider without fix for this time is temporarily
+	 *            unavailable, 0 to never change the status
+	 */
+	public TrackReplayer(FixCursor source, Listener listener,
+			ReplayClock clock, double speed, long outageMs) {
+
+		if (speed < 0) {
+			throw new IllegalArgumentException("Invalid speed : " + speed);
+		}
+
+		this.source = source;
+		this.listener = listener;
+		this.clock = clock;
+		this.speed = speed;
+		this.outageMs = outageMs;
+	}
+
+	/**
+	 * Play the whole track
+	 *
+	 * @return what was played and how long it took
+	 * @throws IOException
+	 *             if the track can not be read
+	 */
+	public Result run() throws IOException {
+
+		startNanos = System.nanoTime();
+
+		while (!stopped && source.moveToNext()) {
+
+			byte provider = source.getProvider();
+			long time = source.getTime();
+			if (provider < 0 || provider >= enabled.length) {
+				provider = LocationHistory.PROVIDER_UNKNOWN;
+			}
+			if (firstTime == Long.MIN_VALUE) {
+				firstTime = time;
+			}
+
+			playOutages(time);
+			if (!waitFor(time)) {
+				break;
+			}
+
+			if (!enabled[provider]) {
+				enabled[provider] = true;
+				statusEvents++;
+				listener.onProviderEnabled(provider);
+			}
+			if (!available[provider]) {
+				available[provider] = true;
+				statusEvents++;
+				listener.onStatusChanged(provider, STATUS_AVAILABLE);
+			}
+
+			long start = System.nanoTime();
+			listener.onLocationChanged(provider, time, source.getLatitude(),
+					source.getLongitude(), source.getAccuracy(),
+					source.getSpeed());
+			latency.record(System.nanoTime() - start);
+
+			lastFix[provider] = time;
+			fixes[provider]++;
+		}
+
+		// Track is over, like if the user turned off location
+		for (byte p = 0; p < enabled.length; p++) {
+			if (enabled[p]) {
+				enabled[p] = false;
+				statusEvents++;
+				listener.onProviderDisabled(p);
+			}
+		}
+
+		return new Result(this, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Stop the replay before the next event, can be called from any thread
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Provider whose last fix is too old become unavailable, in order of
+	 * time, before the event at this time
+	 */
+	private void playOutages(long time) {
+
+		if (outageMs <= 0) {
+			return;
+		}
+
+		while (!stopped) {
+			byte next = -1;
+			for (byte p = 0; p < available.length; p++) {
+				if (available[p] && lastFix[p] + outageMs <= time
+						&& (next < 0 || lastFix[p] < lastFix[next])) {
+					next = p;
+				}
+			}
+			if (next < 0 || !waitFor(lastFix[next] + outageMs)) {
+				return;
+			}
+			available[next] = false;
+			statusEvents++;
+			listener.onStatusChanged(next, STATUS_TEMPORARILY_UNAVAILABLE);
+		}
+	}
+
+	/**
+	 * Sleep until the event is due and move the clock to it
+	 *
+	 * @return false if interrupted
+	 */
+	private boolean waitFor(long time) {
+
+		if (speed > 0) {
+			long due = startNanos + (long) ((time - firstTime) * 1e6 / speed);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stopped = true;
+					return false;
+				}
+			}
+		}
+
+		clock.set(time);
+		return true;
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Outcome of a replay
+	 */
+	public static class Result {
+
+		private final long[] fixes;
+		private final int statusEvents;
+		private final long firstTime;
+		private final long lastTime;
+		private final long wallNanos;
+		private final boolean stopped;
+		private final LatencyHistogram latency;
+
+		Result(TrackReplayer r, long wallNanos) {
+			fixes = r.fixes.clone();
+			statusEvents = r.statusEvents;
+			firstTime = r.firstTime;
+			lastTime = r.clock.currentTimeMillis();
+			this.wallNanos = wallNanos;
+			stopped = r.stopped;
+			latency = r.latency;
+		}
+
+		/**
+		 * @param provider
+		 *            LocationHistory.PROVIDER_*
+		 * @return number of fixes played for this provider
+		 */
+		public long getFixCount(byte provider) {
+			return fixes[provider];
+		}
+
+		public long getFixCount() {
+			long n = 0;
+			for (int i = 0; i < fixes.length; i++) {
+				n += fixes[i];
+			}
+			return n;
+		}
+
+		/**
+		 * @return enabled, disabled and status events played
+		 */
+		public int getStatusEventCount() {
+			return statusEvents;
+		}
+
+		/**
+		 * @return time of the track played, in ms
+		 */
+		public long getTrackDurationMs() {
+			return firstTime == Long.MIN_VALUE ? 0 : lastTime - firstTime;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		/**
+		 * @return how many times faster than real time the track was played
+		 */
+		public double getSpeedUp() {
+			return wallNanos == 0 ? 0 : getTrackDurationMs() * 1e6 / wallNanos;
+		}
+
+		/**
+		 * @return if stopped before the end of the track
+		 */
+		public boolean isStopped() {
+			return stopped;
+		}
+
+		/**
+		 * @return time spent by the listener for each fix, in ns
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(getFixCount()).append(" fixes (gps ")
+					.append(fixes[LocationHistory.PROVIDER_GPS])
+					.append(", net ")
+					.append(fixes[LocationHistory.PROVIDER_NETWORK])
+					.append("), ").append(statusEvents)
+					.append(" status events, ")
+					.append(getTrackDurationMs() / 1000).append(" s in ")
+					.append(wallNanos / 1000000).append(" ms (x")
+					.append(Math.round(getSpeedUp())).append(')');
+			if (stopped) {
+				sb.append(" stopped");
+			}
+			sb.append("\nListener us p50/90/99/max : ")
+					.append(latency.getValueAtPercentile(50) / 1000)
+					.append('/')
+					.append(latency.getValueAtPercentile(90) / 1000)
+					.append('/')
+					.append(latency.getValueAtPercentile(99) / 1000)
+					.append('/').append(latency.getMax() / 1000);
+			return sb.toString();
+		}
+	}
+}
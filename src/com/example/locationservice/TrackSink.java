@@ -0,0 +1,42 @@
+package com.example.locationservice;
+
+import java.io.IOException;
+
+/**
+ * Destination of the fixes received by the tracker (file, database...). Fixes
+ * are given as primitive values so a sink can store them without creating
+ * any object.
+ *
+ * Sinks are called from the thread processing location.
+ *
+ */
+public interface TrackSink {
+
+	/**
+	 * @param provider
+	 *            one of LocationHistory.PROVIDER_*
+	 * @param time
+	 * @param latitude
+	 * @param longitude
+	 * @param accuracy
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @throws IOException
+	 */
+	void append(byte provider, long time, double latitude, double longitude,
+			float accuracy, float speed) throws IOException;
+
+	/**
+	 * Make sure everything appended is stored
+	 *
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flush and release the sink
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
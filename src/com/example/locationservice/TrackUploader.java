@@ -0,0 +1,461 @@
+package com.example.locationservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Send the fixes to a server in batches instead of a request per fix.
+ *
+ * Fixes are encoded as they come in the track format (TrackEncoder, about 10
+ * bytes a fix) and the batch is closed when it has maxFixes fixes, maxBytes
+ * bytes or its first fix is maxAgeMs old. A closed batch is written in the
+ * spool directory before being sent, a upload thread send the spooled
+ * batches oldest first and delete them once the server accepted them.
+ *
+ * Delivery is at least once: a batch is deleted only after a success, when
+ * sending fail it is sent again after a exponential backoff (with jitter)
+ * and the spool is reloaded on restart. A batch can then be received twice,
+ * the server must ignore a batch id it already has. The spool is bounded,
+ * when full the oldest batch is dropped (the track log still has it).
+ *
+ * append and flush are called from the thread processing location, the
+ * network is only used on the upload thread. Plain java, no Android
+ * dependency.
+ *
+ */
+public class TrackUploader implements TrackSink {
+
+	/**
+	 * Send a batch to the server, called on the upload thread
+	 */
+	public interface Transport {
+
+		/**
+		 * @param batchId
+		 *            same id when a batch is sent again
+		 * @param data
+		 *            track format
+		 * @return true when accepted, false when refused for good (the batch
+		 *         is dropped)
+		 * @throws IOException
+		 *             to send it again later
+		 */
+		boolean send(String batchId, byte[] data, int length)
+				throws IOException;
+	}
+
+	private static final Logger LOG = Logger.getLogger(TrackUploader.class
+			.getName());
+
+	static final String BATCH_SUFFIX = ".trk";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File dir;
+	private final Transport transport;
+	private final int maxFixes;
+	private final int maxBytes;
+	private final long maxAgeMs;
+	private final int maxSpooled;
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+
+	private final Thread thread;
+	private final Random jitter = new Random();
+
+	// Everything below is guarded by this
+
+	// Batch being filled, encoder is null when empty
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	private TrackEncoder encoder;
+	private long batchStarted;
+	private int batchSeq;
+
+	// Spooled batches, oldest first
+	private final ArrayList<File> spooled = new ArrayList<File>();
+
+	private int failures;
+	private long retryAt;
+	private boolean closed;
+
+	private long sentBatches;
+	private long sentBytes;
+	private long requests;
+	private long droppedBatches;
+
+	/**
+	 * Load the batches left in the spool by a previous run, call start to
+	 * begin sending
+	 *
+	 * @param dir
+	 *            spool directory, created if needed
+	 * @param transport
+	 * @param maxFixes
+	 *            fixes in a batch
+	 * @param maxBytes
+	 *            size of a batch
+	 * @param maxAgeMs
+	 *            time after the first fix of a batch before sending it
+	 * @param maxSpooled
+	 *            batches kept waiting for the server
+	 * @param initialBackoffMs
+	 *            wait after the first failure, doubled on each failure
+	 * @param maxBackoffMs
+	 *            longest wait between two tries
+	 * @throws IOException
+	 *             if the directory can not be created
+	 */
+	public TrackUploader(File dir, Transport transport, int maxFixes,
+			int maxBytes, long maxAgeMs, int maxSpooled,
+			long initialBackoffMs, long maxBackoffMs) throws IOException {
+
+		if (maxFixes < 1 || maxBytes < 1 || maxSpooled < 1
+				|| initialBackoffMs < 1 || maxBackoffMs < initialBackoffMs) {
+			throw new IllegalArgumentException("Invalid uploader settings");
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+
+		this.dir = dir;
+		this.transport = transport;
+		this.maxFixes = maxFixes;
+		this.maxBytes = maxBytes;
+		this.maxAgeMs = maxAgeMs;
+		this.maxSpooled = maxSpooled;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+
+		// Names start with the time so the order is kept
+		File[] files = dir.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				if (f.getName().endsWith(BATCH_SUFFIX)) {
+					spooled.add(f);
+				} else if (f.getName().endsWith(TMP_SUFFIX)) {
+					f.delete(); // Crashed while writing it
+				}
+			}
+		}
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				upload();
+			}
+		}, "TrackUploader");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Start the upload thread
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	@Override
+	public synchronized void append(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) throws IOException {
+
+		if (closed) {
+			throw new IOException("Uploader closed");
+		}
+
+		if (encoder == null) {
+			batch.reset();
+			encoder = new TrackEncoder(batch);
+			batchStarted = System.currentTimeMillis();
+			if (maxAgeMs > 0) {
+				// Upload thread must wake up when it is due
+				notifyAll();
+			}
+		}
+
+		encoder.append(provider, time, latitude, longitude, accuracy, speed);
+
+		if (encoder.getCount() >= maxFixes || encoder.getSize() >= maxBytes) {
+			spool();
+		}
+	}
+
+	/**
+	 * Close the batch being filled, it is sent without waiting its age
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		spool();
+	}
+
+	/**
+	 * Spool the batch being filled and stop the upload thread, batches not
+	 * sent yet will be sent by the next uploader on this directory
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			spool();
+		} finally {
+			closed = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return batches accepted by the server
+	 */
+	public synchronized long getSentBatches() {
+		return sentBatches;
+	}
+
+	/**
+	 * @return bytes of the batches accepted by the server
+	 */
+	public synchronized long getSentBytes() {
+		return sentBytes;
+	}
+
+	/**
+	 * @return number of send tried, failed ones included
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return batches dropped because the spool was full or the server
+	 *         refused them
+	 */
+	public synchronized long getDroppedBatches() {
+		return droppedBatches;
+	}
+
+	/**
+	 * @return batches waiting to be sent
+	 */
+	public synchronized int getSpooledCount() {
+		return spooled.size();
+	}
+
+	/**
+	 * Write the batch being filled in the spool, must hold the lock
+	 */
+	private void spool() throws IOException {
+
+		if (encoder == null) {
+			return;
+		}
+
+		// On failure the batch is lost rather than growing without bound
+		TrackEncoder e = encoder;
+		encoder = null;
+		try {
+			e.flush();
+			write(batchStarted);
+		} catch (IOException ex) {
+			droppedBatches++;
+			throw ex;
+		}
+	}
+
+	private void write(long started) throws IOException {
+
+		String name = String.format(Locale.US, "%013d-%06d", started,
+				batchSeq++ % 1000000);
+		File tmp = new File(dir, name + TMP_SUFFIX);
+		File file = new File(dir, name + BATCH_SUFFIX);
+
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			batch.writeTo(out);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Unable to spool " + file);
+		}
+
+		if (spooled.size() >= maxSpooled) {
+			// Server unreachable for too long, keep the newest
+			spooled.remove(0).delete();
+			droppedBatches++;
+		}
+		spooled.add(file);
+		notifyAll();
+	}
+
+	/**
+	 * Loop of the upload thread
+	 */
+	private void upload() {
+
+		byte[] buf = new byte[Math.max(maxBytes, 1024)];
+
+		while (true) {
+
+			File next;
+			synchronized (this) {
+				try {
+					next = waitForBatch();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (next == null) {
+					return; // Closed
+				}
+			}
+
+			int length;
+			try {
+				length = (int) next.length();
+				if (length > buf.length) {
+					buf = new byte[length];
+				}
+				readFully(next, buf, length);
+			} catch (IOException e) {
+				synchronized (this) {
+					// Dropped by a full spool while reading it is not a
+					// failure of the server
+					if (spooled.contains(next)) {
+						failed();
+					}
+				}
+				continue;
+			}
+
+			boolean accepted;
+			try {
+				accepted = transport.send(batchIdOf(next), buf, length);
+			} catch (IOException e) {
+				synchronized (this) {
+					requests++;
+					failed();
+				}
+				continue;
+			} catch (RuntimeException e) {
+				// Bug of the transport (ie. not a http url), keep the batch
+				// and the thread
+				LOG.log(Level.WARNING, "Unable to send batch " + next, e);
+				synchronized (this) {
+					requests++;
+					failed();
+				}
+				continue;
+			}
+
+			synchronized (this) {
+				requests++;
+				failures = 0;
+				if (accepted) {
+					sentBatches++;
+					sentBytes += length;
+				} else {
+					droppedBatches++;
+				}
+				// May have been dropped meanwhile
+				if (spooled.remove(next)) {
+					next.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait before sending again, must hold the lock
+	 */
+	private void failed() {
+		failures++;
+		retryAt = System.currentTimeMillis() + backoff(failures);
+	}
+
+	/**
+	 * Close the batch when it is too old and wait for a batch to send, must
+	 * hold the lock
+	 *
+	 * @return oldest batch or null if closed
+	 */
+	private File waitForBatch() throws InterruptedException {
+
+		while (!closed) {
+
+			long now = System.currentTimeMillis();
+			long wait = Long.MAX_VALUE;
+
+			if (encoder != null && maxAgeMs > 0) {
+				if (now - batchStarted >= maxAgeMs) {
+					try {
+						spool();
+					} catch (IOException e) {
+						// Counted as dropped
+					}
+					continue;
+				}
+				wait = batchStarted + maxAgeMs - now;
+			}
+
+			if (!spooled.isEmpty()) {
+				if (now >= retryAt) {
+					return spooled.get(0);
+				}
+				wait = Math.min(wait, retryAt - now);
+			}
+
+			if (wait == Long.MAX_VALUE) {
+				wait();
+			} else {
+				wait(wait);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return wait after this number of failures in a row, between half and
+	 *         the full exponential delay
+	 */
+	private long backoff(int failures) {
+		long delay = initialBackoffMs << Math.min(failures - 1, 30);
+		if (delay <= 0 || delay > maxBackoffMs) {
+			delay = maxBackoffMs;
+		}
+		return delay / 2 + (long) (jitter.nextDouble() * (delay / 2));
+	}
+
+	private static String batchIdOf(File f) {
+		String name = f.getName();
+		return name.substring(0, name.length() - BATCH_SUFFIX.length());
+	}
+
+	private static void readFully(File f, byte[] buf, int length)
+			throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			int n = 0;
+			while (n < length) {
+				int r = in.read(buf, n, length - n);
+				if (r < 0) {
+					throw new IOException("Batch truncated : " + f);
+				}
+				n += r;
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.example.locationservice;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+/**
+ * Tuning options of the LocationService that can be changed while it runs.
+ *
+ * Options are given as extras of the intent starting the service (any
+ * action, or ACTION_UPDATE_CONFIG to only change them), missing extras keep
+ * their current value. Defaults are the LocationService.CFG_ constants.
+ *
+ * <pre>
+ * Intent i = new Intent(ctx, LocationService.class);
+ * i.setAction(LocationService.ACTION_UPDATE_CONFIG);
+ * new TrackerConfig.Builder().setUseGps(false).build().putExtras(i);
+ * ctx.startService(i);
+ * </pre>
+ *
+ * Note putExtras write every option, use putExtra with the EXTRA_ keys to
+ * only change some of them.
+ *
+ */
+public class TrackerConfig {
+
+	private static final String PREFIX = "com.example.locationservice.config.";
+
+	public static final String EXTRA_USE_GPS = PREFIX + "useGps";
+	public static final String EXTRA_USE_NETWORK = PREFIX + "useNetwork";
+	public static final String EXTRA_UPDATE_MAIN_APPLICATION = PREFIX
+			+ "updateMainApplication";
+	public static final String EXTRA_BROADCAST_STATUS_CHANGE = PREFIX
+			+ "broadcastStatusChange";
+	public static final String EXTRA_BROADCAST_LOCATION_CHANGE = PREFIX
+			+ "broadcastLocationChange";
+	public static final String EXTRA_UPDATE_INTERVAL_MS = PREFIX
+			+ "updateIntervalMs"; // long
+	public static final String EXTRA_UPDATE_MIN_DISTANCE = PREFIX
+			+ "updateMinDistance"; // float
+	public static final String EXTRA_ADAPTIVE_SAMPLING = PREFIX
+			+ "adaptiveSampling";
+	public static final String EXTRA_MAX_LOCATION_HISTORY = PREFIX
+			+ "maxLocationHistory"; // int
+	public static final String EXTRA_SHOW_FULL_REPORT = PREFIX
+			+ "showFullReport";
+	public static final String EXTRA_FILTER_LOCATIONS = PREFIX
+			+ "filterLocations";
+
+	private static final String[] ALL_EXTRAS = { EXTRA_USE_GPS,
+			EXTRA_USE_NETWORK, EXTRA_UPDATE_MAIN_APPLICATION,
+			EXTRA_BROADCAST_STATUS_CHANGE, EXTRA_BROADCAST_LOCATION_CHANGE,
+			EXTRA_UPDATE_INTERVAL_MS, EXTRA_UPDATE_MIN_DISTANCE,
+			EXTRA_ADAPTIVE_SAMPLING, EXTRA_MAX_LOCATION_HISTORY,
+			EXTRA_SHOW_FULL_REPORT, EXTRA_FILTER_LOCATIONS };
+
+	private static final TrackerConfig DEFAULT = new Builder().build();
+
+	private final boolean useGps;
+	private final boolean useNetwork;
+	private final boolean updateMainApplication;
+	private final boolean broadcastStatusChange;
+	private final boolean broadcastLocationChange;
+	private final long updateIntervalMs;
+	private final float updateMinDistance;
+	private final boolean adaptiveSampling;
+	private final int maxLocationHistory;
+	private final boolean showFullReport;
+	private final boolean filterLocations;
+
+	private TrackerConfig(Builder b) {
+		useGps = b.useGps;
+		useNetwork = b.useNetwork;
+		updateMainApplication = b.updateMainApplication;
+		broadcastStatusChange = b.broadcastStatusChange;
+		broadcastLocationChange = b.broadcastLocationChange;
+		updateIntervalMs = b.updateIntervalMs;
+		updateMinDistance = b.updateMinDistance;
+		adaptiveSampling = b.adaptiveSampling;
+		maxLocationHistory = b.maxLocationHistory;
+		showFullReport = b.showFullReport;
+		filterLocations = b.filterLocations;
+	}
+
+	/**
+	 * @return configuration from the LocationService.CFG_ constants
+	 */
+	public static TrackerConfig getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param i
+	 * @return if the intent has at least one option
+	 */
+	public static boolean hasExtras(Intent i) {
+		Bundle extras = i.getExtras();
+		if (extras == null) {
+			return false;
+		}
+		for (int k = 0; k < ALL_EXTRAS.length; k++) {
+			if (extras.containsKey(ALL_EXTRAS[k])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Write every option in the intent
+	 * 
+	 * @param i
+	 */
+	public void putExtras(Intent i) {
+		i.putExtra(EXTRA_USE_GPS, useGps);
+		i.putExtra(EXTRA_USE_NETWORK, useNetwork);
+		i.putExtra(EXTRA_UPDATE_MAIN_APPLICATION, updateMainApplication);
+		i.putExtra(EXTRA_BROADCAST_STATUS_CHANGE, broadcastStatusChange);
+		i.putExtra(EXTRA_BROADCAST_LOCATION_CHANGE, broadcastLocationChange);
+		i.putExtra(EXTRA_UPDATE_INTERVAL_MS, updateIntervalMs);
+		i.putExtra(EXTRA_UPDATE_MIN_DISTANCE, updateMinDistance);
+		i.putExtra(EXTRA_ADAPTIVE_SAMPLING, adaptiveSampling);
+		i.putExtra(EXTRA_MAX_LOCATION_HISTORY, maxLocationHistory);
+		i.putExtra(EXTRA_SHOW_FULL_REPORT, showFullReport);
+		i.putExtra(EXTRA_FILTER_LOCATIONS, filterLocations);
+	}
+
+	/**
+	 * @return builder starting from this configuration
+	 */
+	public Builder buildUpon() {
+		return new Builder(this);
+	}
+
+	public boolean isUseGps() {
+		return useGps;
+	}
+
+	public boolean isUseNetwork() {
+		return useNetwork;
+	}
+
+	public boolean isUpdateMainApplication() {
+		return updateMainApplication;
+	}
+
+	public boolean isBroadcastStatusChange() {
+		return broadcastStatusChange;
+	}
+
+	public boolean isBroadcastLocationChange() {
+		return broadcastLocationChange;
+	}
+
+	/**
+	 * @return update interval when not adaptive
+	 */
+	public long getUpdateIntervalMs() {
+		return updateIntervalMs;
+	}
+
+	/**
+	 * @return update minimum distance in meters when not adaptive
+	 */
+	public float getUpdateMinDistance() {
+		return updateMinDistance;
+	}
+
+	public boolean isAdaptiveSampling() {
+		return adaptiveSampling;
+	}
+
+	public int getMaxLocationHistory() {
+		return maxLocationHistory;
+	}
+
+	public boolean isShowFullReport() {
+		return showFullReport;
+	}
+
+	public boolean isFilterLocations() {
+		return filterLocations;
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	public static class Builder {
+
+		private boolean useGps = LocationService.CFG_USE_GPS;
+		private boolean useNetwork = LocationService.CFG_USE_NETWORK;
+		private boolean updateMainApplication = LocationService.CFG_UPDATE_MAIN_APPLICATION;
+		private boolean broadcastStatusChange = LocationService.CFG_BROADCAST_STATUS_CHANGE;
+		private boolean broadcastLocationChange = LocationService.CFG_BROADCAST_LOCATION_CHANGE;
+		private long updateIntervalMs = LocationService.CFG_GET_LOCATION_UPDATE_EACH_MS;
+		private float updateMinDistance = LocationService.CFG_GET_LOCATION_UPDATE_EACH_METERS;
+		private boolean adaptiveSampling = LocationService.CFG_ADAPTIVE_SAMPLING;
+		private int maxLocationHistory = LocationService.CFG_MAX_LOCATION_HISTORY;
+		private boolean showFullReport = LocationService.CFG_SHOW_FULL_REPORT;
+		private boolean filterLocations = LocationService.CFG_FILTER_LOCATIONS;
+
+		/**
+		 * Start from the defaults
+		 */
+		public Builder() {
+		}
+
+		public Builder(TrackerConfig c) {
+			useGps = c.useGps;
+			useNetwork = c.useNetwork;
+			updateMainApplication = c.updateMainApplication;
+			broadcastStatusChange = c.broadcastStatusChange;
+			broadcastLocationChange = c.broadcastLocationChange;
+			updateIntervalMs = c.updateIntervalMs;
+			updateMinDistance = c.updateMinDistance;
+			adaptiveSampling = c.adaptiveSampling;
+			maxLocationHistory = c.maxLocationHistory;
+			showFullReport = c.showFullReport;
+			filterLocations = c.filterLocations;
+		}
+
+		/**
+		 * Take the options found in the extras, others are unchanged
+		 * 
+		 * @param extras
+		 *            may be null
+		 * @return this
+		 */
+		public Builder readExtras(Bundle extras) {
+			if (extras == null) {
+				return this;
+			}
+			useGps = extras.getBoolean(EXTRA_USE_GPS, useGps);
+			useNetwork = extras.getBoolean(EXTRA_USE_NETWORK, useNetwork);
+			updateMainApplication = extras.getBoolean(
+					EXTRA_UPDATE_MAIN_APPLICATION, updateMainApplication);
+			broadcastStatusChange = extras.getBoolean(
+					EXTRA_BROADCAST_STATUS_CHANGE, broadcastStatusChange);
+			broadcastLocationChange = extras.getBoolean(
+					EXTRA_BROADCAST_LOCATION_CHANGE, broadcastLocationChange);
+			updateIntervalMs = extras.getLong(EXTRA_UPDATE_INTERVAL_MS,
+					updateIntervalMs);
+			updateMinDistance = extras.getFloat(EXTRA_UPDATE_MIN_DISTANCE,
+					updateMinDistance);
+			adaptiveSampling = extras.getBoolean(EXTRA_ADAPTIVE_SAMPLING,
+					adaptiveSampling);
+			maxLocationHistory = extras.getInt(EXTRA_MAX_LOCATION_HISTORY,
+					maxLocationHistory);
+			showFullReport = extras.getBoolean(EXTRA_SHOW_FULL_REPORT,
+					showFullReport);
+			filterLocations = extras.getBoolean(EXTRA_FILTER_LOCATIONS,
+					filterLocations);
+			return this;
+		}
+
+		public Builder setUseGps(boolean useGps) {
+			this.useGps = useGps;
+			return this;
+		}
+
+		public Builder setUseNetwork(boolean useNetwork) {
+			this.useNetwork = useNetwork;
+			return this;
+		}
+
+		public Builder setUpdateMainApplication(boolean updateMainApplication) {
+			this.updateMainApplication = updateMainApplication;
+			return this;
+		}
+
+		public Builder setBroadcastStatusChange(boolean broadcastStatusChange) {
+			this.broadcastStatusChange = broadcastStatusChange;
+			return this;
+		}
+
+		public Builder setBroadcastLocationChange(
+				boolean broadcastLocationChange) {
+			this.broadcastLocationChange = broadcastLocationChange;
+			return this;
+		}
+
+		public Builder setUpdateIntervalMs(long updateIntervalMs) {
+			this.updateIntervalMs = updateIntervalMs;
+			return this;
+		}
+
+		public Builder setUpdateMinDistance(float updateMinDistance) {
+			this.updateMinDistance = updateMinDistance;
+			return this;
+		}
+
+		public Builder setAdaptiveSampling(boolean adaptiveSampling) {
+			this.adaptiveSampling = adaptiveSampling;
+			return this;
+		}
+
+		public Builder setMaxLocationHistory(int maxLocationHistory) {
+			this.maxLocationHistory = maxLocationHistory;
+			return this;
+		}
+
+		public Builder setShowFullReport(boolean showFullReport) {
+			this.showFullReport = showFullReport;
+			return this;
+		}
+
+		public Builder setFilterLocations(boolean filterLocations) {
+			this.filterLocations = filterLocations;
+			return this;
+		}
+
+		public TrackerConfig build() {
+			if (maxLocationHistory <= 0) {
+				throw new IllegalArgumentException("Invalid history size : "
+						+ maxLocationHistory);
+			}
+			if (updateIntervalMs < 0 || updateMinDistance < 0) {
+				throw new IllegalArgumentException("Invalid update interval : "
+						+ updateIntervalMs + "ms " + updateMinDistance + "m");
+			}
+			return new TrackerConfig(this);
+		}
+	}
+}
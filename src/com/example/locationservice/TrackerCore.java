@@ -0,0 +1,313 @@
+package com.example.locationservice;
+
+/**
+ * The part of the location tracker that does not need Android: history of
+ * the fixes, running stats, spatial index, filter chain and the counters of
+ * the report. LocationTracker own one and only add what is tied to the
+ * platform (Location objects, provider status, sinks, notifications).
+ *
+ * Fixes are given as primitive values (see Fix) so the same code can be run
+ * on a desktop JVM, ie. by the benchmarks.
+ *
+ * Plain java, no Android dependency. This class is not thread safe.
+ *
+ */
+public class TrackerCore {
+
+	// Last locations of all providers, GPS and network views share it
+	private LocationHistory history;
+
+	// Running stats over the history, kept up to date on add and evict
+	private LocationStats allStats;
+	private LocationStats gpsStats;
+	private LocationStats netStats;
+
+	// Position index of the history, kept up to date on add and evict
+	private final SpatialIndex spatialIndex;
+
+	// Drop bad fixes before they enter the history, null if disabled
+	private FixFilterChain filters;
+
+	// Time of reception of the fixes
+	private final Clock clock;
+
+	// Stats variables ////////
+	private int totalGpsLocRx = 0;
+	private int totalNetLocRx = 0;
+
+	private float maxAccGps = 0;
+	private float maxAccNet = 0;
+
+	private long lastGpsLocUpdate = 0;
+	private long lastNetLocUpdate = 0;
+
+	// Position of the last fix received of each provider, NaN if none
+	private double lastGpsLatitude = Double.NaN;
+	private double lastGpsLongitude = Double.NaN;
+	private double lastNetLatitude = Double.NaN;
+	private double lastNetLongitude = Double.NaN;
+
+	/**
+	 * @param capacity
+	 *            number of fixes kept in the history
+	 * @param spatialCellDeg
+	 *            cell size of the spatial index in degree
+	 * @param filters
+	 *            filter chain or null to keep every fix
+	 */
+	public TrackerCore(int capacity, double spatialCellDeg,
+			FixFilterChain filters) {
+		this(capacity, spatialCellDeg, filters, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of fixes kept in the history
+	 * @param spatialCellDeg
+	 *            cell size of the spatial index in degree
+	 * @param filters
+	 *            filter chain or null to keep every fix
+	 * @param clock
+	 *            give the time a fix is received (ie. ReplayClock)
+	 */
+	public TrackerCore(int capacity, double spatialCellDeg,
+			FixFilterChain filters, Clock clock) {
+
+		this.clock = clock;
+		history = new LocationHistory(capacity);
+		allStats = new LocationStats(capacity);
+		gpsStats = new LocationStats(capacity);
+		netStats = new LocationStats(capacity);
+		spatialIndex = new SpatialIndex(spatialCellDeg);
+		this.filters = filters;
+	}
+
+	/**
+	 * Run a received fix through the filters and add it to the history
+	 *
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @return sequence number of the fix in the history or -1 if it was
+	 *         dropped by the filters
+	 */
+	public long add(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+
+		if (filters != null
+				&& !filters.accept(provider, time, latitude, longitude,
+						accuracy, speed)) {
+			return -1;
+		}
+
+		long seq = stack(provider, time, latitude, longitude, accuracy, speed);
+
+		switch (provider) {
+		case LocationHistory.PROVIDER_GPS:
+			lastGpsLocUpdate = clock.currentTimeMillis();
+			lastGpsLatitude = latitude;
+			lastGpsLongitude = longitude;
+			totalGpsLocRx++;
+			// TODO Add advance GPS stats (ie. Nb of sat etc)
+			if (maxAccGps == 0 || accuracy < maxAccGps)
+				maxAccGps = accuracy;
+			break;
+		case LocationHistory.PROVIDER_NETWORK:
+			lastNetLocUpdate = clock.currentTimeMillis();
+			lastNetLatitude = latitude;
+			lastNetLongitude = longitude;
+			totalNetLocRx++;
+			if (maxAccNet == 0 || accuracy < maxAccNet)
+				maxAccNet = accuracy;
+			break;
+		}
+
+		return seq;
+	}
+
+	/**
+	 * Same as add with the values of a fix, its sequence number is ignored
+	 *
+	 * @param fix
+	 * @return sequence number in the history or -1 if dropped
+	 */
+	public long add(Fix fix) {
+		return add(fix.getProvider(), fix.getTime(), fix.getLatitude(),
+				fix.getLongitude(), fix.getAccuracy(), fix.getSpeed());
+	}
+
+	/**
+	 * Put back a stored fix (ie. after a restart), it is not filtered and
+	 * does not count as received
+	 *
+	 * @return sequence number of the fix in the history
+	 */
+	public long restore(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+		return stack(provider, time, latitude, longitude, accuracy, speed);
+	}
+
+	/**
+	 * Add a fix to the history, the history keep only its capacity and drop
+	 * the oldest one (LILO), stats and index are kept up to date
+	 *
+	 * @return sequence number of the fix in the history
+	 */
+	private long stack(byte provider, long time, double latitude,
+			double longitude, float accuracy, float speed) {
+
+		if (history.isFull()) {
+			// Oldest entry is about to be dropped, remove it from stats
+			long oldest = history.getOldestSequence();
+			float acc = history.getAccuracyAt(oldest);
+			float oldSpeed = history.getSpeedAt(oldest);
+			spatialIndex.remove(oldest, history.getLatitudeAt(oldest),
+					history.getLongitudeAt(oldest));
+			allStats.remove(oldest, acc, oldSpeed);
+			switch (history.getProviderAt(oldest)) {
+			case LocationHistory.PROVIDER_GPS:
+				gpsStats.remove(oldest, acc, oldSpeed);
+				break;
+			case LocationHistory.PROVIDER_NETWORK:
+				netStats.remove(oldest, acc, oldSpeed);
+				break;
+			}
+		}
+
+		long seq = history.add(provider, time, latitude, longitude, accuracy,
+				speed);
+
+		spatialIndex.add(seq, latitude, longitude);
+		allStats.add(seq, accuracy, speed);
+		switch (provider) {
+		case LocationHistory.PROVIDER_GPS:
+			gpsStats.add(seq, accuracy, speed);
+			break;
+		case LocationHistory.PROVIDER_NETWORK:
+			netStats.add(seq, accuracy, speed);
+			break;
+		}
+
+		return seq;
+	}
+
+	/**
+	 * Keep the newest fixes in a history of a new size, sequence numbers do
+	 * not change so readers following them are not lost
+	 *
+	 * @param capacity
+	 */
+	public void resize(int capacity) {
+
+		history = history.resize(capacity);
+
+		allStats = new LocationStats(capacity);
+		gpsStats = new LocationStats(capacity);
+		netStats = new LocationStats(capacity);
+		spatialIndex.clear();
+
+		for (long seq = history.getOldestSequence(); seq < history
+				.getNextSequence(); seq++) {
+			float acc = history.getAccuracyAt(seq);
+			float speed = history.getSpeedAt(seq);
+			allStats.add(seq, acc, speed);
+			switch (history.getProviderAt(seq)) {
+			case LocationHistory.PROVIDER_GPS:
+				gpsStats.add(seq, acc, speed);
+				break;
+			case LocationHistory.PROVIDER_NETWORK:
+				netStats.add(seq, acc, speed);
+				break;
+			}
+			spatialIndex.add(seq, history.getLatitudeAt(seq),
+					history.getLongitudeAt(seq));
+		}
+	}
+
+	/**
+	 * @param filters
+	 *            new filter chain or null to keep every fix
+	 */
+	public void setFilters(FixFilterChain filters) {
+		this.filters = filters;
+	}
+
+	public LocationHistory getHistory() {
+		return history;
+	}
+
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * Fill the report with what this core know
+	 *
+	 * @param b
+	 * @param full
+	 *            add the stats of each provider and of the filters
+	 */
+	public void fillReport(TrackerReport.Builder b, boolean full) {
+
+		if (totalGpsLocRx > 0) {
+			b.gpsLocationAvailable = true;
+			b.lastGpsLocUpdate = lastGpsLocUpdate;
+			b.lastGpsLatitude = lastGpsLatitude;
+			b.lastGpsLongitude = lastGpsLongitude;
+		}
+
+		if (totalNetLocRx > 0) {
+			b.networkLocationAvailable = true;
+			b.lastNetLocUpdate = lastNetLocUpdate;
+			b.lastNetLatitude = lastNetLatitude;
+			b.lastNetLongitude = lastNetLongitude;
+		}
+
+		b.totalGpsLocRx = totalGpsLocRx;
+		b.totalNetLocRx = totalNetLocRx;
+		b.maxAccGps = maxAccGps;
+		b.maxAccNet = maxAccNet;
+		b.locBuffSize = history.getAll().size();
+		b.gpsBuffSize = history.getGps().size();
+		b.netBuffSize = history.getNetwork().size();
+
+		if (full) {
+			fillSummaries(b);
+		}
+	}
+
+	/**
+	 * Add the stats of each provider and of the filters
+	 *
+	 * @param b
+	 */
+	public void fillSummaries(TrackerReport.Builder b) {
+		b.summaries = true;
+		b.allCount = allStats.getCount();
+		b.allAverageAccuracy = allStats.getAverageAccuracy();
+		b.allBestAccuracy = allStats.getBestAccuracy();
+		b.allWorstAccuracy = allStats.getWorstAccuracy();
+		b.allAccuracyStdDev = allStats.getAccuracyStdDev();
+		b.allSpeedCount = allStats.getSpeedCount();
+		b.allAverageSpeed = allStats.getAverageSpeed();
+		b.allSpeedStdDev = allStats.getSpeedStdDev();
+		b.gpsCount = gpsStats.getCount();
+		b.gpsAverageAccuracy = gpsStats.getAverageAccuracy();
+		b.gpsBestAccuracy = gpsStats.getBestAccuracy();
+		b.gpsWorstAccuracy = gpsStats.getWorstAccuracy();
+		b.gpsAccuracyStdDev = gpsStats.getAccuracyStdDev();
+		b.gpsSpeedCount = gpsStats.getSpeedCount();
+		b.gpsAverageSpeed = gpsStats.getAverageSpeed();
+		b.gpsSpeedStdDev = gpsStats.getSpeedStdDev();
+		b.netCount = netStats.getCount();
+		b.netAverageAccuracy = netStats.getAverageAccuracy();
+		b.netBestAccuracy = netStats.getBestAccuracy();
+		b.netWorstAccuracy = netStats.getWorstAccuracy();
+		b.netAccuracyStdDev = netStats.getAccuracyStdDev();
+		b.netSpeedCount = netStats.getSpeedCount();
+		b.netAverageSpeed = netStats.getAverageSpeed();
+		b.netSpeedStdDev = netStats.getSpeedStdDev();
+		if (filters != null) {
+			filters.fillReport(b);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.example.locationservice;
+
+/**
+ * Typed listener for in process consumers bound to the LocationService, this
+ * avoid creating and matching a intent for each location update.
+ *
+ * Callbacks are made on the executor given at registration.
+ *
+ */
+public interface TrackerListener {
+
+	/**
+	 * A new location was added to the tracker
+	 *
+	 * @param fix
+	 * @param dropped
+	 *            number of fix dropped before this one because this listener
+	 *            was too slow
+	 */
+	void onFix(Fix fix, int dropped);
+
+	/**
+	 * Provider status has changed
+	 *
+	 * @param report
+	 *            tracker state after the change
+	 */
+	void onStatusChanged(TrackerReport report);
+}
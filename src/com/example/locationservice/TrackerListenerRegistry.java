@@ -0,0 +1,164 @@
+package com.example.locationservice;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Keep the TrackerListener registered on the service and deliver fixes to
+ * them on their own executor.
+ *
+ * Each listener has a bounded queue, when a listener does not keep up the
+ * oldest fixes are dropped so the tracker never wait and memory stay bounded.
+ * Only the latest status is kept since a listener only care about the last
+ * one.
+ *
+ */
+public class TrackerListenerRegistry {
+
+	private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+	/**
+	 * @param listener
+	 * @param executor
+	 *            where callbacks are made
+	 * @param maxPending
+	 *            number of fix kept for this listener before dropping the
+	 *            oldest one
+	 */
+	public void register(TrackerListener listener, Executor executor,
+			int maxPending) {
+
+		if (maxPending <= 0) {
+			throw new IllegalArgumentException("Invalid queue size : "
+					+ maxPending);
+		}
+
+		unregister(listener);
+		registrations.add(new Registration(listener, executor, maxPending));
+	}
+
+	public void unregister(TrackerListener listener) {
+		for (Registration r : registrations) {
+			if (r.listener == listener) {
+				r.active = false;
+				registrations.remove(r);
+			}
+		}
+	}
+
+	/**
+	 * Check this before creating a Fix, nothing to do if no one listen
+	 *
+	 * @return if at least a listener is registered
+	 */
+	public boolean hasListeners() {
+		return !registrations.isEmpty();
+	}
+
+	public void dispatchFix(Fix fix) {
+		for (Registration r : registrations) {
+			r.offer(fix);
+		}
+	}
+
+	public void dispatchStatus(TrackerReport report) {
+		for (Registration r : registrations) {
+			r.offerStatus(report);
+		}
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Queue of a listener, drained on its executor
+	 */
+	private static class Registration implements Runnable {
+
+		final TrackerListener listener;
+		final Executor executor;
+
+		volatile boolean active = true;
+
+		// Ring of pending fixes, guarded by this
+		private final Fix[] pending;
+		private int head;
+		private int size;
+		private int dropped;
+		private TrackerReport pendingStatus;
+		private boolean scheduled;
+
+		Registration(TrackerListener listener, Executor executor,
+				int maxPending) {
+			this.listener = listener;
+			this.executor = executor;
+			pending = new Fix[maxPending];
+		}
+
+		void offer(Fix fix) {
+			synchronized (this) {
+				if (size == pending.length) {
+					// Listener too slow, forget the oldest
+					pending[head] = null;
+					head = (head + 1) % pending.length;
+					size--;
+					dropped++;
+				}
+				pending[(head + size) % pending.length] = fix;
+				size++;
+			}
+			schedule();
+		}
+
+		void offerStatus(TrackerReport report) {
+			synchronized (this) {
+				pendingStatus = report;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			synchronized (this) {
+				if (scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			executor.execute(this);
+		}
+
+		@Override
+		public void run() {
+
+			while (active) {
+
+				Fix fix = null;
+				int droppedBefore = 0;
+				TrackerReport status;
+
+				synchronized (this) {
+					status = pendingStatus;
+					pendingStatus = null;
+					if (size > 0) {
+						fix = pending[head];
+						pending[head] = null;
+						head = (head + 1) % pending.length;
+						size--;
+						droppedBefore = dropped;
+						dropped = 0;
+					}
+					if (fix == null && status == null) {
+						scheduled = false;
+						return;
+					}
+				}
+
+				if (status != null) {
+					listener.onStatusChanged(status);
+				}
+				if (fix != null && active) {
+					listener.onFix(fix, droppedBefore);
+				}
+			}
+		}
+	}
+}
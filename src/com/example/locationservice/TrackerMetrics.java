@@ -0,0 +1,333 @@
+package com.example.locationservice;
+
+/**
+ * Lightweight instrumentation of the location processing: latency of each
+ * stage of a fix (monotonic clock), age of the fixes when processed, interval
+ * between fixes of each provider and counters of every event.
+ *
+ * Everything is preallocated, recording only update counters so it cost a
+ * few ns on top of the clock reads. A fix is timed with three reads of the
+ * monotonic clock: begin when received, markAdded once in the tracker and end
+ * when everything else (listeners, broadcasts, geofences...) is done. The
+ * wall clock needed for the age of the fixes is derived from the monotonic
+ * one and set again on each snapshot, so it is not read for every fix.
+ *
+ * Must be recorded from a single thread (the one processing locations), the
+ * snapshot can be taken from this thread only too. The end of a fix build a
+ * new snapshot when the last one is older than the refresh interval, other
+ * threads read it with getSnapshot.
+ *
+ * Plain java, no Android dependency.
+ *
+ */
+public class TrackerMetrics {
+
+	// Event counters
+	public static final int EVENT_FIX_GPS = 0;
+	public static final int EVENT_FIX_NETWORK = 1;
+	public static final int EVENT_FIX_OTHER = 2;
+	public static final int EVENT_FIX_DROPPED = 3;
+	public static final int EVENT_STATUS = 4;
+	public static final int EVENT_PROVIDER_ENABLED = 5;
+	public static final int EVENT_PROVIDER_DISABLED = 6;
+	public static final int EVENT_BROADCAST_LOCATION = 7;
+	public static final int EVENT_BROADCAST_STATUS = 8;
+	public static final int EVENT_LISTENER_FIX = 9;
+	public static final int EVENT_GEOFENCE = 10;
+	public static final int EVENT_SAMPLING_CHANGE = 11;
+	public static final int EVENT_SEGMENT = 12;
+
+	static final String[] EVENT_NAMES = { "gps", "net", "other", "dropped",
+			"status", "enabled", "disabled", "bcast loc", "bcast status",
+			"listener", "geofence", "sampling", "segment" };
+
+	// Histograms
+	public static final int HIST_PROCESS = 0;
+	public static final int HIST_ADD = 1;
+	public static final int HIST_NOTIFY = 2;
+	public static final int HIST_FIX_AGE = 3;
+	public static final int HIST_GPS_INTERVAL = 4;
+	public static final int HIST_NET_INTERVAL = 5;
+
+	static final String[] HIST_NAMES = { "Process us", "Add us", "Notify us",
+			"Fix age ms", "GPS interval ms", "Net interval ms" };
+
+	// Percentiles given in the snapshot
+	static final double[] PERCENTILES = { 50, 90, 99 };
+
+	// Latencies are in ns and shown in us
+	private static final long MAX_LATENCY_NS = 60L * 1000 * 1000 * 1000;
+	private static final long MAX_INTERVAL_MS = 24L * 3600 * 1000;
+
+	private final long[] events = new long[EVENT_NAMES.length];
+	private final LatencyHistogram[] histograms = new LatencyHistogram[HIST_NAMES.length];
+
+	// Marks of the fix being processed, 0 if none
+	private long fixStartNanos;
+	private long addedNanos;
+
+	// Wall clock = monotonic clock + offset, in ms
+	private long wallOffsetMillis;
+
+	// Receive time of the last fix of each provider, 0 if none
+	private long lastGpsNanos;
+	private long lastNetNanos;
+
+	private final long refreshMs;
+	private final Clock clock;
+	private volatile Snapshot snapshot;
+	private long snapshotTime;
+	private long snapshotNanos;
+
+	/**
+	 * @param refreshMs
+	 *            snapshot is built again at most once per this interval
+	 */
+	public TrackerMetrics(long refreshMs) {
+		this(refreshMs, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param refreshMs
+	 *            snapshot is built again at most once per this interval
+	 * @param clock
+	 *            the nanos given to begin, markAdded and end must come from
+	 *            this clock
+	 */
+	public TrackerMetrics(long refreshMs, Clock clock) {
+		this.refreshMs = refreshMs;
+		this.clock = clock;
+		setWallClock(clock.currentTimeMillis(), clock.nanoTime());
+		histograms[HIST_PROCESS] = new LatencyHistogram(MAX_LATENCY_NS);
+		histograms[HIST_ADD] = new LatencyHistogram(MAX_LATENCY_NS);
+		histograms[HIST_NOTIFY] = new LatencyHistogram(MAX_LATENCY_NS);
+		histograms[HIST_FIX_AGE] = new LatencyHistogram(MAX_INTERVAL_MS);
+		histograms[HIST_GPS_INTERVAL] = new LatencyHistogram(MAX_INTERVAL_MS);
+		histograms[HIST_NET_INTERVAL] = new LatencyHistogram(MAX_INTERVAL_MS);
+		snapshot(clock.currentTimeMillis());
+	}
+
+	public void count(int event) {
+		events[event]++;
+	}
+
+	/**
+	 * A fix has been received
+	 *
+	 * @param provider
+	 *            LocationHistory.PROVIDER_*
+	 * @param fixTime
+	 *            time of the fix (wall clock ms)
+	 * @param nowNanos
+	 *            monotonic clock (Clock.nanoTime)
+	 */
+	public void begin(byte provider, long fixTime, long nowNanos) {
+
+		fixStartNanos = nowNanos;
+		addedNanos = 0;
+
+		histograms[HIST_FIX_AGE].record(nowNanos / 1000000 + wallOffsetMillis
+				- fixTime);
+
+		switch (provider) {
+		case LocationHistory.PROVIDER_GPS:
+			events[EVENT_FIX_GPS]++;
+			if (lastGpsNanos != 0) {
+				histograms[HIST_GPS_INTERVAL]
+						.record((nowNanos - lastGpsNanos) / 1000000);
+			}
+			lastGpsNanos = nowNanos;
+			break;
+		case LocationHistory.PROVIDER_NETWORK:
+			events[EVENT_FIX_NETWORK]++;
+			if (lastNetNanos != 0) {
+				histograms[HIST_NET_INTERVAL]
+						.record((nowNanos - lastNetNanos) / 1000000);
+			}
+			lastNetNanos = nowNanos;
+			break;
+		default:
+			events[EVENT_FIX_OTHER]++;
+			break;
+		}
+	}
+
+	/**
+	 * The fix is in the tracker
+	 */
+	public void markAdded(long nowNanos) {
+		if (fixStartNanos != 0) {
+			histograms[HIST_ADD].record(nowNanos - fixStartNanos);
+			addedNanos = nowNanos;
+		}
+	}
+
+	/**
+	 * Processing of the fix is done
+	 *
+	 * @param dropped
+	 *            if the fix was filtered
+	 */
+	public void end(boolean dropped, long nowNanos) {
+		if (fixStartNanos != 0) {
+			histograms[HIST_PROCESS].record(nowNanos - fixStartNanos);
+			if (addedNanos != 0) {
+				histograms[HIST_NOTIFY].record(nowNanos - addedNanos);
+			}
+			fixStartNanos = 0;
+		}
+		if (dropped) {
+			events[EVENT_FIX_DROPPED]++;
+		}
+		if (nowNanos - snapshotNanos >= refreshMs * 1000000) {
+			long nowMillis = clock.currentTimeMillis();
+			setWallClock(nowMillis, nowNanos);
+			snapshot = new Snapshot(this);
+			snapshotTime = nowMillis;
+			snapshotNanos = nowNanos;
+		}
+	}
+
+	public long getCount(int event) {
+		return events[event];
+	}
+
+	public LatencyHistogram getHistogram(int histogram) {
+		return histograms[histogram];
+	}
+
+	/**
+	 * @param nowMillis
+	 * @return snapshot of the metrics, the same one is given during the
+	 *         refresh interval
+	 */
+	public Snapshot snapshot(long nowMillis) {
+		if (snapshot == null || nowMillis - snapshotTime >= refreshMs
+				|| nowMillis < snapshotTime) {
+			long nowNanos = clock.nanoTime();
+			setWallClock(nowMillis, nowNanos);
+			snapshot = new Snapshot(this);
+			snapshotTime = nowMillis;
+			snapshotNanos = nowNanos;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Can be called from any thread, never build anything
+	 * 
+	 * @return last snapshot taken, at most refresh interval older than the
+	 *         last fix
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Follow changes of the wall clock (ie. network time update)
+	 */
+	private void setWallClock(long nowMillis, long nowNanos) {
+		wallOffsetMillis = nowMillis - nowNanos / 1000000;
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Immutable copy of the metrics, latencies are given in us
+	 */
+	public static class Snapshot {
+
+		private final long[] events;
+		private final long[] counts;
+		private final long[] means;
+		private final long[][] percentiles;
+		private final long[] maxs;
+
+		Snapshot(TrackerMetrics m) {
+
+			events = new long[m.events.length];
+			System.arraycopy(m.events, 0, events, 0, events.length);
+
+			int n = m.histograms.length;
+			counts = new long[n];
+			means = new long[n];
+			maxs = new long[n];
+			percentiles = new long[n][PERCENTILES.length];
+
+			for (int i = 0; i < n; i++) {
+				LatencyHistogram h = m.histograms[i];
+				long div = i <= HIST_NOTIFY ? 1000 : 1;
+				counts[i] = h.getCount();
+				means[i] = Math.round(h.getMean() / div);
+				maxs[i] = h.getMax() / div;
+				h.getValuesAtPercentiles(PERCENTILES, percentiles[i]);
+				for (int p = 0; p < PERCENTILES.length; p++) {
+					percentiles[i][p] /= div;
+				}
+			}
+		}
+
+		/**
+		 * @param event
+		 *            TrackerMetrics.EVENT_*
+		 */
+		public long getCount(int event) {
+			return events[event];
+		}
+
+		/**
+		 * @param histogram
+		 *            TrackerMetrics.HIST_*
+		 * @return number of values recorded
+		 */
+		public long getValueCount(int histogram) {
+			return counts[histogram];
+		}
+
+		public long getMean(int histogram) {
+			return means[histogram];
+		}
+
+		public long getMedian(int histogram) {
+			return percentiles[histogram][0];
+		}
+
+		public long getPercentile90(int histogram) {
+			return percentiles[histogram][1];
+		}
+
+		public long getPercentile99(int histogram) {
+			return percentiles[histogram][2];
+		}
+
+		public long getMax(int histogram) {
+			return maxs[histogram];
+		}
+
+		/**
+		 * Compact text, a line per histogram and one for the counters
+		 */
+		void appendTo(StringBuilder sb, char lr) {
+
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					continue;
+				}
+				sb.append(HIST_NAMES[i]).append(" p50/90/99/max : ")
+						.append(percentiles[i][0]).append('/')
+						.append(percentiles[i][1]).append('/')
+						.append(percentiles[i][2]).append('/').append(maxs[i])
+						.append(" (").append(counts[i]).append(')').append(lr);
+			}
+
+			sb.append("Events :");
+			for (int i = 0; i < events.length; i++) {
+				if (events[i] != 0) {
+					sb.append(' ').append(EVENT_NAMES[i]).append(' ')
+							.append(events[i]);
+				}
+			}
+			sb.append(lr);
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package com.example.locationservice;
+
+import java.util.Calendar;
+
+/**
+ * Immutable snapshot of the location tracker state used to build the status
+ * report.
+ *
+ * The snapshot only hold primitive values so it is cheap to create and safe
+ * to give to any thread. The arrays of the extended report are shared by the
+ * following reports as long as their counters do not change, never modify
+ * them. The text is only built when asked by appendTo, into a StringBuilder
+ * given by the caller so it can be reused, or by toString that keep it.
+ *
+ */
+public class TrackerReport {
+
+	private static final char LR = '\n'; // Line return for report
+
+	// Reused by toString of every report, guarded by textBuilder
+	private static final StringBuilder textBuilder = new StringBuilder(1024);
+	private static final Calendar textCalendar = Calendar.getInstance();
+
+	// Tracker version this report was taken from
+	final long version;
+
+	final boolean trackGPS;
+	final boolean trackNetwork;
+	final long trackerStarted;
+
+	final boolean gpsLocationAvailable;
+	final long lastGpsLocUpdate;
+	final double lastGpsLatitude;
+	final double lastGpsLongitude;
+
+	final boolean networkLocationAvailable;
+	final long lastNetLocUpdate;
+	final double lastNetLatitude;
+	final double lastNetLongitude;
+
+	final int totalGpsLocRx;
+	final int totalNetLocRx;
+	final float maxAccGps;
+	final float maxAccNet;
+	final int nbOfOutageForGps;
+	final int nbOfOutageForNet;
+
+	final int locBuffSize;
+	final int gpsBuffSize;
+	final int netBuffSize;
+
+	// Extended report, only if summaries is set
+	final boolean summaries;
+	final int allCount;
+	final float allAverageAccuracy;
+	final float allBestAccuracy;
+	final float allWorstAccuracy;
+	final float allAccuracyStdDev;
+	final int allSpeedCount;
+	final float allAverageSpeed;
+	final float allSpeedStdDev;
+	final int gpsCount;
+	final float gpsAverageAccuracy;
+	final float gpsBestAccuracy;
+	final float gpsWorstAccuracy;
+	final float gpsAccuracyStdDev;
+	final int gpsSpeedCount;
+	final float gpsAverageSpeed;
+	final float gpsSpeedStdDev;
+	final int netCount;
+	final float netAverageAccuracy;
+	final float netBestAccuracy;
+	final float netWorstAccuracy;
+	final float netAccuracyStdDev;
+	final int netSpeedCount;
+	final float netAverageSpeed;
+	final float netSpeedStdDev;
+	final GpsStatusSummary gpsStatus;
+
+	// Broadcast dispatcher counters, null if not available
+	final String[] dispatchChannels;
+	final long[] dispatchSent;
+	final long[] dispatchCoalesced;
+	final long dispatchSubmitted;
+
+	// Filter chain counters, null if not available
+	final String[] filterNames;
+	final long[] filterDropped;
+	final long filterReceived;
+
+	// Processing metrics, null if not available
+	final TrackerMetrics.Snapshot metrics;
+
+	// Built on first use, a race only build it twice
+	private String text;
+
+	TrackerReport(Builder b) {
+		version = b.version;
+		trackGPS = b.trackGPS;
+		trackNetwork = b.trackNetwork;
+		trackerStarted = b.trackerStarted;
+		gpsLocationAvailable = b.gpsLocationAvailable;
+		lastGpsLocUpdate = b.lastGpsLocUpdate;
+		lastGpsLatitude = b.lastGpsLatitude;
+		lastGpsLongitude = b.lastGpsLongitude;
+		networkLocationAvailable = b.networkLocationAvailable;
+		lastNetLocUpdate = b.lastNetLocUpdate;
+		lastNetLatitude = b.lastNetLatitude;
+		lastNetLongitude = b.lastNetLongitude;
+		totalGpsLocRx = b.totalGpsLocRx;
+		totalNetLocRx = b.totalNetLocRx;
+		maxAccGps = b.maxAccGps;
+		maxAccNet = b.maxAccNet;
+		nbOfOutageForGps = b.nbOfOutageForGps;
+		nbOfOutageForNet = b.nbOfOutageForNet;
+		locBuffSize = b.locBuffSize;
+		gpsBuffSize = b.gpsBuffSize;
+		netBuffSize = b.netBuffSize;
+		summaries = b.summaries;
+		allCount = b.allCount;
+		allAverageAccuracy = b.allAverageAccuracy;
+		allBestAccuracy = b.allBestAccuracy;
+		allWorstAccuracy = b.allWorstAccuracy;
+		allAccuracyStdDev = b.allAccuracyStdDev;
+		allSpeedCount = b.allSpeedCount;
+		allAverageSpeed = b.allAverageSpeed;
+		allSpeedStdDev = b.allSpeedStdDev;
+		gpsCount = b.gpsCount;
+		gpsAverageAccuracy = b.gpsAverageAccuracy;
+		gpsBestAccuracy = b.gpsBestAccuracy;
+		gpsWorstAccuracy = b.gpsWorstAccuracy;
+		gpsAccuracyStdDev = b.gpsAccuracyStdDev;
+		gpsSpeedCount = b.gpsSpeedCount;
+		gpsAverageSpeed = b.gpsAverageSpeed;
+		gpsSpeedStdDev = b.gpsSpeedStdDev;
+		netCount = b.netCount;
+		netAverageAccuracy = b.netAverageAccuracy;
+		netBestAccuracy = b.netBestAccuracy;
+		netWorstAccuracy = b.netWorstAccuracy;
+		netAccuracyStdDev = b.netAccuracyStdDev;
+		netSpeedCount = b.netSpeedCount;
+		netAverageSpeed = b.netAverageSpeed;
+		netSpeedStdDev = b.netSpeedStdDev;
+		gpsStatus = b.gpsStatus;
+		dispatchChannels = b.dispatchChannels;
+		dispatchSent = b.dispatchSent;
+		dispatchCoalesced = b.dispatchCoalesced;
+		dispatchSubmitted = b.dispatchSubmitted;
+		filterNames = b.filterNames;
+		filterDropped = b.filterDropped;
+		filterReceived = b.filterReceived;
+		metrics = b.metrics;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isTrackGPS() {
+		return trackGPS;
+	}
+
+	public boolean isTrackNetwork() {
+		return trackNetwork;
+	}
+
+	public int getTotalGpsLocRx() {
+		return totalGpsLocRx;
+	}
+
+	public int getTotalNetLocRx() {
+		return totalNetLocRx;
+	}
+
+	public float getMaxAccGps() {
+		return maxAccGps;
+	}
+
+	public float getMaxAccNet() {
+		return maxAccNet;
+	}
+
+	public int getNbOfOutageForGps() {
+		return nbOfOutageForGps;
+	}
+
+	public int getNbOfOutageForNet() {
+		return nbOfOutageForNet;
+	}
+
+	/**
+	 * @return processing metrics or null if not available
+	 */
+	public TrackerMetrics.Snapshot getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Write the report text
+	 *
+	 * @param sb
+	 *            where to write the report
+	 * @param cal
+	 *            calendar used to format date, will be modified
+	 * @return sb
+	 */
+	public StringBuilder appendTo(StringBuilder sb, Calendar cal) {
+
+		sb.append("------------------------").append(LR);
+		sb.append(" Location status report ").append(LR);
+		sb.append("------------------------").append(LR);
+		sb.append("GPS Tracked : ").append(trackGPS).append(LR);
+		sb.append("Net Tracked : ").append(trackNetwork).append(LR);
+		sb.append("Tracker started at : ");
+		appendDate(sb, cal, trackerStarted).append(LR);
+
+		if (gpsLocationAvailable) {
+			sb.append("Last gps loc received at : ");
+			appendDate(sb, cal, lastGpsLocUpdate).append(LR);
+			sb.append("Last GPS location : ");
+			appendLatLng(sb, lastGpsLatitude, lastGpsLongitude).append(LR);
+		}
+
+		if (networkLocationAvailable) {
+			sb.append("Last net loc received at : ");
+			appendDate(sb, cal, lastNetLocUpdate).append(LR);
+			sb.append("Last Network location : ");
+			appendLatLng(sb, lastNetLatitude, lastNetLongitude).append(LR);
+		}
+
+		sb.append("Total GPS Loc received : ").append(totalGpsLocRx).append(LR);
+		sb.append("Total Net Loc received : ").append(totalNetLocRx).append(LR);
+		sb.append("Max acc for GPS : ").append(maxAccGps).append(LR);
+		sb.append("Max acc for Net : ").append(maxAccNet).append(LR);
+		sb.append("Nb of outage for GPS : ").append(nbOfOutageForGps).append(LR);
+		sb.append("Nb of outage for Net : ").append(nbOfOutageForNet).append(LR);
+		sb.append("Loc loc buff size : ").append(locBuffSize).append(LR);
+		sb.append("GPS loc buff size : ").append(gpsBuffSize).append(LR);
+		sb.append("Net loc buff size : ").append(netBuffSize).append(LR);
+
+		if (metrics != null) {
+			sb.append("**** Metrics ****").append(LR);
+			metrics.appendTo(sb, LR);
+		}
+
+		if (summaries) {
+			sb.append(" -- Extended report -- ").append(LR);
+			appendSummary(sb, "All provider", allCount, allAverageAccuracy,
+					allBestAccuracy, allWorstAccuracy, allAccuracyStdDev,
+					allSpeedCount, allAverageSpeed, allSpeedStdDev);
+			appendSummary(sb, "GPS", gpsCount, gpsAverageAccuracy,
+					gpsBestAccuracy, gpsWorstAccuracy, gpsAccuracyStdDev,
+					gpsSpeedCount, gpsAverageSpeed, gpsSpeedStdDev);
+			appendSummary(sb, "Network", netCount, netAverageAccuracy,
+					netBestAccuracy, netWorstAccuracy, netAccuracyStdDev,
+					netSpeedCount, netAverageSpeed, netSpeedStdDev);
+			if (gpsStatus != null) {
+				gpsStatus.appendTo(sb);
+			} else {
+				sb.append("Unable to get GPS status from manager").append(LR);
+			}
+			if (dispatchChannels != null) {
+				appendDispatchStats(sb);
+			}
+			if (filterNames != null) {
+				appendFilterStats(sb);
+			}
+		}
+
+		return sb;
+	}
+
+	private static void appendSummary(StringBuilder sb, String providerName,
+			int count, float averageAccuracy, float bestAccuracy,
+			float worstAccuracy, float accuracyStdDev, int speedCount,
+			float averageSpeed, float speedStdDev) {
+
+		if (count == 0) {
+			sb.append("No sample loc for ").append(providerName).append(LR);
+			return;
+		}
+
+		sb.append(providerName).append(" stats over ").append(count)
+				.append(" last samples").append(LR);
+		sb.append(providerName).append(" average accuracy : ")
+				.append(averageAccuracy).append(LR);
+		sb.append(providerName).append(" max accuracy : ")
+				.append(bestAccuracy).append(LR);
+		sb.append(providerName).append(" worst accuracy : ")
+				.append(worstAccuracy).append(LR);
+		sb.append(providerName).append(" accuracy std dev : ")
+				.append(accuracyStdDev).append(LR);
+
+		if (speedCount != 0) {
+			sb.append(providerName).append(" average speed : ")
+					.append(averageSpeed).append(LR);
+			sb.append(providerName).append(" speed std dev : ")
+					.append(speedStdDev).append(LR);
+		}
+	}
+
+	private void appendDispatchStats(StringBuilder sb) {
+		sb.append("**** Broadcast ****").append(LR);
+		sb.append("Loc update submitted : ").append(dispatchSubmitted)
+				.append(LR);
+		for (int i = 0; i < dispatchChannels.length; i++) {
+			sb.append(dispatchChannels[i]).append(" sent : ")
+					.append(dispatchSent[i]).append(" coalesced : ")
+					.append(dispatchCoalesced[i]).append(LR);
+		}
+	}
+
+	private void appendFilterStats(StringBuilder sb) {
+		sb.append("**** Filters ****").append(LR);
+		sb.append("Loc received : ").append(filterReceived).append(LR);
+		for (int i = 0; i < filterNames.length; i++) {
+			sb.append(filterNames[i]).append(" dropped : ")
+					.append(filterDropped[i]).append(LR);
+		}
+	}
+
+	/**
+	 * The text is built once per report, into a builder shared by all the
+	 * reports
+	 */
+	@Override
+	public String toString() {
+		String t = text;
+		if (t == null) {
+			synchronized (textBuilder) {
+				textBuilder.setLength(0);
+				t = appendTo(textBuilder, textCalendar).toString();
+			}
+			text = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Append date as yyyy-MM-dd HH:mm:ss without creating any object
+	 */
+	private static StringBuilder appendDate(StringBuilder sb, Calendar cal,
+			long time) {
+		cal.setTimeInMillis(time);
+		sb.append(cal.get(Calendar.YEAR)).append('-');
+		appendTwoDigits(sb, cal.get(Calendar.MONTH) + 1).append('-');
+		appendTwoDigits(sb, cal.get(Calendar.DAY_OF_MONTH)).append(' ');
+		appendTwoDigits(sb, cal.get(Calendar.HOUR_OF_DAY)).append(':');
+		appendTwoDigits(sb, cal.get(Calendar.MINUTE)).append(':');
+		return appendTwoDigits(sb, cal.get(Calendar.SECOND));
+	}
+
+	private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+		if (value < 10) {
+			sb.append('0');
+		}
+		return sb.append(value);
+	}
+
+	/**
+	 * Same format as LatLng.toString
+	 */
+	private static StringBuilder appendLatLng(StringBuilder sb, double lat,
+			double lng) {
+		return sb.append("lat/lng: (").append(lat).append(',').append(lng)
+				.append(')');
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Copy of the GPS engine status
+	 */
+	public static class GpsStatusSummary {
+
+		final int timeToFirstFix;
+		final int maxSatellites;
+		final int[] prns;
+		final float[] snrs;
+		final float[] elevations;
+		final float[] azimuths;
+		final boolean[] usedInFix;
+
+		GpsStatusSummary(int timeToFirstFix, int maxSatellites, int[] prns,
+				float[] snrs, float[] elevations, float[] azimuths,
+				boolean[] usedInFix) {
+			this.timeToFirstFix = timeToFirstFix;
+			this.maxSatellites = maxSatellites;
+			this.prns = prns;
+			this.snrs = snrs;
+			this.elevations = elevations;
+			this.azimuths = azimuths;
+			this.usedInFix = usedInFix;
+		}
+
+		public int getNbOfSatellites() {
+			return prns.length;
+		}
+
+		void appendTo(StringBuilder sb) {
+			sb.append("**** GPS Status ****").append(LR);
+			sb.append("Time for first GPS fix : ").append(timeToFirstFix)
+					.append(LR);
+			sb.append("Max GPS sat : ").append(maxSatellites).append(LR);
+			for (int i = 0; i < prns.length; i++) {
+				sb.append("GPS Sat info : prn ").append(prns[i])
+						.append(" snr ").append(snrs[i]).append(" elev ")
+						.append(elevations[i]).append(" azim ")
+						.append(azimuths[i]).append(" used ")
+						.append(usedInFix[i]).append(LR);
+			}
+			sb.append("Found : ").append(prns.length).append(" GPS sat")
+					.append(LR);
+			sb.append("**** End of GPS Status **** ").append(LR);
+		}
+	}
+
+	/**
+	 * Mutable holder filled by the tracker before creating the report, can
+	 * be reused for the next one
+	 */
+	static class Builder {
+		long version;
+		boolean trackGPS;
+		boolean trackNetwork;
+		long trackerStarted;
+		boolean gpsLocationAvailable;
+		long lastGpsLocUpdate;
+		double lastGpsLatitude;
+		double lastGpsLongitude;
+		boolean networkLocationAvailable;
+		long lastNetLocUpdate;
+		double lastNetLatitude;
+		double lastNetLongitude;
+		int totalGpsLocRx;
+		int totalNetLocRx;
+		float maxAccGps;
+		float maxAccNet;
+		int nbOfOutageForGps;
+		int nbOfOutageForNet;
+		int locBuffSize;
+		int gpsBuffSize;
+		int netBuffSize;
+		boolean summaries;
+		int allCount;
+		float allAverageAccuracy;
+		float allBestAccuracy;
+		float allWorstAccuracy;
+		float allAccuracyStdDev;
+		int allSpeedCount;
+		float allAverageSpeed;
+		float allSpeedStdDev;
+		int gpsCount;
+		float gpsAverageAccuracy;
+		float gpsBestAccuracy;
+		float gpsWorstAccuracy;
+		float gpsAccuracyStdDev;
+		int gpsSpeedCount;
+		float gpsAverageSpeed;
+		float gpsSpeedStdDev;
+		int netCount;
+		float netAverageAccuracy;
+		float netBestAccuracy;
+		float netWorstAccuracy;
+		float netAccuracyStdDev;
+		int netSpeedCount;
+		float netAverageSpeed;
+		float netSpeedStdDev;
+		GpsStatusSummary gpsStatus;
+		String[] dispatchChannels;
+		long[] dispatchSent;
+		long[] dispatchCoalesced;
+		long dispatchSubmitted;
+		String[] filterNames;
+		long[] filterDropped;
+		long filterReceived;
+		TrackerMetrics.Snapshot metrics;
+
+		TrackerReport build() {
+			return new TrackerReport(this);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.example.locationservice;
+
+import com.example.locationservice.LocationHistory.HistoryView;
+
+import android.location.Location;
+
+/**
+ * Immutable state of the location tracker, published by the tracker through
+ * a single volatile reference after every change.
+ *
+ * Any thread can read it without locking and will always see a consistent
+ * state: the history views, last locations and report values all come from
+ * the same tracker version. Taking the snapshot copy nothing of the history
+ * (see LocationHistory.snapshot) and only the primitive values of the report,
+ * reading it never touch the tracker. The report text is built on the first
+ * toString.
+ *
+ * The Location objects are shared with the tracker, do not modify them.
+ *
+ */
+public class TrackerSnapshot {
+
+	private final long version;
+
+	private final boolean trackGPS;
+	private final boolean trackNetwork;
+	private final int gpsProviderStatus;
+	private final int networkProviderStatus;
+
+	private final Location lastLocation;
+	private final Location lastGpsLocation;
+	private final Location lastNetworkLocation;
+	private final Location lastMostPreciseLocation;
+	private final Location fusedLocation;
+
+	private final HistorySnapshot history;
+	private final HistoryView gpsHistory;
+	private final HistoryView networkHistory;
+
+	private final TrackerReport report;
+
+	TrackerSnapshot(Builder b) {
+		version = b.version;
+		trackGPS = b.trackGPS;
+		trackNetwork = b.trackNetwork;
+		gpsProviderStatus = b.gpsProviderStatus;
+		networkProviderStatus = b.networkProviderStatus;
+		lastLocation = b.lastLocation;
+		lastGpsLocation = b.lastGpsLocation;
+		lastNetworkLocation = b.lastNetworkLocation;
+		lastMostPreciseLocation = b.lastMostPreciseLocation;
+		fusedLocation = b.fusedLocation;
+		history = b.history;
+		gpsHistory = b.gpsHistory;
+		networkHistory = b.networkHistory;
+		report = b.report;
+	}
+
+	/**
+	 * @return version of the tracker this snapshot was taken from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isTrackGPS() {
+		return trackGPS;
+	}
+
+	public boolean isTrackNetwork() {
+		return trackNetwork;
+	}
+
+	public int getGpsProviderStatus() {
+		return gpsProviderStatus;
+	}
+
+	public int getNetworkProviderStatus() {
+		return networkProviderStatus;
+	}
+
+	public boolean isLocationAvailable() {
+		return lastLocation != null;
+	}
+
+	public boolean isGpsLocationAvailable() {
+		return lastGpsLocation != null;
+	}
+
+	public boolean isNetworkLocationAvailable() {
+		return lastNetworkLocation != null;
+	}
+
+	public boolean isMostPreciseLocationAvailable() {
+		return lastMostPreciseLocation != null;
+	}
+
+	public Location getLastLocation() {
+		return lastLocation;
+	}
+
+	public Location getLastGpsLocation() {
+		return lastGpsLocation;
+	}
+
+	public Location getLastNetworkLocation() {
+		return lastNetworkLocation;
+	}
+
+	public Location getLastMostPreciseLocation() {
+		return lastMostPreciseLocation;
+	}
+
+	/**
+	 * @return fused location (provider "fused") or null if no location
+	 *         received yet
+	 */
+	public Location getFusedLocation() {
+		return fusedLocation;
+	}
+
+	/**
+	 * @return last locations of all providers
+	 */
+	public HistorySnapshot getHistory() {
+		return history;
+	}
+
+	public HistoryView getGpsHistory() {
+		return gpsHistory;
+	}
+
+	public HistoryView getNetworkHistory() {
+		return networkHistory;
+	}
+
+	/**
+	 * @return report values taken with this snapshot
+	 */
+	public TrackerReport getReport() {
+		return report;
+	}
+
+	/**
+	 * @return report text, built once per snapshot
+	 */
+	@Override
+	public String toString() {
+		return report.toString();
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Mutable holder filled by the tracker before publishing a snapshot
+	 */
+	static class Builder {
+		long version;
+		boolean trackGPS;
+		boolean trackNetwork;
+		int gpsProviderStatus;
+		int networkProviderStatus;
+		Location lastLocation;
+		Location lastGpsLocation;
+		Location lastNetworkLocation;
+		Location lastMostPreciseLocation;
+		Location fusedLocation;
+		HistorySnapshot history;
+		HistoryView gpsHistory;
+		HistoryView networkHistory;
+		TrackerReport report;
+
+		TrackerSnapshot build() {
+			return new TrackerSnapshot(this);
+		}
+	}
+}
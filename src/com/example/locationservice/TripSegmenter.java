@@ -0,0 +1,392 @@
+package com.example.locationservice;
+
+/**
+ * Cut the fix stream in trips and stay points in a single pass, so a
+ * consumer can work on a few segments instead of every fix.
+ *
+ * A stay is a place where the device remained within stayRadius meters for
+ * at least minStayMs: fixes are grouped in a cluster around the running
+ * mean of their positions, a fix too far from it start a new cluster at its
+ * position and a cluster old enough become a stay. Between two stays the
+ * device is on a trip, which start at the last fix of the stay left and end
+ * at the first fix of the next stay. A gap of more than maxGapMs without
+ * fix (or flush) end the open segment.
+ *
+ * Only a fixed number of values is kept (open segment, current cluster and
+ * the trip values when the cluster started), nothing is allocated except
+ * the Segment given at the end of a segment.
+ *
+ * Fixes must come in order of time, older ones are ignored. This class is
+ * not thread safe. Plain java, no Android dependency.
+ *
+ */
+public class TripSegmenter {
+
+	public static final int SEGMENT_TRIP = 1;
+	public static final int SEGMENT_STAY = 2;
+
+	// No segment yet (first cluster not decided)
+	private static final int NONE = 0;
+
+	/**
+	 * Receive the segments, called from process and flush
+	 */
+	public interface Listener {
+
+		/**
+		 * @param type
+		 *            SEGMENT_TRIP or SEGMENT_STAY
+		 * @param time
+		 *            when the segment started, may be before the current fix
+		 */
+		void onSegmentStart(int type, long time, double latitude,
+				double longitude);
+
+		void onSegmentEnd(Segment segment);
+	}
+
+	private final double stayRadius;
+	private final long minStayMs;
+	private final long maxGapMs;
+	private final float maxAccuracy;
+
+	private int state = NONE;
+
+	// Last fix used, lastTime is Long.MIN_VALUE if none
+	private long lastTime = Long.MIN_VALUE;
+	private double lastLat;
+	private double lastLon;
+
+	// Trip, counted since its start (or since the first fix when NONE)
+	private long tripStartTime;
+	private double tripStartLat;
+	private double tripStartLon;
+	private double tripDistance;
+	private float tripMaxSpeed;
+	private int tripFixes;
+
+	// Current cluster, a stay when state is SEGMENT_STAY
+	private long clusterStartTime;
+	private double clusterStartLat;
+	private double clusterStartLon;
+	private double clusterSumLat;
+	private double clusterSumLon;
+	private int clusterFixes;
+	private long clusterLastTime;
+
+	// Trip values when the cluster started, the trip end there if the
+	// cluster become a stay
+	private double clusterTripDistance;
+	private float clusterTripMaxSpeed;
+	private int clusterTripFixes;
+
+	/**
+	 * @param stayRadius
+	 *            in meters, a device staying within it is not moving
+	 * @param minStayMs
+	 *            time within the radius before it is a stay
+	 * @param maxGapMs
+	 *            time without fix that end the open segment
+	 * @param maxAccuracy
+	 *            fixes less precise than this are ignored, in meters
+	 */
+	public TripSegmenter(double stayRadius, long minStayMs, long maxGapMs,
+			float maxAccuracy) {
+		if (!(stayRadius > 0) || minStayMs < 0 || maxGapMs <= 0) {
+			throw new IllegalArgumentException("Invalid segmenter settings");
+		}
+		this.stayRadius = stayRadius;
+		this.minStayMs = minStayMs;
+		this.maxGapMs = maxGapMs;
+		this.maxAccuracy = maxAccuracy;
+	}
+
+	/**
+	 * @return SEGMENT_TRIP, SEGMENT_STAY or 0 if not known yet
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Process a fix
+	 *
+	 * @param speed
+	 *            speed or NaN if not available
+	 * @param listener
+	 *            receive the segments started or ended by this fix
+	 */
+	public void process(long time, double latitude, double longitude,
+			float accuracy, float speed, Listener listener) {
+
+		if (accuracy > maxAccuracy) {
+			return;
+		}
+
+		if (lastTime != Long.MIN_VALUE) {
+			if (time < lastTime) {
+				return; // Late fix
+			}
+			if (time - lastTime > maxGapMs) {
+				flush(listener);
+			}
+		}
+
+		if (lastTime == Long.MIN_VALUE) {
+			startTrip(time, latitude, longitude);
+			startCluster(time, latitude, longitude);
+			setLast(time, latitude, longitude);
+			return;
+		}
+
+		double d = SpatialIndex.distance(lastLat, lastLon, latitude,
+				longitude);
+
+		if (state == SEGMENT_STAY) {
+			if (inCluster(latitude, longitude)) {
+				addToCluster(time, latitude, longitude);
+				setLast(time, latitude, longitude);
+				return;
+			}
+
+			// Leaving, the trip start at the last fix of the stay
+			listener.onSegmentEnd(newStay());
+			state = SEGMENT_TRIP;
+			startTrip(lastTime, lastLat, lastLon);
+			listener.onSegmentStart(SEGMENT_TRIP, lastTime, lastLat, lastLon);
+			addToTrip(time, d, speed);
+			startCluster(time, latitude, longitude);
+			setLast(time, latitude, longitude);
+			return;
+		}
+
+		addToTrip(time, d, speed);
+
+		if (inCluster(latitude, longitude)) {
+			addToCluster(time, latitude, longitude);
+			if (time - clusterStartTime >= minStayMs) {
+				if (state == SEGMENT_TRIP) {
+					listener.onSegmentEnd(newTrip(clusterStartTime,
+							clusterStartLat, clusterStartLon,
+							clusterTripDistance, clusterTripMaxSpeed,
+							clusterTripFixes));
+				}
+				state = SEGMENT_STAY;
+				listener.onSegmentStart(SEGMENT_STAY, clusterStartTime,
+						clusterStartLat, clusterStartLon);
+			}
+		} else {
+			if (state == NONE) {
+				state = SEGMENT_TRIP;
+				listener.onSegmentStart(SEGMENT_TRIP, tripStartTime,
+						tripStartLat, tripStartLon);
+			}
+			startCluster(time, latitude, longitude);
+		}
+
+		setLast(time, latitude, longitude);
+	}
+
+	/**
+	 * End the open segment (ie. tracking stopped), the next fix start again
+	 * from scratch
+	 *
+	 * @param listener
+	 */
+	public void flush(Listener listener) {
+
+		if (state == SEGMENT_TRIP) {
+			listener.onSegmentEnd(newTrip(lastTime, lastLat, lastLon,
+					tripDistance, tripMaxSpeed, tripFixes));
+		} else if (state == SEGMENT_STAY) {
+			listener.onSegmentEnd(newStay());
+		}
+
+		state = NONE;
+		lastTime = Long.MIN_VALUE;
+	}
+
+	private void setLast(long time, double latitude, double longitude) {
+		lastTime = time;
+		lastLat = latitude;
+		lastLon = longitude;
+	}
+
+	private void startTrip(long time, double latitude, double longitude) {
+		tripStartTime = time;
+		tripStartLat = latitude;
+		tripStartLon = longitude;
+		tripDistance = 0;
+		tripMaxSpeed = 0;
+		tripFixes = 1;
+	}
+
+	private void addToTrip(long time, double distance, float speed) {
+		tripDistance += distance;
+		tripFixes++;
+		if (Float.isNaN(speed) && time > lastTime) {
+			// Implied by the move since the last fix
+			speed = (float) (distance * 1000 / (time - lastTime));
+		}
+		if (speed > tripMaxSpeed) {
+			tripMaxSpeed = speed;
+		}
+	}
+
+	private void startCluster(long time, double latitude, double longitude) {
+		clusterStartTime = time;
+		clusterStartLat = latitude;
+		clusterStartLon = longitude;
+		clusterSumLat = latitude;
+		clusterSumLon = longitude;
+		clusterFixes = 1;
+		clusterLastTime = time;
+		clusterTripDistance = tripDistance;
+		clusterTripMaxSpeed = tripMaxSpeed;
+		clusterTripFixes = tripFixes;
+	}
+
+	private boolean inCluster(double latitude, double longitude) {
+		return SpatialIndex.distance(clusterSumLat / clusterFixes,
+				clusterSumLon / clusterFixes, latitude, longitude) <= stayRadius;
+	}
+
+	private void addToCluster(long time, double latitude, double longitude) {
+		clusterSumLat += latitude;
+		clusterSumLon += longitude;
+		clusterFixes++;
+		clusterLastTime = time;
+	}
+
+	private Segment newTrip(long endTime, double endLat, double endLon,
+			double distance, float maxSpeed, int fixes) {
+		return new Segment(SEGMENT_TRIP, tripStartTime, endTime, tripStartLat,
+				tripStartLon, endLat, endLon, distance, maxSpeed, fixes);
+	}
+
+	private Segment newStay() {
+		double lat = clusterSumLat / clusterFixes;
+		double lon = clusterSumLon / clusterFixes;
+		return new Segment(SEGMENT_STAY, clusterStartTime, clusterLastTime,
+				lat, lon, lat, lon, 0, Float.NaN, clusterFixes);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Summary of a ended segment, a stay start and end at its center
+	 */
+	public static class Segment {
+
+		private final int type;
+		private final long startTime;
+		private final long endTime;
+		private final double startLatitude;
+		private final double startLongitude;
+		private final double endLatitude;
+		private final double endLongitude;
+		private final double distance;
+		private final float maxSpeed;
+		private final int fixCount;
+
+		Segment(int type, long startTime, long endTime, double startLatitude,
+				double startLongitude, double endLatitude,
+				double endLongitude, double distance, float maxSpeed,
+				int fixCount) {
+			this.type = type;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.startLatitude = startLatitude;
+			this.startLongitude = startLongitude;
+			this.endLatitude = endLatitude;
+			this.endLongitude = endLongitude;
+			this.distance = distance;
+			this.maxSpeed = maxSpeed;
+			this.fixCount = fixCount;
+		}
+
+		/**
+		 * @return SEGMENT_TRIP or SEGMENT_STAY
+		 */
+		public int getType() {
+			return type;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public long getEndTime() {
+			return endTime;
+		}
+
+		public long getDuration() {
+			return endTime - startTime;
+		}
+
+		public double getStartLatitude() {
+			return startLatitude;
+		}
+
+		public double getStartLongitude() {
+			return startLongitude;
+		}
+
+		public double getEndLatitude() {
+			return endLatitude;
+		}
+
+		public double getEndLongitude() {
+			return endLongitude;
+		}
+
+		/**
+		 * @return length of the path in meters, 0 for a stay
+		 */
+		public double getDistance() {
+			return distance;
+		}
+
+		/**
+		 * @return in m/s, NaN for a stay or a trip without duration
+		 */
+		public float getAverageSpeed() {
+			long duration = getDuration();
+			if (type != SEGMENT_TRIP || duration <= 0) {
+				return Float.NaN;
+			}
+			return (float) (distance * 1000 / duration);
+		}
+
+		/**
+		 * @return in m/s (reported or implied by the moves), NaN for a stay
+		 */
+		public float getMaxSpeed() {
+			return maxSpeed;
+		}
+
+		/**
+		 * @return number of fixes in the segment
+		 */
+		public int getFixCount() {
+			return fixCount;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(type == SEGMENT_TRIP ? "Trip " : "Stay ")
+					.append(getDuration() / 1000).append(" s, ")
+					.append(fixCount).append(" fixes");
+			if (type == SEGMENT_TRIP) {
+				sb.append(", ").append(Math.round(distance)).append(" m, avg ")
+						.append(getAverageSpeed()).append(" m/s, max ")
+						.append(maxSpeed).append(" m/s");
+			} else {
+				sb.append(" at ").append(startLatitude).append(',')
+						.append(startLongitude);
+			}
+			return sb.toString();
+		}
+	}
+}